@@ -10,6 +10,7 @@ import javax.imageio.ImageIO;
 
 import com.musicg.wave.Wave;
 import com.musicg.wave.extension.Spectrogram;
+import com.musicg.wave.extension.SpectrogramMatrix;
 
 public class GraphicRender{
 	
@@ -135,7 +136,7 @@ public class GraphicRender{
 	 * @see	RGB graphic rendered
 	 */
 	public void renderSpectrogram(Spectrogram spectrogram,String filename){
-		renderSpectrogramData(spectrogram.getNormalizedSpectrogramData(),filename);
+		renderSpectrogramMatrix(spectrogram.getNormalizedSpectrogramMatrix(),filename);
 	}
 	
 	/**
@@ -147,10 +148,22 @@ public class GraphicRender{
 	 * @see	RGB graphic rendered
 	 */
 	public void renderSpectrogramData(double[][] spectrogramData, String filename) {
+		renderSpectrogramMatrix(spectrogramData==null ? null : SpectrogramMatrix.fromArray(spectrogramData), filename);
+	}
+	
+	/**
+	 * 
+	 * Render a spectrogram matrix
+	 * 	 
+	 * @param spectrogramData	spectrogramData[time][frequency]=intensity, which time is the x-axis, frequency is the y-axis, intensity is the color darkness
+	 * @param filename	output file
+	 * @see	RGB graphic rendered
+	 */
+	public void renderSpectrogramMatrix(SpectrogramMatrix spectrogramData, String filename) {
 		
 		if (spectrogramData!=null){
-			int width=spectrogramData.length;
-			int height=spectrogramData[0].length;
+			int width=spectrogramData.getNumRows();
+			int height=spectrogramData.getNumColumns();
 			
 			BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 			for (int i=0; i<width; i++){
@@ -166,7 +179,7 @@ public class GraphicRender{
 							value=0xFF0000;	// red
 						}
 						else{
-							value=255-(int)(spectrogramData[i][j]*255);
+							value=255-(int)(spectrogramData.get(i,j)*255);
 						}
 						bufferedImage.setRGB(i, height-1-j, value<<16|value<<8|value);
 					}
@@ -16,12 +16,14 @@
 
 package com.musicg.api;
 
+import java.util.Arrays;
+
 import com.musicg.math.rank.ArrayRankDouble;
 import com.musicg.math.statistics.StandardDeviation;
 import com.musicg.math.statistics.ZeroCrossingRate;
-import com.musicg.wave.Wave;
 import com.musicg.wave.WaveHeader;
 import com.musicg.wave.extension.Spectrogram;
+import com.musicg.wave.extension.SpectrogramMatrix;
 
 /**
  * Api for detecting different sounds
@@ -42,10 +44,15 @@ public class DetectionApi {
 	protected int minNumZeroCross, maxNumZeroCross;
 	protected int lowerBoundary, upperBoundary;
 	protected int numRobust;
+	protected boolean bandLimited;	// compute the frequency units between the boundaries only
+	private StreamingDetector streamingDetector;	// buffers of the last block size
+	private final boolean isArrayRuleOverridden;	// a subclass overrides a rule taking the spectrum or the amplitudes
+	private final boolean isMatrixDeviationOverridden;	// the deviation rule is overridden for a SpectrogramMatrix only
 	
 	/**
-	 * Constructor, support mono Wav only, 4096 sample byte size for 44100Hz
-	 * 16bit mono wav
+	 * Constructor, 4096 sample byte size for 44100Hz 16bit mono wav
+	 * 
+	 * Multi channel audio bytes are downmixed, 8, 16, 24, 32 bit and float samples are supported
 	 * 
 	 * @param sampleRate
 	 *            Sample rate of the input audio byte
@@ -53,11 +60,22 @@ public class DetectionApi {
 	 *            Bit size of a sample of the input audio byte
 	 */
 	public DetectionApi(WaveHeader waveHeader) {
-		if (waveHeader.getChannels() == 1) {
+		Class<?> type = getClass();
+		isMatrixDeviationOverridden = isOverridden(type, "isPassedStandardDeviation", SpectrogramMatrix.class)
+				&& !isOverridden(type, "isPassedStandardDeviation", double[][].class);
+		isArrayRuleOverridden = isOverridden(type, "isPassedStandardDeviation", SpectrogramMatrix.class)
+				|| isOverridden(type, "isPassedStandardDeviation", double[][].class)
+				|| isOverridden(type, "normalizeSpectrogramData", SpectrogramMatrix.class)
+				|| isOverridden(type, "normalizeSpectrogramData", double[][].class)
+				|| isOverridden(type, "isPassedIntensity", double[].class)
+				|| isOverridden(type, "isPassedFrequency", double[].class)
+				|| isOverridden(type, "isPassedZeroCrossingRate", short[].class);
+
+		if (waveHeader.isSupportedFormat()) {
 			this.waveHeader = waveHeader;
 			init();
 		} else {
-			System.err.println("DetectionAPI supports mono Wav only");
+			System.err.println("DetectionAPI does not support the format of the wave");
 		}
 	}
 
@@ -71,128 +89,186 @@ public class DetectionApi {
 	/**
 	 * Determine the audio bytes contains a specific sound or not
 	 * 
+	 * The buffers are kept for the next call with the same size, use a StreamingDetector for
+	 * processing a stream of blocks.
+	 * 
 	 * @param audioBytes
 	 *            input audio byte
 	 * @return
 	 */
 	public boolean isSpecificSound(byte[] audioBytes) {
 
-		int bytesPerSample = waveHeader.getBitsPerSample() / 8;
-		int numSamples = audioBytes.length / bytesPerSample;
+		int numSamples = audioBytes.length / waveHeader.getSampleByteSize();
 
 		// numSamples required to be a power of 2
 		if (numSamples > 0 && Integer.bitCount(numSamples) == 1) {
-			fftSampleSize = numSamples;
-			numFrequencyUnit = fftSampleSize / 2;
-
-			// frequency could be caught within the half of nSamples according to Nyquist theory
-			unitFrequency = (double) waveHeader.getSampleRate() / 2 / numFrequencyUnit;
+			if (streamingDetector == null || streamingDetector.getBlockSize() != numSamples) {
+				try {
+					streamingDetector = new StreamingDetector(this, numSamples);
+				} catch (IllegalArgumentException e) {
+					System.err.println("is error: the wave needed to be higher sample rate");
+					return false;
+				}
+			}
+			return streamingDetector.isSpecificSound(audioBytes, 0);
+		} else {
+			System.out.println("The sample size must be a power of 2");
+		}
 
-			// set boundary
-			lowerBoundary = (int) (highPass / unitFrequency);
-			upperBoundary = (int) (lowPass / unitFrequency);
-			// end set boundary
+		return false;
+	}
 
-			Wave wave = new Wave(waveHeader, audioBytes);	// audio bytes of this frame
-			short[] amplitudes = wave.getSampleAmplitudes();
+	/**
+	 * Determine a block contains a specific sound or not, by the features computed for the block
+	 * 
+	 * When a subclass overrides a rule taking the spectrum, the spectrogram or the amplitudes, the rules
+	 * are evaluated on copies of the arrays of the block instead of the features, so the override is used.
+	 * 
+	 * @param frameFeatures
+	 *            features of the block
+	 * @return
+	 */
+	public boolean isSpecificSound(FrameFeatures frameFeatures) {
 
-			// spectrum for the clip
-			Spectrogram spectrogram = wave.getSpectrogram(fftSampleSize, 0);
-			
-			double[][] spectrogramData = spectrogram.getAbsoluteSpectrogramData();
+		setFrameSize(frameFeatures.getNumSamples());
 
-			// since fftSampleSize==numSamples, there're only one spectrum which is thisFrameSpectrogramData[0]
-			double[] spectrum = spectrogramData[0];
+		if (frameFeatures.containsFrequencyUnits(lowerBoundary, upperBoundary)) {
 
-			int frequencyUnitRange = upperBoundary - lowerBoundary + 1;		
-			double[] rangedSpectrum = new double[frequencyUnitRange];
-			System.arraycopy(spectrum, lowerBoundary, rangedSpectrum, 0, rangedSpectrum.length);
-			
-			if (frequencyUnitRange <= spectrum.length) {
+			if (isArrayRuleOverridden) {
+				return isPassedArrayRules(frameFeatures);
+			}
 
-				if (isPassedIntensity(spectrum)){
-					if (isPassedStandardDeviation(spectrogramData)){
-						if (isPassedZeroCrossingRate(amplitudes)){
-							if (isPassedFrequency(rangedSpectrum)){
-								return true;
-							}
+			if (isPassedIntensity(frameFeatures.getIntensity())){
+				if (isPassedStandardDeviation(frameFeatures.getStandardDeviation(numRobust))){
+					if (isPassedZeroCrossingRate(frameFeatures.getNumZeroCrosses())){
+						if (isPassedFrequency(frameFeatures.getMaxIntensityOffset(lowerBoundary, upperBoundary) * unitFrequency)){
+							return true;
 						}
 					}
 				}
-				
-				/*
-				// run all checking for debug
-				boolean isPassedChecking = true;
-				// rule 1: check the intensity of this frame
-				isPassedChecking &= isPassedIntensity(spectrum);
-				// rule 2: check the frequency of this frame
-				isPassedChecking &= isPassedFrequency(rangedSpectrum);
-				// rule 3: check the zero crossing rate of this frame
-				isPassedChecking &= isPassedZeroCrossingRate(amplitudes);
-				// rule 4: check the standard deviation of this frame with reference of previous frames
-				isPassedChecking &= isPassedStandardDeviation(spectrogramData);
-				System.out.println("Result: " + isPassedChecking + "\n");
-				return isPassedChecking;
-				// end run all checking for debug
-			 */
-				
-			} else {
-				System.err
-						.println("is error: the wave needed to be higher sample rate");
 			}
 
 		} else {
-			System.out.println("The sample size must be a power of 2");
+			System.err
+					.println("is error: the wave needed to be higher sample rate");
 		}
 
 		return false;
 	}
 
-	protected void normalizeSpectrogramData(double[][] spectrogramData) {
+	private boolean isPassedArrayRules(FrameFeatures frameFeatures) {
+		// each rule gets its own copy, an overridden rule may change the array
+		double[] spectrum = frameFeatures.getSpectrum();
+		int firstFrequencyUnit = frameFeatures.getFirstFrequencyUnit();
+		double[] rangedSpectrum = Arrays.copyOfRange(spectrum, lowerBoundary - firstFrequencyUnit,
+				upperBoundary - firstFrequencyUnit + 1);
 
-		// normalization of absoultSpectrogram
-		// set max and min amplitudes
-		double maxAmp = Double.MIN_VALUE;
-		double minAmp = Double.MAX_VALUE;
-		for (int i = 0; i < spectrogramData.length; i++) {
-			for (int j = 0; j < spectrogramData[i].length; j++){
-				if (spectrogramData[i][j] > maxAmp) {
-					maxAmp = spectrogramData[i][j];
-				} else if (spectrogramData[i][j] < minAmp) {
-					minAmp = spectrogramData[i][j];
+		if (isPassedIntensity(spectrum.clone())){
+			double[][] spectrogramData = new double[][] { spectrum.clone() };
+			boolean isPassedDeviation = isMatrixDeviationOverridden
+					? isPassedStandardDeviation(SpectrogramMatrix.fromArray(spectrogramData))
+					: isPassedStandardDeviation(spectrogramData);
+			if (isPassedDeviation){
+				if (isPassedZeroCrossingRate(frameFeatures.getAmplitudes().clone())){
+					if (isPassedFrequency(rangedSpectrum)){
+						return true;
+					}
 				}
 			}
 		}
-		// end set max and min amplitudes
-
-		// normalization
-		// avoiding divided by zero
-		double minValidAmp = 0.00000000001F;
-		if (minAmp == 0) {
-			minAmp = minValidAmp;
-		}
+		return false;
+	}
 
-		double diff = Math.log10(maxAmp / minAmp); // perceptual difference
-		for (int i = 0; i < spectrogramData.length; i++) {
-			for (int j = 0; j < spectrogramData[i].length; j++) {
-				if (spectrogramData[i][j] < minValidAmp) {
-					spectrogramData[i][j] = 0;
-				} else {
-					spectrogramData[i][j] = (Math.log10(spectrogramData[i][j] / minAmp)) / diff;
-				}
+	private static boolean isOverridden(Class<?> type, String name, Class<?>... parameterTypes) {
+		for (Class<?> c = type; c != DetectionApi.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod(name, parameterTypes);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// look in the superclass
 			}
 		}
-		// end normalization
+		return false;
+	}
+
+	/**
+	 * Set the fft size and the frequency boundaries for a block size
+	 * 
+	 * @param numSamples
+	 *            number of samples in a block
+	 */
+	protected void setFrameSize(int numSamples) {
+		fftSampleSize = numSamples;
+		numFrequencyUnit = fftSampleSize / 2;
+
+		// frequency could be caught within the half of nSamples according to Nyquist theory
+		unitFrequency = (double) waveHeader.getSampleRate() / 2 / numFrequencyUnit;
+
+		// set boundary
+		lowerBoundary = (int) (highPass / unitFrequency);
+		upperBoundary = (int) (lowPass / unitFrequency);
+		// end set boundary
+	}
+
+	/**
+	 * Compute only the frequency units between highPass and lowPass, by Goertzel filters or a pruned fft
+	 * depending on the band width, instead of the whole spectrum.
+	 * 
+	 * In band limited mode the intensity and the standard deviation rules are evaluated over the band
+	 * only, so the thresholds may need to be tuned for it. The frequency and the zero crossing rules
+	 * are not affected.
+	 * 
+	 * @param bandLimited
+	 *            true for computing the band only
+	 */
+	public void setBandLimited(boolean bandLimited) {
+		this.bandLimited = bandLimited;
+		streamingDetector = null;
+	}
+
+	public boolean isBandLimited() {
+		return bandLimited;
+	}
+
+	/**
+	 * @return header of the audio the rules are for, null if its format is not supported
+	 */
+	public WaveHeader getWaveHeader() {
+		return waveHeader;
+	}
+
+	protected void normalizeSpectrogramData(double[][] spectrogramData) {
+		SpectrogramMatrix matrix = SpectrogramMatrix.fromArray(spectrogramData);
+		normalizeSpectrogramData(matrix);
+		copyRows(matrix, spectrogramData);
+	}
+
+	protected void normalizeSpectrogramData(SpectrogramMatrix spectrogramData) {
+		// normalization of absoultSpectrogram
+		Spectrogram.normalize(spectrogramData, spectrogramData);
 	}
 	
 	protected boolean isPassedStandardDeviation(double[][] spectrogramData){
 		
+		// normalize the spectrogramData (with all frames in the spectrogram), in place
+		normalizeSpectrogramData(spectrogramData);
+		
+		// since fftSampleSize==numSamples, there're only one spectrum which is spectrogramData[last]
+		return isPassedStandardDeviation(getRobustStandardDeviation(spectrogramData[spectrogramData.length - 1]));
+	}
+	
+	protected boolean isPassedStandardDeviation(SpectrogramMatrix spectrogramData){
+		
 		// normalize the spectrogramData (with all frames in the spectrogram)
 		normalizeSpectrogramData(spectrogramData);
-			
-		// analyst data in this frame
+		
 		// since fftSampleSize==numSamples, there're only one spectrum which is spectrogramData[last]
-		double[] spectrum = spectrogramData[spectrogramData.length - 1];
+		return isPassedStandardDeviation(getRobustStandardDeviation(spectrogramData.getRow(spectrogramData.getNumRows() - 1)));
+	}
+	
+	private double getRobustStandardDeviation(double[] spectrum){
+		
+		// analyst data in this frame
 		// find top most robust frequencies in this frame
 		double[] robustFrequencies = new double[numRobust];
 		ArrayRankDouble arrayRankDouble = new ArrayRankDouble();
@@ -212,8 +288,10 @@ public class DetectionApi {
 
 		StandardDeviation standardDeviation = new StandardDeviation();
 		standardDeviation.setValues(robustFrequencies);
-		double sd = standardDeviation.evaluate();
-		
+		return standardDeviation.evaluate();
+	}
+	
+	protected boolean isPassedStandardDeviation(double sd){
 		// range of standard deviation
 		boolean result = (sd >= minStandardDeviation && sd <= maxStandardDeviation);
 		//System.out.println("sd: " + sd + " " + result);
@@ -223,8 +301,10 @@ public class DetectionApi {
 	protected boolean isPassedFrequency(double[] spectrum){
 		// find the robust frequency
 		ArrayRankDouble arrayRankDouble = new ArrayRankDouble();
-		double robustFrequency = arrayRankDouble.getMaxValueIndex(spectrum) * unitFrequency;
-		
+		return isPassedFrequency(arrayRankDouble.getMaxValueIndex(spectrum) * unitFrequency);
+	}
+	
+	protected boolean isPassedFrequency(double robustFrequency){
 		// frequency of the sound should not be too low or too high
 		boolean result = (robustFrequency >= minFrequency && robustFrequency <= maxFrequency);
 		//System.out.println("freq: " + robustFrequency + " " + result);
@@ -240,6 +320,10 @@ public class DetectionApi {
 		intensity /= spectrum.length;
 		// end get the average intensity of the signal
 		
+		return isPassedIntensity(intensity);
+	}
+	
+	protected boolean isPassedIntensity(double intensity){
 		// intensity of the whistle should not be too soft
 		boolean result = (intensity > minIntensity && intensity <= maxIntensity);
 		//System.out.println("intensity: " + intensity + " " + result);
@@ -249,8 +333,10 @@ public class DetectionApi {
 	
 	protected boolean isPassedZeroCrossingRate(short[] amplitudes){
 		ZeroCrossingRate zcr = new ZeroCrossingRate(amplitudes, 1);
-		int numZeroCrosses = (int) zcr.evaluate();
-		
+		return isPassedZeroCrossingRate((int) zcr.evaluate());
+	}
+	
+	protected boolean isPassedZeroCrossingRate(int numZeroCrosses){
 		// different sound has different range of zero crossing value
 		// when lengthInSecond=1, zero crossing rate is the num
 		// of zero crosses
@@ -259,5 +345,11 @@ public class DetectionApi {
 		
 		return result;
 	}
+
+	private static void copyRows(SpectrogramMatrix matrix, double[][] array) {
+		for (int i = 0; i < array.length; i++) {
+			matrix.copyRow(i, array[i], 0);
+		}
+	}
 		
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+/**
+ * Receives the detection results of a stream from a DetectionScheduler
+ *
+ * The results of a stream are delivered in the order of its blocks, one at a time, on a worker thread
+ * of the scheduler. The listener should return quickly, it holds the worker.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public interface DetectionListener {
+
+	/**
+	 * @param stream
+	 *            stream of the block
+	 * @param blockNumber
+	 *            number of the block in the stream, from 0
+	 * @param detected
+	 *            the block contains the sound
+	 */
+	public void onDetection(DetectionStream stream, long blockNumber, boolean detected);
+}
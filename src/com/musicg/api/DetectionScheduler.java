@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.musicg.wave.WaveHeader;
+
+/**
+ * Runs the detection of many streams on a fixed set of worker threads
+ *
+ * A stream with queued blocks is handed to a worker, which checks a batch of its blocks in order with the
+ * worker's own FrameFeatures buffers, then gives the stream back to the queue if more blocks arrived.
+ * A stream is run by one worker at a time, so its results are delivered in order. The number of blocks
+ * queued over all the streams is bounded, submitting waits (or fails) when the workers fall behind.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public class DetectionScheduler {
+
+	public static final int DEFAULT_BATCH_SIZE = 8;	// blocks checked for a stream before giving the worker to another stream
+
+	private ExecutorService workers;
+	private Semaphore pendingBlocks;	// permits for the blocks which can be queued
+	private int batchSize;
+	private volatile boolean isShutdown;
+	private ThreadLocal<List<FrameFeatures>> workerFeatures = new ThreadLocal<List<FrameFeatures>>();	// buffers of each block format, per worker
+
+	/**
+	 * Constructor
+	 *
+	 * @param numWorkers
+	 *            number of worker threads
+	 * @param maxPendingBlocks
+	 *            maximum number of blocks queued over all the streams
+	 */
+	public DetectionScheduler(int numWorkers, int maxPendingBlocks) {
+		this(numWorkers, maxPendingBlocks, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param numWorkers
+	 *            number of worker threads
+	 * @param maxPendingBlocks
+	 *            maximum number of blocks queued over all the streams
+	 * @param batchSize
+	 *            blocks checked for a stream before giving the worker to another stream
+	 */
+	public DetectionScheduler(int numWorkers, int maxPendingBlocks, int batchSize) {
+		if (numWorkers < 1 || maxPendingBlocks < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("DetectionScheduler: the sizes should be positive");
+		}
+		this.batchSize = batchSize;
+		this.pendingBlocks = new Semaphore(maxPendingBlocks);
+		this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "musicg-detection-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Register a stream
+	 *
+	 * @param detectionApi
+	 *            rules of the sound to detect, owned by the stream
+	 * @param blockSize
+	 *            number of samples in a block, a power of 2
+	 * @param listener
+	 *            receiver of the results of the stream
+	 * @return stream to submit the blocks to
+	 */
+	public DetectionStream register(DetectionApi detectionApi, int blockSize, DetectionListener listener) {
+		return new DetectionStream(this, detectionApi, blockSize, listener);
+	}
+
+	// fail the submits after shutdown(), before they take a permit
+	void checkRunning() {
+		if (isShutdown) {
+			throw new IllegalStateException("DetectionScheduler: the scheduler is shut down");
+		}
+	}
+
+	void acquire() throws InterruptedException {
+		pendingBlocks.acquire();
+	}
+
+	boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		return pendingBlocks.tryAcquire(timeout, unit);
+	}
+
+	void release() {
+		pendingBlocks.release();
+	}
+
+	// hand a stream with queued blocks to a worker, throws RejectedExecutionException after shutdown()
+	void schedule(final DetectionStream stream) {
+		workers.execute(new Runnable() {
+			public void run() {
+				FrameFeatures frameFeatures = getFrameFeatures(stream);
+				while (stream.run(frameFeatures, batchSize)) {
+					try {
+						// give the other streams a turn
+						workers.execute(this);
+						return;
+					} catch (RejectedExecutionException e) {
+						// shut down, finish the stream in this worker
+					}
+				}
+			}
+		});
+	}
+
+	// buffers of the worker for the block format of the stream
+	private FrameFeatures getFrameFeatures(DetectionStream stream) {
+		List<FrameFeatures> featuresList = workerFeatures.get();
+		if (featuresList == null) {
+			featuresList = new ArrayList<FrameFeatures>();
+			workerFeatures.set(featuresList);
+		}
+		WaveHeader waveHeader = stream.getDetectionApi().waveHeader;
+		for (int i = 0; i < featuresList.size(); i++) {
+			FrameFeatures features = featuresList.get(i);
+			if (features.isFormatOf(waveHeader) && features.getNumSamples() == stream.getBlockSize()
+					&& features.getFirstFrequencyUnit() == stream.getFirstFrequencyUnit()
+					&& features.getNumFrequencyUnit() == stream.getNumFrequencyUnit()) {
+				return features;
+			}
+		}
+		FrameFeatures features = new FrameFeatures(stream.getDetectionApi().waveHeader, stream.getBlockSize(),
+				stream.getFirstFrequencyUnit(), stream.getNumFrequencyUnit());
+		featuresList.add(features);
+		return features;
+	}
+
+	/**
+	 * @return number of blocks which can be queued before submitting waits
+	 */
+	public int getAvailableBlocks() {
+		return pendingBlocks.availablePermits();
+	}
+
+	/**
+	 * Stop accepting blocks, the blocks already queued are still checked, the later submits throw
+	 * IllegalStateException
+	 */
+	public void shutdown() {
+		isShutdown = true;
+		workers.shutdown();
+	}
+
+	public boolean isShutdown() {
+		return isShutdown;
+	}
+
+	/**
+	 * Wait for the queued blocks after shutdown()
+	 *
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            unit of the timeout
+	 * @return true if all the blocks are checked
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+}
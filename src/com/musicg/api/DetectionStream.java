@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stream registered in a DetectionScheduler
+ *
+ * Blocks submitted to a stream are queued and checked in order. The stream is run by at most one worker
+ * at a time, so its detection api is never used concurrently; a detection api should not be shared by
+ * two streams.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public class DetectionStream {
+
+	private DetectionScheduler scheduler;
+	private DetectionApi detectionApi;
+	private DetectionListener listener;
+	private int blockSize;	// samples in a block
+	private int blockByteSize;	// bytes in a block
+	private int firstFrequencyUnit, numFrequencyUnit;	// frequency units computed for the detection api
+
+	// guarded by this
+	private ArrayDeque<byte[]> blocks = new ArrayDeque<byte[]>();
+	private ArrayDeque<Integer> offsets = new ArrayDeque<Integer>();
+	private boolean scheduled;	// queued in or run by a worker
+	private long numSubmitted;
+	private long numProcessed;	// blocks checked, accessed by the running worker only
+
+	DetectionStream(DetectionScheduler scheduler, DetectionApi detectionApi, int blockSize, DetectionListener listener) {
+		if (blockSize < 4 || Integer.bitCount(blockSize) != 1) {
+			throw new IllegalArgumentException("DetectionStream: the sample size must be a power of 2");
+		}
+		this.scheduler = scheduler;
+		this.detectionApi = detectionApi;
+		this.listener = listener;
+		this.blockSize = blockSize;
+		this.blockByteSize = blockSize * detectionApi.waveHeader.getSampleByteSize();
+
+		int[] band = StreamingDetector.getFrequencyBand(detectionApi, blockSize);
+		firstFrequencyUnit = band[0];
+		numFrequencyUnit = band[1];
+	}
+
+	/**
+	 * Queue a block, waits while the scheduler has too many pending blocks. The array is read by a worker
+	 * later and should not be modified until the block is reported to the listener.
+	 *
+	 * @param audioBytes
+	 *            audio bytes
+	 * @param offset
+	 *            position of the block, getBlockByteSize() bytes are read
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 *             if the scheduler is shut down
+	 */
+	public void submit(byte[] audioBytes, int offset) throws InterruptedException {
+		checkBlock(audioBytes, offset);
+		scheduler.checkRunning();
+		scheduler.acquire();
+		enqueue(audioBytes, offset);
+	}
+
+	/**
+	 * Queue a block if the scheduler is not full
+	 *
+	 * @param audioBytes
+	 *            audio bytes
+	 * @param offset
+	 *            position of the block, getBlockByteSize() bytes are read
+	 * @param timeout
+	 *            maximum time to wait for the scheduler, 0 for not waiting
+	 * @param unit
+	 *            unit of the timeout
+	 * @return true if the block is queued, false if the scheduler stayed full
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 *             if the scheduler is shut down
+	 */
+	public boolean trySubmit(byte[] audioBytes, int offset, long timeout, TimeUnit unit) throws InterruptedException {
+		checkBlock(audioBytes, offset);
+		scheduler.checkRunning();
+		if (!scheduler.tryAcquire(timeout, unit)) {
+			return false;
+		}
+		enqueue(audioBytes, offset);
+		return true;
+	}
+
+	private void checkBlock(byte[] audioBytes, int offset) {
+		if (offset < 0 || offset + blockByteSize > audioBytes.length) {
+			throw new IllegalArgumentException("DetectionStream: the block is out of the array");
+		}
+	}
+
+	private void enqueue(byte[] audioBytes, int offset) {
+		boolean schedule;
+		synchronized (this) {
+			blocks.add(audioBytes);
+			offsets.add(offset);
+			numSubmitted++;
+			schedule = !scheduled;
+			scheduled = true;
+		}
+		if (schedule) {
+			try {
+				scheduler.schedule(this);
+			} catch (RejectedExecutionException e) {
+				// shut down since the check, no worker runs the stream: take back this block and its permit,
+				// the blocks queued meanwhile by other submitters stay pending
+				synchronized (this) {
+					remove(audioBytes, offset);
+					numSubmitted--;
+					scheduled = false;
+				}
+				scheduler.release();
+				throw new IllegalStateException("DetectionScheduler: the scheduler is shut down");
+			}
+		}
+	}
+
+	// remove the last queued entry of a block, guarded by this
+	private void remove(byte[] audioBytes, int offset) {
+		Iterator<byte[]> blockIterator = blocks.descendingIterator();
+		Iterator<Integer> offsetIterator = offsets.descendingIterator();
+		while (blockIterator.hasNext()) {
+			byte[] block = blockIterator.next();
+			int blockOffset = offsetIterator.next();
+			if (block == audioBytes && blockOffset == offset) {
+				blockIterator.remove();
+				offsetIterator.remove();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check up to maxBlocks queued blocks, called by a worker
+	 *
+	 * @return true if more blocks are queued and the stream has to be scheduled again
+	 */
+	boolean run(FrameFeatures frameFeatures, int maxBlocks) {
+		for (int i = 0; i < maxBlocks; i++) {
+			byte[] audioBytes;
+			int offset;
+			synchronized (this) {
+				audioBytes = blocks.poll();
+				if (audioBytes == null) {
+					scheduled = false;
+					return false;
+				}
+				offset = offsets.poll();
+			}
+
+			boolean detected = false;
+			try {
+				frameFeatures.setAudioBytes(audioBytes, offset);
+				detected = detectionApi.isSpecificSound(frameFeatures);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			scheduler.release();
+
+			if (listener != null) {
+				try {
+					listener.onDetection(this, numProcessed, detected);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			numProcessed++;
+		}
+
+		synchronized (this) {
+			if (blocks.isEmpty()) {
+				scheduled = false;
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return number of blocks queued and not checked yet
+	 */
+	public synchronized int getNumPendingBlocks() {
+		return blocks.size();
+	}
+
+	public synchronized long getNumSubmittedBlocks() {
+		return numSubmitted;
+	}
+
+	public DetectionApi getDetectionApi() {
+		return detectionApi;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getBlockByteSize() {
+		return blockByteSize;
+	}
+
+	int getFirstFrequencyUnit() {
+		return firstFrequencyUnit;
+	}
+
+	int getNumFrequencyUnit() {
+		return numFrequencyUnit;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.musicg.wave.WaveHeader;
+
+/**
+ * Runs several detectors on the same stream of blocks
+ *
+ * The spectrum, the zero crossings and the normalized spectrum of a block are computed once and shared by
+ * all the registered rule sets. The standard deviation and the frequency features are computed once for
+ * each distinct numRobust and boundary setting, so adding a detector costs little more than comparing its
+ * thresholds. The whole spectrum is computed, the band limited mode of the registered apis is not used.
+ *
+ * An instance is not thread safe.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public class DetectorBank {
+
+	private FrameFeatures frameFeatures;
+	private List<DetectionApi> detectionApis = new ArrayList<DetectionApi>();
+	private boolean[] results = new boolean[0];	// results[i] of the i-th detection api for the last block
+
+	/**
+	 * Constructor
+	 *
+	 * @param waveHeader
+	 *            header of the audio
+	 * @param blockSize
+	 *            number of samples in a block, a power of 2
+	 */
+	public DetectorBank(WaveHeader waveHeader, int blockSize) {
+		frameFeatures = new FrameFeatures(waveHeader, blockSize);
+	}
+
+	/**
+	 * Register a detection api
+	 *
+	 * @param detectionApi
+	 *            rules of the sound to detect
+	 * @return index of the detection api in the results
+	 * @throws IllegalArgumentException
+	 *             if the detection api is for audio of another sample rate, sample size or number of
+	 *             channels than the bank
+	 */
+	public int addDetectionApi(DetectionApi detectionApi) {
+		WaveHeader waveHeader = detectionApi.getWaveHeader();
+		if (waveHeader == null) {
+			throw new IllegalArgumentException("DetectorBank: the format of the detection api is not supported");
+		}
+		if (!frameFeatures.isFormatOf(waveHeader) || waveHeader.getSampleRate() != frameFeatures.getSampleRate()) {
+			throw new IllegalArgumentException("DetectorBank: the detection api is for " + waveHeader.getSampleRate()
+					+ "Hz " + waveHeader.getBitsPerSample() + " bit " + waveHeader.getChannels()
+					+ " channel audio, the bank is for " + frameFeatures.getSampleRate() + "Hz "
+					+ frameFeatures.getBitsPerSample() + " bit "
+					+ frameFeatures.getChannels() + " channel audio");
+		}
+		detectionApis.add(detectionApi);
+		results = new boolean[detectionApis.size()];
+		return detectionApis.size() - 1;
+	}
+
+	/**
+	 * Evaluate all the detection apis on a block of audio bytes
+	 *
+	 * @param audioBytes
+	 *            audio bytes
+	 * @param offset
+	 *            position of the block in audioBytes
+	 * @return results[i] of the i-th detection api, the array is reused by the next block
+	 */
+	public boolean[] process(byte[] audioBytes, int offset) {
+		frameFeatures.setAudioBytes(audioBytes, offset);
+		return evaluate();
+	}
+
+	/**
+	 * Evaluate all the detection apis on a block of amplitudes
+	 *
+	 * @param amplitudes
+	 *            amplitudes
+	 * @param offset
+	 *            position of the block in amplitudes
+	 * @return results[i] of the i-th detection api, the array is reused by the next block
+	 */
+	public boolean[] process(short[] amplitudes, int offset) {
+		frameFeatures.setAmplitudes(amplitudes, offset);
+		return evaluate();
+	}
+
+	private boolean[] evaluate() {
+		for (int i = 0; i < results.length; i++) {
+			results[i] = detectionApis.get(i).isSpecificSound(frameFeatures);
+		}
+		return results;
+	}
+
+	/**
+	 * @param index
+	 *            index of the detection api
+	 * @return result of the detection api for the last block
+	 */
+	public boolean isSpecificSound(int index) {
+		return results[index];
+	}
+
+	public DetectionApi getDetectionApi(int index) {
+		return detectionApis.get(index);
+	}
+
+	public int getNumDetectionApis() {
+		return detectionApis.size();
+	}
+
+	/**
+	 * @return features of the last block
+	 */
+	public FrameFeatures getFrameFeatures() {
+		return frameFeatures;
+	}
+
+	public int getBlockSize() {
+		return frameFeatures.getNumSamples();
+	}
+}
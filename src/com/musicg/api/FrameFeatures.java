@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+import java.util.Arrays;
+
+import com.musicg.dsp.BandLimitedTransform;
+import com.musicg.dsp.FastFourierTransform;
+import com.musicg.dsp.WindowFunction;
+import com.musicg.math.rank.ArrayRankDouble;
+import com.musicg.math.statistics.StandardDeviation;
+import com.musicg.math.statistics.ZeroCrossingRate;
+import com.musicg.wave.PcmDecoder;
+import com.musicg.wave.WaveHeader;
+import com.musicg.wave.extension.Spectrogram;
+
+/**
+ * Features of a block of audio used by the detection rules, computed in preallocated buffers
+ *
+ * The block is converted to amplitudes, windowed and transformed when it is set; the zero crossings
+ * and the normalized spectrum are computed on first use. The features depending on the rule settings
+ * are kept for the block, so detectors with the same settings share them. Nothing is allocated per
+ * block, so one instance can follow a continuous stream. An instance is not thread safe.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public class FrameFeatures {
+
+	private PcmDecoder decoder;	// downmix of the channels of the block format
+	private int bitsPerSample;
+	private int channels;
+	private boolean isFloat;
+	private int sampleRate;
+	private int numSamples;	// samples in a block, a power of 2
+	private int firstFrequencyUnit;	// frequency unit of spectrum[0]
+	private int numFrequencyUnit;	// length of the spectrum
+
+	private short[] amplitudes;
+	private double[] window;
+	private double[] signal;	// windowed amplitudes, transformed in place
+	private FastFourierTransform fft;
+	private BandLimitedTransform bandTransform;	// null when the whole spectrum is computed
+	private double[] spectrum;	// absolute intensities
+	private double[] normalizedSpectrum;
+	private double[] rankBuffer;	// normalized spectrum, reordered when ranking
+	private double[][] robustValues;	// robustValues[numRobust], allocated on first use of each numRobust
+
+	private ArrayRankDouble arrayRankDouble = new ArrayRankDouble();
+	private StandardDeviation standardDeviation = new StandardDeviation();
+	private ZeroCrossingRate zeroCrossingRate;
+
+	// features of the current block
+	private double intensity;
+	private int numZeroCrosses;	// -1 until computed
+	private boolean normalized;
+
+	// features of the current block depending on the rule settings, kept for the detectors with the same settings
+	private int numCachedDeviations;
+	private int[] cachedNumRobust = new int[4];
+	private double[] cachedDeviations = new double[4];
+	private int numCachedOffsets;
+	private int[] cachedRanges = new int[8];	// lower and upper frequency unit of each range
+	private int[] cachedOffsets = new int[4];
+
+	/**
+	 * Constructor, the whole spectrum is computed
+	 *
+	 * @param waveHeader
+	 *            header of the audio
+	 * @param numSamples
+	 *            number of samples in a block, a power of 2
+	 */
+	public FrameFeatures(WaveHeader waveHeader, int numSamples) {
+		this(waveHeader, numSamples, 0, FastFourierTransform.getNumMagnitudes(numSamples));
+	}
+
+	/**
+	 * Constructor, only a band of the spectrum is computed
+	 *
+	 * @param waveHeader
+	 *            header of the audio
+	 * @param numSamples
+	 *            number of samples in a block, a power of 2
+	 * @param firstFrequencyUnit
+	 *            first frequency unit of the band
+	 * @param numFrequencyUnit
+	 *            number of frequency units in the band
+	 */
+	public FrameFeatures(WaveHeader waveHeader, int numSamples, int firstFrequencyUnit, int numFrequencyUnit) {
+
+		if (numSamples < 4 || Integer.bitCount(numSamples) != 1) {
+			throw new IllegalArgumentException("FrameFeatures: the sample size must be a power of 2");
+		}
+
+		this.decoder = new PcmDecoder(waveHeader, PcmDecoder.DOWNMIX);
+		this.bitsPerSample = waveHeader.getBitsPerSample();
+		this.channels = waveHeader.getChannels();
+		this.isFloat = waveHeader.isFloat();
+		this.sampleRate = waveHeader.getSampleRate();
+		this.numSamples = numSamples;
+		this.firstFrequencyUnit = firstFrequencyUnit;
+		this.numFrequencyUnit = numFrequencyUnit;
+
+		if (numFrequencyUnit < FastFourierTransform.getNumMagnitudes(numSamples)) {
+			bandTransform = new BandLimitedTransform(numSamples, firstFrequencyUnit, numFrequencyUnit);
+		} else {
+			fft = new FastFourierTransform();
+		}
+
+		// the same window as the spectrogram
+		WindowFunction windowFunction = new WindowFunction();
+		windowFunction.setWindowType("Hamming");
+		window = windowFunction.generate(numSamples);
+
+		amplitudes = new short[numSamples];
+		signal = new double[numSamples];
+		spectrum = new double[numFrequencyUnit];
+		normalizedSpectrum = new double[numFrequencyUnit];
+		rankBuffer = new double[numFrequencyUnit];
+		robustValues = new double[numFrequencyUnit + 1][];
+		zeroCrossingRate = new ZeroCrossingRate(amplitudes, 1);
+	}
+
+	/**
+	 * Set the block from audio bytes, little endian, in the format of the wave header
+	 *
+	 * @param audioBytes
+	 *            audio bytes
+	 * @param offset
+	 *            position of the block in audioBytes, numSamples samples are read
+	 */
+	public void setAudioBytes(byte[] audioBytes, int offset) {
+		// the channels are downmixed, in the scale of 16 bit samples
+		decoder.getSamples(audioBytes, offset, amplitudes, 0, numSamples);
+		computeSpectrum();
+	}
+
+	/**
+	 * Set the block from amplitudes
+	 *
+	 * @param amplitudes
+	 *            amplitudes
+	 * @param offset
+	 *            position of the block in amplitudes, numSamples amplitudes are read
+	 */
+	public void setAmplitudes(short[] amplitudes, int offset) {
+		System.arraycopy(amplitudes, offset, this.amplitudes, 0, numSamples);
+		computeSpectrum();
+	}
+
+	private void computeSpectrum() {
+
+		for (int n = 0; n < numSamples; n++) {
+			signal[n] = amplitudes[n] * window[n];
+		}
+		if (bandTransform == null) {
+			fft.getMagnitudes(signal, spectrum, 0);
+		} else {
+			bandTransform.getMagnitudes(signal, spectrum, 0);
+		}
+
+		// average intensity of the block
+		intensity = 0;
+		for (int i = 0; i < numFrequencyUnit; i++) {
+			intensity += spectrum[i];
+		}
+		intensity /= numFrequencyUnit;
+
+		numZeroCrosses = -1;
+		normalized = false;
+		numCachedDeviations = 0;
+		numCachedOffsets = 0;
+	}
+
+	/**
+	 * @return average intensity of the spectrum
+	 */
+	public double getIntensity() {
+		return intensity;
+	}
+
+	/**
+	 * @return number of zero crosses of the amplitudes in the block
+	 */
+	public int getNumZeroCrosses() {
+		if (numZeroCrosses < 0) {
+			numZeroCrosses = (int) zeroCrossingRate.evaluate();
+		}
+		return numZeroCrosses;
+	}
+
+	/**
+	 * Standard deviation of the most robust intensities of the normalized spectrum
+	 *
+	 * @param numRobust
+	 *            number of the most robust intensities
+	 * @return standard deviation
+	 */
+	public double getStandardDeviation(int numRobust) {
+
+		for (int i = 0; i < numCachedDeviations; i++) {
+			if (cachedNumRobust[i] == numRobust) {
+				return cachedDeviations[i];
+			}
+		}
+
+		double[] spectrum = getNormalizedSpectrum();
+
+		// find top most robust frequencies in this frame, the ranking reorders the buffer
+		double[] buffer = rankBuffer;
+		System.arraycopy(spectrum, 0, buffer, 0, numFrequencyUnit);
+		double nthValue = arrayRankDouble.getNthOrderedValue(buffer, numRobust, false);
+
+		double[] robustFrequencies = getRobustValues(numRobust);
+		int count = 0;
+		for (int i = 0; i < numFrequencyUnit; i++) {
+			if (buffer[i] >= nthValue) {
+				robustFrequencies[count++] = buffer[i];
+				if (count >= numRobust) {
+					break;
+				}
+			}
+		}
+		for (int i = count; i < numRobust; i++) {
+			robustFrequencies[i] = 0;
+		}
+		// end find top most robust frequencies
+
+		standardDeviation.setValues(robustFrequencies);
+		double sd = standardDeviation.evaluate();
+
+		if (numCachedDeviations == cachedNumRobust.length) {
+			cachedNumRobust = Arrays.copyOf(cachedNumRobust, numCachedDeviations * 2);
+			cachedDeviations = Arrays.copyOf(cachedDeviations, numCachedDeviations * 2);
+		}
+		cachedNumRobust[numCachedDeviations] = numRobust;
+		cachedDeviations[numCachedDeviations++] = sd;
+
+		return sd;
+	}
+
+	private double[] getRobustValues(int numRobust) {
+		if (numRobust < robustValues.length) {
+			if (robustValues[numRobust] == null) {
+				robustValues[numRobust] = new double[numRobust];
+			}
+			return robustValues[numRobust];
+		}
+		return new double[numRobust];
+	}
+
+	/**
+	 * Position of the maximum intensity within a range of frequency units, the first one if there are ties
+	 *
+	 * @param lowerFrequencyUnit
+	 *            first frequency unit of the range
+	 * @param upperFrequencyUnit
+	 *            last frequency unit of the range, inclusive
+	 * @return offset of the maximum from lowerFrequencyUnit
+	 */
+	public int getMaxIntensityOffset(int lowerFrequencyUnit, int upperFrequencyUnit) {
+
+		for (int i = 0; i < numCachedOffsets; i++) {
+			if (cachedRanges[i * 2] == lowerFrequencyUnit && cachedRanges[i * 2 + 1] == upperFrequencyUnit) {
+				return cachedOffsets[i];
+			}
+		}
+
+		int from = lowerFrequencyUnit - firstFrequencyUnit;
+		int to = upperFrequencyUnit - firstFrequencyUnit;
+		int index = 0;
+		double max = Integer.MIN_VALUE;
+		for (int i = from; i <= to; i++) {
+			if (spectrum[i] > max) {
+				max = spectrum[i];
+				index = i - from;
+			}
+		}
+
+		if (numCachedOffsets == cachedOffsets.length) {
+			cachedRanges = Arrays.copyOf(cachedRanges, numCachedOffsets * 4);
+			cachedOffsets = Arrays.copyOf(cachedOffsets, numCachedOffsets * 2);
+		}
+		cachedRanges[numCachedOffsets * 2] = lowerFrequencyUnit;
+		cachedRanges[numCachedOffsets * 2 + 1] = upperFrequencyUnit;
+		cachedOffsets[numCachedOffsets++] = index;
+
+		return index;
+	}
+
+	/**
+	 * @param lowerFrequencyUnit
+	 *            first frequency unit of the range
+	 * @param upperFrequencyUnit
+	 *            last frequency unit of the range, inclusive
+	 * @return true if the spectrum covers the range
+	 */
+	public boolean containsFrequencyUnits(int lowerFrequencyUnit, int upperFrequencyUnit) {
+		return lowerFrequencyUnit >= firstFrequencyUnit && lowerFrequencyUnit <= upperFrequencyUnit
+				&& upperFrequencyUnit < firstFrequencyUnit + numFrequencyUnit;
+	}
+
+	/**
+	 * @return absolute intensities of the block, spectrum[i] is the frequency unit getFirstFrequencyUnit()+i
+	 */
+	public double[] getSpectrum() {
+		return spectrum;
+	}
+
+	/**
+	 * @return spectrum normalized to 0~1, computed on first call for the block
+	 */
+	public double[] getNormalizedSpectrum() {
+		if (!normalized) {
+			Spectrogram.normalize(spectrum, normalizedSpectrum, numFrequencyUnit);
+			normalized = true;
+		}
+		return normalizedSpectrum;
+	}
+
+	/**
+	 * @return amplitudes of the block
+	 */
+	public short[] getAmplitudes() {
+		return amplitudes;
+	}
+
+	/**
+	 * @return bytes of a sample of all the channels
+	 */
+	public int getBytesPerSample() {
+		return decoder.getSampleByteSize();
+	}
+
+	/**
+	 * Check if the buffers are for audio bytes of a format
+	 *
+	 * @param waveHeader
+	 *            format of the audio bytes
+	 * @return true if the audio bytes can be set
+	 */
+	public boolean isFormatOf(WaveHeader waveHeader) {
+		return waveHeader.getBitsPerSample() == bitsPerSample && waveHeader.getChannels() == channels
+				&& waveHeader.isFloat() == isFloat;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	public int getFirstFrequencyUnit() {
+		return firstFrequencyUnit;
+	}
+
+	public int getNumFrequencyUnit() {
+		return numFrequencyUnit;
+	}
+
+	/**
+	 * @return true if only a band of the spectrum is computed
+	 */
+	public boolean isBandLimited() {
+		return bandTransform != null;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds sound events in a stream of blocks by voting over a sliding window
+ *
+ * Each block is checked by a DetectionApi, the window passes when at least passScore of the last
+ * windowSize blocks contain the sound. The votes are kept in a ring buffer, so a block is counted in
+ * constant time and a stream of any length can be followed. The listener is told when the window
+ * starts and stops passing, with timestamps from the start of the stream.
+ *
+ * An instance is not thread safe.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public class SoundEventDetector {
+
+	private DetectionApi detectionApi;
+	private StreamingDetector streamingDetector;	// created on first block
+	private SoundEventListener listener;
+	private int blockSize;	// samples in a block
+	private double blockDuration;	// length of a block in second
+
+	private boolean[] votes;	// ring buffer of the last windowSize results
+	private int windowSize;
+	private int passScore;
+	private int score;	// number of detected blocks in the window
+
+	private long numBlocks;	// blocks processed
+	private long numPasses;	// blocks where the window passed
+	private long lastDetectedBlock = -1;
+	private boolean active;	// the window is passing
+
+	/**
+	 * Constructor
+	 *
+	 * @param detectionApi
+	 *            rules of the sound to detect
+	 * @param blockSize
+	 *            number of samples in a block, a power of 2
+	 * @param windowSize
+	 *            number of blocks in the voting window
+	 * @param passScore
+	 *            number of detected blocks in the window for passing
+	 */
+	public SoundEventDetector(DetectionApi detectionApi, int blockSize, int windowSize, int passScore) {
+		if (windowSize < 1 || passScore < 1 || passScore > windowSize) {
+			throw new IllegalArgumentException("SoundEventDetector: passScore should be within 1 and windowSize");
+		}
+		this.detectionApi = detectionApi;
+		this.blockSize = blockSize;
+		this.blockDuration = (double) blockSize / detectionApi.waveHeader.getSampleRate();
+		this.windowSize = windowSize;
+		this.passScore = passScore;
+		this.votes = new boolean[windowSize];
+	}
+
+	public void setSoundEventListener(SoundEventListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Check a block of audio bytes and count it in the window
+	 *
+	 * @param audioBytes
+	 *            audio bytes
+	 * @param offset
+	 *            position of the block in audioBytes
+	 * @return true if the window passes after this block
+	 */
+	public boolean process(byte[] audioBytes, int offset) {
+		return update(getStreamingDetector().isSpecificSound(audioBytes, offset));
+	}
+
+	/**
+	 * Check a block of amplitudes and count it in the window
+	 *
+	 * @param amplitudes
+	 *            amplitudes
+	 * @param offset
+	 *            position of the block in amplitudes
+	 * @return true if the window passes after this block
+	 */
+	public boolean process(short[] amplitudes, int offset) {
+		return update(getStreamingDetector().isSpecificSound(amplitudes, offset));
+	}
+
+	/**
+	 * Check all the complete blocks of a stream, a trailing incomplete block is ignored. Works on live
+	 * input as the blocks are counted as soon as they are read.
+	 *
+	 * @param inputStream
+	 *            audio bytes in the format of the detection api's wave header
+	 * @return number of blocks read
+	 * @throws IOException
+	 */
+	public long process(InputStream inputStream) throws IOException {
+		byte[] block = new byte[getStreamingDetector().getBlockByteSize()];
+		long count = 0;
+		while (true) {
+			int length = 0;
+			while (length < block.length) {
+				int read = inputStream.read(block, length, block.length - length);
+				if (read < 0) {
+					return count;
+				}
+				length += read;
+			}
+			process(block, 0);
+			count++;
+		}
+	}
+
+	/**
+	 * Count a result in the window, for the results computed elsewhere, e.g. by a DetectorBank
+	 *
+	 * @param detected
+	 *            the block contains the sound
+	 * @return true if the window passes after this block
+	 */
+	public boolean update(boolean detected) {
+
+		int position = (int) (numBlocks % windowSize);
+		if (numBlocks >= windowSize && votes[position]) {
+			score--;
+		}
+		votes[position] = detected;
+		if (detected) {
+			score++;
+			lastDetectedBlock = numBlocks;
+		}
+		numBlocks++;
+
+		boolean passed = score >= passScore;
+		if (passed) {
+			numPasses++;
+			if (!active) {
+				active = true;
+				if (listener != null) {
+					listener.onSoundStart(this, getFirstDetectedBlockInWindow() * blockDuration);
+				}
+			}
+		} else if (active) {
+			active = false;
+			if (listener != null) {
+				listener.onSoundEnd(this, (lastDetectedBlock + 1) * blockDuration);
+			}
+		}
+		return passed;
+	}
+
+	// block number of the oldest detected block in the window
+	private long getFirstDetectedBlockInWindow() {
+		long first = Math.max(0, numBlocks - windowSize);
+		for (long block = first; block < numBlocks; block++) {
+			if (votes[(int) (block % windowSize)]) {
+				return block;
+			}
+		}
+		return numBlocks - 1;
+	}
+
+	/**
+	 * End of the stream, the listener is told the end of a sound still passing
+	 */
+	public void finish() {
+		if (active) {
+			active = false;
+			if (listener != null) {
+				listener.onSoundEnd(this, (lastDetectedBlock + 1) * blockDuration);
+			}
+		}
+	}
+
+	/**
+	 * Clear the window and the counters for a new stream
+	 */
+	public void reset() {
+		for (int i = 0; i < windowSize; i++) {
+			votes[i] = false;
+		}
+		score = 0;
+		numBlocks = 0;
+		numPasses = 0;
+		lastDetectedBlock = -1;
+		active = false;
+	}
+
+	private StreamingDetector getStreamingDetector() {
+		if (streamingDetector == null) {
+			streamingDetector = new StreamingDetector(detectionApi, blockSize);
+		}
+		return streamingDetector;
+	}
+
+	/**
+	 * @return ratio of the blocks where the window passed, NaN if no block is processed
+	 */
+	public double getProbability() {
+		return (double) numPasses / numBlocks;
+	}
+
+	/**
+	 * @return number of detected blocks in the window
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * @return true if the window is passing
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	public long getNumBlocks() {
+		return numBlocks;
+	}
+
+	public long getNumPasses() {
+		return numPasses;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public int getPassScore() {
+		return passScore;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public DetectionApi getDetectionApi() {
+		return detectionApi;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+/**
+ * Receives the onset and offset of the sounds found by a SoundEventDetector
+ *
+ * @author Jacquet Wong
+ *
+ */
+public interface SoundEventListener {
+
+	/**
+	 * Called when the voting window starts passing
+	 *
+	 * @param detector
+	 *            detector which found the sound
+	 * @param startTime
+	 *            start of the first detected block in the window, in second from the start of the stream
+	 */
+	public void onSoundStart(SoundEventDetector detector, double startTime);
+
+	/**
+	 * Called when the voting window stops passing
+	 *
+	 * @param detector
+	 *            detector which found the sound
+	 * @param endTime
+	 *            end of the last detected block, in second from the start of the stream
+	 */
+	public void onSoundEnd(SoundEventDetector detector, double endTime);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.api;
+
+import com.musicg.dsp.FastFourierTransform;
+
+/**
+ * Stateful detector for a stream of fixed size blocks
+ *
+ * The sample, window, fft and spectrum buffers are allocated once, so each block is processed without
+ * allocation. One detector serves one stream, an instance is not thread safe.
+ *
+ * @author Jacquet Wong
+ *
+ */
+public class StreamingDetector {
+
+	private DetectionApi detectionApi;
+	private FrameFeatures frameFeatures;
+	private int blockSize;	// samples in a block
+	private int blockByteSize;	// bytes in a block
+
+	/**
+	 * Constructor
+	 *
+	 * @param detectionApi
+	 *            rules of the sound to detect
+	 * @param blockSize
+	 *            number of samples in a block, a power of 2
+	 */
+	public StreamingDetector(DetectionApi detectionApi, int blockSize) {
+
+		if (blockSize < 4 || Integer.bitCount(blockSize) != 1) {
+			throw new IllegalArgumentException("StreamingDetector: the sample size must be a power of 2");
+		}
+
+		this.detectionApi = detectionApi;
+		this.blockSize = blockSize;
+		this.blockByteSize = blockSize * detectionApi.waveHeader.getSampleByteSize();
+
+		int[] band = getFrequencyBand(detectionApi, blockSize);
+		frameFeatures = new FrameFeatures(detectionApi.waveHeader, blockSize, band[0], band[1]);
+	}
+
+	/**
+	 * Frequency units computed for a detection api: the boundaries in band limited mode, otherwise the
+	 * whole spectrum
+	 *
+	 * @param detectionApi
+	 *            rules of the sound to detect
+	 * @param blockSize
+	 *            number of samples in a block
+	 * @return {first frequency unit, number of frequency units}
+	 */
+	static int[] getFrequencyBand(DetectionApi detectionApi, int blockSize) {
+		int numAllFrequencyUnit = FastFourierTransform.getNumMagnitudes(blockSize);
+		if (!detectionApi.isBandLimited()) {
+			return new int[] { 0, numAllFrequencyUnit };
+		}
+		// compute the frequency units between the boundaries only
+		detectionApi.setFrameSize(blockSize);
+		int lowerBoundary = detectionApi.lowerBoundary;
+		int upperBoundary = detectionApi.upperBoundary;
+		if (upperBoundary >= numAllFrequencyUnit || lowerBoundary > upperBoundary) {
+			throw new IllegalArgumentException("StreamingDetector: the wave needed to be higher sample rate");
+		}
+		return new int[] { lowerBoundary, upperBoundary - lowerBoundary + 1 };
+	}
+
+	/**
+	 * Determine a block of audio bytes contains the sound or not
+	 *
+	 * @param audioBytes
+	 *            audio bytes
+	 * @param offset
+	 *            position of the block, getBlockByteSize() bytes are read
+	 * @return true if the block contains the sound
+	 */
+	public boolean isSpecificSound(byte[] audioBytes, int offset) {
+		frameFeatures.setAudioBytes(audioBytes, offset);
+		return detectionApi.isSpecificSound(frameFeatures);
+	}
+
+	/**
+	 * Determine a block of amplitudes contains the sound or not
+	 *
+	 * @param amplitudes
+	 *            amplitudes
+	 * @param offset
+	 *            position of the block, getBlockSize() amplitudes are read
+	 * @return true if the block contains the sound
+	 */
+	public boolean isSpecificSound(short[] amplitudes, int offset) {
+		frameFeatures.setAmplitudes(amplitudes, offset);
+		return detectionApi.isSpecificSound(frameFeatures);
+	}
+
+	/**
+	 * @return features of the last block
+	 */
+	public FrameFeatures getFrameFeatures() {
+		return frameFeatures;
+	}
+
+	public DetectionApi getDetectionApi() {
+		return detectionApi;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getBlockByteSize() {
+		return blockByteSize;
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.dsp;
+
+import com.sun.media.sound.FFT;
+
+/**
+ * Transform amplitudes to the intensities of a band of frequency units only
+ *
+ * The intensities are the same as FastFourierTransform.getMagnitudes(), but only the frequency units
+ * [firstFrequencyUnit, firstFrequencyUnit+numFrequencyUnit) are computed. The method is chosen by the
+ * estimated number of operations for the band width:
+ * - Goertzel filters, one per frequency unit, for a few units
+ * - output pruned fft (transform decomposition), small ffts over interleaved sub-sequences combined for the band only
+ * - full fft when the band covers most of the spectrum
+ *
+ * An instance keeps its buffers and is not thread safe.
+ */
+public class BandLimitedTransform {
+
+	public static final int GOERTZEL = 0;
+	public static final int PRUNED_FFT = 1;
+	public static final int FULL_FFT = 2;
+
+	private static final double PRUNED_CALL_COST = 200;	// estimated overhead of one small fft call, in operations
+
+	private int sampleSize;	// number of amplitudes in a signal
+	private int firstFrequencyUnit;
+	private int numFrequencyUnit;
+	private int method;
+
+	private int numComplex;	// the fft takes the amplitudes as sampleSize/2 interleaved complex numbers
+
+	// goertzel
+	private double[] goertzelCos, goertzelSin;
+
+	// pruned fft, numComplex=numSubSequences*subSize
+	private int numSubSequences, subSize;
+	private FFT subFft;
+	private double[] subSignal;	// one sub-sequence of subSize complex numbers
+	private double[] subSpectra;	// spectra of the sub-sequences one after another
+	private double[] twiddles;	// twiddles[(k*numSubSequences+n2)*2]=cos, +1=sin of the band unit k and the sub-sequence n2
+
+	// full fft
+	private FastFourierTransform fullFft;
+	private double[] fullSignal, fullMagnitudes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sampleSize
+	 *            number of amplitudes in a signal, a power of 2
+	 * @param firstFrequencyUnit
+	 *            first frequency unit of the band
+	 * @param numFrequencyUnit
+	 *            number of frequency units in the band
+	 */
+	public BandLimitedTransform(int sampleSize, int firstFrequencyUnit, int numFrequencyUnit) {
+
+		int numAllFrequencyUnit = FastFourierTransform.getNumMagnitudes(sampleSize);
+		if (Integer.bitCount(sampleSize) != 1 || sampleSize < 4) {
+			throw new IllegalArgumentException("BandLimitedTransform: sample size must be a power of 2");
+		}
+		if (firstFrequencyUnit < 0 || numFrequencyUnit < 1 || firstFrequencyUnit + numFrequencyUnit > numAllFrequencyUnit) {
+			throw new IllegalArgumentException("BandLimitedTransform: band [" + firstFrequencyUnit + ","
+					+ (firstFrequencyUnit + numFrequencyUnit) + ") is out of the " + numAllFrequencyUnit + " frequency units");
+		}
+
+		this.sampleSize = sampleSize;
+		this.firstFrequencyUnit = firstFrequencyUnit;
+		this.numFrequencyUnit = numFrequencyUnit;
+		this.numComplex = sampleSize / 2;
+
+		chooseMethod();
+	}
+
+	// estimate the real number operations of each method and take the cheapest
+	private void chooseMethod() {
+
+		int log2NumComplex = Integer.numberOfTrailingZeros(numComplex);
+
+		// a radix-2 fft costs about 5*n*log2(n)
+		double fullCost = 5.0 * numComplex * log2NumComplex;
+		// two real goertzel filters per unit, 3 operations per sample each
+		double goertzelCost = 6.0 * numComplex * numFrequencyUnit;
+
+		// best split for the pruned fft: numComplex/subSize ffts of subSize, then a complex multiply-add per unit and
+		// sub-sequence, plus gathering the sub-sequences and a fixed overhead per small fft call
+		double prunedCost = Double.MAX_VALUE;
+		int bestSubSize = numComplex;
+		for (int size = 2; size < numComplex; size <<= 1) {
+			int numSub = numComplex / size;
+			double cost = 5.0 * numComplex * Integer.numberOfTrailingZeros(size) + 8.0 * numFrequencyUnit * numSub
+					+ 4.0 * numComplex + PRUNED_CALL_COST * numSub;
+			if (cost < prunedCost) {
+				prunedCost = cost;
+				bestSubSize = size;
+			}
+		}
+
+		if (goertzelCost <= prunedCost && goertzelCost <= fullCost) {
+			setGoertzel();
+		} else if (prunedCost < fullCost) {
+			setPrunedFft(bestSubSize);
+		} else {
+			setFullFft();
+		}
+	}
+
+	private void setGoertzel() {
+		method = GOERTZEL;
+		goertzelCos = new double[numFrequencyUnit];
+		goertzelSin = new double[numFrequencyUnit];
+		for (int k = 0; k < numFrequencyUnit; k++) {
+			double w = 2 * Math.PI * (firstFrequencyUnit + k) / numComplex;
+			goertzelCos[k] = Math.cos(w);
+			goertzelSin[k] = Math.sin(w);
+		}
+	}
+
+	private void setPrunedFft(int subSize) {
+		method = PRUNED_FFT;
+		this.subSize = subSize;
+		numSubSequences = numComplex / subSize;
+		subFft = new FFT(subSize, -1);
+		subSignal = new double[subSize * 2];
+		subSpectra = new double[numComplex * 2];
+		twiddles = new double[numFrequencyUnit * numSubSequences * 2];
+		for (int k = 0; k < numFrequencyUnit; k++) {
+			long unit = firstFrequencyUnit + k;
+			for (int n2 = 0; n2 < numSubSequences; n2++) {
+				// exp(-2*pi*i*unit*n2/numComplex)
+				double w = 2 * Math.PI * ((unit * n2) % numComplex) / numComplex;
+				twiddles[(k * numSubSequences + n2) * 2] = Math.cos(w);
+				twiddles[(k * numSubSequences + n2) * 2 + 1] = -Math.sin(w);
+			}
+		}
+	}
+
+	private void setFullFft() {
+		method = FULL_FFT;
+		fullFft = new FastFourierTransform();
+		fullSignal = new double[sampleSize];
+		fullMagnitudes = new double[FastFourierTransform.getNumMagnitudes(sampleSize)];
+	}
+
+	/**
+	 * Get the intensities of the band
+	 *
+	 * @param amplitudes
+	 *            amplitudes of the signal, not modified
+	 * @param mag
+	 *            array to store the intensities: mag[offset+k]=intensity of frequency unit firstFrequencyUnit+k
+	 * @param offset
+	 *            starting position in mag
+	 */
+	public void getMagnitudes(double[] amplitudes, double[] mag, int offset) {
+		switch (method) {
+		case GOERTZEL:
+			goertzel(amplitudes, mag, offset);
+			break;
+		case PRUNED_FFT:
+			prunedFft(amplitudes, mag, offset);
+			break;
+		default:
+			System.arraycopy(amplitudes, 0, fullSignal, 0, sampleSize);
+			fullFft.getMagnitudes(fullSignal, fullMagnitudes, 0);
+			System.arraycopy(fullMagnitudes, firstFrequencyUnit, mag, offset, numFrequencyUnit);
+		}
+	}
+
+	private void goertzel(double[] amplitudes, double[] mag, int offset) {
+		for (int k = 0; k < numFrequencyUnit; k++) {
+			double cos = goertzelCos[k];
+			double coeff = 2 * cos;
+			// real parts and img parts of the complex numbers are filtered separately
+			double re1 = 0, re2 = 0, im1 = 0, im2 = 0;
+			for (int i = 0; i < sampleSize; i += 2) {
+				double re0 = amplitudes[i] + coeff * re1 - re2;
+				re2 = re1;
+				re1 = re0;
+				double im0 = amplitudes[i + 1] + coeff * im1 - im2;
+				im2 = im1;
+				im1 = im0;
+			}
+			double sin = goertzelSin[k];
+			double real = re1 - cos * re2 - sin * im2;
+			double img = sin * re2 + im1 - cos * im2;
+			mag[offset + k] = Math.sqrt(real * real + img * img);
+		}
+	}
+
+	private void prunedFft(double[] amplitudes, double[] mag, int offset) {
+
+		// split into sub-sequences n=n1*numSubSequences+n2 and transform each of them
+		for (int n2 = 0; n2 < numSubSequences; n2++) {
+			for (int n1 = 0; n1 < subSize; n1++) {
+				int n = (n1 * numSubSequences + n2) * 2;
+				subSignal[n1 * 2] = amplitudes[n];
+				subSignal[n1 * 2 + 1] = amplitudes[n + 1];
+			}
+			subFft.transform(subSignal);
+			System.arraycopy(subSignal, 0, subSpectra, n2 * subSize * 2, subSize * 2);
+		}
+
+		// combine the sub-sequence spectra for the band only
+		int subMask = subSize - 1;
+		for (int k = 0; k < numFrequencyUnit; k++) {
+			int subUnit = ((firstFrequencyUnit + k) & subMask) * 2;
+			double real = 0, img = 0;
+			int t = k * numSubSequences * 2;
+			for (int n2 = 0; n2 < numSubSequences; n2++) {
+				int p = n2 * subSize * 2 + subUnit;
+				double yr = subSpectra[p];
+				double yi = subSpectra[p + 1];
+				double wr = twiddles[t++];
+				double wi = twiddles[t++];
+				real += yr * wr - yi * wi;
+				img += yr * wi + yi * wr;
+			}
+			mag[offset + k] = Math.sqrt(real * real + img * img);
+		}
+	}
+
+	/**
+	 * @return GOERTZEL, PRUNED_FFT or FULL_FFT
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	public int getFirstFrequencyUnit() {
+		return firstFrequencyUnit;
+	}
+
+	public int getNumFrequencyUnit() {
+		return numFrequencyUnit;
+	}
+}
@@ -26,6 +26,20 @@ import com.sun.media.sound.FFT;
  */
 public class FastFourierTransform {
 
+	private FFT fft;	// transform plan of the last sample size, reused by following calls
+	private int planSampleSize;
+
+	/**
+	 * Number of frequency units returned by getMagnitudes for a signal
+	 * 
+	 * @param sampleSize
+	 *            number of samples in the signal
+	 * @return number of magnitudes
+	 */
+	public static int getNumMagnitudes(int sampleSize) {
+		return sampleSize / 4;
+	}
+
 	/**
 	 * Get the frequency intensities
 	 * 
@@ -34,11 +48,31 @@ public class FastFourierTransform {
 	 * @return intensities of each frequency unit: mag[frequency_unit]=intensity
 	 */
 	public double[] getMagnitudes(double[] amplitudes) {
+		double[] mag = new double[getNumMagnitudes(amplitudes.length)];
+		getMagnitudes(amplitudes, mag, 0);
+		return mag;
+	}
+
+	/**
+	 * Get the frequency intensities into an existing array. The transform plan is kept for the next call
+	 * with the same sample size, so an instance should not be shared between threads.
+	 * 
+	 * @param amplitudes
+	 *            amplitudes of the signal, transformed in place
+	 * @param mag
+	 *            array to store the intensities: mag[offset+frequency_unit]=intensity
+	 * @param offset
+	 *            starting position in mag
+	 */
+	public void getMagnitudes(double[] amplitudes, double[] mag, int offset) {
 
 		int sampleSize = amplitudes.length;
 
 		// call the fft and transform the complex numbers
-		FFT fft = new FFT(sampleSize / 2, -1);
+		if (fft == null || planSampleSize != sampleSize) {
+			fft = new FFT(sampleSize / 2, -1);
+			planSampleSize = sampleSize;
+		}
 		fft.transform(amplitudes);
 		// end call the fft and transform the complex numbers
 
@@ -52,14 +86,9 @@ public class FastFourierTransform {
 		// values represent positive frequency components and the second half
 		// represents negative frequency components.
 		// we omit the negative ones
-		int positiveSize = indexSize / 2;
-
-		double[] mag = new double[positiveSize];
 		for (int i = 0; i < indexSize; i += 2) {
-			mag[i / 2] = Math.sqrt(complexNumbers[i] * complexNumbers[i] + complexNumbers[i + 1] * complexNumbers[i + 1]);
+			mag[offset + i / 2] = Math.sqrt(complexNumbers[i] * complexNumbers[i] + complexNumbers[i + 1] * complexNumbers[i + 1]);
 		}
-
-		return mag;
 	}
 
 }
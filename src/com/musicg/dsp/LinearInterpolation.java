@@ -16,6 +16,8 @@
 
 package com.musicg.dsp;
 
+import com.musicg.wave.SampleSource;
+
 /**
  * Construct new data points within the range of a discrete set of known data points by linear equation
  * 
@@ -64,4 +66,48 @@ public class LinearInterpolation {
         
         return interpolatedSamples;
 	}
+	
+	/**
+	 * Do interpolation on the samples of a source according to the original and destinated sample rates
+	 * The samples are decoded when they are read, they are not copied to a short array first
+	 * 
+	 * @param oldSampleRate	sample rate of the original samples
+	 * @param newSampleRate	sample rate of the interpolated samples
+	 * @param source	original samples
+	 * @return interpolated samples, rounded to 16 bit
+	 */
+	public short[] interpolate(int oldSampleRate, int newSampleRate, SampleSource source) {
+		
+		int numSamples=source.getNumSamples();
+		if (oldSampleRate==newSampleRate){
+			short[] samples=new short[numSamples];
+			source.getSamples(0,samples,0,numSamples);
+			return samples;
+		}
+		
+		int newLength=(int)Math.round(((float)numSamples/oldSampleRate*newSampleRate));
+		float lengthMultiplier=(float)newLength/numSamples;
+		short[] interpolatedSamples = new short[newLength];
+		
+		// interpolate the value by the linear equation y=mx+c
+		for (int i = 0; i < newLength; i++){
+			
+			// get the nearest positions for the interpolated point
+			float currentPosition = i / lengthMultiplier;
+			int nearestLeftPosition = (int)currentPosition;
+			int nearestRightPosition = nearestLeftPosition + 1;
+			if (nearestRightPosition>=numSamples){
+				nearestRightPosition=numSamples-1;
+			}
+			
+			float left=(float)source.getSample(nearestLeftPosition);
+			float slope=(float)source.getSample(nearestRightPosition)-left;	// delta x is 1
+			float positionFromLeft = currentPosition - nearestLeftPosition;
+			
+			float value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, slope*positionFromLeft+left));	// clipped for float samples
+			interpolatedSamples[i] = (short)value;	// y=mx+c
+		}
+		
+		return interpolatedSamples;
+	}
 }
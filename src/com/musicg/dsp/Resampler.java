@@ -16,6 +16,10 @@
 
 package com.musicg.dsp;
 
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
+import com.musicg.wave.SampleSource;
+
 /**
  * Resample signal data (base on bytes)
  * 
@@ -37,13 +41,59 @@ public class Resampler {
 	 * @return re-sampled data
 	 */
 	public byte[] reSample(byte[] sourceData, int bitsPerSample, int sourceRate, int targetRate) {
+		return reSample(sourceData, 0, sourceData.length, bitsPerSample, sourceRate, targetRate);
+	}
+
+	/**
+	 * Do resampling of the samples of a source, to 16 bit samples
+	 * Any format and channel layout of the source is resampled without making a 16 bit mono copy first
+	 * 
+	 * @param source	The source samples, e.g. the downmix of a wave
+	 * @param sourceRate	Sample rate of the source data
+	 * @param targetRate	Sample rate of the target data
+	 * @return re-sampled data, 16 bit little endian
+	 */
+	public byte[] reSample(SampleSource source, int sourceRate, int targetRate) {
+
+		long startTime = Metrics.startTimer();
+
+		LinearInterpolation reSample=new LinearInterpolation();
+		short[] targetSample = reSample.interpolate(sourceRate, targetRate, source);
+
+		// convert the amplitude to bytes
+		byte[] bytes= new byte[targetSample.length*2];
+		for (int i=0; i<targetSample.length; i++){
+			// little endian
+			bytes[i*2] = (byte)(targetSample[i] & 0xff);
+			bytes[i*2+1] = (byte)((targetSample[i] >> 8) & 0xff);
+		}
+		// end convert the amplitude to bytes
+
+		Metrics.stopTimer(Stage.RESAMPLE, startTime, bytes.length);
+		return bytes;
+	}
+
+	/**
+	 * Do resampling of a range of the source data
+	 * 
+	 * @param sourceData	The source data in bytes
+	 * @param offset	Position of the first byte to resample
+	 * @param length	Number of bytes to resample
+	 * @param bitsPerSample	How many bits represents one sample (currently supports max. bitsPerSample=16) 
+	 * @param sourceRate	Sample rate of the source data
+	 * @param targetRate	Sample rate of the target data
+	 * @return re-sampled data
+	 */
+	public byte[] reSample(byte[] sourceData, int offset, int length, int bitsPerSample, int sourceRate, int targetRate) {
+
+		long startTime = Metrics.startTimer();
 
 		// make the bytes to amplitudes first
 		int bytePerSample = bitsPerSample / 8;
-		int numSamples = sourceData.length / bytePerSample;
+		int numSamples = length / bytePerSample;
 		short[] amplitudes = new short[numSamples];	// 16 bit, use a short to store
 		
-		int pointer = 0;
+		int pointer = offset;
 		for (int i = 0; i < numSamples; i++) {
 			short amplitude = 0;
 			for (int byteNumber = 0; byteNumber < bytePerSample; byteNumber++) {
@@ -83,6 +133,7 @@ public class Resampler {
 		}
 		// end convert the amplitude to bytes
 		
+		Metrics.stopTimer(Stage.RESAMPLE, startTime, bytes.length);
 		return bytes;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
+
+/**
+ * Catalog of the fingerprints of known tracks, a query clip is compared with every track
+ *
+ * Tracks can be added and removed while the catalog is queried from other threads.
+ *
+ * @author jacquet
+ */
+public class FingerprintCatalog {
+
+	private final Map<String, byte[]> fingerprints = new ConcurrentHashMap<String, byte[]>();	// fingerprints<trackId,fingerprint>
+	private final AtomicLong generation = new AtomicLong();	// changed by every update, results of older generations are not reused
+	private volatile QueryResultCache<Match> resultCache;	// null for no cache
+
+	/**
+	 * Add or replace a track
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @param fingerprint
+	 *            fingerprint of the track
+	 */
+	public void addTrack(final String trackId, final byte[] fingerprint) {
+		fingerprints.put(trackId, fingerprint);
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Remove a track
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @return true if the track was in the catalog
+	 */
+	public boolean removeTrack(final String trackId) {
+		final boolean removed = fingerprints.remove(trackId) != null;
+		generation.incrementAndGet();
+		return removed;
+	}
+
+	/**
+	 * Keep the results of the lookups, so a clip sent again is not compared with the tracks again
+	 *
+	 * The cache keeps copies of the matches, and every lookup gets its own copy of a cached match.
+	 *
+	 * @param resultCache
+	 *            cache of the results, null for no cache
+	 */
+	public void setResultCache(final QueryResultCache<Match> resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	public QueryResultCache<Match> getResultCache() {
+		return resultCache;
+	}
+
+	public byte[] getFingerprint(final String trackId) {
+		return fingerprints.get(trackId);
+	}
+
+	public int size() {
+		return fingerprints.size();
+	}
+
+	/**
+	 * Find the track most similar to a clip
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @return best match, or null if the catalog is empty
+	 */
+	public Match lookup(final byte[] queryFingerprint) {
+
+		final long startTime = Metrics.startTimer();
+		final QueryResultCache<Match> resultCache = this.resultCache;
+		long key = 0;
+		if (resultCache != null) {
+			// the key covers the catalog generation, a result is not reused after the catalog changed
+			key = QueryResultCache.mix(QueryResultCache.getQueryKey(queryFingerprint) ^ generation.get());
+			final Match cachedMatch = resultCache.get(key);
+			if (cachedMatch != null) {
+				Metrics.stopTimer(Stage.LOOKUP, startTime, 0);
+				return cachedMatch.copy();
+			}
+		}
+
+		Match bestMatch = null;
+		int numTracks = 0;
+		for (final Map.Entry<String, byte[]> entry : fingerprints.entrySet()) {
+			final FingerprintSimilarity similarity = new FingerprintSimilarityComputer(entry.getValue(), queryFingerprint)
+					.getFingerprintsSimilarity();
+			numTracks++;
+			if (bestMatch == null || similarity.getScore() > bestMatch.getSimilarity().getScore()) {
+				bestMatch = new Match(entry.getKey(), similarity);
+			}
+		}
+
+		if (resultCache != null && bestMatch != null) {
+			resultCache.put(key, bestMatch.copy());
+		}
+		Metrics.stopTimer(Stage.LOOKUP, startTime, numTracks);
+		return bestMatch;
+	}
+
+	/**
+	 * A track found for a clip
+	 */
+	public static class Match {
+
+		private final String trackId;
+		private final FingerprintSimilarity similarity;
+
+		public Match(final String trackId, final FingerprintSimilarity similarity) {
+			this.trackId = trackId;
+			this.similarity = similarity;
+		}
+
+		public String getTrackId() {
+			return trackId;
+		}
+
+		/**
+		 * @return similarity of the clip in the track, the position is the clip's position in the track
+		 */
+		public FingerprintSimilarity getSimilarity() {
+			return similarity;
+		}
+
+		// a match with its own similarity, the similarity is mutable
+		Match copy() {
+			final FingerprintSimilarity similarityCopy = new FingerprintSimilarity();
+			similarityCopy.setMostSimilarFramePosition(similarity.getMostSimilarFramePosition());
+			similarityCopy.setScore(similarity.getScore());
+			similarityCopy.setSimilarity(similarity.getSimilarity());
+			return new Match(trackId, similarityCopy);
+		}
+	}
+}
@@ -21,13 +21,17 @@ import java.io.InputStream;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import com.musicg.dsp.Resampler;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
 import com.musicg.processor.TopManyPointsProcessorChain;
 import com.musicg.properties.FingerprintProperties;
 import com.musicg.wave.Wave;
 import com.musicg.wave.WaveHeader;
 import com.musicg.wave.extension.Spectrogram;
+import com.musicg.wave.extension.SpectrogramMatrix;
 
 /**
  * Audio fingerprint manager, handle fingerprint operations
@@ -38,7 +42,8 @@ public class FingerprintManager {
 
 	/**
 	 * Number of frames in a fingerprint
-	 * Each frame lengths 8 bytes
+	 * Version 2 fingerprints keep the number of frames in the header
+	 * In version 1 fingerprints each point lengths 8 bytes
 	 * Usually there is more than one point in each frame, so it cannot simply divide the bytes length by 8
 	 * Last 8 byte of thisFingerprint is the last frame of this wave
 	 * First 2 byte of the last 8 byte is the x position of this wave, i.e. (number_of_frames-1) of this wave
@@ -47,15 +52,30 @@ public class FingerprintManager {
 	 * @return number of frames of the fingerprint
 	 */
 	public static int getNumFrames(final byte[] fingerprint) {
+		return new FingerprintReader(fingerprint).getNumFrames();
+	}
 
-		if (fingerprint.length < 8) {
-			return 0;
+	/**
+	 * Convert a fingerprint to another version
+	 * Converting to version 2 quantizes the intensities
+	 *
+	 * @param fingerprint fingerprint bytes of any version
+	 * @param version FingerprintReader.VERSION_1 or FingerprintReader.VERSION_2
+	 * @return fingerprint bytes in the version
+	 */
+	public static byte[] convertFingerprint(final byte[] fingerprint, final int version) {
+		final FingerprintProperties fingerprintProperties = FingerprintProperties.getInstance();
+		final FingerprintReader reader = new FingerprintReader(fingerprint);
+		if (reader.getVersion() == version) {
+			return fingerprint;
 		}
 
-		// get the last x-coordinate (length-8&length-7)bytes from fingerprint
-		final int numFrames = ((fingerprint[fingerprint.length - 8] & 0xff) << 8
-				| fingerprint[fingerprint.length - 7] & 0xff) + 1;
-		return numFrames;
+		final int profileId = reader.getProfileId() != 0 ? reader.getProfileId() : fingerprintProperties.getProfileId();
+		final FingerprintWriter writer = new FingerprintWriter(version, profileId, reader.getNumFrames());
+		while (reader.next()) {
+			writer.addPoint(reader.getX(), reader.getY(), reader.getIntensity());
+		}
+		return writer.toByteArray();
 	}
 
 	private final FingerprintProperties fingerprintProperties = FingerprintProperties.getInstance();
@@ -79,6 +99,18 @@ public class FingerprintManager {
 	 * @return fingerprint in bytes
 	 */
 	public byte[] extractFingerprint(final Wave wave) {
+		return extractFingerprint(wave, null);
+	}
+
+	/**
+	 * Extract fingerprint from Wave object, the spectrogram frames are transformed in parallel
+	 * Used for a single long recording when the latency matters more than the total cpu time
+	 *
+	 * @param wave Wave Object to be extracted fingerprint
+	 * @param pool pool to build the spectrogram, null for building in the calling thread
+	 * @return fingerprint in bytes
+	 */
+	public byte[] extractFingerprint(final Wave wave, final ForkJoinPool pool) {
 
 		int[][] coordinates; // coordinates[x][0..3]=y0..y3
 		byte[] fingerprint = new byte[0];
@@ -88,21 +120,30 @@ public class FingerprintManager {
 		final int sourceRate = wave.getWaveHeader().getSampleRate();
 		final int targetRate = fingerprintProperties.getSampleRate();
 
-		final byte[] resampledWaveData = resampler.reSample(wave.getBytes(), wave.getWaveHeader().getBitsPerSample(),
-				sourceRate, targetRate);
+		// the samples are decoded while resampling, stereo and deeper samples are resampled to 16 bit mono
+		final byte[] resampledWaveData = resampler.reSample(wave.getSampleSource(), sourceRate, targetRate);
 
-		// update the wave header
-		final WaveHeader resampledWaveHeader = wave.getWaveHeader();
+		// update a copy of the wave header, the header of the wave is kept
+		final WaveHeader resampledWaveHeader = new WaveHeader(wave.getWaveHeader());
+		resampledWaveHeader.setAudioFormat(WaveHeader.AUDIO_FORMAT_PCM);
+		resampledWaveHeader.setChannels(1);
+		resampledWaveHeader.setBitsPerSample(16);
+		resampledWaveHeader.setBlockAlign(2);
 		resampledWaveHeader.setSampleRate(targetRate);
+		resampledWaveHeader.setSubChunk2Size(resampledWaveData.length);
+		resampledWaveHeader.setChunkSize(resampledWaveData.length + 36);
 
 		// make resampled wave
 		final Wave resampledWave = new Wave(resampledWaveHeader, resampledWaveData);
 		// end resample to target rate
 
 		// get spectrogram's data
-		final Spectrogram spectrogram = resampledWave.getSpectrogram(sampleSizePerFrame, overlapFactor);
-		final double[][] spectorgramData = spectrogram.getNormalizedSpectrogramData();
+		final Spectrogram spectrogram = resampledWave.getSpectrogram(sampleSizePerFrame, overlapFactor, pool);
+		// only the normalized data is used, normalize over the absolute data instead of keeping both
+		spectrogram.normalizeInPlace();
+		final SpectrogramMatrix spectorgramData = spectrogram.getNormalizedSpectrogramMatrix();
 
+		final long startTime = Metrics.startTimer();
 		final List<Integer>[] pointsLists = getRobustPointList(spectorgramData);
 		final int numFrames = pointsLists.length;
 
@@ -125,37 +166,25 @@ public class FingerprintManager {
 		// end make fingerprint
 
 		// for each valid coordinate, append with its intensity
-		final List<Byte> byteList = new LinkedList<Byte>();
-		for (int i = 0; i < numFrames; i++) {
+		// version 1 cannot hold more than 65536 frames, a longer wave is written in version 2
+		int version = fingerprintProperties.getFingerprintVersion();
+		if (numFrames > 0x10000) {
+			version = FingerprintReader.VERSION_2;
+		}
+		final FingerprintWriter writer = new FingerprintWriter(version, fingerprintProperties.getProfileId(), numFrames);
+		for (int x = 0; x < numFrames; x++) {
 			for (int j = 0; j < numRobustPointsPerFrame; j++) {
-				if (coordinates[i][j] != -1) {
-					// first 2 bytes is x
-					final int x = i;
-					byteList.add((byte) (x >> 8));
-					byteList.add((byte) x);
-
-					// next 2 bytes is y
-					final int y = coordinates[i][j];
-					byteList.add((byte) (y >> 8));
-					byteList.add((byte) y);
-
-					// next 4 bytes is intensity
-					final int intensity = (int) (spectorgramData[x][y] * Integer.MAX_VALUE); // spectorgramData is ranged from 0~1
-					byteList.add((byte) (intensity >> 24));
-					byteList.add((byte) (intensity >> 16));
-					byteList.add((byte) (intensity >> 8));
-					byteList.add((byte) intensity);
+				if (coordinates[x][j] != -1) {
+					final int y = coordinates[x][j];
+					final int intensity = (int) (spectorgramData.get(x, y) * Integer.MAX_VALUE); // spectorgramData is ranged from 0~1
+					writer.addPoint(x, y, intensity);
 				}
 			}
 		}
 		// end for each valid coordinate, append with its intensity
 
-		fingerprint = new byte[byteList.size()];
-		final Iterator<Byte> byteListIterator = byteList.iterator();
-		int pointer = 0;
-		while (byteListIterator.hasNext()) {
-			fingerprint[pointer++] = byteListIterator.next();
-		}
+		fingerprint = writer.toByteArray();
+		Metrics.stopTimer(Stage.PEAK_PICKING, startTime, writer.getNumPoints());
 
 		return fingerprint;
 	}
@@ -198,61 +227,40 @@ public class FingerprintManager {
 	}
 
 	// robustLists[x]=y1,y2,y3,...
-	private List<Integer>[] getRobustPointList(final double[][] spectrogramData) {
+	private List<Integer>[] getRobustPointList(final SpectrogramMatrix spectrogramData) {
 
-		final int numX = spectrogramData.length;
-		final int numY = spectrogramData[0].length;
+		final int numX = spectrogramData.getNumRows();
+		final int numY = spectrogramData.getNumColumns();
 
-		final double[][] allBanksIntensities = new double[numX][numY];
 		final int bandwidthPerBank = numY / numFilterBanks;
 
-		for (int b = 0; b < numFilterBanks; b++) {
+		@SuppressWarnings("unchecked")
+		final List<Integer>[] robustLists = new LinkedList[numX];
+		for (int i = 0; i < robustLists.length; i++) {
+			robustLists[i] = new LinkedList<Integer>();
+		}
 
-			final double[][] bankIntensities = new double[numX][bandwidthPerBank];
+		// banks are visited from low to high frequency, so the points of each frame stay in ascending order
+		for (int b = 0; b < numFilterBanks; b++) {
 
-			for (int i = 0; i < numX; i++) {
-				for (int j = 0; j < bandwidthPerBank; j++) {
-					bankIntensities[i][j] = spectrogramData[i][j + b * bandwidthPerBank];
-				}
-			}
+			final int bankOffset = b * bandwidthPerBank;
+			final SpectrogramMatrix bankIntensities = spectrogramData.getColumnBand(bankOffset, bankOffset
+					+ bandwidthPerBank);
 
 			// get the most robust point in each filter bank
 			final TopManyPointsProcessorChain processorChain = new TopManyPointsProcessorChain(bankIntensities, 1);
-			final double[][] processedIntensities = processorChain.getIntensities();
+			final SpectrogramMatrix processedIntensities = processorChain.getIntensityMatrix();
 
+			// find robust points
 			for (int i = 0; i < numX; i++) {
 				for (int j = 0; j < bandwidthPerBank; j++) {
-					allBanksIntensities[i][j + b * bandwidthPerBank] = processedIntensities[i][j];
+					if (processedIntensities.get(i, j) > 0) {
+						// robustLists[x]=y1,y2,y3,...
+						robustLists[i].add(j + bankOffset);
+					}
 				}
 			}
-		}
-
-		final List<int[]> robustPointList = new LinkedList<int[]>();
-
-		// find robust points
-		for (int i = 0; i < allBanksIntensities.length; i++) {
-			for (int j = 0; j < allBanksIntensities[i].length; j++) {
-				if (allBanksIntensities[i][j] > 0) {
-
-					final int[] point = new int[] { i, j };
-					//System.out.println(i+","+frequency);
-					robustPointList.add(point);
-				}
-			}
-		}
-		// end find robust points
-
-		@SuppressWarnings("unchecked")
-		final List<Integer>[] robustLists = new LinkedList[spectrogramData.length];
-		for (int i = 0; i < robustLists.length; i++) {
-			robustLists[i] = new LinkedList<Integer>();
-		}
-
-		// robustLists[x]=y1,y2,y3,...
-		final Iterator<int[]> robustPointListIterator = robustPointList.iterator();
-		while (robustPointListIterator.hasNext()) {
-			final int[] coor = robustPointListIterator.next();
-			robustLists[coor[0]].add(coor[1]);
+			// end find robust points
 		}
 
 		// return the list per frame
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint;
+
+/**
+ * Read the points of a fingerprint, in frame order
+ *
+ * Version 1 fingerprints are 8 bytes per point: 2 bytes x, 2 bytes y and 4 bytes intensity.
+ *
+ * Version 2 fingerprints start with a header: the magic "MGFP", the version, the profile id, the number
+ * of bits of y, then the number of frames, the number of points and the lowest intensity as varints.
+ * Each frame having points follows as a varint frame delta from the previous one, a varint number of
+ * points, and 2 bytes per point holding y and the intensity quantized between the lowest intensity and
+ * the maximum.
+ *
+ * A fingerprint starting with the magic but with another version, or a version 2 fingerprint which is
+ * truncated or corrupt, is rejected with an IllegalArgumentException.
+ *
+ * Usage:
+ *
+ * <pre>
+ * FingerprintReader reader = new FingerprintReader(fingerprint);
+ * while (reader.next()) {
+ * 	reader.getX(), reader.getY(), reader.getIntensity()
+ * }
+ * </pre>
+ *
+ * @author jacquet
+ */
+public class FingerprintReader {
+
+	public static final int VERSION_1 = 1;
+	public static final int VERSION_2 = 2;
+
+	static final byte[] MAGIC = { 'M', 'G', 'F', 'P' };
+	static final int HEADER_SIZE = 7;	// magic, version, profile id, y bits, before the varints
+	static final int POINT_SIZE = 2;	// bytes of a point in version 2
+	static final int MAX_Y_BITS = POINT_SIZE * 8 - 4;	// at least 4 bits are left for the intensity
+
+	private final byte[] fingerprint;
+	private final int version;
+	private int profileId;
+	private int numFrames;
+	private int numPoints;
+	private int yBits;
+	private int intensityBits;
+	private int intensityFloor;	// intensity of the lowest level
+	private long intensityRange;
+	private int maxLevel;
+
+	// position of the reader
+	private int pointer;
+	private int x;
+	private int y;
+	private int intensity;
+	private int numPointsLeftInFrame;
+	private int numPointsRead;
+
+	/**
+	 * Constructor, reads the header
+	 *
+	 * @param fingerprint
+	 *            fingerprint bytes of any version
+	 * @throws IllegalArgumentException
+	 *             if the version is unknown or the header of a version 2 fingerprint is corrupt
+	 */
+	public FingerprintReader(final byte[] fingerprint) {
+		this.fingerprint = fingerprint;
+
+		if (isVersion2(fingerprint)) {
+			version = VERSION_2;
+			profileId = fingerprint[5] & 0xff;
+			yBits = fingerprint[6];
+			if (yBits < 1 || yBits > MAX_Y_BITS) {
+				throw new IllegalArgumentException("FingerprintReader: invalid number of bits of y " + yBits);
+			}
+			intensityBits = POINT_SIZE * 8 - yBits;
+			pointer = HEADER_SIZE;
+			numFrames = readVarint();
+			numPoints = readVarint();
+			intensityFloor = readVarint();
+			if ((long) numPoints * POINT_SIZE > fingerprint.length - pointer) {
+				throw new IllegalArgumentException("FingerprintReader: the fingerprint is truncated, " + numPoints
+						+ " points do not fit in " + (fingerprint.length - pointer) + " bytes");
+			}
+			intensityRange = Integer.MAX_VALUE - intensityFloor;
+			maxLevel = (1 << intensityBits) - 1;
+		} else if (hasMagic(fingerprint)) {
+			throw new IllegalArgumentException("FingerprintReader: unknown version " + fingerprint[4]);
+		} else {
+			version = VERSION_1;
+			numPoints = fingerprint.length / 8;
+			if (numPoints > 0) {
+				// the x of the last point is the last frame
+				numFrames = ((fingerprint[fingerprint.length - 8] & 0xff) << 8 | fingerprint[fingerprint.length - 7] & 0xff) + 1;
+			}
+			pointer = 0;
+		}
+	}
+
+	/**
+	 * Check if a fingerprint is in the version 2 format
+	 *
+	 * @param fingerprint
+	 *            fingerprint bytes
+	 * @return true for version 2, false for version 1
+	 */
+	public static boolean isVersion2(final byte[] fingerprint) {
+		// a version 1 fingerprint cannot start with the magic, y of its first point would exceed any spectrum
+		return hasMagic(fingerprint) && fingerprint[4] == VERSION_2;
+	}
+
+	private static boolean hasMagic(final byte[] fingerprint) {
+		if (fingerprint.length < HEADER_SIZE) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (fingerprint[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Move to the next point
+	 *
+	 * @return true if there is a point, false if all the points have been read
+	 * @throws IllegalArgumentException
+	 *             if the points of a version 2 fingerprint are truncated or corrupt
+	 */
+	public boolean next() {
+		if (version == VERSION_1) {
+			if (pointer + 8 > fingerprint.length) {
+				return false;
+			}
+			x = (fingerprint[pointer] & 0xff) << 8 | fingerprint[pointer + 1] & 0xff;
+			y = (fingerprint[pointer + 2] & 0xff) << 8 | fingerprint[pointer + 3] & 0xff;
+			intensity = (fingerprint[pointer + 4] & 0xff) << 24 | (fingerprint[pointer + 5] & 0xff) << 16
+					| (fingerprint[pointer + 6] & 0xff) << 8 | fingerprint[pointer + 7] & 0xff;
+			pointer += 8;
+			return true;
+		}
+
+		while (numPointsLeftInFrame == 0) {
+			if (pointer >= fingerprint.length) {
+				if (numPointsRead != numPoints) {
+					throw new IllegalArgumentException("FingerprintReader: the fingerprint is truncated, " + numPointsRead
+							+ " of " + numPoints + " points read");
+				}
+				return false;
+			}
+			x += readVarint();
+			numPointsLeftInFrame = readVarint();
+		}
+		if (numPointsRead == numPoints) {
+			throw new IllegalArgumentException("FingerprintReader: the fingerprint is corrupt, more points than the "
+					+ numPoints + " of the header");
+		}
+		if (pointer + POINT_SIZE > fingerprint.length) {
+			throw new IllegalArgumentException("FingerprintReader: the fingerprint is truncated within a point");
+		}
+		final int point = (fingerprint[pointer] & 0xff) << 8 | fingerprint[pointer + 1] & 0xff;
+		y = point >>> intensityBits;
+		intensity = intensityFloor + (int) ((point & maxLevel) * intensityRange / maxLevel);
+		pointer += POINT_SIZE;
+		numPointsLeftInFrame--;
+		numPointsRead++;
+		return true;
+	}
+
+	private int readVarint() {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (pointer >= fingerprint.length) {
+				throw new IllegalArgumentException("FingerprintReader: the fingerprint is truncated within a varint");
+			}
+			b = fingerprint[pointer++];
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 35);
+		if ((b & 0x80) != 0 || value < 0) {
+			throw new IllegalArgumentException("FingerprintReader: the fingerprint is corrupt, invalid varint");
+		}
+		return value;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return profile id of the settings the fingerprint was extracted with, 0 if it is not known (version
+	 *         1)
+	 */
+	public int getProfileId() {
+		return profileId;
+	}
+
+	public int getNumFrames() {
+		return numFrames;
+	}
+
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	/**
+	 * @return frame of the current point
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * @return frequency unit of the current point
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @return intensity of the current point, ranged from 0 to Integer.MAX_VALUE
+	 */
+	public int getIntensity() {
+		return intensity;
+	}
+}
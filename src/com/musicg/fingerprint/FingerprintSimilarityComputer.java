@@ -12,12 +12,13 @@
  */
 package com.musicg.fingerprint;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
-import com.musicg.math.rank.MapRank;
-import com.musicg.math.rank.MapRankInteger;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
 
 /**
  * Compute the similarity of two fingerprints
@@ -26,7 +27,9 @@ import com.musicg.math.rank.MapRankInteger;
  */
 public class FingerprintSimilarityComputer {
 
-	private final FingerprintSimilarity fingerprintSimilarity;
+	private static final int NUM_SCORED_OFFSETS = 60;	// the best offsets scored
+	private static final int MIN_OFFSET_SCORE = 9;	// least score of an offset counted
+
 	byte[] fingerprint1, fingerprint2;
 
 	/**
@@ -39,8 +42,6 @@ public class FingerprintSimilarityComputer {
 
 		this.fingerprint1 = fingerprint1;
 		this.fingerprint2 = fingerprint2;
-
-		fingerprintSimilarity = new FingerprintSimilarity();
 	}
 
 	/**
@@ -51,8 +52,6 @@ public class FingerprintSimilarityComputer {
 	public FingerprintSimilarity getFingerprintsSimilarity() {
 		final HashMap<Integer, Integer> offset_Score_Table = new HashMap<Integer, Integer>(); // offset_Score_Table<offset,count>
 		int numFrames = 0;
-		float score = 0;
-		int mostSimilarFramePosition = Integer.MIN_VALUE;
 
 		// one frame may contain several points, use the shorter one be the denominator
 		if (fingerprint1.length > fingerprint2.length) {
@@ -68,6 +67,9 @@ public class FingerprintSimilarityComputer {
 		final HashMap<Integer, List<Integer>> compareWave_Pair_PositionList_Table = pairManager
 				.getPair_PositionList_Table(fingerprint2);
 
+		final long startTime = Metrics.startTimer();
+		long numVotes = 0;
+
 		final Iterator<Integer> compareWaveHashNumberIterator = compareWave_Pair_PositionList_Table.keySet().iterator();
 		while (compareWaveHashNumberIterator.hasNext()) {
 			final int compareWaveHashNumber = compareWaveHashNumberIterator.next();
@@ -90,6 +92,7 @@ public class FingerprintSimilarityComputer {
 				while (compareWavePositionListIterator.hasNext()) {
 					final int compareWavePosition = compareWavePositionListIterator.next();
 					final int offset = thisPosition - compareWavePosition;
+					numVotes++;
 
 					if (offset_Score_Table.containsKey(offset)) {
 						offset_Score_Table.put(offset, offset_Score_Table.get(offset) + 1);
@@ -100,62 +103,139 @@ public class FingerprintSimilarityComputer {
 			}
 		}
 
-		// map rank
-		final MapRank mapRank = new MapRankInteger(offset_Score_Table, false);
-		int newScore = 0;
-		// get the most similar positions and scores
-		@SuppressWarnings("unchecked")
-		final List<Integer> orderedKeyList = mapRank.getOrderedKeyList(60, true);
-		final Iterator<Integer> orderedKeyListIterator = orderedKeyList.iterator();
-
-		if (orderedKeyList.size() > 0) {
-			while (orderedKeyListIterator.hasNext()) {
-				final int key = orderedKeyListIterator.next();
-
-				// get the highest score position
-				mostSimilarFramePosition = key;
-
-				score = offset_Score_Table.get(key);
-				System.out.println("Offset: " + key + " : Score: " + score);
-				// accumulate the scores from neighbours
-				if (offset_Score_Table.containsKey(key - 1)) {
-					score += offset_Score_Table.get(key - 1) / 2;
-				}
-				if (offset_Score_Table.containsKey(key - 2)) {
-					score += offset_Score_Table.get(key - 2) / 4;
+		final FingerprintSimilarity fingerprintSimilarity = getSimilarity(offset_Score_Table, numFrames);
+		Metrics.stopTimer(Stage.SCORING, startTime, numVotes);
+
+		return fingerprintSimilarity;
+	}
+
+	/**
+	 * Get the similarity from the votes of the offsets between two fingerprints
+	 *
+	 * The votes of the best offsets are summed up with half of the votes of their neighbours, and divided
+	 * by the number of frames. The offsets are ranked by votes, and offsets with the same votes by offset,
+	 * the lower offset first.
+	 *
+	 * @param offset_Score_Table
+	 *            offset_Score_Table&lt;offset,count&gt;
+	 * @param numFrames
+	 *            number of frames of the shorter fingerprint
+	 * @return fingerprint similarity object
+	 */
+	public static FingerprintSimilarity getSimilarity(final HashMap<Integer, Integer> offset_Score_Table, final int numFrames) {
+		final int numOffsets = offset_Score_Table.size();
+		if (numOffsets == 0) {
+			final FingerprintSimilarity fingerprintSimilarity = new FingerprintSimilarity();
+			fingerprintSimilarity.setMostSimilarFramePosition(Integer.MIN_VALUE);
+			return fingerprintSimilarity;
+		}
+
+		// the offsets in ascending order
+		final int[] offsets = new int[numOffsets];
+		int i = 0;
+		for (final int offset : offset_Score_Table.keySet()) {
+			offsets[i++] = offset;
+		}
+		Arrays.sort(offsets);
+		final int[] counts = new int[numOffsets];
+		for (i = 0; i < numOffsets; i++) {
+			counts[i] = offset_Score_Table.get(offsets[i]);
+		}
+		return getSimilarity(offsets, counts, 0, numOffsets, numFrames);
+	}
+
+	/**
+	 * Get the similarity from the votes of the offsets between two fingerprints, counted in arrays
+	 *
+	 * The score is the one of getSimilarity(HashMap, int): when the best offsets tie at the last of the
+	 * scored counts, the lower offsets are scored first.
+	 *
+	 * @param offsets
+	 *            offsets in ascending order, each offset once
+	 * @param counts
+	 *            votes of the offsets
+	 * @param from
+	 *            index of the first offset
+	 * @param to
+	 *            index after the last offset, more than from
+	 * @param numFrames
+	 *            number of frames of the shorter fingerprint
+	 * @return fingerprint similarity object
+	 */
+	public static FingerprintSimilarity getSimilarity(final int[] offsets, final int[] counts, final int from, final int to,
+			final int numFrames) {
+
+		// the count of the last scored offset
+		final int numOffsets = to - from;
+		final int numKeys = Math.min(NUM_SCORED_OFFSETS, numOffsets);
+		final int passCount;
+		int numTiesScored = numKeys;
+		if (numOffsets == numKeys) {
+			// all the offsets are scored
+			int minCount = Integer.MAX_VALUE;
+			for (int i = from; i < to; i++) {
+				minCount = Math.min(minCount, counts[i]);
+			}
+			passCount = minCount;
+			for (int i = from; i < to; i++) {
+				if (counts[i] > passCount) {
+					numTiesScored--;
 				}
-				if (offset_Score_Table.containsKey(key + 1)) {
-					score += offset_Score_Table.get(key + 1) / 2;
+			}
+		} else {
+			final int[] sortedCounts = Arrays.copyOfRange(counts, from, to);
+			Arrays.sort(sortedCounts);
+			passCount = sortedCounts[numOffsets - numKeys];
+			for (int i = numOffsets - numKeys; i < numOffsets; i++) {
+				if (sortedCounts[i] > passCount) {
+					numTiesScored--;
 				}
-				if (offset_Score_Table.containsKey(key + 2)) {
-					score += offset_Score_Table.get(key + 2) / 4;
+			}
+		}
+
+		int newScore = 0;
+		// the last offset scored, the highest of the scored offsets with the pass count
+		int mostSimilarFramePosition = Integer.MIN_VALUE;
+		for (int i = from, numTies = 0; i < to; i++) {
+			if (counts[i] < passCount) {
+				continue;
+			}
+			if (counts[i] == passCount) {
+				if (numTies == numTiesScored) {
+					continue;
 				}
-				newScore += score >= 9 ? score : 0;
+				numTies++;
+				mostSimilarFramePosition = offsets[i];
+			}
 
+			// accumulate the scores from neighbours
+			int score = counts[i];
+			final int offset = offsets[i];
+			if (i - 1 >= from && offsets[i - 1] == offset - 1) {
+				score += counts[i - 1] / 2;
+				if (i - 2 >= from && offsets[i - 2] == offset - 2) {
+					score += counts[i - 2] / 4;
+				}
+			} else if (i - 1 >= from && offsets[i - 1] == offset - 2) {
+				score += counts[i - 1] / 4;
 			}
-		}
-		System.out.println("new score: " + newScore / orderedKeyList.size());
-		score = newScore;
-
-		/*
-		 * final Iterator<Integer> orderedKeyListIterator = orderedKeyList.iterator();
-		 * while (orderedKeyListIterator.hasNext()) {
-		 * final int offset = orderedKeyListIterator.next();
-		 * System.out.println(offset + ": " + offset_Score_Table.get(offset));
-		 * }
-		 */
-
-		score /= numFrames;
-		float similarity = score;
-		// similarity >1 means in average there is at least one match in every frame
-		if (similarity > 1) {
-			similarity = 1;
+			if (i + 1 < to && offsets[i + 1] == offset + 1) {
+				score += counts[i + 1] / 2;
+				if (i + 2 < to && offsets[i + 2] == offset + 2) {
+					score += counts[i + 2] / 4;
+				}
+			} else if (i + 1 < to && offsets[i + 1] == offset + 2) {
+				score += counts[i + 1] / 4;
+			}
+			newScore += score >= MIN_OFFSET_SCORE ? score : 0;
 		}
 
+		final float score = (float) newScore / numFrames;
+		final FingerprintSimilarity fingerprintSimilarity = new FingerprintSimilarity();
 		fingerprintSimilarity.setMostSimilarFramePosition(mostSimilarFramePosition);
 		fingerprintSimilarity.setScore(score);
-		fingerprintSimilarity.setSimilarity(similarity);
-
+		// similarity >1 means in average there is at least one match in every frame
+		fingerprintSimilarity.setSimilarity(score > 1 ? 1 : score);
 		return fingerprintSimilarity;
 	}
-}
\ No newline at end of file
+}
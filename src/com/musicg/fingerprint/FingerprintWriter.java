@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Write the points of a fingerprint, in frame order, see FingerprintReader for the formats
+ *
+ * @author jacquet
+ */
+public class FingerprintWriter {
+
+	private final int version;
+	private final int profileId;
+	private final int numFrames;
+
+	// points, encoded when all of them are added
+	private int[] xs = new int[256];
+	private int[] ys = new int[256];
+	private int[] intensities = new int[256];
+	private int numPoints;
+	private int maxY;
+
+	/**
+	 * Constructor
+	 *
+	 * @param version
+	 *            FingerprintReader.VERSION_1 or FingerprintReader.VERSION_2
+	 * @param profileId
+	 *            profile id of the settings the fingerprint is extracted with
+	 * @param numFrames
+	 *            number of frames of the wave
+	 */
+	public FingerprintWriter(final int version, final int profileId, final int numFrames) {
+		if (version != FingerprintReader.VERSION_1 && version != FingerprintReader.VERSION_2) {
+			throw new IllegalArgumentException("FingerprintWriter: unknown version " + version);
+		}
+		if (version == FingerprintReader.VERSION_1 && numFrames > 0x10000) {
+			throw new IllegalArgumentException("FingerprintWriter: version 1 supports up to 65536 frames");
+		}
+		this.version = version;
+		this.profileId = profileId;
+		this.numFrames = numFrames;
+	}
+
+	/**
+	 * Add a point, the points are added in frame order
+	 *
+	 * @param x
+	 *            frame of the point
+	 * @param y
+	 *            frequency unit of the point
+	 * @param intensity
+	 *            intensity of the point, ranged from 0 to Integer.MAX_VALUE
+	 */
+	public void addPoint(final int x, final int y, final int intensity) {
+		if (numPoints > 0 && x < xs[numPoints - 1]) {
+			throw new IllegalArgumentException("FingerprintWriter: the points are not in frame order");
+		}
+		if (version == FingerprintReader.VERSION_2 && (y < 0 || y >> FingerprintReader.MAX_Y_BITS != 0)) {
+			throw new IllegalArgumentException("FingerprintWriter: y " + y + " exceeds the "
+					+ FingerprintReader.MAX_Y_BITS + " bits of version 2");
+		}
+		if (numPoints == xs.length) {
+			xs = Arrays.copyOf(xs, numPoints * 2);
+			ys = Arrays.copyOf(ys, numPoints * 2);
+			intensities = Arrays.copyOf(intensities, numPoints * 2);
+		}
+		xs[numPoints] = x;
+		ys[numPoints] = y;
+		intensities[numPoints] = Math.max(0, intensity);
+		maxY = Math.max(maxY, y);
+		numPoints++;
+	}
+
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	/**
+	 * Get the fingerprint
+	 *
+	 * @return fingerprint bytes
+	 */
+	public byte[] toByteArray() {
+		if (version == FingerprintReader.VERSION_1) {
+			final byte[] fingerprint = new byte[numPoints * 8];
+			for (int i = 0; i < numPoints; i++) {
+				final int pointer = i * 8;
+				fingerprint[pointer] = (byte) (xs[i] >> 8);
+				fingerprint[pointer + 1] = (byte) xs[i];
+				fingerprint[pointer + 2] = (byte) (ys[i] >> 8);
+				fingerprint[pointer + 3] = (byte) ys[i];
+				fingerprint[pointer + 4] = (byte) (intensities[i] >> 24);
+				fingerprint[pointer + 5] = (byte) (intensities[i] >> 16);
+				fingerprint[pointer + 6] = (byte) (intensities[i] >> 8);
+				fingerprint[pointer + 7] = (byte) intensities[i];
+			}
+			return fingerprint;
+		}
+
+		// the robust points are all loud, so the intensities are quantized between the lowest one and the maximum
+		int intensityFloor = Integer.MAX_VALUE;
+		for (int i = 0; i < numPoints; i++) {
+			intensityFloor = Math.min(intensityFloor, intensities[i]);
+		}
+		final long intensityRange = Integer.MAX_VALUE - intensityFloor;
+		// y takes the bits the highest y of the points needs, the rest of the 16 bits is for the intensity
+		final int yBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxY));
+		final int intensityBits = FingerprintReader.POINT_SIZE * 8 - yBits;
+		final int maxLevel = (1 << intensityBits) - 1;
+
+		final ByteArrayOutputStream fingerprint = new ByteArrayOutputStream(FingerprintReader.HEADER_SIZE + 15
+				+ numPoints * (FingerprintReader.POINT_SIZE + 1));
+		fingerprint.write(FingerprintReader.MAGIC, 0, FingerprintReader.MAGIC.length);
+		fingerprint.write(version);
+		fingerprint.write(profileId);
+		fingerprint.write(yBits);
+		writeVarint(fingerprint, numFrames);
+		writeVarint(fingerprint, numPoints);
+		writeVarint(fingerprint, intensityFloor);
+
+		int previousX = 0;
+		int i = 0;
+		while (i < numPoints) {
+			// points of a frame
+			int end = i + 1;
+			while (end < numPoints && xs[end] == xs[i]) {
+				end++;
+			}
+			writeVarint(fingerprint, xs[i] - previousX);
+			writeVarint(fingerprint, end - i);
+			previousX = xs[i];
+
+			for (; i < end; i++) {
+				final int level = intensityRange == 0 ? maxLevel
+						: (int) (((long) (intensities[i] - intensityFloor) * maxLevel + intensityRange / 2) / intensityRange);
+				final int point = ys[i] << intensityBits | level;
+				fingerprint.write(point >> 8);
+				fingerprint.write(point);
+			}
+		}
+		return fingerprint.toByteArray();
+	}
+
+	private static void writeVarint(final ByteArrayOutputStream outputStream, int value) {
+		while ((value & ~0x7f) != 0) {
+			outputStream.write(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		outputStream.write(value);
+	}
+}
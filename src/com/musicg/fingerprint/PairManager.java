@@ -22,6 +22,8 @@ import java.util.LinkedList;
 import java.util.List;
 
 import com.musicg.math.quicksort.QuickSortIndexPreserved;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
 import com.musicg.properties.FingerprintProperties;
 
 /**
@@ -77,6 +79,7 @@ public class PairManager{
 	 */
 	public HashMap<Integer,List<Integer>> getPair_PositionList_Table(byte[] fingerprint){
 		
+		long startTime=Metrics.startTimer();
 		List<int[]> pairPositionList=getPairPositionList(fingerprint);
 		
 		// table to store pair:pos,pos,pos,...;pair2:pos,pos,pos,....
@@ -101,6 +104,7 @@ public class PairManager{
 		}
 		// end get all pair_positions from list, use a table to collect the data group by pair hashcode
 		
+		Metrics.stopTimer(Stage.PAIRING,startTime,pairPositionList.size());
 		return pair_positionList_table;
 	}
 	
@@ -191,18 +195,17 @@ public class PairManager{
 	}
 		
 	private List<int[]> getSortedCoordinateList(byte[] fingerprint){
-		// each point data is 8 bytes 
-		// first 2 bytes is x
-		// next 2 bytes is y
-		// next 4 bytes is intensity
 		
-		// get all intensities
-		int numCoordinates=fingerprint.length/8;
+		// get all coordinates and intensities
+		FingerprintReader reader=new FingerprintReader(fingerprint);
+		int numCoordinates=reader.getNumPoints();
+		int[] xs=new int[numCoordinates];
+		int[] ys=new int[numCoordinates];
 		int[] intensities=new int[numCoordinates];
-		for (int i=0; i<numCoordinates; i++){
-			int pointer=i*8+4;
-			int intensity=(int)(fingerprint[pointer]&0xff)<<24 | (int)(fingerprint[pointer+1]&0xff)<<16 | (int)(fingerprint[pointer+2]&0xff)<<8 | (int)(fingerprint[pointer+3]&0xff);
-			intensities[i]=intensity;
+		for (int i=0; i<numCoordinates && reader.next(); i++){
+			xs[i]=reader.getX();
+			ys[i]=reader.getY();
+			intensities[i]=reader.getIntensity();
 		}
 		
 		QuickSortIndexPreserved quicksort=new QuickSortIndexPreserved(intensities);
@@ -210,10 +213,7 @@ public class PairManager{
 		
 		List<int[]> sortedCoordinateList=new LinkedList<int[]>();
 		for (int i=sortIndexes.length-1; i>=0; i--){
-			int pointer=sortIndexes[i]*8;
-			int x=(int)(fingerprint[pointer]&0xff)<<8 | (int)(fingerprint[pointer+1]&0xff);
-			int y=(int)(fingerprint[pointer+2]&0xff)<<8 | (int)(fingerprint[pointer+3]&0xff);
-			sortedCoordinateList.add(new int[]{x,y});
+			sortedCoordinateList.add(new int[]{xs[sortIndexes[i]],ys[sortIndexes[i]]});
 		}
 		return sortedCoordinateList;
 	}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of recognition results, keyed by a 64 bit hash of the query's fingerprint
+ *
+ * The same clip sent again gives the same fingerprint, so its result is found without pairing it and
+ * scoring the catalog again. An entry expires after the time to live, and the least recently used entries are evicted
+ * when the cache is full. The cache can be shared by threads.
+ *
+ * @author jacquet
+ */
+public class QueryResultCache<V> {
+
+	private final int maxEntries;
+	private final long timeToLiveNanos;
+	private final LinkedHashMap<Long, Entry<V>> entries;	// in access order, guarded by itself
+
+	// counters
+	private final AtomicLong numHits = new AtomicLong();
+	private final AtomicLong numMisses = new AtomicLong();
+	private final AtomicLong numEvictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries
+	 *            maximum number of results kept
+	 * @param timeToLiveMillis
+	 *            time a result is kept, in milliseconds
+	 */
+	public QueryResultCache(final int maxEntries, final long timeToLiveMillis) {
+		if (maxEntries < 1 || timeToLiveMillis < 1) {
+			throw new IllegalArgumentException("QueryResultCache: the size and the time to live should be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.timeToLiveNanos = timeToLiveMillis * 1000000L;
+		this.entries = new LinkedHashMap<Long, Entry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(final Map.Entry<Long, Entry<V>> eldest) {
+				if (size() > QueryResultCache.this.maxEntries) {
+					numEvictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Key of a query, a hash of the bytes of its fingerprint
+	 *
+	 * The pairs of a fingerprint only depend on its bytes, so the bytes are hashed instead of pairing the
+	 * query.
+	 *
+	 * @param fingerprint
+	 *            fingerprint of the query
+	 * @return key
+	 */
+	public static long getQueryKey(final byte[] fingerprint) {
+		long key = fingerprint.length;
+		int i = 0;
+		// 8 bytes at a time, then the bytes left
+		for (; i + 8 <= fingerprint.length; i += 8) {
+			long word = 0;
+			for (int j = i; j < i + 8; j++) {
+				word = word << 8 | fingerprint[j] & 0xff;
+			}
+			key = mix(key * 31 + word);
+		}
+		if (i < fingerprint.length) {
+			long word = 0;
+			for (; i < fingerprint.length; i++) {
+				word = word << 8 | fingerprint[i] & 0xff;
+			}
+			key = mix(key * 31 + word);
+		}
+		return key;
+	}
+
+	// 64 bit finalizer of murmur3
+	static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	/**
+	 * Get a result
+	 *
+	 * @param key
+	 *            key of the query
+	 * @return result, or null if there is no result or it has expired
+	 */
+	public V get(final long key) {
+		final Entry<V> entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && System.nanoTime() - entry.time > timeToLiveNanos) {
+				entries.remove(key);
+				numEvictions.incrementAndGet();
+				numMisses.incrementAndGet();
+				return null;
+			}
+		}
+		if (entry == null) {
+			numMisses.incrementAndGet();
+			return null;
+		}
+		numHits.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Keep a result
+	 *
+	 * @param key
+	 *            key of the query
+	 * @param value
+	 *            result of the query
+	 */
+	public void put(final long key, final V value) {
+		synchronized (entries) {
+			entries.put(key, new Entry<V>(value, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Remove all the results
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getNumHits() {
+		return numHits.get();
+	}
+
+	public long getNumMisses() {
+		return numMisses.get();
+	}
+
+	/**
+	 * @return number of results removed because the cache was full or they expired
+	 */
+	public long getNumEvictions() {
+		return numEvictions.get();
+	}
+
+	/**
+	 * @return ratio of the queries found in the cache
+	 */
+	public double getHitRate() {
+		final long hits = numHits.get();
+		final long total = hits + numMisses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	private static class Entry<V> {
+
+		final V value;
+		final long time;	// System.nanoTime() when the result was kept
+
+		Entry(final V value, final long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+}
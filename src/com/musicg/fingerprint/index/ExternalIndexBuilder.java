@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.musicg.fingerprint.FingerprintManager;
+import com.musicg.fingerprint.PairManager;
+
+/**
+ * Build the index of a catalog larger than the memory, into an index directory
+ *
+ * The (pair hash, track, frame) tuples of the added tracks are buffered up to the memory budget, then
+ * sorted and spilled to a run file by a pool of threads while the next tuples are buffered. finish()
+ * merges the runs into segment files of at most maxPostingsPerSegment postings, and writes the tracks
+ * file. The directory can then be opened with IncrementalIndex.open().
+ *
+ * Usage:
+ *
+ * <pre>
+ * ExternalIndexBuilder builder = new ExternalIndexBuilder(directory, memoryBudget, numThreads);
+ * builder.addTrack(trackId, fingerprint); // from any number of threads
+ * builder.finish();
+ * </pre>
+ *
+ * @author jacquet
+ */
+public class ExternalIndexBuilder {
+
+	public static final int BYTES_PER_TUPLE = 20;	// pair hash, posting and sort key of a buffered tuple
+	public static final int DEFAULT_MAX_POSTINGS_PER_SEGMENT = 1 << 26;
+	private static final int BUFFER_SIZE = 1 << 16;	// bytes of the stream buffer of a run file
+
+	private final File directory;
+	private final int bufferCapacity;	// tuples of a run
+	private final int maxPostingsPerSegment;
+	private final ExecutorService runWriters;
+	private final Semaphore freeRunWriters;	// a full buffer waits for a run writer, so at most numThreads+1 buffers are held
+	private final List<Future<File>> runs = new ArrayList<Future<File>>();
+
+	// tracks and the buffer being filled, guarded by this
+	private final HashMap<String, Integer> trackNumbers = new HashMap<String, Integer>();	// trackNumbers<trackId,trackNumber>
+	private String[] trackIds = new String[1024];
+	private int[] trackNumFrames = new int[1024];
+	private boolean[] removed = new boolean[1024];
+	private int numTracks;
+	private int[] bufferHashes;
+	private long[] bufferPostings;
+	private int bufferSize;
+	private boolean isFinished;
+
+	/**
+	 * Constructor, with the default segment size
+	 *
+	 * @param directory
+	 *            index directory, created if it does not exist
+	 * @param memoryBudget
+	 *            bytes of the tuple buffers, shared by the buffer being filled and the runs being sorted
+	 * @param numThreads
+	 *            number of threads sorting and writing the runs
+	 * @throws IOException
+	 */
+	public ExternalIndexBuilder(final File directory, final long memoryBudget, final int numThreads) throws IOException {
+		this(directory, memoryBudget, numThreads, DEFAULT_MAX_POSTINGS_PER_SEGMENT);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param directory
+	 *            index directory, created if it does not exist
+	 * @param memoryBudget
+	 *            bytes of the tuple buffers, shared by the buffer being filled and the runs being sorted
+	 * @param numThreads
+	 *            number of threads sorting and writing the runs
+	 * @param maxPostingsPerSegment
+	 *            a segment is closed at the next pair hash once it holds this many postings
+	 * @throws IOException
+	 */
+	public ExternalIndexBuilder(final File directory, final long memoryBudget, final int numThreads, final int maxPostingsPerSegment)
+			throws IOException {
+		if (numThreads < 1 || maxPostingsPerSegment < 1) {
+			throw new IllegalArgumentException("ExternalIndexBuilder: the number of threads and the segment size should be positive");
+		}
+		final long capacity = memoryBudget / BYTES_PER_TUPLE / (numThreads + 1);
+		if (capacity < 1024) {
+			throw new IllegalArgumentException("ExternalIndexBuilder: the memory budget is too small");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("ExternalIndexBuilder: cannot create " + directory);
+		}
+		if (IndexFiles.listSegmentFiles(directory).length > 0) {
+			throw new IOException("ExternalIndexBuilder: " + directory + " already has segments");
+		}
+		this.directory = directory;
+		this.bufferCapacity = (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+		this.maxPostingsPerSegment = maxPostingsPerSegment;
+		this.runWriters = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "musicg-index-run-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.freeRunWriters = new Semaphore(numThreads);
+	}
+
+	/**
+	 * Add a track, a track added again replaces the previous one
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @param fingerprint
+	 *            fingerprint of the track
+	 * @throws InterruptedException
+	 */
+	public void addTrack(final String trackId, final byte[] fingerprint) throws InterruptedException {
+		// pair the points before taking the lock, so the threads adding tracks pair in parallel
+		final HashMap<Integer, List<Integer>> pair_PositionList_Table = new PairManager().getPair_PositionList_Table(fingerprint);
+		final int numFrames = FingerprintManager.getNumFrames(fingerprint);
+
+		synchronized (this) {
+			if (isFinished) {
+				throw new IllegalStateException("ExternalIndexBuilder: the index is finished");
+			}
+			final Integer replacedTrackNumber = trackNumbers.get(trackId);
+			if (replacedTrackNumber != null) {
+				removed[replacedTrackNumber] = true;
+			}
+			if (numTracks == trackIds.length) {
+				trackIds = Arrays.copyOf(trackIds, numTracks * 2);
+				trackNumFrames = Arrays.copyOf(trackNumFrames, numTracks * 2);
+				removed = Arrays.copyOf(removed, numTracks * 2);
+			}
+			final int trackNumber = numTracks++;
+			trackIds[trackNumber] = trackId;
+			trackNumFrames[trackNumber] = numFrames;
+			trackNumbers.put(trackId, trackNumber);
+
+			for (final Map.Entry<Integer, List<Integer>> pair : pair_PositionList_Table.entrySet()) {
+				final int pairHash = pair.getKey();
+				for (final int position : pair.getValue()) {
+					if (bufferHashes == null) {
+						bufferHashes = new int[bufferCapacity];
+						bufferPostings = new long[bufferCapacity];
+					}
+					bufferHashes[bufferSize] = pairHash;
+					bufferPostings[bufferSize] = Postings.pack(trackNumber, position);
+					bufferSize++;
+					if (bufferSize == bufferCapacity) {
+						spill();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge the runs into the segment files and write the tracks file
+	 *
+	 * @return segment files
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<File> finish() throws IOException, InterruptedException {
+		synchronized (this) {
+			if (isFinished) {
+				throw new IllegalStateException("ExternalIndexBuilder: the index is finished");
+			}
+			isFinished = true;
+			if (bufferSize > 0) {
+				spill();
+			}
+			bufferHashes = null;
+			bufferPostings = null;
+		}
+		runWriters.shutdown();
+		runWriters.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		final List<File> runFiles = new ArrayList<File>();
+		IOException runException = null;
+		for (final Future<File> run : runs) {
+			try {
+				runFiles.add(run.get());
+			} catch (ExecutionException e) {
+				runException = new IOException("ExternalIndexBuilder: a run was not written", e.getCause());
+			}
+		}
+		try {
+			if (runException != null) {
+				throw runException;
+			}
+			final List<File> segmentFiles = mergeRuns(runFiles);
+			IndexFiles.writeTracks(new File(directory, IndexFiles.TRACKS_FILE_NAME), trackIds, trackNumFrames, removed, numTracks);
+			return segmentFiles;
+		} finally {
+			for (final File runFile : runFiles) {
+				runFile.delete();
+			}
+		}
+	}
+
+	// hand the full buffer to a run writer, guarded by this
+	private void spill() throws InterruptedException {
+		freeRunWriters.acquire();
+		final int[] hashes = bufferHashes;
+		final long[] postings = bufferPostings;
+		final int size = bufferSize;
+		final File runFile = new File(directory, String.format("run-%05d.tmp", runs.size()));
+		bufferHashes = null;
+		bufferPostings = null;
+		bufferSize = 0;
+
+		runs.add(runWriters.submit(new Callable<File>() {
+			public File call() throws IOException {
+				try {
+					writeRun(hashes, postings, size, runFile);
+					return runFile;
+				} finally {
+					freeRunWriters.release();
+				}
+			}
+		}));
+	}
+
+	// sort the tuples by pair hash then posting, and write them
+	private static void writeRun(final int[] hashes, final long[] postings, final int size, final File runFile) throws IOException {
+		// sort keys of the pair hash and the position in the buffer
+		final long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = (long) hashes[i] << 32 | i;
+		}
+		Arrays.sort(keys);
+
+		final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), BUFFER_SIZE));
+		try {
+			long[] group = new long[64];	// postings of a pair hash
+			int k = 0;
+			while (k < size) {
+				final int pairHash = (int) (keys[k] >> 32);
+				int groupSize = 0;
+				for (; k < size && (int) (keys[k] >> 32) == pairHash; k++) {
+					if (groupSize == group.length) {
+						group = Arrays.copyOf(group, groupSize * 2);
+					}
+					group[groupSize++] = postings[(int) keys[k]];
+				}
+				Arrays.sort(group, 0, groupSize);
+				for (int i = 0; i < groupSize; i++) {
+					outputStream.writeInt(pairHash);
+					outputStream.writeLong(group[i]);
+				}
+			}
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	// k-way merge of the runs into the segment files
+	private List<File> mergeRuns(final List<File> runFiles) throws IOException {
+		final List<File> segmentFiles = new ArrayList<File>();
+		final PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(Math.max(1, runFiles.size()), new Comparator<RunReader>() {
+			public int compare(final RunReader reader1, final RunReader reader2) {
+				if (reader1.pairHash != reader2.pairHash) {
+					return reader1.pairHash < reader2.pairHash ? -1 : 1;
+				}
+				return reader1.posting < reader2.posting ? -1 : (reader1.posting == reader2.posting ? 0 : 1);
+			}
+		});
+
+		IndexFiles.SegmentWriter segmentWriter = null;
+		try {
+			for (final File runFile : runFiles) {
+				final RunReader reader = new RunReader(runFile);
+				if (reader.next()) {
+					readers.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+
+			int previousHash = 0;
+			while (!readers.isEmpty()) {
+				final RunReader reader = readers.poll();
+				final int pairHash = reader.pairHash;
+				final long posting = reader.posting;
+				if (reader.next()) {
+					readers.add(reader);
+				} else {
+					reader.close();
+				}
+
+				if (removed[Postings.getTrackNumber(posting)]) {
+					continue;
+				}
+				// a segment is closed between two pair hashes
+				if (segmentWriter != null && segmentWriter.getNumPostings() >= maxPostingsPerSegment && pairHash != previousHash) {
+					segmentWriter.close();
+					segmentWriter = null;
+				}
+				if (segmentWriter == null) {
+					final File segmentFile = IndexFiles.getSegmentFile(directory, segmentFiles.size());
+					segmentWriter = new IndexFiles.SegmentWriter(segmentFile);
+					segmentFiles.add(segmentFile);
+				}
+				segmentWriter.add(pairHash, posting);
+				previousHash = pairHash;
+			}
+		} finally {
+			for (final RunReader reader : readers) {
+				reader.close();
+			}
+			if (segmentWriter != null) {
+				segmentWriter.close();
+			}
+		}
+		return segmentFiles;
+	}
+
+	/**
+	 * Reader of the tuples of a run file
+	 */
+	private static class RunReader {
+
+		private final DataInputStream inputStream;
+		int pairHash;
+		long posting;
+
+		RunReader(final File runFile) throws IOException {
+			inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), BUFFER_SIZE));
+		}
+
+		boolean next() throws IOException {
+			try {
+				pairHash = inputStream.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			posting = inputStream.readLong();
+			return true;
+		}
+
+		void close() throws IOException {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partition of the pair hashes in ranges, one per shard of an index
+ *
+ * Shard s has the pair hashes from splits[s-1] (included) to splits[s] (excluded), the first shard has
+ * all the pair hashes below splits[0] and the last one all the pair hashes from the last split. A shard
+ * between two equal splits is empty. The pair
+ * hashes of PairManager are far from uniform, so the splits are best taken from the postings of an
+ * index, see balance().
+ *
+ * The partitioner file is the magic "MGSH", the version, the number of splits and the splits.
+ *
+ * @author jacquet
+ */
+public class HashPartitioner {
+
+	public static final String FILE_NAME = "shards.mgsh";
+
+	static final int MAGIC = 0x4D475348;	// "MGSH"
+
+	private final int[] splits;
+
+	/**
+	 * @param splits
+	 *            first pair hash of each shard but the first, not descending
+	 */
+	public HashPartitioner(final int[] splits) {
+		for (int i = 1; i < splits.length; i++) {
+			if (splits[i] < splits[i - 1]) {
+				throw new IllegalArgumentException("HashPartitioner: the splits should not be descending");
+			}
+		}
+		this.splits = splits.clone();
+	}
+
+	/**
+	 * Split the pair hashes of an index in ranges with about the same number of postings
+	 *
+	 * @param snapshot
+	 *            snapshot of the index
+	 * @param numShards
+	 *            number of shards
+	 * @return partitioner
+	 */
+	public static HashPartitioner balance(final IndexSnapshot snapshot, final int numShards) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("HashPartitioner: numShards should be positive");
+		}
+
+		// (pairHash << 32 | postings) of the entries of all the segments, sorted by pair hash
+		final IndexSegment[] segments = snapshot.getSearchedSegments();
+		int numEntries = 0;
+		long numPostings = 0;
+		for (int i = 0; i < segments.length; i++) {
+			numEntries += segments[i].getNumHashes();
+			numPostings += segments[i].getNumPostings();
+		}
+		final long[] entries = new long[numEntries];
+		int e = 0;
+		for (int i = 0; i < segments.length; i++) {
+			for (int entry = 0; entry < segments[i].getNumHashes(); entry++) {
+				entries[e++] = (long) segments[i].getHash(entry) << 32 | segments[i].getPostingsEnd(entry) - segments[i].getPostingsStart(entry);
+			}
+		}
+		Arrays.sort(entries);
+
+		// a new shard at the first pair hash past each numPostings/numShards postings
+		final int[] splits = new int[numShards - 1];
+		int numSplits = 0;
+		long cumulative = 0;
+		for (int i = 0; i < numEntries && numSplits < splits.length; i++) {
+			final int pairHash = (int) (entries[i] >> 32);
+			if (cumulative >= numPostings * (numSplits + 1) / numShards && (i == 0 || (int) (entries[i - 1] >> 32) != pairHash)) {
+				splits[numSplits++] = pairHash;
+			}
+			cumulative += entries[i] & 0xffffffffL;
+		}
+		// too few distinct pair hashes, the shards past the last split are empty but the last one
+		final int lastSplit = numSplits > 0 ? splits[numSplits - 1] : Integer.MAX_VALUE;
+		for (; numSplits < splits.length; numSplits++) {
+			splits[numSplits] = lastSplit;
+		}
+		return new HashPartitioner(splits);
+	}
+
+	/**
+	 * @return number of shards
+	 */
+	public int getNumShards() {
+		return splits.length + 1;
+	}
+
+	/**
+	 * @param pairHash
+	 *            pair hash
+	 * @return shard having the pair hash, from 0 to getNumShards()-1
+	 */
+	public int getShard(final int pairHash) {
+		// number of splits up to the pair hash, past the equal splits
+		int low = 0;
+		int high = splits.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (splits[middle] <= pairHash) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Split the pair hashes of a fingerprint by shard
+	 *
+	 * @param pair_PositionList_Table
+	 *            pair_PositionList_Table<pairHash,positions> of the fingerprint
+	 * @return pair_PositionList_Table of each shard, by shard
+	 */
+	public List<HashMap<Integer, List<Integer>>> partition(final HashMap<Integer, List<Integer>> pair_PositionList_Table) {
+		final List<HashMap<Integer, List<Integer>>> shardTables = new ArrayList<HashMap<Integer, List<Integer>>>(getNumShards());
+		for (int shard = 0; shard < getNumShards(); shard++) {
+			shardTables.add(new HashMap<Integer, List<Integer>>());
+		}
+		for (final Map.Entry<Integer, List<Integer>> pair : pair_PositionList_Table.entrySet()) {
+			shardTables.get(getShard(pair.getKey())).put(pair.getKey(), pair.getValue());
+		}
+		return shardTables;
+	}
+
+	/**
+	 * Write the partitioner
+	 *
+	 * @param file
+	 *            partitioner file
+	 * @throws IOException
+	 */
+	public void write(final File file) throws IOException {
+		final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(IndexFiles.VERSION);
+			outputStream.writeInt(splits.length);
+			for (int i = 0; i < splits.length; i++) {
+				outputStream.writeInt(splits[i]);
+			}
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * Read a partitioner written by write()
+	 *
+	 * @param file
+	 *            partitioner file
+	 * @return partitioner
+	 * @throws IOException
+	 */
+	public static HashPartitioner read(final File file) throws IOException {
+		final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (inputStream.readInt() != MAGIC || inputStream.readInt() != IndexFiles.VERSION) {
+				throw new IOException("HashPartitioner: " + file + " is not a partitioner file");
+			}
+			final int[] splits = new int[inputStream.readInt()];
+			for (int i = 0; i < splits.length; i++) {
+				splits[i] = inputStream.readInt();
+			}
+			return new HashPartitioner(splits);
+		} finally {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Index segment held in arrays on the heap
+ *
+ * @author jacquet
+ */
+public class HeapIndexSegment implements IndexSegment {
+
+	private final int[] hashes;	// pair hashes, ascending
+	private final int[] starts;	// starts[entry] is the first posting of the entry, starts[numHashes] is the number of postings
+	private final long[] postings;
+	private final PerfectHashDirectory directory;	// null to find the pair hashes by binary search
+
+	/**
+	 * Constructor
+	 *
+	 * @param hashes
+	 *            pair hashes, ascending
+	 * @param starts
+	 *            position of the first posting of each pair hash, followed by the number of postings
+	 * @param postings
+	 *            postings of the pair hashes, ascending for each pair hash
+	 */
+	public HeapIndexSegment(final int[] hashes, final int[] starts, final long[] postings) {
+		this(hashes, starts, postings, null);
+	}
+
+	HeapIndexSegment(final int[] hashes, final int[] starts, final long[] postings, final PerfectHashDirectory directory) {
+		if (starts.length != hashes.length + 1 || starts[hashes.length] > postings.length) {
+			throw new IllegalArgumentException("HeapIndexSegment: the starts do not match the hashes and the postings");
+		}
+		if (directory != null && directory.getNumHashes() != hashes.length) {
+			throw new IllegalArgumentException("HeapIndexSegment: the directory does not match the hashes");
+		}
+		this.hashes = hashes;
+		this.starts = starts;
+		this.postings = postings;
+		this.directory = directory;
+	}
+
+	/**
+	 * Get the segment with a minimal perfect hash directory of its pair hashes, for the segments kept
+	 * long enough to pay back the build
+	 *
+	 * @return segment sharing the arrays of this one
+	 */
+	public HeapIndexSegment withDirectory() {
+		return directory != null ? this : new HeapIndexSegment(hashes, starts, postings, PerfectHashDirectory.build(this, false));
+	}
+
+	/**
+	 * Make the segment of a track
+	 *
+	 * @param trackNumber
+	 *            number of the track in the index
+	 * @param pair_PositionList_Table
+	 *            pairs of the track, from PairManager.getPair_PositionList_Table()
+	 * @return segment
+	 */
+	public static HeapIndexSegment forTrack(final int trackNumber, final HashMap<Integer, List<Integer>> pair_PositionList_Table) {
+		final int[] hashes = new int[pair_PositionList_Table.size()];
+		int numPostings = 0;
+		int entry = 0;
+		for (final Map.Entry<Integer, List<Integer>> pair : pair_PositionList_Table.entrySet()) {
+			hashes[entry++] = pair.getKey();
+			numPostings += pair.getValue().size();
+		}
+		Arrays.sort(hashes);
+
+		final int[] starts = new int[hashes.length + 1];
+		final long[] postings = new long[numPostings];
+		int position = 0;
+		for (entry = 0; entry < hashes.length; entry++) {
+			starts[entry] = position;
+			final Iterator<Integer> positionIterator = pair_PositionList_Table.get(hashes[entry]).iterator();
+			while (positionIterator.hasNext()) {
+				postings[position++] = Postings.pack(trackNumber, positionIterator.next());
+			}
+			Arrays.sort(postings, starts[entry], position);
+		}
+		starts[hashes.length] = position;
+		return new HeapIndexSegment(hashes, starts, postings);
+	}
+
+	/**
+	 * Merge segments into one, the postings of the tracks not live in the snapshot are dropped
+	 *
+	 * @param segments
+	 *            segments to merge
+	 * @param snapshot
+	 *            snapshot telling the live tracks, null to keep all the postings
+	 * @return merged segment
+	 */
+	public static HeapIndexSegment merge(final IndexSegment[] segments, final IndexSnapshot snapshot) {
+		long maxPostings = 0;
+		long maxHashes = 0;
+		for (int i = 0; i < segments.length; i++) {
+			maxPostings += segments[i].getNumPostings();
+			maxHashes += segments[i].getNumHashes();
+		}
+		if (maxPostings > Integer.MAX_VALUE - 8 || maxHashes > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("HeapIndexSegment: too many postings to merge in a heap segment");
+		}
+
+		// cursors of the segments, ordered by their current pair hash
+		final PriorityQueue<int[]> cursors = new PriorityQueue<int[]>(Math.max(1, segments.length), new Comparator<int[]>() {
+			public int compare(final int[] cursor1, final int[] cursor2) {
+				final int hash1 = segments[cursor1[0]].getHash(cursor1[1]);
+				final int hash2 = segments[cursor2[0]].getHash(cursor2[1]);
+				return hash1 < hash2 ? -1 : (hash1 == hash2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].getNumHashes() > 0) {
+				cursors.add(new int[] { i, 0 });	// {segment, entry}
+			}
+		}
+
+		int[] hashes = new int[(int) maxHashes];
+		int[] starts = new int[(int) maxHashes + 1];
+		long[] postings = new long[(int) maxPostings];
+		int numHashes = 0;
+		int position = 0;
+		while (!cursors.isEmpty()) {
+			final int[] first = cursors.peek();
+			final int pairHash = segments[first[0]].getHash(first[1]);
+			final int start = position;
+
+			// the postings of the pair hash in all the segments
+			while (!cursors.isEmpty() && segments[cursors.peek()[0]].getHash(cursors.peek()[1]) == pairHash) {
+				final int[] cursor = cursors.poll();
+				final IndexSegment segment = segments[cursor[0]];
+				final int end = segment.getPostingsEnd(cursor[1]);
+				for (int p = segment.getPostingsStart(cursor[1]); p < end; p++) {
+					final long posting = segment.getPosting(p);
+					if (snapshot == null || snapshot.isLive(Postings.getTrackNumber(posting))) {
+						postings[position++] = posting;
+					}
+				}
+				cursor[1]++;
+				if (cursor[1] < segment.getNumHashes()) {
+					cursors.add(cursor);
+				}
+			}
+
+			if (position > start) {
+				Arrays.sort(postings, start, position);
+				hashes[numHashes] = pairHash;
+				starts[numHashes] = start;
+				numHashes++;
+			}
+		}
+		starts[numHashes] = position;
+
+		if (numHashes < hashes.length) {
+			hashes = Arrays.copyOf(hashes, numHashes);
+			starts = Arrays.copyOf(starts, numHashes + 1);
+		}
+		if (position < postings.length) {
+			postings = Arrays.copyOf(postings, position);
+		}
+		return new HeapIndexSegment(hashes, starts, postings);
+	}
+
+	public int getNumHashes() {
+		return hashes.length;
+	}
+
+	public int getNumPostings() {
+		return starts[hashes.length];
+	}
+
+	public int find(final int pairHash) {
+		if (directory != null) {
+			final int entry = directory.getEntry(pairHash);
+			return entry >= 0 && hashes[entry] == pairHash ? entry : -1;
+		}
+		final int entry = Arrays.binarySearch(hashes, pairHash);
+		return entry < 0 ? -1 : entry;
+	}
+
+	public int getHash(final int entry) {
+		return hashes[entry];
+	}
+
+	public int getPostingsStart(final int entry) {
+		return starts[entry];
+	}
+
+	public int getPostingsEnd(final int entry) {
+		return starts[entry + 1];
+	}
+
+	public long getPosting(final int position) {
+		return postings[position];
+	}
+}
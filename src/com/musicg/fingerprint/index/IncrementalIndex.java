@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+import com.musicg.fingerprint.FingerprintManager;
+import com.musicg.fingerprint.PairManager;
+
+/**
+ * Pair hash index of the fingerprints of known tracks, updated while it is queried
+ *
+ * Added tracks go to an in-memory write buffer, the memtable. A full memtable is flushed in the
+ * background to an immutable sorted segment. Removed tracks are marked with a tombstone, their postings
+ * are dropped when their segments are merged. Segments of the same size tier are merged in the
+ * background when there are mergeFactor of them, so a query reads a few large segments.
+ *
+ * A query reads a snapshot, which is not changed by later updates, and updates do not wait for queries.
+ *
+ * @author jacquet
+ */
+public class IncrementalIndex {
+
+	public static final int DEFAULT_MAX_BUFFERED_POSTINGS = 1 << 20;
+	public static final int DEFAULT_MERGE_FACTOR = 4;
+
+	private final int maxBufferedPostings;	// a memtable is flushed when it holds this many postings
+	private final int mergeFactor;	// number of segments of a tier merged together
+	private final SegmentStorage storage;	// storage of the flushed and merged segments
+	private final ExecutorService background;	// flushes and merges, one at a time
+
+	// state of the index, guarded by this
+	private final HashMap<String, Integer> trackNumbers = new HashMap<String, Integer>();	// trackNumbers<trackId,trackNumber> of the live tracks
+	private String[] trackIds = new String[16];
+	private int[] trackNumFrames = new int[16];
+	private int[] removedSequences = new int[16];
+	private int numTracks;
+	private int sequence;
+	private final List<IndexSegment> segments = new ArrayList<IndexSegment>();
+	private final List<MemTable> flushingMemTables = new ArrayList<MemTable>();
+	private MemTable memTable = new MemTable();
+
+	private volatile IndexSnapshot snapshot;
+
+	/**
+	 * Constructor, with the default memtable size and merge factor
+	 */
+	public IncrementalIndex() {
+		this(DEFAULT_MAX_BUFFERED_POSTINGS, DEFAULT_MERGE_FACTOR);
+	}
+
+	/**
+	 * Constructor, the segments are held on the heap
+	 *
+	 * @param maxBufferedPostings
+	 *            number of postings a memtable holds before it is flushed to a segment
+	 * @param mergeFactor
+	 *            number of segments of a size tier merged together, at least 2
+	 */
+	public IncrementalIndex(final int maxBufferedPostings, final int mergeFactor) {
+		this(maxBufferedPostings, mergeFactor, SegmentStorage.HEAP);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBufferedPostings
+	 *            number of postings a memtable holds before it is flushed to a segment
+	 * @param mergeFactor
+	 *            number of segments of a size tier merged together, at least 2
+	 * @param storage
+	 *            storage of the segments, the memtables are on the heap
+	 */
+	public IncrementalIndex(final int maxBufferedPostings, final int mergeFactor, final SegmentStorage storage) {
+		if (maxBufferedPostings < 1 || mergeFactor < 2) {
+			throw new IllegalArgumentException("IncrementalIndex: the memtable size should be positive and the merge factor at least 2");
+		}
+		this.maxBufferedPostings = maxBufferedPostings;
+		this.mergeFactor = mergeFactor;
+		this.storage = storage;
+		this.background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "musicg-index-merge");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		synchronized (this) {
+			publish();
+		}
+	}
+
+	/**
+	 * Open an index directory, written by ExternalIndexBuilder or save(), the segments are read to the heap
+	 *
+	 * @param directory
+	 *            index directory
+	 * @param maxBufferedPostings
+	 *            number of postings a memtable holds before it is flushed to a segment
+	 * @param mergeFactor
+	 *            number of segments of a size tier merged together, at least 2
+	 * @return index
+	 * @throws IOException
+	 */
+	public static IncrementalIndex open(final File directory, final int maxBufferedPostings, final int mergeFactor)
+			throws IOException {
+		return open(directory, maxBufferedPostings, mergeFactor, SegmentStorage.HEAP);
+	}
+
+	/**
+	 * Open an index directory, written by ExternalIndexBuilder or save()
+	 *
+	 * @param directory
+	 *            index directory, its segment files should not be changed while they are mapped
+	 * @param maxBufferedPostings
+	 *            number of postings a memtable holds before it is flushed to a segment
+	 * @param mergeFactor
+	 *            number of segments of a size tier merged together, at least 2
+	 * @param storage
+	 *            storage of the segments
+	 * @return index
+	 * @throws IOException
+	 */
+	public static IncrementalIndex open(final File directory, final int maxBufferedPostings, final int mergeFactor,
+			final SegmentStorage storage) throws IOException {
+		final IndexFiles.Tracks tracks = IndexFiles.readTracks(new File(directory, IndexFiles.TRACKS_FILE_NAME));
+		final List<IndexSegment> segments = new ArrayList<IndexSegment>();
+		for (final File segmentFile : IndexFiles.listSegmentFiles(directory)) {
+			segments.add(storage.load(segmentFile));
+		}
+
+		final IncrementalIndex index = new IncrementalIndex(maxBufferedPostings, mergeFactor, storage);
+		index.load(tracks, segments);
+		return index;
+	}
+
+	// take the tracks and the segments of an index directory
+	private synchronized void load(final IndexFiles.Tracks tracks, final List<IndexSegment> loadedSegments) {
+		final int capacity = Math.max(16, tracks.getNumTracks());
+		trackIds = Arrays.copyOf(tracks.trackIds, capacity);
+		trackNumFrames = Arrays.copyOf(tracks.trackNumFrames, capacity);
+		removedSequences = new int[capacity];
+		numTracks = tracks.getNumTracks();
+		sequence = 1;
+		for (int trackNumber = 0; trackNumber < numTracks; trackNumber++) {
+			if (tracks.isRemoved(trackNumber)) {
+				removedSequences[trackNumber] = sequence;
+			} else {
+				trackNumbers.put(trackIds[trackNumber], trackNumber);
+			}
+		}
+		segments.addAll(loadedSegments);
+		publish();
+	}
+
+	/**
+	 * Flush the memtable and write the segments and the tracks to a directory, which can be opened with
+	 * open()
+	 *
+	 * @param directory
+	 *            index directory, created if it does not exist, it should not have segments
+	 * @throws IOException
+	 *             if the flush failed, nothing is written then
+	 * @throws InterruptedException
+	 */
+	public void save(final File directory) throws IOException, InterruptedException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("IncrementalIndex: cannot create " + directory);
+		}
+		if (IndexFiles.listSegmentFiles(directory).length > 0) {
+			throw new IOException("IncrementalIndex: " + directory + " already has segments");
+		}
+		flush();
+		final IndexSnapshot savedSnapshot = snapshot;
+
+		final IndexSegment[] savedSegments = savedSnapshot.getSegments();
+		for (int i = 0; i < savedSegments.length; i++) {
+			IndexFiles.writeSegment(savedSegments[i], IndexFiles.getSegmentFile(directory, i));
+		}
+		// the tracks added after the flush are saved as removed, their postings are not in the saved segments
+		final int numSavedTracks = savedSnapshot.getNumTracks();
+		final String[] savedTrackIds = new String[numSavedTracks];
+		final int[] savedTrackNumFrames = new int[numSavedTracks];
+		final boolean[] removed = new boolean[numSavedTracks];
+		int firstBufferedTrack = numSavedTracks;
+		for (final MemTable bufferedMemTable : savedSnapshot.getMemTables()) {
+			firstBufferedTrack -= bufferedMemTable.getNumTracks();	// the tracks of the memtables are the last ones
+		}
+		for (int trackNumber = 0; trackNumber < numSavedTracks; trackNumber++) {
+			savedTrackIds[trackNumber] = savedSnapshot.getTrackId(trackNumber);
+			savedTrackNumFrames[trackNumber] = savedSnapshot.getTrackNumFrames(trackNumber);
+			removed[trackNumber] = !savedSnapshot.isLive(trackNumber) || trackNumber >= firstBufferedTrack;
+		}
+		IndexFiles.writeTracks(new File(directory, IndexFiles.TRACKS_FILE_NAME), savedTrackIds, savedTrackNumFrames, removed,
+				numSavedTracks);
+	}
+
+	/**
+	 * Add or replace a track
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @param fingerprint
+	 *            fingerprint of the track
+	 */
+	public void addTrack(final String trackId, final byte[] fingerprint) {
+		// pair the points before taking the lock
+		addTrack(trackId, FingerprintManager.getNumFrames(fingerprint), new PairManager().getPair_PositionList_Table(fingerprint));
+	}
+
+	/**
+	 * Add or replace a track from its pair hashes, e.g. the ones of a hash range for a shard
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @param numFrames
+	 *            number of frames of the fingerprint of the track
+	 * @param pair_PositionList_Table
+	 *            pair_PositionList_Table<pairHash,positions> of the track, the frames of each pair hash
+	 */
+	public void addTrack(final String trackId, final int numFrames, final HashMap<Integer, List<Integer>> pair_PositionList_Table) {
+		MemTable fullMemTable = null;
+		synchronized (this) {
+			sequence++;
+			final Integer replacedTrackNumber = trackNumbers.get(trackId);
+			if (replacedTrackNumber != null) {
+				removedSequences[replacedTrackNumber] = sequence;
+			}
+
+			if (numTracks == trackIds.length) {
+				trackIds = Arrays.copyOf(trackIds, numTracks * 2);
+				trackNumFrames = Arrays.copyOf(trackNumFrames, numTracks * 2);
+				removedSequences = Arrays.copyOf(removedSequences, numTracks * 2);
+			}
+			final int trackNumber = numTracks++;
+			trackIds[trackNumber] = trackId;
+			trackNumFrames[trackNumber] = numFrames;
+			trackNumbers.put(trackId, trackNumber);
+
+			memTable = memTable.add(HeapIndexSegment.forTrack(trackNumber, pair_PositionList_Table));
+			if (memTable.getNumPostings() >= maxBufferedPostings) {
+				fullMemTable = freezeMemTable();
+			}
+			publish();
+		}
+		if (fullMemTable != null) {
+			scheduleFlush(fullMemTable);
+		}
+	}
+
+	/**
+	 * Remove a track, its postings are dropped when its segment is merged
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @return true if the track was in the index
+	 */
+	public synchronized boolean removeTrack(final String trackId) {
+		final Integer trackNumber = trackNumbers.remove(trackId);
+		if (trackNumber == null) {
+			return false;
+		}
+		sequence++;
+		removedSequences[trackNumber] = sequence;
+		publish();
+		return true;
+	}
+
+	/**
+	 * @return the current snapshot of the index
+	 */
+	public IndexSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Find the track most similar to a clip, in the current snapshot
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @return best match, or null if no track shares a pair hash with the clip
+	 */
+	public Match lookup(final byte[] queryFingerprint) {
+		return snapshot.lookup(queryFingerprint);
+	}
+
+	/**
+	 * Find the tracks most similar to a clip, in the current snapshot
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @param options
+	 *            options of the query
+	 * @return best matches and the work done
+	 */
+	public QueryResult search(final byte[] queryFingerprint, final QueryOptions options) {
+		return snapshot.search(queryFingerprint, options);
+	}
+
+	/**
+	 * Find the tracks most similar to each of many clips, in the current snapshot
+	 *
+	 * @param queryFingerprints
+	 *            fingerprints of the clips
+	 * @param options
+	 *            options of the queries
+	 * @return best matches of each clip, in the order of the clips
+	 */
+	public List<QueryResult> searchBatch(final List<byte[]> queryFingerprints, final QueryOptions options) {
+		return snapshot.searchBatch(queryFingerprints, options);
+	}
+
+	public int size() {
+		return snapshot.size();
+	}
+
+	/**
+	 * Flush the memtable and wait for it and the merges it triggers
+	 *
+	 * @throws IOException
+	 *             if the flush or a merge failed, the memtable is then still searched but not in a segment
+	 * @throws InterruptedException
+	 */
+	public void flush() throws IOException, InterruptedException {
+		MemTable fullMemTable;
+		synchronized (this) {
+			fullMemTable = memTable.isEmpty() ? null : freezeMemTable();
+			publish();
+		}
+		final Future<?> flushed = fullMemTable != null ? scheduleFlush(fullMemTable) : background.submit(new Runnable() {
+			public void run() {
+				mergeSegments();
+			}
+		});
+		try {
+			flushed.get();
+		} catch (ExecutionException e) {
+			throw new IOException("IncrementalIndex: flush failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Flush the memtable and merge all the segments into one, dropping the postings of all the removed
+	 * tracks, and wait for it
+	 *
+	 * @throws IOException
+	 *             if the flush or the merge failed, the segments are then left as they were
+	 * @throws InterruptedException
+	 */
+	public void compact() throws IOException, InterruptedException {
+		flush();
+		final Future<?> compacted = background.submit(new Runnable() {
+			public void run() {
+				final IndexSegment[] mergedSegments;
+				final IndexSnapshot mergeSnapshot;
+				synchronized (IncrementalIndex.this) {
+					mergedSegments = segments.toArray(new IndexSegment[segments.size()]);
+					mergeSnapshot = snapshot;
+				}
+				replaceSegments(mergedSegments, storage.store(HeapIndexSegment.merge(mergedSegments, mergeSnapshot)));
+			}
+		});
+		try {
+			compacted.get();
+		} catch (ExecutionException e) {
+			throw new IOException("IncrementalIndex: compaction failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stop the background flushes and merges, the memtable is not flushed
+	 *
+	 * @param timeout
+	 *            maximum time to wait for the running flush or merge
+	 * @param unit
+	 *            unit of the timeout
+	 * @return true if the background work has finished
+	 * @throws InterruptedException
+	 */
+	public boolean close(final long timeout, final TimeUnit unit) throws InterruptedException {
+		background.shutdown();
+		return background.awaitTermination(timeout, unit);
+	}
+
+	// move the memtable to the ones being flushed, guarded by this
+	private MemTable freezeMemTable() {
+		final MemTable fullMemTable = memTable;
+		flushingMemTables.add(fullMemTable);
+		memTable = new MemTable();
+		return fullMemTable;
+	}
+
+	private Future<?> scheduleFlush(final MemTable fullMemTable) {
+		return background.submit(new Runnable() {
+			public void run() {
+				final IndexSegment segment = storage.store(fullMemTable.toSegment(snapshot));
+				synchronized (IncrementalIndex.this) {
+					flushingMemTables.remove(fullMemTable);
+					if (segment.getNumHashes() > 0) {
+						segments.add(segment);
+					}
+					publish();
+				}
+				mergeSegments();
+			}
+		});
+	}
+
+	// merge the segments as long as a tier is full, run in the background thread only
+	private void mergeSegments() {
+		while (true) {
+			final IndexSegment[] mergedSegments;
+			final IndexSnapshot mergeSnapshot;
+			synchronized (this) {
+				mergedSegments = findMerge();
+				if (mergedSegments == null) {
+					return;
+				}
+				mergeSnapshot = snapshot;
+			}
+
+			// the tracks removed after the merge snapshot keep their postings until the next merge
+			final IndexSegment segment = storage.store(HeapIndexSegment.merge(mergedSegments, mergeSnapshot));
+
+			replaceSegments(mergedSegments, segment);
+		}
+	}
+
+	// put a merged segment in place of the segments it was merged from
+	private synchronized void replaceSegments(final IndexSegment[] mergedSegments, final IndexSegment segment) {
+		final int position = mergedSegments.length > 0 ? segments.indexOf(mergedSegments[0]) : segments.size();
+		segments.removeAll(Arrays.asList(mergedSegments));
+		if (segment.getNumHashes() > 0) {
+			segments.add(position, segment);
+		}
+		publish();
+	}
+
+	/**
+	 * Tiered merge policy: a segment is in tier t when it holds from maxBufferedPostings*mergeFactor^t
+	 * postings to mergeFactor times more, the oldest segments of the lowest full tier are merged
+	 */
+	private IndexSegment[] findMerge() {
+		final HashMap<Integer, List<IndexSegment>> tiers = new HashMap<Integer, List<IndexSegment>>();
+		int mergedTier = Integer.MAX_VALUE;
+		for (final IndexSegment segment : segments) {
+			int tier = 0;
+			for (long tierSize = (long) maxBufferedPostings * mergeFactor; segment.getNumPostings() >= tierSize; tierSize *= mergeFactor) {
+				tier++;
+			}
+			List<IndexSegment> tierSegments = tiers.get(tier);
+			if (tierSegments == null) {
+				tierSegments = new ArrayList<IndexSegment>();
+				tiers.put(tier, tierSegments);
+			}
+			tierSegments.add(segment);
+			if (tierSegments.size() == mergeFactor && tier < mergedTier) {
+				mergedTier = tier;
+			}
+		}
+		if (mergedTier == Integer.MAX_VALUE) {
+			return null;
+		}
+		return tiers.get(mergedTier).subList(0, mergeFactor).toArray(new IndexSegment[mergeFactor]);
+	}
+
+	// make the snapshot of the current state, guarded by this
+	private void publish() {
+		final MemTable[] memTables = new MemTable[flushingMemTables.size() + 1];
+		flushingMemTables.toArray(memTables);
+		memTables[memTables.length - 1] = memTable;
+		snapshot = new IndexSnapshot(segments.toArray(new IndexSegment[segments.size()]), memTables, trackIds, trackNumFrames,
+				removedSequences, numTracks, trackNumbers.size(), sequence);
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Files of an index directory: the tracks file and the segment files
+ *
+ * A segment file is big endian: the magic "MGIX", the version, the number of pair hashes and the number
+ * of postings, then the postings as longs, the pair hashes as ints and the starts of the postings of
+ * the pair hashes as ints, followed by the number of postings. Version 2 follows with the perfect hash
+ * directory of the pair hashes, from the next multiple of 8 bytes to the end of the file, so the
+ * directory is opened with the segment instead of being built again. Version 1 files are still read.
+ *
+ * The tracks file is the magic "MGTK", the number of tracks, then for each track number its id, its
+ * number of frames and whether it is removed.
+ *
+ * @author jacquet
+ */
+public class IndexFiles {
+
+	public static final String TRACKS_FILE_NAME = "tracks.mgtk";
+	public static final String SEGMENT_FILE_EXTENSION = ".mgix";
+
+	static final int SEGMENT_MAGIC = 0x4D474958;	// "MGIX"
+	static final int TRACKS_MAGIC = 0x4D47544B;	// "MGTK"
+	static final int VERSION = 1;
+	static final int SEGMENT_VERSION_1 = 1;	// without the directory
+	static final int SEGMENT_VERSION = 2;
+	static final int SEGMENT_HEADER_SIZE = 16;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private IndexFiles() {
+	}
+
+	/**
+	 * @param directory
+	 *            index directory
+	 * @param segmentNumber
+	 *            number of the segment
+	 * @return segment file
+	 */
+	public static File getSegmentFile(final File directory, final int segmentNumber) {
+		return new File(directory, String.format("segment-%05d%s", segmentNumber, SEGMENT_FILE_EXTENSION));
+	}
+
+	/**
+	 * @param directory
+	 *            index directory
+	 * @return segment files of the directory, in segment number order
+	 */
+	public static File[] listSegmentFiles(final File directory) {
+		final File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith("segment-") && name.endsWith(SEGMENT_FILE_EXTENSION);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	// end of the starts of the postings in a segment file, the end of a version 1 file
+	static long getStartsEnd(final int numHashes, final int numPostings) {
+		return SEGMENT_HEADER_SIZE + numPostings * 8L + (numHashes * 2L + 1) * 4;
+	}
+
+	// position of the directory in a segment file, after the starts of the postings
+	static long getDirectoryStart(final int numHashes, final int numPostings) {
+		return getStartsEnd(numHashes, numPostings) + 7 & ~7L;
+	}
+
+	/**
+	 * Write a segment
+	 *
+	 * @param segment
+	 *            segment
+	 * @param file
+	 *            segment file
+	 * @throws IOException
+	 */
+	public static void writeSegment(final IndexSegment segment, final File file) throws IOException {
+		final SegmentWriter writer = new SegmentWriter(file);
+		try {
+			for (int entry = 0; entry < segment.getNumHashes(); entry++) {
+				final int end = segment.getPostingsEnd(entry);
+				for (int p = segment.getPostingsStart(entry); p < end; p++) {
+					writer.add(segment.getHash(entry), segment.getPosting(p));
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Read a segment to the heap
+	 *
+	 * @param file
+	 *            segment file
+	 * @return segment, with its directory unless the file is of version 1
+	 * @throws IOException
+	 */
+	public static HeapIndexSegment readSegment(final File file) throws IOException {
+		final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			if (inputStream.readInt() != SEGMENT_MAGIC) {
+				throw new IOException("IndexFiles: " + file + " is not a segment file");
+			}
+			final int version = inputStream.readInt();
+			if (version != SEGMENT_VERSION_1 && version != SEGMENT_VERSION) {
+				throw new IOException("IndexFiles: " + file + " is not a segment file");
+			}
+			final int numHashes = inputStream.readInt();
+			final int numPostings = inputStream.readInt();
+			final long[] postings = new long[numPostings];
+			for (int i = 0; i < numPostings; i++) {
+				postings[i] = inputStream.readLong();
+			}
+			final int[] hashes = new int[numHashes];
+			for (int i = 0; i < numHashes; i++) {
+				hashes[i] = inputStream.readInt();
+			}
+			final int[] starts = new int[numHashes + 1];
+			for (int i = 0; i <= numHashes; i++) {
+				starts[i] = inputStream.readInt();
+			}
+			if (version == SEGMENT_VERSION_1) {
+				return new HeapIndexSegment(hashes, starts, postings);
+			}
+
+			final long directoryStart = getDirectoryStart(numHashes, numPostings);
+			inputStream.readFully(new byte[(int) (directoryStart - getStartsEnd(numHashes, numPostings))]);
+			final long directorySize = file.length() - directoryStart;
+			if (directorySize < PerfectHashDirectory.HEADER_SIZE || directorySize > Integer.MAX_VALUE) {
+				throw new IOException("IndexFiles: " + file + " is truncated");
+			}
+			final byte[] directory = new byte[(int) directorySize];
+			inputStream.readFully(directory);
+			try {
+				return new HeapIndexSegment(hashes, starts, postings, new PerfectHashDirectory(ByteBuffer.wrap(directory)));
+			} catch (final IllegalArgumentException e) {
+				throw new IOException("IndexFiles: " + file + " has a corrupt directory", e);
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Write the tracks of an index
+	 *
+	 * @param file
+	 *            tracks file
+	 * @param trackIds
+	 *            ids by track number
+	 * @param trackNumFrames
+	 *            numbers of frames by track number
+	 * @param removed
+	 *            removed flags by track number
+	 * @param numTracks
+	 *            number of tracks
+	 * @throws IOException
+	 */
+	public static void writeTracks(final File file, final String[] trackIds, final int[] trackNumFrames, final boolean[] removed,
+			final int numTracks) throws IOException {
+		final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		try {
+			outputStream.writeInt(TRACKS_MAGIC);
+			outputStream.writeInt(VERSION);
+			outputStream.writeInt(numTracks);
+			for (int i = 0; i < numTracks; i++) {
+				outputStream.writeUTF(trackIds[i]);
+				outputStream.writeInt(trackNumFrames[i]);
+				outputStream.writeBoolean(removed[i]);
+			}
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * Read the tracks of an index
+	 *
+	 * @param file
+	 *            tracks file
+	 * @return tracks
+	 * @throws IOException
+	 */
+	public static Tracks readTracks(final File file) throws IOException {
+		final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			if (inputStream.readInt() != TRACKS_MAGIC || inputStream.readInt() != VERSION) {
+				throw new IOException("IndexFiles: " + file + " is not a tracks file");
+			}
+			final Tracks tracks = new Tracks(inputStream.readInt());
+			for (int i = 0; i < tracks.numTracks; i++) {
+				tracks.trackIds[i] = inputStream.readUTF();
+				tracks.trackNumFrames[i] = inputStream.readInt();
+				tracks.removed[i] = inputStream.readBoolean();
+			}
+			return tracks;
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Tracks of an index, by track number
+	 */
+	public static class Tracks {
+
+		final int numTracks;
+		final String[] trackIds;
+		final int[] trackNumFrames;
+		final boolean[] removed;
+
+		Tracks(final int numTracks) {
+			this.numTracks = numTracks;
+			this.trackIds = new String[numTracks];
+			this.trackNumFrames = new int[numTracks];
+			this.removed = new boolean[numTracks];
+		}
+
+		public int getNumTracks() {
+			return numTracks;
+		}
+
+		public String getTrackId(final int trackNumber) {
+			return trackIds[trackNumber];
+		}
+
+		public int getTrackNumFrames(final int trackNumber) {
+			return trackNumFrames[trackNumber];
+		}
+
+		public boolean isRemoved(final int trackNumber) {
+			return removed[trackNumber];
+		}
+	}
+
+	/**
+	 * Write a segment file from postings streamed in pair hash order, only the pair hashes and their
+	 * starts are kept in memory
+	 */
+	public static class SegmentWriter {
+
+		private final File file;
+		private final DataOutputStream outputStream;
+		private int[] hashes = new int[1024];
+		private int[] starts = new int[1024];
+		private int numHashes;
+		private int numPostings;
+
+		/**
+		 * Constructor, creates the file
+		 *
+		 * @param file
+		 *            segment file
+		 * @throws IOException
+		 */
+		public SegmentWriter(final File file) throws IOException {
+			this.file = file;
+			this.outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+			// the counts are written on close
+			outputStream.writeInt(SEGMENT_MAGIC);
+			outputStream.writeInt(SEGMENT_VERSION);
+			outputStream.writeInt(0);
+			outputStream.writeInt(0);
+		}
+
+		/**
+		 * Add a posting, in ascending pair hash then posting order
+		 *
+		 * @param pairHash
+		 *            pair hash
+		 * @param posting
+		 *            posting, see Postings
+		 * @throws IOException
+		 */
+		public void add(final int pairHash, final long posting) throws IOException {
+			if (numHashes == 0 || hashes[numHashes - 1] != pairHash) {
+				if (numHashes > 0 && pairHash < hashes[numHashes - 1]) {
+					throw new IllegalArgumentException("IndexFiles: the pair hashes are not in order");
+				}
+				if (numHashes == hashes.length) {
+					hashes = Arrays.copyOf(hashes, numHashes * 2);
+					starts = Arrays.copyOf(starts, numHashes * 2);
+				}
+				hashes[numHashes] = pairHash;
+				starts[numHashes] = numPostings;
+				numHashes++;
+			}
+			if (numPostings == Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("IndexFiles: too many postings in a segment");
+			}
+			outputStream.writeLong(posting);
+			numPostings++;
+		}
+
+		public int getNumPostings() {
+			return numPostings;
+		}
+
+		/**
+		 * Write the pair hashes and their directory, and close the file
+		 *
+		 * @throws IOException
+		 */
+		public void close() throws IOException {
+			try {
+				for (int i = 0; i < numHashes; i++) {
+					outputStream.writeInt(hashes[i]);
+				}
+				for (int i = 0; i < numHashes; i++) {
+					outputStream.writeInt(starts[i]);
+				}
+				outputStream.writeInt(numPostings);
+				for (long i = getStartsEnd(numHashes, numPostings); i < getDirectoryStart(numHashes, numPostings); i++) {
+					outputStream.writeByte(0);
+				}
+				PerfectHashDirectory.build(hashes, numHashes, PerfectHashDirectory.DEFAULT_GAMMA, false).write(outputStream);
+			} finally {
+				outputStream.close();
+			}
+
+			final RandomAccessFile header = new RandomAccessFile(file, "rw");
+			try {
+				header.seek(8);
+				header.writeInt(numHashes);
+				header.writeInt(numPostings);
+			} finally {
+				header.close();
+			}
+		}
+	}
+}
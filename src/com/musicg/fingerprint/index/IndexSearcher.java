@@ -0,0 +1,639 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+import com.musicg.fingerprint.FingerprintManager;
+import com.musicg.fingerprint.FingerprintSimilarity;
+import com.musicg.fingerprint.FingerprintSimilarityComputer;
+import com.musicg.fingerprint.PairManager;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.MetricsRecorder;
+import com.musicg.metrics.Stage;
+import com.musicg.metrics.StageStatisticsRecorder;
+
+/**
+ * Run queries on a snapshot of the index
+ *
+ * The pair hashes of the clip are read rarest first, the ones with the fewest postings. A track has at
+ * most one posting of a pair hash at a frame, so a pair hash at m positions of the clip adds at most m
+ * votes to the peak of a track, the count of its most voted offset. With early termination, once the
+ * votes left in the unread pair hashes are fewer than the peak of the N-th best track, no more tracks
+ * are admitted, the tracks which cannot reach that peak are dropped, and the postings of the remaining
+ * tracks are found by binary search in the long posting lists of the common pair hashes instead of
+ * scanning them.
+ *
+ * The tracks left are scored the way FingerprintSimilarityComputer scores two fingerprints. That score
+ * also counts the neighbours of the 60 best offsets and is divided by the frames, so it follows the
+ * peak only loosely, and a track dropped for its peak may have scored in the top N. Without early
+ * termination every track sharing a pair hash with the clip is scored, as a full scan does.
+ *
+ * A full scan counts the votes with a hash table per track, or with a VoteAggregator when the options
+ * ask for sorted votes.
+ *
+ * With a time or posting budget, the pair hashes are read rarest first until the budget runs out, and
+ * the tracks voted so far are scored. The result is then marked incomplete.
+ *
+ * When the options ask for an explanation, the stages of the query are recorded by a
+ * StageStatisticsRecorder set as the thread recorder, and returned with the work counts.
+ *
+ * @author jacquet
+ */
+public class IndexSearcher {
+
+	private static final int NUM_CHECKS = 16;	// checks of the bounds in a query
+	private static final int BATCH_SIZE = 16;	// clips sharing the scans of the postings, their votes fit in the caches
+	private static final int BATCH_AGGREGATOR_CAPACITY = 256;	// votes first held for a clip of a batch
+
+	private static final ThreadLocal<VoteAggregator> threadAggregator = new ThreadLocal<VoteAggregator>();	// reused by the queries of a thread
+
+	private final IndexSnapshot snapshot;
+
+	public IndexSearcher(final IndexSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Find the tracks most similar to a clip
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @param options
+	 *            options of the query
+	 * @return best matches
+	 */
+	public QueryResult search(final byte[] queryFingerprint, final QueryOptions options) {
+		if (!options.isExplain()) {
+			return search(queryFingerprint, options, null);
+		}
+
+		// record the stages of the query, and pass them on to the recorder in use
+		final MetricsRecorder threadRecorder = Metrics.getThreadRecorder();
+		final StageStatisticsRecorder stageStatistics = new StageStatisticsRecorder(Metrics.getRecorder());
+		Metrics.setThreadRecorder(stageStatistics);
+		try {
+			return search(queryFingerprint, options, stageStatistics);
+		} finally {
+			Metrics.setThreadRecorder(threadRecorder);
+		}
+	}
+
+	private QueryResult search(final byte[] queryFingerprint, final QueryOptions options, final StageStatisticsRecorder stageStatistics) {
+
+		// the pairing is timed by the PairManager, the stages of the query do not overlap
+		final long queryStartTime = System.nanoTime();
+		final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table = new PairManager()
+				.getPair_PositionList_Table(queryFingerprint);
+		final int queryNumFrames = FingerprintManager.getNumFrames(queryFingerprint);
+
+		// find the pair hashes and scan their postings
+		final long lookupStartTime = Metrics.startTimer();
+		final QueryHash[] queryHashes = findQueryHashes(query_Pair_PositionList_Table);
+		final ScanStatistics statistics = new ScanStatistics();
+		VoteAggregator aggregator = null;
+		Collection<Candidate> candidates = null;
+		if (options.isSortedVotes() && !options.isEarlyTermination()) {
+			aggregator = collectVotes(queryHashes, options, queryStartTime, statistics);
+		} else {
+			candidates = scan(queryHashes, options, queryStartTime, statistics);
+		}
+		Metrics.stopTimer(Stage.LOOKUP, lookupStartTime, statistics.numCandidates);
+
+		// score the tracks and keep the best ones
+		final long scoringStartTime = Metrics.startTimer();
+		final List<Match> matches = new ArrayList<Match>();
+		final List<Integer> trackNumbers = new ArrayList<Integer>();
+		if (aggregator != null) {
+			score(aggregator, queryNumFrames, matches, trackNumbers);
+		} else {
+			score(candidates, queryNumFrames, matches, trackNumbers);
+		}
+		final List<Match> bestMatches = getBestMatches(matches, trackNumbers, options.getTopN());
+		Metrics.stopTimer(Stage.SCORING, scoringStartTime, statistics.numVotes);
+
+		QueryExplanation explanation = null;
+		if (stageStatistics != null) {
+			explanation = new QueryExplanation((int) stageStatistics.getWorkCount(Stage.PAIRING), query_Pair_PositionList_Table.size(),
+					queryHashes.length, statistics.numHashesRead, statistics.numPostingsScanned, statistics.numCandidates,
+					statistics.numVotes, stageStatistics);
+		}
+		return new QueryResult(bestMatches, query_Pair_PositionList_Table.size(), queryHashes.length,
+				statistics.numPostingsScanned, statistics.numCandidates, statistics.numHashesRead, explanation);
+	}
+
+	/**
+	 * Find the tracks most similar to each of many clips
+	 *
+	 * The clips are searched in chunks of BATCH_SIZE. The pair hashes of the clips of a chunk are sorted
+	 * together, and the postings of a pair hash are read once for all the clips having it, their votes
+	 * going to a VoteAggregator per clip. All the postings are scanned, early termination and the budgets
+	 * are not used.
+	 *
+	 * @param queryFingerprints
+	 *            fingerprints of the clips
+	 * @param options
+	 *            options of the queries
+	 * @return best matches of each clip, in the order of the clips
+	 */
+	public List<QueryResult> searchBatch(final List<byte[]> queryFingerprints, final QueryOptions options) {
+
+		final long startTime = Metrics.startTimer();
+		final List<QueryResult> results = new ArrayList<QueryResult>(queryFingerprints.size());
+		final VoteAggregator[] aggregators = new VoteAggregator[Math.min(BATCH_SIZE, queryFingerprints.size())];
+		for (int q = 0; q < aggregators.length; q++) {
+			aggregators[q] = new VoteAggregator(BATCH_AGGREGATOR_CAPACITY);
+		}
+		for (int first = 0; first < queryFingerprints.size(); first += BATCH_SIZE) {
+			searchChunk(queryFingerprints.subList(first, Math.min(queryFingerprints.size(), first + BATCH_SIZE)), options,
+					aggregators, results);
+		}
+		Metrics.stopTimer(Stage.BATCH_LOOKUP, startTime, queryFingerprints.size());
+
+		return results;
+	}
+
+	// search a chunk of clips, sharing the scans of the postings, and add their results
+	private void searchChunk(final List<byte[]> queryFingerprints, final QueryOptions options, final VoteAggregator[] aggregators,
+			final List<QueryResult> results) {
+
+		final int numQueries = queryFingerprints.size();
+		final int[] queryNumFrames = new int[numQueries];
+		final int[] numQueryHashes = new int[numQueries];
+
+		// pair hashes of the clips, (pairHash << 32 | query hash) sorted by pair hash then by clip
+		int numHashes = 0;
+		final List<HashMap<Integer, List<Integer>>> query_Pair_PositionList_Tables = new ArrayList<HashMap<Integer, List<Integer>>>(
+				numQueries);
+		for (int q = 0; q < numQueries; q++) {
+			final byte[] queryFingerprint = queryFingerprints.get(q);
+			final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table = new PairManager()
+					.getPair_PositionList_Table(queryFingerprint);
+			query_Pair_PositionList_Tables.add(query_Pair_PositionList_Table);
+			queryNumFrames[q] = FingerprintManager.getNumFrames(queryFingerprint);
+			numQueryHashes[q] = query_Pair_PositionList_Table.size();
+			numHashes += numQueryHashes[q];
+		}
+		final long[] hashKeys = new long[numHashes];
+		final int[] hashQueries = new int[numHashes];	// clip of each query hash
+		final int[][] hashPositions = new int[numHashes][];	// positions of each query hash in its clip
+		int queryHash = 0;
+		for (int q = 0; q < numQueries; q++) {
+			for (final Map.Entry<Integer, List<Integer>> pair : query_Pair_PositionList_Tables.get(q).entrySet()) {
+				hashKeys[queryHash] = (long) pair.getKey() << 32 | queryHash;
+				hashQueries[queryHash] = q;
+				hashPositions[queryHash] = toArray(pair.getValue());
+				queryHash++;
+			}
+			query_Pair_PositionList_Tables.set(q, null);
+		}
+		Arrays.sort(hashKeys);
+
+		// scan the postings of each pair hash once
+		final long scoringStartTime = Metrics.startTimer();
+		final int[] numHashesFound = new int[numQueries];
+		final long[] numPostingsScanned = new long[numQueries];
+		final IndexSegment[] searchedSegments = snapshot.getSearchedSegments();
+		for (int first = 0; first < numHashes;) {
+			final int pairHash = (int) (hashKeys[first] >> 32);
+			int end = first + 1;
+			while (end < numHashes && (int) (hashKeys[end] >> 32) == pairHash) {
+				end++;
+			}
+
+			long numPostings = 0;
+			for (int i = 0; i < searchedSegments.length; i++) {
+				final IndexSegment segment = searchedSegments[i];
+				final int entry = segment.find(pairHash);
+				if (entry < 0) {
+					continue;
+				}
+				final int start = segment.getPostingsStart(entry);
+				final int postingsEnd = segment.getPostingsEnd(entry);
+				for (int p = start; p < postingsEnd; p++) {
+					final long posting = segment.getPosting(p);
+					final int trackNumber = Postings.getTrackNumber(posting);
+					if (!snapshot.isLive(trackNumber)) {
+						continue;
+					}
+					final int frame = Postings.getFrame(posting);
+					for (int h = first; h < end; h++) {
+						final int hash = (int) hashKeys[h];
+						aggregators[hashQueries[hash]].addVotes(trackNumber, frame, hashPositions[hash]);
+					}
+				}
+				numPostings += postingsEnd - start;
+			}
+			if (numPostings > 0) {
+				for (int h = first; h < end; h++) {
+					final int q = hashQueries[(int) hashKeys[h]];
+					numHashesFound[q]++;
+					numPostingsScanned[q] += numPostings;
+				}
+			}
+			first = end;
+		}
+
+		// score the tracks of each clip
+		long numVotes = 0;
+		for (int q = 0; q < numQueries; q++) {
+			final VoteAggregator aggregator = aggregators[q];
+			aggregator.aggregate();
+			final List<Match> matches = new ArrayList<Match>(aggregator.getNumTracks());
+			final List<Integer> trackNumbers = new ArrayList<Integer>(aggregator.getNumTracks());
+			for (int track = 0; track < aggregator.getNumTracks(); track++) {
+				final int trackNumber = aggregator.getTrackNumber(track);
+				final FingerprintSimilarity similarity = aggregator.getSimilarity(track,
+						Math.min(snapshot.getTrackNumFrames(trackNumber), queryNumFrames[q]));
+				matches.add(new Match(snapshot.getTrackId(trackNumber), similarity));
+				trackNumbers.add(trackNumber);
+			}
+			numVotes += aggregator.getNumVotes();
+			results.add(new QueryResult(getBestMatches(matches, trackNumbers, options.getTopN()), numQueryHashes[q], numHashesFound[q],
+					numPostingsScanned[q], aggregator.getNumTracks()));
+			aggregator.clear();
+		}
+		Metrics.stopTimer(Stage.SCORING, scoringStartTime, numVotes);
+	}
+
+	/**
+	 * Count the offset votes of the tracks for some pair hashes of a clip, without scoring them, e.g. the
+	 * pair hashes a shard owns
+	 *
+	 * @param query_Pair_PositionList_Table
+	 *            query_Pair_PositionList_Table<pairHash,positions> of the clip
+	 * @return votes of the tracks
+	 */
+	public PartialVotes vote(final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table) {
+		final QueryHash[] queryHashes = findQueryHashes(query_Pair_PositionList_Table);
+		final ScanStatistics statistics = new ScanStatistics();
+		final VoteAggregator aggregator = collectVotes(queryHashes, new QueryOptions(), 0, statistics);
+
+		final int numTracks = aggregator.getNumTracks();
+		final int[] trackNumbers = new int[numTracks];
+		final String[] trackIds = new String[numTracks];
+		final int[] trackNumFrames = new int[numTracks];
+		final int[] trackStarts = new int[numTracks + 1];
+		for (int track = 0; track < numTracks; track++) {
+			trackNumbers[track] = aggregator.getTrackNumber(track);
+			trackIds[track] = snapshot.getTrackId(trackNumbers[track]);
+			trackNumFrames[track] = snapshot.getTrackNumFrames(trackNumbers[track]);
+			trackStarts[track + 1] = trackStarts[track] + aggregator.getNumOffsets(track);
+		}
+		final int[] offsets = new int[trackStarts[numTracks]];
+		final int[] counts = new int[trackStarts[numTracks]];
+		for (int track = 0; track < numTracks; track++) {
+			aggregator.getVotes(track, offsets, counts, trackStarts[track]);
+		}
+		return new PartialVotes(trackNumbers, trackIds, trackNumFrames, trackStarts, offsets, counts, queryHashes.length,
+				statistics.numPostingsScanned);
+	}
+
+	// scan the postings with a hash table of offset votes per track
+	private Collection<Candidate> scan(final QueryHash[] queryHashes, final QueryOptions options, final long queryStartTime,
+			final ScanStatistics statistics) {
+
+		final int topN = options.getTopN();
+
+		// votes left in the pair hashes not read yet
+		long remainingVotes = 0;
+		for (int i = 0; i < queryHashes.length; i++) {
+			remainingVotes += queryHashes[i].positions.length;
+		}
+		final int checkInterval = Math.max(1, queryHashes.length / NUM_CHECKS);
+
+		final HashMap<Integer, Candidate> candidates = new HashMap<Integer, Candidate>();	// candidates<trackNumber,candidate>
+		int numCandidates = 0;
+		boolean isAdmitting = true;
+		List<Candidate> remainingCandidates = null;
+		long numPostingsScanned = 0;
+		long numVotes = 0;
+
+		int i = 0;
+		for (; i < queryHashes.length; i++) {
+			final QueryHash queryHash = queryHashes[i];
+			if (isOverBudget(options, queryStartTime, numPostingsScanned, queryHash)) {
+				break;
+			}
+
+			if (options.isEarlyTermination() && i % checkInterval == 0 && candidates.size() >= topN) {
+				final int threshold = getPeakThreshold(candidates, topN);
+				if (isAdmitting && remainingVotes < threshold) {
+					// a track not seen yet cannot reach the top N
+					isAdmitting = false;
+				}
+				if (!isAdmitting) {
+					// drop the candidates which cannot reach the top N either
+					final Iterator<Candidate> candidateIterator = candidates.values().iterator();
+					while (candidateIterator.hasNext()) {
+						final Candidate candidate = candidateIterator.next();
+						if (candidate.peak + remainingVotes < threshold) {
+							candidateIterator.remove();
+						}
+					}
+					remainingCandidates = new ArrayList<Candidate>(candidates.values());
+				}
+			}
+
+			for (int s = 0; s < queryHash.segments.length; s++) {
+				final IndexSegment segment = queryHash.segments[s];
+				final int entry = queryHash.entries[s];
+				final int start = segment.getPostingsStart(entry);
+				final int end = segment.getPostingsEnd(entry);
+				final int numSeeks = isAdmitting ? 0 : remainingCandidates.size() * (33 - Integer.numberOfLeadingZeros(end - start));
+
+				if (isAdmitting || numSeeks >= end - start) {
+					// scan the postings
+					for (int p = start; p < end; p++) {
+						final long posting = segment.getPosting(p);
+						final int trackNumber = Postings.getTrackNumber(posting);
+						Candidate candidate = candidates.get(trackNumber);
+						if (candidate == null) {
+							if (!isAdmitting || !snapshot.isLive(trackNumber)) {
+								continue;
+							}
+							candidate = new Candidate(trackNumber);
+							candidates.put(trackNumber, candidate);
+							numCandidates++;
+						}
+						numVotes += candidate.vote(Postings.getFrame(posting), queryHash.positions);
+					}
+					numPostingsScanned += end - start;
+				} else {
+					// seek the postings of the remaining candidates
+					for (final Candidate candidate : remainingCandidates) {
+						int p = lowerBound(segment, start, end, Postings.pack(candidate.trackNumber, 0));
+						numPostingsScanned += 33 - Integer.numberOfLeadingZeros(end - start);
+						for (; p < end; p++) {
+							final long posting = segment.getPosting(p);
+							if (Postings.getTrackNumber(posting) != candidate.trackNumber) {
+								break;
+							}
+							numVotes += candidate.vote(Postings.getFrame(posting), queryHash.positions);
+							numPostingsScanned++;
+						}
+					}
+				}
+			}
+			remainingVotes -= queryHash.positions.length;
+		}
+
+		statistics.numPostingsScanned = numPostingsScanned;
+		statistics.numVotes = numVotes;
+		statistics.numCandidates = numCandidates;
+		statistics.numHashesRead = i;
+		return candidates.values();
+	}
+
+	// score the candidates of a scan
+	private void score(final Collection<Candidate> candidates, final int queryNumFrames, final List<Match> matches,
+			final List<Integer> trackNumbers) {
+		for (final Candidate candidate : candidates) {
+			final FingerprintSimilarity similarity = FingerprintSimilarityComputer.getSimilarity(candidate.offset_Score_Table,
+					Math.min(snapshot.getTrackNumFrames(candidate.trackNumber), queryNumFrames));
+			matches.add(new Match(snapshot.getTrackId(candidate.trackNumber), similarity));
+			trackNumbers.add(candidate.trackNumber);
+		}
+	}
+
+	// score the tracks of a vote aggregator
+	private void score(final VoteAggregator aggregator, final int queryNumFrames, final List<Match> matches,
+			final List<Integer> trackNumbers) {
+		for (int track = 0; track < aggregator.getNumTracks(); track++) {
+			final int trackNumber = aggregator.getTrackNumber(track);
+			final FingerprintSimilarity similarity = aggregator.getSimilarity(track,
+					Math.min(snapshot.getTrackNumFrames(trackNumber), queryNumFrames));
+			matches.add(new Match(snapshot.getTrackId(trackNumber), similarity));
+			trackNumbers.add(trackNumber);
+		}
+	}
+
+	// scan the postings into the vote aggregator of the thread, and count the votes
+	private VoteAggregator collectVotes(final QueryHash[] queryHashes, final QueryOptions options, final long queryStartTime,
+			final ScanStatistics statistics) {
+
+		VoteAggregator aggregator = threadAggregator.get();
+		if (aggregator == null) {
+			aggregator = new VoteAggregator();
+			threadAggregator.set(aggregator);
+		}
+		aggregator.clear();
+
+		int i = 0;
+		for (; i < queryHashes.length; i++) {
+			final QueryHash queryHash = queryHashes[i];
+			if (isOverBudget(options, queryStartTime, statistics.numPostingsScanned, queryHash)) {
+				break;
+			}
+			for (int s = 0; s < queryHash.segments.length; s++) {
+				final IndexSegment segment = queryHash.segments[s];
+				final int entry = queryHash.entries[s];
+				final int start = segment.getPostingsStart(entry);
+				final int end = segment.getPostingsEnd(entry);
+				for (int p = start; p < end; p++) {
+					final long posting = segment.getPosting(p);
+					final int trackNumber = Postings.getTrackNumber(posting);
+					if (snapshot.isLive(trackNumber)) {
+						aggregator.addVotes(trackNumber, Postings.getFrame(posting), queryHash.positions);
+					}
+				}
+				statistics.numPostingsScanned += end - start;
+			}
+		}
+		aggregator.aggregate();
+
+		statistics.numVotes = aggregator.getNumVotes();
+		statistics.numCandidates = aggregator.getNumTracks();
+		statistics.numHashesRead = i;
+		return aggregator;
+	}
+
+	// the pair hashes of the clip found in the index, rarest first
+	private QueryHash[] findQueryHashes(final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table) {
+		final IndexSegment[] searchedSegments = snapshot.getSearchedSegments();
+		final List<QueryHash> queryHashes = new ArrayList<QueryHash>(query_Pair_PositionList_Table.size());
+		final IndexSegment[] segments = new IndexSegment[searchedSegments.length];
+		final int[] entries = new int[searchedSegments.length];
+
+		for (final Map.Entry<Integer, List<Integer>> pair : query_Pair_PositionList_Table.entrySet()) {
+			final int pairHash = pair.getKey();
+			int numSegments = 0;
+			long numPostings = 0;
+			for (int i = 0; i < searchedSegments.length; i++) {
+				final int entry = searchedSegments[i].find(pairHash);
+				if (entry >= 0) {
+					segments[numSegments] = searchedSegments[i];
+					entries[numSegments] = entry;
+					numSegments++;
+					numPostings += searchedSegments[i].getPostingsEnd(entry) - searchedSegments[i].getPostingsStart(entry);
+				}
+			}
+			if (numSegments > 0) {
+				queryHashes.add(new QueryHash(pairHash, toArray(pair.getValue()), Arrays.copyOf(segments, numSegments), Arrays.copyOf(entries,
+						numSegments), numPostings));
+			}
+		}
+
+		final QueryHash[] sortedQueryHashes = queryHashes.toArray(new QueryHash[queryHashes.size()]);
+		Arrays.sort(sortedQueryHashes, new Comparator<QueryHash>() {
+			public int compare(final QueryHash queryHash1, final QueryHash queryHash2) {
+				if (queryHash1.numPostings != queryHash2.numPostings) {
+					return queryHash1.numPostings < queryHash2.numPostings ? -1 : 1;
+				}
+				return queryHash1.pairHash < queryHash2.pairHash ? -1 : (queryHash1.pairHash == queryHash2.pairHash ? 0 : 1);
+			}
+		});
+		return sortedQueryHashes;
+	}
+
+	private static int[] toArray(final List<Integer> positions) {
+		final int[] array = new int[positions.size()];
+		int i = 0;
+		for (final int position : positions) {
+			array[i++] = position;
+		}
+		return array;
+	}
+
+	// whether reading the postings of the next pair hash would go past the budgets of the query
+	private static boolean isOverBudget(final QueryOptions options, final long queryStartTime, final long numPostingsScanned,
+			final QueryHash nextQueryHash) {
+		if (options.getPostingBudget() > 0 && numPostingsScanned + nextQueryHash.numPostings > options.getPostingBudget()) {
+			return true;
+		}
+		return options.getTimeBudgetNanos() > 0 && System.nanoTime() - queryStartTime >= options.getTimeBudgetNanos();
+	}
+
+	// peak of the N-th best candidate
+	private static int getPeakThreshold(final HashMap<Integer, Candidate> candidates, final int topN) {
+		final PriorityQueue<Integer> topPeaks = new PriorityQueue<Integer>(topN + 1);
+		for (final Candidate candidate : candidates.values()) {
+			if (topPeaks.size() < topN) {
+				topPeaks.add(candidate.peak);
+			} else if (candidate.peak > topPeaks.peek()) {
+				topPeaks.poll();
+				topPeaks.add(candidate.peak);
+			}
+		}
+		return topPeaks.peek();
+	}
+
+	// first position from start to end with a posting not less than the key
+	private static int lowerBound(final IndexSegment segment, int start, int end, final long key) {
+		while (start < end) {
+			final int middle = (start + end) >>> 1;
+			if (segment.getPosting(middle) < key) {
+				start = middle + 1;
+			} else {
+				end = middle;
+			}
+		}
+		return start;
+	}
+
+	// the best matches by score, by track number for equal scores
+	static List<Match> getBestMatches(final List<Match> matches, final List<Integer> trackNumbers, final int topN) {
+		final Integer[] order = new Integer[matches.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(final Integer index1, final Integer index2) {
+				final float score1 = matches.get(index1).getSimilarity().getScore();
+				final float score2 = matches.get(index2).getSimilarity().getScore();
+				if (score1 != score2) {
+					return score1 > score2 ? -1 : 1;
+				}
+				return trackNumbers.get(index1).compareTo(trackNumbers.get(index2));
+			}
+		});
+		final List<Match> bestMatches = new ArrayList<Match>(Math.min(topN, order.length));
+		for (int i = 0; i < order.length && i < topN; i++) {
+			bestMatches.add(matches.get(order[i]));
+		}
+		return Collections.unmodifiableList(bestMatches);
+	}
+
+	/**
+	 * Work done by a scan
+	 */
+	private static class ScanStatistics {
+
+		long numPostingsScanned;
+		long numVotes;
+		int numCandidates;
+		int numHashesRead;	// pair hashes found whose postings were read
+	}
+
+	/**
+	 * A pair hash of the clip, with its positions in the clip and its entries in the segments
+	 */
+	private static class QueryHash {
+
+		final int pairHash;
+		final int[] positions;
+		final IndexSegment[] segments;
+		final int[] entries;
+		final long numPostings;
+
+		QueryHash(final int pairHash, final int[] positions, final IndexSegment[] segments, final int[] entries, final long numPostings) {
+			this.pairHash = pairHash;
+			this.positions = positions;
+			this.segments = segments;
+			this.entries = entries;
+			this.numPostings = numPostings;
+		}
+	}
+
+	/**
+	 * A track with votes
+	 */
+	private static class Candidate {
+
+		final int trackNumber;
+		final HashMap<Integer, Integer> offset_Score_Table = new HashMap<Integer, Integer>();	// offset_Score_Table<offset,count>
+		int peak;	// votes of the most voted offset
+
+		Candidate(final int trackNumber) {
+			this.trackNumber = trackNumber;
+		}
+
+		// vote for the offsets of a posting of the track, returns the number of votes
+		int vote(final int frame, final int[] queryPositions) {
+			for (int i = 0; i < queryPositions.length; i++) {
+				final int offset = frame - queryPositions[i];
+				final Integer count = offset_Score_Table.get(offset);
+				final int newCount = count == null ? 1 : count + 1;
+				offset_Score_Table.put(offset, newCount);
+				if (newCount > peak) {
+					peak = newCount;
+				}
+			}
+			return queryPositions.length;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+/**
+ * An immutable part of the index, pair hashes with their postings
+ *
+ * The entries are in ascending pair hash order, the postings of an entry are the positions from
+ * getPostingsStart(entry) to getPostingsEnd(entry), in ascending order, see Postings.
+ *
+ * @author jacquet
+ */
+public interface IndexSegment {
+
+	/**
+	 * @return number of pair hashes
+	 */
+	int getNumHashes();
+
+	/**
+	 * @return number of postings of all the pair hashes
+	 */
+	int getNumPostings();
+
+	/**
+	 * Find the entry of a pair hash
+	 *
+	 * @param pairHash
+	 *            pair hash
+	 * @return entry, or -1 if the pair hash is not in the segment
+	 */
+	int find(int pairHash);
+
+	/**
+	 * @param entry
+	 *            entry number, from 0 to getNumHashes()-1
+	 * @return pair hash of the entry
+	 */
+	int getHash(int entry);
+
+	/**
+	 * @param entry
+	 *            entry number
+	 * @return position of the first posting of the entry
+	 */
+	int getPostingsStart(int entry);
+
+	/**
+	 * @param entry
+	 *            entry number
+	 * @return position after the last posting of the entry
+	 */
+	int getPostingsEnd(int entry);
+
+	/**
+	 * @param position
+	 *            position of the posting, from 0 to getNumPostings()-1
+	 * @return posting, see Postings
+	 */
+	long getPosting(int position);
+}
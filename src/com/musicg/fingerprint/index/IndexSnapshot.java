@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.HashMap;
+import java.util.List;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+
+/**
+ * A consistent view of the index: its segments, its memtables and its live tracks at one time
+ *
+ * A snapshot never changes, the tracks added or removed after it was taken are not seen, so a query
+ * reads the same index from start to end while tracks are added and segments are merged.
+ *
+ * @author jacquet
+ */
+public class IndexSnapshot {
+
+	private final IndexSegment[] segments;	// flushed segments
+	private final MemTable[] memTables;	// memtables being flushed, then the active one
+	private final IndexSegment[] searchedSegments;	// segments and the tracks of the memtables
+
+	// tracks by number, shared with the index, entries after numTracks are not read
+	private final String[] trackIds;
+	private final int[] trackNumFrames;
+	private final int[] removedSequences;	// sequence number the track was removed at, 0 if it is not removed
+	private final int numTracks;
+	private final int numLiveTracks;
+	private final int sequence;	// sequence number of the last update seen
+
+	IndexSnapshot(final IndexSegment[] segments, final MemTable[] memTables, final String[] trackIds, final int[] trackNumFrames,
+			final int[] removedSequences, final int numTracks, final int numLiveTracks, final int sequence) {
+		this.segments = segments;
+		this.memTables = memTables;
+		this.trackIds = trackIds;
+		this.trackNumFrames = trackNumFrames;
+		this.removedSequences = removedSequences;
+		this.numTracks = numTracks;
+		this.numLiveTracks = numLiveTracks;
+		this.sequence = sequence;
+
+		int numSearchedSegments = segments.length;
+		for (int i = 0; i < memTables.length; i++) {
+			numSearchedSegments += memTables[i].getSegments().length;
+		}
+		searchedSegments = new IndexSegment[numSearchedSegments];
+		System.arraycopy(segments, 0, searchedSegments, 0, segments.length);
+		int numSegments = segments.length;
+		for (int i = 0; i < memTables.length; i++) {
+			final HeapIndexSegment[] memTableSegments = memTables[i].getSegments();
+			System.arraycopy(memTableSegments, 0, searchedSegments, numSegments, memTableSegments.length);
+			numSegments += memTableSegments.length;
+		}
+	}
+
+	/**
+	 * Check if a track is in the index in this snapshot
+	 *
+	 * @param trackNumber
+	 *            number of the track, from a posting
+	 * @return true if the track was added and not removed
+	 */
+	public boolean isLive(final int trackNumber) {
+		if (trackNumber < 0 || trackNumber >= numTracks) {
+			return false;
+		}
+		// a later removal is written to the shared array, but its sequence number is after this snapshot
+		final int removedSequence = removedSequences[trackNumber];
+		return removedSequence == 0 || removedSequence > sequence;
+	}
+
+	/**
+	 * @param trackNumber
+	 *            number of the track
+	 * @return id of the track
+	 */
+	public String getTrackId(final int trackNumber) {
+		return trackIds[trackNumber];
+	}
+
+	/**
+	 * @param trackNumber
+	 *            number of the track
+	 * @return number of frames of the fingerprint of the track
+	 */
+	public int getTrackNumFrames(final int trackNumber) {
+		return trackNumFrames[trackNumber];
+	}
+
+	/**
+	 * @return number of tracks ever added, live or not, the track numbers are from 0 to this
+	 */
+	public int getNumTracks() {
+		return numTracks;
+	}
+
+	/**
+	 * @return number of live tracks
+	 */
+	public int size() {
+		return numLiveTracks;
+	}
+
+	/**
+	 * @return flushed segments, the array should not be modified
+	 */
+	public IndexSegment[] getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return memtables not flushed yet, the array should not be modified
+	 */
+	public MemTable[] getMemTables() {
+		return memTables;
+	}
+
+	/**
+	 * @return flushed segments and the segments of the memtables, the array should not be
+	 *         modified
+	 */
+	public IndexSegment[] getSearchedSegments() {
+		return searchedSegments;
+	}
+
+	/**
+	 * Find the track most similar to a clip
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @return best match, or null if no track shares a pair hash with the clip
+	 */
+	public Match lookup(final byte[] queryFingerprint) {
+		return search(queryFingerprint, new QueryOptions()).getBestMatch();
+	}
+
+	/**
+	 * Find the tracks most similar to a clip
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @param options
+	 *            options of the query
+	 * @return best matches and the work done
+	 */
+	public QueryResult search(final byte[] queryFingerprint, final QueryOptions options) {
+		return new IndexSearcher(this).search(queryFingerprint, options);
+	}
+
+	/**
+	 * Find the tracks most similar to each of many clips, reading the postings of a pair hash once for
+	 * all the clips
+	 *
+	 * @param queryFingerprints
+	 *            fingerprints of the clips
+	 * @param options
+	 *            options of the queries
+	 * @return best matches of each clip, in the order of the clips
+	 */
+	public List<QueryResult> searchBatch(final List<byte[]> queryFingerprints, final QueryOptions options) {
+		return new IndexSearcher(this).searchBatch(queryFingerprints, options);
+	}
+
+	/**
+	 * Count the offset votes of the tracks for some pair hashes of a clip, without scoring them
+	 *
+	 * @param query_Pair_PositionList_Table
+	 *            query_Pair_PositionList_Table<pairHash,positions> of the clip
+	 * @return votes of the tracks
+	 */
+	public PartialVotes vote(final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table) {
+		return new IndexSearcher(this).vote(query_Pair_PositionList_Table);
+	}
+}
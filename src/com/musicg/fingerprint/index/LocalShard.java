@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A shard in this process, an IncrementalIndex of the pair hashes of a range
+ *
+ * @author jacquet
+ */
+public class LocalShard implements Shard {
+
+	private final IncrementalIndex index;
+
+	/**
+	 * Constructor, with an empty index
+	 */
+	public LocalShard() {
+		this(new IncrementalIndex());
+	}
+
+	/**
+	 * @param index
+	 *            index of the shard
+	 */
+	public LocalShard(final IncrementalIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Open a shard saved with getIndex().save()
+	 *
+	 * @param directory
+	 *            index directory of the shard
+	 * @return shard
+	 * @throws IOException
+	 */
+	public static LocalShard open(final File directory) throws IOException {
+		return new LocalShard(IncrementalIndex.open(directory, IncrementalIndex.DEFAULT_MAX_BUFFERED_POSTINGS,
+				IncrementalIndex.DEFAULT_MERGE_FACTOR));
+	}
+
+	public IncrementalIndex getIndex() {
+		return index;
+	}
+
+	public void addTrack(final String trackId, final int numFrames, final HashMap<Integer, List<Integer>> pair_PositionList_Table) {
+		index.addTrack(trackId, numFrames, pair_PositionList_Table);
+	}
+
+	public boolean removeTrack(final String trackId) {
+		return index.removeTrack(trackId);
+	}
+
+	public PartialVotes vote(final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table) {
+		return index.getSnapshot().vote(query_Pair_PositionList_Table);
+	}
+
+	public void close() {
+		try {
+			index.close(1, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.Arrays;
+
+/**
+ * Write buffer of the index, the postings of the tracks added since the last flush
+ *
+ * A memtable is immutable, adding a track gives a new memtable, so a snapshot keeps reading the tracks
+ * it has seen while more tracks are added. The tracks are merged into a few sorted segments, each more
+ * than twice as large as the next one, so a query reads a logarithmic number of segments and a posting
+ * is merged a logarithmic number of times. A flush merges them into one sorted segment.
+ *
+ * @author jacquet
+ */
+public class MemTable {
+
+	private final HeapIndexSegment[] segments;	// largest first
+	private final int numTracks;
+	private final int numPostings;
+
+	/**
+	 * Constructor, an empty memtable
+	 */
+	public MemTable() {
+		this(new HeapIndexSegment[0], 0, 0);
+	}
+
+	private MemTable(final HeapIndexSegment[] segments, final int numTracks, final int numPostings) {
+		this.segments = segments;
+		this.numTracks = numTracks;
+		this.numPostings = numPostings;
+	}
+
+	/**
+	 * Add the segment of a track
+	 *
+	 * @param trackSegment
+	 *            segment of the track, see HeapIndexSegment.forTrack()
+	 * @return memtable with the track
+	 */
+	public MemTable add(final HeapIndexSegment trackSegment) {
+		// merge the smallest segments while they are not more than twice as large as the new one
+		HeapIndexSegment lastSegment = trackSegment;
+		int numSegments = segments.length;
+		while (numSegments > 0 && segments[numSegments - 1].getNumPostings() <= 2L * lastSegment.getNumPostings()) {
+			lastSegment = HeapIndexSegment.merge(new IndexSegment[] { segments[numSegments - 1], lastSegment }, null);
+			numSegments--;
+		}
+		final HeapIndexSegment[] addedSegments = Arrays.copyOf(segments, numSegments + 1);
+		addedSegments[numSegments] = lastSegment;
+		return new MemTable(addedSegments, numTracks + 1, numPostings + trackSegment.getNumPostings());
+	}
+
+	/**
+	 * Merge the tracks into one segment
+	 *
+	 * @param snapshot
+	 *            snapshot telling the live tracks, the postings of removed tracks are dropped
+	 * @return segment
+	 */
+	public HeapIndexSegment toSegment(final IndexSnapshot snapshot) {
+		return HeapIndexSegment.merge(segments, snapshot);
+	}
+
+	/**
+	 * @return sorted segments holding the tracks, the array should not be modified
+	 */
+	public HeapIndexSegment[] getSegments() {
+		return segments;
+	}
+
+	public int getNumTracks() {
+		return numTracks;
+	}
+
+	public int getNumPostings() {
+		return numPostings;
+	}
+
+	public boolean isEmpty() {
+		return numTracks == 0;
+	}
+}
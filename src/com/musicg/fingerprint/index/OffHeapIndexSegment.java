@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Index segment held out of the Java heap, in direct buffers or in a memory mapped segment file
+ *
+ * The heap only holds the buffer objects, so the size of the postings does not add to the garbage
+ * collection pauses. The perfect hash directory is held the same way, read or mapped from the segment
+ * file with the postings. The accessors are bounds checked by the buffers. A buffer larger than 1 GB
+ * is split in chunks, as a buffer is indexed by an int. The memory is released when the segment is no
+ * longer referenced and the buffers are collected.
+ *
+ * @author jacquet
+ */
+public class OffHeapIndexSegment implements IndexSegment {
+
+	private static final int CHUNK_BITS = 27;	// postings of a chunk, 1 GB
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int numHashes;
+	private final int numPostings;
+	private final IntBuffer hashes;
+	private final IntBuffer starts;
+	private final LongBuffer[] postingChunks;
+	private final PerfectHashDirectory directory;	// in a direct or mapped buffer, null to find the pair hashes by binary search
+
+	private OffHeapIndexSegment(final int numHashes, final int numPostings, final IntBuffer hashes, final IntBuffer starts,
+			final LongBuffer[] postingChunks) {
+		this(numHashes, numPostings, hashes, starts, postingChunks, null);
+	}
+
+	private OffHeapIndexSegment(final int numHashes, final int numPostings, final IntBuffer hashes, final IntBuffer starts,
+			final LongBuffer[] postingChunks, final PerfectHashDirectory directory) {
+		this.numHashes = numHashes;
+		this.numPostings = numPostings;
+		this.hashes = hashes;
+		this.starts = starts;
+		this.postingChunks = postingChunks;
+		this.directory = directory;
+	}
+
+	/**
+	 * Get the segment with a minimal perfect hash directory of its pair hashes
+	 *
+	 * @return segment sharing the buffers of this one
+	 */
+	public OffHeapIndexSegment withDirectory() {
+		return directory != null ? this : new OffHeapIndexSegment(numHashes, numPostings, hashes, starts, postingChunks,
+				PerfectHashDirectory.build(this, true));
+	}
+
+	/**
+	 * Copy a segment to direct buffers
+	 *
+	 * @param segment
+	 *            segment
+	 * @return off heap copy of the segment
+	 */
+	public static OffHeapIndexSegment copyOf(final IndexSegment segment) {
+		final int numHashes = segment.getNumHashes();
+		final int numPostings = segment.getNumPostings();
+		final IntBuffer hashes = allocateInts(numHashes);
+		final IntBuffer starts = allocateInts(numHashes + 1);
+		for (int entry = 0; entry < numHashes; entry++) {
+			hashes.put(entry, segment.getHash(entry));
+			starts.put(entry, segment.getPostingsStart(entry));
+		}
+		starts.put(numHashes, numPostings);
+
+		final LongBuffer[] postingChunks = new LongBuffer[getNumChunks(numPostings)];
+		for (int chunk = 0; chunk < postingChunks.length; chunk++) {
+			final int chunkStart = chunk << CHUNK_BITS;
+			final int chunkSize = Math.min(CHUNK_SIZE, numPostings - chunkStart);
+			postingChunks[chunk] = ByteBuffer.allocateDirect(chunkSize * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+			for (int i = 0; i < chunkSize; i++) {
+				postingChunks[chunk].put(i, segment.getPosting(chunkStart + i));
+			}
+		}
+		return new OffHeapIndexSegment(numHashes, numPostings, hashes, starts, postingChunks);
+	}
+
+	/**
+	 * Read a segment file to direct buffers, with the directory of the file unless it is of version 1
+	 *
+	 * @param file
+	 *            segment file, see IndexFiles
+	 * @return segment
+	 * @throws IOException
+	 */
+	public static OffHeapIndexSegment read(final File file) throws IOException {
+		return open(file, false);
+	}
+
+	/**
+	 * Map a segment file to memory, its pages are read when they are accessed, with the directory of the
+	 * file unless it is of version 1
+	 *
+	 * @param file
+	 *            segment file, see IndexFiles
+	 * @return segment
+	 * @throws IOException
+	 */
+	public static OffHeapIndexSegment map(final File file) throws IOException {
+		return open(file, true);
+	}
+
+	private static OffHeapIndexSegment open(final File file, final boolean isMapped) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final ByteBuffer header = load(channel, 0, IndexFiles.SEGMENT_HEADER_SIZE, false);
+			final int version = header.getInt(4);
+			if (header.getInt(0) != IndexFiles.SEGMENT_MAGIC
+					|| (version != IndexFiles.SEGMENT_VERSION_1 && version != IndexFiles.SEGMENT_VERSION)) {
+				throw new IOException("OffHeapIndexSegment: " + file + " is not a segment file");
+			}
+			final int numHashes = header.getInt(8);
+			final int numPostings = header.getInt(12);
+			if (numHashes < 0 || numPostings < 0 || (version == IndexFiles.SEGMENT_VERSION_1
+					? channel.size() != IndexFiles.getStartsEnd(numHashes, numPostings)
+					: channel.size() < IndexFiles.getDirectoryStart(numHashes, numPostings) + PerfectHashDirectory.HEADER_SIZE)) {
+				throw new IOException("OffHeapIndexSegment: " + file + " is truncated");
+			}
+
+			long position = IndexFiles.SEGMENT_HEADER_SIZE;
+			final LongBuffer[] postingChunks = new LongBuffer[getNumChunks(numPostings)];
+			for (int chunk = 0; chunk < postingChunks.length; chunk++) {
+				final int chunkSize = Math.min(CHUNK_SIZE, numPostings - (chunk << CHUNK_BITS));
+				postingChunks[chunk] = load(channel, position, chunkSize * 8, isMapped).asLongBuffer();
+				position += chunkSize * 8L;
+			}
+			final IntBuffer hashes = load(channel, position, checkIntBufferSize(numHashes) * 4, isMapped).asIntBuffer();
+			position += numHashes * 4L;
+			final IntBuffer starts = load(channel, position, checkIntBufferSize(numHashes + 1) * 4, isMapped).asIntBuffer();
+			if (version == IndexFiles.SEGMENT_VERSION_1) {
+				return new OffHeapIndexSegment(numHashes, numPostings, hashes, starts, postingChunks);
+			}
+
+			final long directoryStart = IndexFiles.getDirectoryStart(numHashes, numPostings);
+			final long directorySize = channel.size() - directoryStart;
+			if (directorySize > Integer.MAX_VALUE) {
+				throw new IOException("OffHeapIndexSegment: " + file + " has a corrupt directory");
+			}
+			final PerfectHashDirectory directory;
+			try {
+				directory = new PerfectHashDirectory(load(channel, directoryStart, (int) directorySize, isMapped));
+			} catch (final IllegalArgumentException e) {
+				throw new IOException("OffHeapIndexSegment: " + file + " has a corrupt directory", e);
+			}
+			if (directory.getNumHashes() != numHashes) {
+				throw new IOException("OffHeapIndexSegment: " + file + " has a corrupt directory");
+			}
+			return new OffHeapIndexSegment(numHashes, numPostings, hashes, starts, postingChunks, directory);
+		} finally {
+			// a mapping stays valid after the channel is closed
+			randomAccessFile.close();
+		}
+	}
+
+	// a region of the file, big endian as written by IndexFiles
+	private static ByteBuffer load(final FileChannel channel, final long position, final int size, final boolean isMapped)
+			throws IOException {
+		if (isMapped) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("OffHeapIndexSegment: unexpected end of the segment file");
+			}
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	private static IntBuffer allocateInts(final int size) {
+		return ByteBuffer.allocateDirect(checkIntBufferSize(size) * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private static int checkIntBufferSize(final int size) {
+		if (size > Integer.MAX_VALUE / 4) {
+			throw new IllegalArgumentException("OffHeapIndexSegment: too many pair hashes");
+		}
+		return size;
+	}
+
+	private static int getNumChunks(final int numPostings) {
+		return (int) (((long) numPostings + CHUNK_SIZE - 1) >> CHUNK_BITS);
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	public int getNumPostings() {
+		return numPostings;
+	}
+
+	public int find(final int pairHash) {
+		if (directory != null) {
+			final int entry = directory.getEntry(pairHash);
+			return entry >= 0 && hashes.get(entry) == pairHash ? entry : -1;
+		}
+		int low = 0;
+		int high = numHashes - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int hash = hashes.get(middle);
+			if (hash < pairHash) {
+				low = middle + 1;
+			} else if (hash > pairHash) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	public int getHash(final int entry) {
+		return hashes.get(entry);
+	}
+
+	public int getPostingsStart(final int entry) {
+		return starts.get(entry);
+	}
+
+	public int getPostingsEnd(final int entry) {
+		return starts.get(entry + 1);
+	}
+
+	public long getPosting(final int position) {
+		return postingChunks[position >>> CHUNK_BITS].get(position & CHUNK_MASK);
+	}
+}
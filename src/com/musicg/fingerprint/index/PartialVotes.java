@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Offset votes of the tracks for a part of the pair hashes of a clip, e.g. the ones of a shard
+ *
+ * The tracks are in track number order, the offsets of a track are from getTrackStart(track) to
+ * getTrackStart(track+1), in offset order. The votes of the shards of an index are added up by track id
+ * and scored by the ShardCoordinator.
+ *
+ * @author jacquet
+ */
+public class PartialVotes {
+
+	private final int[] trackNumbers;
+	private final String[] trackIds;
+	private final int[] trackNumFrames;
+	private final int[] trackStarts;
+	private final int[] offsets;
+	private final int[] counts;
+	private final int numHashesFound;
+	private final long numPostingsScanned;
+
+	public PartialVotes(final int[] trackNumbers, final String[] trackIds, final int[] trackNumFrames, final int[] trackStarts,
+			final int[] offsets, final int[] counts, final int numHashesFound, final long numPostingsScanned) {
+		this.trackNumbers = trackNumbers;
+		this.trackIds = trackIds;
+		this.trackNumFrames = trackNumFrames;
+		this.trackStarts = trackStarts;
+		this.offsets = offsets;
+		this.counts = counts;
+		this.numHashesFound = numHashesFound;
+		this.numPostingsScanned = numPostingsScanned;
+	}
+
+	/**
+	 * @return number of tracks with votes
+	 */
+	public int getNumTracks() {
+		return trackNumbers.length;
+	}
+
+	/**
+	 * @param track
+	 *            index of the track, from 0 to getNumTracks()-1
+	 * @return number of the track in the index of the shard
+	 */
+	public int getTrackNumber(final int track) {
+		return trackNumbers[track];
+	}
+
+	public String getTrackId(final int track) {
+		return trackIds[track];
+	}
+
+	/**
+	 * @param track
+	 *            index of the track
+	 * @return number of frames of the fingerprint of the track
+	 */
+	public int getTrackNumFrames(final int track) {
+		return trackNumFrames[track];
+	}
+
+	/**
+	 * @param track
+	 *            index of the track, from 0 to getNumTracks()
+	 * @return position of the first offset of the track
+	 */
+	public int getTrackStart(final int track) {
+		return trackStarts[track];
+	}
+
+	/**
+	 * @param position
+	 *            position of the offset
+	 * @return offset of the clip in the track, in frames
+	 */
+	public int getOffset(final int position) {
+		return offsets[position];
+	}
+
+	/**
+	 * @param position
+	 *            position of the offset
+	 * @return votes of the offset
+	 */
+	public int getCount(final int position) {
+		return counts[position];
+	}
+
+	/**
+	 * @return number of pair hashes found in the index
+	 */
+	public int getNumHashesFound() {
+		return numHashesFound;
+	}
+
+	/**
+	 * @return number of postings read
+	 */
+	public long getNumPostingsScanned() {
+		return numPostingsScanned;
+	}
+
+	/**
+	 * Write the votes, for sending them to the coordinator
+	 *
+	 * @param outputStream
+	 *            stream
+	 * @throws IOException
+	 */
+	public void write(final DataOutputStream outputStream) throws IOException {
+		outputStream.writeInt(numHashesFound);
+		outputStream.writeLong(numPostingsScanned);
+		outputStream.writeInt(trackNumbers.length);
+		for (int track = 0; track < trackNumbers.length; track++) {
+			outputStream.writeInt(trackNumbers[track]);
+			outputStream.writeUTF(trackIds[track]);
+			outputStream.writeInt(trackNumFrames[track]);
+			outputStream.writeInt(trackStarts[track + 1] - trackStarts[track]);
+		}
+		for (int i = 0; i < offsets.length; i++) {
+			outputStream.writeInt(offsets[i]);
+			outputStream.writeInt(counts[i]);
+		}
+	}
+
+	/**
+	 * Read votes written by write()
+	 *
+	 * @param inputStream
+	 *            stream
+	 * @return votes
+	 * @throws IOException
+	 */
+	public static PartialVotes read(final DataInputStream inputStream) throws IOException {
+		final int numHashesFound = inputStream.readInt();
+		final long numPostingsScanned = inputStream.readLong();
+		final int numTracks = inputStream.readInt();
+		final int[] trackNumbers = new int[numTracks];
+		final String[] trackIds = new String[numTracks];
+		final int[] trackNumFrames = new int[numTracks];
+		final int[] trackStarts = new int[numTracks + 1];
+		for (int track = 0; track < numTracks; track++) {
+			trackNumbers[track] = inputStream.readInt();
+			trackIds[track] = inputStream.readUTF();
+			trackNumFrames[track] = inputStream.readInt();
+			trackStarts[track + 1] = trackStarts[track] + inputStream.readInt();
+		}
+		final int[] offsets = new int[trackStarts[numTracks]];
+		final int[] counts = new int[trackStarts[numTracks]];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = inputStream.readInt();
+			counts[i] = inputStream.readInt();
+		}
+		return new PartialVotes(trackNumbers, trackIds, trackNumFrames, trackStarts, offsets, counts, numHashesFound,
+				numPostingsScanned);
+	}
+}
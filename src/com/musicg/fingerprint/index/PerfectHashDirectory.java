@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal perfect hash of the pair hashes of an immutable segment, giving the entry of a pair hash
+ *
+ * The hash is built the BBHash way: each level is a bit array of gamma bits per remaining pair hash,
+ * a pair hash alone at its position in a level keeps the bit, the colliding pair hashes go to the next
+ * level. The slot of a pair hash is the rank of its bit over all the levels, from 0 to numHashes-1. The
+ * bits take about 3 to 4 bits per pair hash, and a lookup reads one or two levels in most cases.
+ *
+ * The entries stay in pair hash order for merging, so the slots are mapped to the entries by a table
+ * packed with just enough bits per entry. A pair hash not in the segment gives any entry or -1, the
+ * segment checks the pair hash of the entry.
+ *
+ * The directory is held in a single big endian buffer, on the heap, in a direct buffer or mapped from
+ * the segment file it is saved in: the number of pair hashes, the number of levels, the number of pair
+ * hashes colliding in all the levels and the bits per entry as ints, the size in bits of each level as
+ * longs, the bits of the levels as longs, the ranks as ints padded to a long, the colliding pair hashes in
+ * ascending order and their slots as ints, then the slot to entry table as longs.
+ *
+ * @author jacquet
+ */
+public class PerfectHashDirectory {
+
+	public static final double DEFAULT_GAMMA = 2.0;
+	static final int HEADER_SIZE = 16;
+	private static final int MAX_LEVELS = 32;
+	private static final int WORDS_PER_RANK = 8;	// a rank is kept for each 512 bits
+
+	private final ByteBuffer buffer;	// the whole directory
+	private final int numHashes;
+	private final int numLevels;
+	private final long[] levelStarts;	// first bit of each level in bits
+	private final long[] levelSizes;	// bits of each level, a multiple of 64
+	private final LongBuffer bits;	// bit arrays of the levels
+	private final IntBuffer ranks;	// ranks[block] is the number of bits set before the block of WORDS_PER_RANK words
+	private final int numFallbacks;
+	private final IntBuffer fallbackHashes;	// pair hashes colliding in all the levels, ascending
+	private final IntBuffer fallbackSlots;	// slots of the fallback pair hashes
+
+	// slot to entry table
+	private final int bitsPerEntry;
+	private final LongBuffer entries;
+
+	/**
+	 * Read a directory from a buffer, the buffer is shared
+	 *
+	 * @param buffer
+	 *            directory from its position to its limit
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not hold a directory
+	 */
+	public PerfectHashDirectory(final ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+		if (this.buffer.capacity() < HEADER_SIZE) {
+			throw new IllegalArgumentException("PerfectHashDirectory: the directory is truncated");
+		}
+		numHashes = this.buffer.getInt(0);
+		numLevels = this.buffer.getInt(4);
+		numFallbacks = this.buffer.getInt(8);
+		bitsPerEntry = this.buffer.getInt(12);
+		if (numHashes < 0 || numLevels < 0 || numLevels > MAX_LEVELS || numFallbacks < 0 || numFallbacks > numHashes
+				|| bitsPerEntry < 1 || bitsPerEntry > 32 || this.buffer.capacity() < HEADER_SIZE + numLevels * 8) {
+			throw new IllegalArgumentException("PerfectHashDirectory: the directory is corrupt");
+		}
+
+		levelStarts = new long[numLevels];
+		levelSizes = new long[numLevels];
+		long numBits = 0;
+		for (int level = 0; level < numLevels; level++) {
+			levelStarts[level] = numBits;
+			levelSizes[level] = this.buffer.getLong(HEADER_SIZE + level * 8);
+			if (levelSizes[level] < 64 || (levelSizes[level] & 63) != 0 || levelSizes[level] > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("PerfectHashDirectory: the directory is corrupt");
+			}
+			numBits += levelSizes[level];
+		}
+		final long numWords = numBits >>> 6;
+		if (getSize(numHashes, numLevels, numWords, numFallbacks, bitsPerEntry) != this.buffer.capacity()) {
+			throw new IllegalArgumentException("PerfectHashDirectory: the directory is truncated");
+		}
+
+		int position = HEADER_SIZE + numLevels * 8;
+		bits = slice(position, (int) numWords * 8).asLongBuffer();
+		position += (int) numWords * 8;
+		final int numRanks = getNumRanks(numWords);
+		ranks = slice(position, numRanks * 4).asIntBuffer();
+		position += (numRanks + 1 & ~1) * 4;
+		fallbackHashes = slice(position, numFallbacks * 4).asIntBuffer();
+		position += numFallbacks * 4;
+		fallbackSlots = slice(position, numFallbacks * 4).asIntBuffer();
+		position += numFallbacks * 4;
+		entries = slice(position, this.buffer.capacity() - position).asLongBuffer();
+	}
+
+	/**
+	 * Build the directory of a segment, with the default gamma
+	 *
+	 * @param segment
+	 *            segment
+	 * @param isDirect
+	 *            true to build the directory in a direct buffer, false on the heap
+	 * @return directory
+	 */
+	public static PerfectHashDirectory build(final IndexSegment segment, final boolean isDirect) {
+		final int[] hashes = new int[segment.getNumHashes()];
+		for (int entry = 0; entry < hashes.length; entry++) {
+			hashes[entry] = segment.getHash(entry);
+		}
+		return build(hashes, hashes.length, DEFAULT_GAMMA, isDirect);
+	}
+
+	/**
+	 * Build the directory of the pair hashes of a segment
+	 *
+	 * @param hashes
+	 *            pair hashes of the segment, ascending, the entries are their indexes
+	 * @param numHashes
+	 *            number of pair hashes
+	 * @param gamma
+	 *            bits of a level per pair hash, at least 1, more bits take more space and fewer levels
+	 * @param isDirect
+	 *            true to build the directory in a direct buffer, false on the heap
+	 * @return directory
+	 */
+	public static PerfectHashDirectory build(final int[] hashes, final int numHashes, final double gamma, final boolean isDirect) {
+		if (gamma < 1) {
+			throw new IllegalArgumentException("PerfectHashDirectory: gamma should be at least 1");
+		}
+		final int[] remaining = Arrays.copyOf(hashes, numHashes);
+		int numRemaining = numHashes;
+
+		// levels
+		final List<long[]> levels = new ArrayList<long[]>();
+		long numWords = 0;
+		while (numRemaining > 0 && levels.size() < MAX_LEVELS) {
+			final int level = levels.size();
+			final long levelSize = Math.max(64, ((long) Math.ceil(gamma * numRemaining) + 63) & ~63L);
+			final long[] levelBits = new long[(int) (levelSize >>> 6)];
+			final long[] collisions = new long[levelBits.length];
+			for (int i = 0; i < numRemaining; i++) {
+				final long position = getPosition(remaining[i], level, levelSize);
+				final int word = (int) (position >>> 6);
+				final long mask = 1L << position;
+				if ((levelBits[word] & mask) != 0) {
+					collisions[word] |= mask;
+				} else {
+					levelBits[word] |= mask;
+				}
+			}
+			// the colliding pair hashes go to the next level
+			int numColliding = 0;
+			for (int i = 0; i < numRemaining; i++) {
+				final long position = getPosition(remaining[i], level, levelSize);
+				if ((collisions[(int) (position >>> 6)] & 1L << position) != 0) {
+					remaining[numColliding++] = remaining[i];
+				}
+			}
+			for (int word = 0; word < levelBits.length; word++) {
+				levelBits[word] &= ~collisions[word];
+			}
+			levels.add(levelBits);
+			numWords += levelBits.length;
+			numRemaining = numColliding;
+		}
+
+		// the few pair hashes left take the last slots, in pair hash order
+		Arrays.sort(remaining, 0, numRemaining);
+		final int bitsPerEntry = numHashes <= 1 ? 1 : 32 - Integer.numberOfLeadingZeros(numHashes - 1);
+		final long size = getSize(numHashes, levels.size(), numWords, numRemaining, bitsPerEntry);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("PerfectHashDirectory: too many pair hashes");
+		}
+		final ByteBuffer buffer = isDirect ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+		buffer.putInt(numHashes);
+		buffer.putInt(levels.size());
+		buffer.putInt(numRemaining);
+		buffer.putInt(bitsPerEntry);
+		for (final long[] levelBits : levels) {
+			buffer.putLong((long) levelBits.length << 6);
+		}
+		for (final long[] levelBits : levels) {
+			for (int word = 0; word < levelBits.length; word++) {
+				buffer.putLong(levelBits[word]);
+			}
+		}
+		int rank = 0;
+		int word = 0;
+		for (final long[] levelBits : levels) {
+			for (int i = 0; i < levelBits.length; i++, word++) {
+				if (word % WORDS_PER_RANK == 0) {
+					buffer.putInt(rank);
+				}
+				rank += Long.bitCount(levelBits[i]);
+			}
+		}
+		if ((getNumRanks(numWords) & 1) != 0) {
+			buffer.putInt(0);
+		}
+		for (int i = 0; i < numRemaining; i++) {
+			buffer.putInt(remaining[i]);
+		}
+		for (int i = 0; i < numRemaining; i++) {
+			buffer.putInt(rank + i);
+		}
+		buffer.clear();
+
+		// slot to entry table, left zero in the buffer
+		final PerfectHashDirectory directory = new PerfectHashDirectory(buffer);
+		for (int entry = 0; entry < numHashes; entry++) {
+			directory.setEntry(directory.getSlot(hashes[entry]), entry);
+		}
+		return directory;
+	}
+
+	// bytes of a directory
+	private static long getSize(final int numHashes, final int numLevels, final long numWords, final int numFallbacks,
+			final int bitsPerEntry) {
+		final long numRanks = getNumRanks(numWords);
+		return HEADER_SIZE + numLevels * 8L + numWords * 8 + (numRanks + 1 & ~1L) * 4 + numFallbacks * 8L
+				+ (((long) numHashes * bitsPerEntry + 63) >>> 6) * 8;
+	}
+
+	private static int getNumRanks(final long numWords) {
+		return (int) ((numWords + WORDS_PER_RANK - 1) / WORDS_PER_RANK);
+	}
+
+	private ByteBuffer slice(final int position, final int size) {
+		final ByteBuffer slice = buffer.duplicate();
+		slice.limit(position + size);
+		slice.position(position);
+		return slice.slice();
+	}
+
+	/**
+	 * Get the entry of a pair hash
+	 *
+	 * @param pairHash
+	 *            pair hash
+	 * @return entry of the pair hash if it is in the segment, otherwise any entry or -1
+	 */
+	public int getEntry(final int pairHash) {
+		final int slot = getSlot(pairHash);
+		return slot < 0 ? -1 : getEntryOfSlot(slot);
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * @return bytes of the directory
+	 */
+	public int getSize() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * @return bits per pair hash of the whole directory, the perfect hash and the slot to entry table
+	 */
+	public double getBitsPerHash() {
+		if (numHashes == 0) {
+			return 0;
+		}
+		return buffer.capacity() * 8.0 / numHashes;
+	}
+
+	/**
+	 * @return bits per pair hash of the slot to entry table
+	 */
+	public int getBitsPerEntry() {
+		return bitsPerEntry;
+	}
+
+	/**
+	 * Write the directory as it is held in its buffer
+	 *
+	 * @param outputStream
+	 *            output stream
+	 * @throws IOException
+	 */
+	public void write(final OutputStream outputStream) throws IOException {
+		final ByteBuffer source = buffer.duplicate();
+		source.clear();
+		final byte[] chunk = new byte[Math.min(source.remaining(), 1 << 16)];
+		while (source.hasRemaining()) {
+			final int length = Math.min(chunk.length, source.remaining());
+			source.get(chunk, 0, length);
+			outputStream.write(chunk, 0, length);
+		}
+	}
+
+	private int getSlot(final int pairHash) {
+		for (int level = 0; level < numLevels; level++) {
+			final long bit = levelStarts[level] + getPosition(pairHash, level, levelSizes[level]);
+			final int word = (int) (bit >>> 6);
+			final long mask = 1L << bit;
+			final long wordBits = bits.get(word);
+			if ((wordBits & mask) != 0) {
+				// rank of the bit
+				int rank = ranks.get(word / WORDS_PER_RANK);
+				for (int w = word - word % WORDS_PER_RANK; w < word; w++) {
+					rank += Long.bitCount(bits.get(w));
+				}
+				return rank + Long.bitCount(wordBits & (mask - 1));
+			}
+		}
+
+		// binary search of the fallback pair hashes
+		int low = 0;
+		int high = numFallbacks - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int hash = fallbackHashes.get(middle);
+			if (hash < pairHash) {
+				low = middle + 1;
+			} else if (hash > pairHash) {
+				high = middle - 1;
+			} else {
+				return fallbackSlots.get(middle);
+			}
+		}
+		return -1;
+	}
+
+	private int getEntryOfSlot(final int slot) {
+		final long bit = (long) slot * bitsPerEntry;
+		final int word = (int) (bit >>> 6);
+		final int shift = (int) (bit & 63);
+		long value = entries.get(word) >>> shift;
+		if (shift + bitsPerEntry > 64) {
+			value |= entries.get(word + 1) << (64 - shift);
+		}
+		return (int) (value & ((1L << bitsPerEntry) - 1));
+	}
+
+	private void setEntry(final int slot, final int entry) {
+		final long bit = (long) slot * bitsPerEntry;
+		final int word = (int) (bit >>> 6);
+		final int shift = (int) (bit & 63);
+		entries.put(word, entries.get(word) | (long) entry << shift);
+		if (shift + bitsPerEntry > 64) {
+			entries.put(word + 1, entries.get(word + 1) | (long) entry >>> (64 - shift));
+		}
+	}
+
+	// position of a pair hash in a level, by a 64 bit mix of the pair hash and the level
+	private static long getPosition(final int pairHash, final int level, final long levelSize) {
+		long z = (pairHash & 0xffffffffL) + (level + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 1) % levelSize;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+/**
+ * A posting is the frame of a pair hash in a track, packed in a long: the track number in the high 32
+ * bits and the frame in the low 32 bits, so the postings of a pair hash sort by track then frame
+ *
+ * @author jacquet
+ */
+public final class Postings {
+
+	public static final int BYTES = 8;	// size of a posting in a segment
+
+	private Postings() {
+	}
+
+	/**
+	 * Pack a posting
+	 *
+	 * @param trackNumber
+	 *            number of the track in the index
+	 * @param frame
+	 *            frame of the anchor point of the pair in the track
+	 * @return posting
+	 */
+	public static long pack(final int trackNumber, final int frame) {
+		return (long) trackNumber << 32 | frame & 0xffffffffL;
+	}
+
+	public static int getTrackNumber(final long posting) {
+		return (int) (posting >>> 32);
+	}
+
+	public static int getFrame(final long posting) {
+		return (int) posting;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import com.musicg.metrics.Stage;
+import com.musicg.metrics.StageStatisticsRecorder;
+
+/**
+ * Why a query took its time: the work done at each step and the time of each stage
+ *
+ * The stages are the ones of the query: pairing, lookup and scoring. For the decoding, resampling, stft
+ * and peak picking of the clip as well, the caller sets its own StageStatisticsRecorder as the thread
+ * recorder around the whole recognition; it also gets the stages of the query.
+ *
+ * @author jacquet
+ */
+public class QueryExplanation {
+
+	private final int numPairs;
+	private final int numQueryHashes;
+	private final int numHashesFound;
+	private final int numHashesRead;
+	private final long numPostingsScanned;
+	private final int numCandidates;
+	private final long numVotes;
+	private final StageStatisticsRecorder stageStatistics;
+
+	public QueryExplanation(final int numPairs, final int numQueryHashes, final int numHashesFound, final int numHashesRead,
+			final long numPostingsScanned, final int numCandidates, final long numVotes, final StageStatisticsRecorder stageStatistics) {
+		this.numPairs = numPairs;
+		this.numQueryHashes = numQueryHashes;
+		this.numHashesFound = numHashesFound;
+		this.numHashesRead = numHashesRead;
+		this.numPostingsScanned = numPostingsScanned;
+		this.numCandidates = numCandidates;
+		this.numVotes = numVotes;
+		this.stageStatistics = stageStatistics;
+	}
+
+	/**
+	 * @return number of pairs of points generated by the PairManager for the clip
+	 */
+	public int getNumPairs() {
+		return numPairs;
+	}
+
+	/**
+	 * @return number of distinct pair hashes of the clip
+	 */
+	public int getNumQueryHashes() {
+		return numQueryHashes;
+	}
+
+	/**
+	 * @return number of pair hashes of the clip found in the index
+	 */
+	public int getNumHashesFound() {
+		return numHashesFound;
+	}
+
+	/**
+	 * @return number of pair hashes found whose postings were read
+	 */
+	public int getNumHashesRead() {
+		return numHashesRead;
+	}
+
+	/**
+	 * @return number of postings read
+	 */
+	public long getNumPostingsScanned() {
+		return numPostingsScanned;
+	}
+
+	/**
+	 * @return bytes of postings read, the lookups of the pair hashes in the segment directories are not
+	 *         counted
+	 */
+	public long getBytesRead() {
+		return numPostingsScanned * Postings.BYTES;
+	}
+
+	/**
+	 * @return number of tracks which got votes
+	 */
+	public int getNumCandidates() {
+		return numCandidates;
+	}
+
+	/**
+	 * @return number of offset votes counted
+	 */
+	public long getNumVotes() {
+		return numVotes;
+	}
+
+	/**
+	 * @param stage
+	 * @return time spent in the stage, in nanoseconds
+	 */
+	public long getStageNanos(final Stage stage) {
+		return stageStatistics.getTotalNanos(stage);
+	}
+
+	/**
+	 * @return times and work of the stages
+	 */
+	public StageStatisticsRecorder getStageStatistics() {
+		return stageStatistics;
+	}
+
+	public String toString() {
+		return "pairs: " + numPairs + ", pair hashes: " + numQueryHashes + ", found: " + numHashesFound + ", read: " + numHashesRead
+				+ ", postings: " + numPostingsScanned + " (" + getBytesRead() + " bytes), candidates: " + numCandidates + ", votes: "
+				+ numVotes + "\n" + stageStatistics;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options of a query of the index
+ *
+ * @author jacquet
+ */
+public class QueryOptions {
+
+	public static final int DEFAULT_TOP_N = 10;
+
+	private int topN = DEFAULT_TOP_N;
+	private boolean earlyTermination;
+	private boolean sortedVotes;
+	private long timeBudgetNanos;	// 0 for no time budget
+	private long postingBudget;	// 0 for no posting budget
+	private boolean explain;
+
+	public int getTopN() {
+		return topN;
+	}
+
+	/**
+	 * @param topN
+	 *            number of matches returned
+	 */
+	public void setTopN(final int topN) {
+		if (topN < 1) {
+			throw new IllegalArgumentException("QueryOptions: topN should be positive");
+		}
+		this.topN = topN;
+	}
+
+	public boolean isEarlyTermination() {
+		return earlyTermination;
+	}
+
+	/**
+	 * @param earlyTermination
+	 *            true to stop scanning the postings of the common pair hashes once no other track can
+	 *            overtake the peak of the top N, false to score every track sharing a pair hash with the
+	 *            clip, false by default
+	 */
+	public void setEarlyTermination(final boolean earlyTermination) {
+		this.earlyTermination = earlyTermination;
+	}
+
+	public boolean isSortedVotes() {
+		return sortedVotes;
+	}
+
+	/**
+	 * @param sortedVotes
+	 *            true to count the votes of a full scan with a VoteAggregator instead of a hash table per
+	 *            track, false by default, not used with early termination
+	 */
+	public void setSortedVotes(final boolean sortedVotes) {
+		this.sortedVotes = sortedVotes;
+	}
+
+	public long getTimeBudgetNanos() {
+		return timeBudgetNanos;
+	}
+
+	/**
+	 * Stop reading the pair hashes of the clip once the query has run for a time, and score the tracks
+	 * voted so far. The pair hashes are read rarest first, so the most selective ones are read within
+	 * the budget. The scoring itself is not budgeted. Not used by batches of queries.
+	 *
+	 * @param timeBudget
+	 *            time the query may read postings for, 0 for no budget, the default
+	 * @param unit
+	 *            unit of the time budget
+	 */
+	public void setTimeBudget(final long timeBudget, final TimeUnit unit) {
+		if (timeBudget < 0) {
+			throw new IllegalArgumentException("QueryOptions: timeBudget should not be negative");
+		}
+		this.timeBudgetNanos = unit.toNanos(timeBudget);
+	}
+
+	public long getPostingBudget() {
+		return postingBudget;
+	}
+
+	/**
+	 * Stop reading the pair hashes of the clip before the one which would take the postings read past a
+	 * number, and score the tracks voted so far. Unlike a time budget, the result does not depend on the
+	 * load of the machine. Not used by batches of queries.
+	 *
+	 * @param postingBudget
+	 *            number of postings the query may read, 0 for no budget, the default
+	 */
+	public void setPostingBudget(final long postingBudget) {
+		if (postingBudget < 0) {
+			throw new IllegalArgumentException("QueryOptions: postingBudget should not be negative");
+		}
+		this.postingBudget = postingBudget;
+	}
+
+	public boolean isExplain() {
+		return explain;
+	}
+
+	/**
+	 * @param explain
+	 *            true to return a QueryExplanation with the result, false by default, not used by batches of
+	 *            queries
+	 */
+	public void setExplain(final boolean explain) {
+		this.explain = explain;
+	}
+}
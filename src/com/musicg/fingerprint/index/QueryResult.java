@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.List;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+
+/**
+ * Result of a query of the index: the best matches and the work done
+ *
+ * @author jacquet
+ */
+public class QueryResult {
+
+	private final List<Match> matches;
+	private final int numQueryHashes;
+	private final int numHashesFound;
+	private final long numPostingsScanned;
+	private final int numCandidates;
+	private final int numHashesRead;
+	private final QueryExplanation explanation;
+
+	public QueryResult(final List<Match> matches, final int numQueryHashes, final int numHashesFound, final long numPostingsScanned,
+			final int numCandidates) {
+		this(matches, numQueryHashes, numHashesFound, numPostingsScanned, numCandidates, numHashesFound);
+	}
+
+	public QueryResult(final List<Match> matches, final int numQueryHashes, final int numHashesFound, final long numPostingsScanned,
+			final int numCandidates, final int numHashesRead) {
+		this(matches, numQueryHashes, numHashesFound, numPostingsScanned, numCandidates, numHashesRead, null);
+	}
+
+	public QueryResult(final List<Match> matches, final int numQueryHashes, final int numHashesFound, final long numPostingsScanned,
+			final int numCandidates, final int numHashesRead, final QueryExplanation explanation) {
+		this.matches = matches;
+		this.numQueryHashes = numQueryHashes;
+		this.numHashesFound = numHashesFound;
+		this.numPostingsScanned = numPostingsScanned;
+		this.numCandidates = numCandidates;
+		this.numHashesRead = numHashesRead;
+		this.explanation = explanation;
+	}
+
+	/**
+	 * @return best matches, the best first
+	 */
+	public List<Match> getMatches() {
+		return matches;
+	}
+
+	/**
+	 * @return best match, or null if no track shares a pair hash with the clip
+	 */
+	public Match getBestMatch() {
+		return matches.isEmpty() ? null : matches.get(0);
+	}
+
+	/**
+	 * @return number of distinct pair hashes of the clip
+	 */
+	public int getNumQueryHashes() {
+		return numQueryHashes;
+	}
+
+	/**
+	 * @return number of pair hashes of the clip found in the index
+	 */
+	public int getNumHashesFound() {
+		return numHashesFound;
+	}
+
+	/**
+	 * @return number of postings read
+	 */
+	public long getNumPostingsScanned() {
+		return numPostingsScanned;
+	}
+
+	/**
+	 * @return number of tracks which got votes
+	 */
+	public int getNumCandidates() {
+		return numCandidates;
+	}
+
+	/**
+	 * @return number of pair hashes found whose postings were read, fewer than found when a budget ran out
+	 */
+	public int getNumHashesRead() {
+		return numHashesRead;
+	}
+
+	/**
+	 * @return true if the postings of all the pair hashes found were read, false if a budget of the query
+	 *         ran out and the matches are the best so far
+	 */
+	public boolean isComplete() {
+		return numHashesRead == numHashesFound;
+	}
+
+	/**
+	 * @return explanation of the query, null unless the options asked for one
+	 */
+	public QueryExplanation getExplanation() {
+		return explanation;
+	}
+}
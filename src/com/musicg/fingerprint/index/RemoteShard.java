@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A shard served by a ShardServer, e.g. in another process on the same machine
+ *
+ * The requests go one at a time over one connection, opened at the first request and opened again at
+ * the next request after an error.
+ *
+ * @author jacquet
+ */
+public class RemoteShard implements Shard {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InetSocketAddress address;
+	private final int timeoutMillis;
+
+	// connection, guarded by this
+	private Socket socket;
+	private DataInputStream inputStream;
+	private DataOutputStream outputStream;
+
+	/**
+	 * @param address
+	 *            address of the shard server
+	 * @param timeoutMillis
+	 *            time to connect and to wait for an answer, 0 for no timeout
+	 */
+	public RemoteShard(final InetSocketAddress address, final int timeoutMillis) {
+		this.address = address;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public synchronized void addTrack(final String trackId, final int numFrames, final HashMap<Integer, List<Integer>> pair_PositionList_Table)
+			throws IOException {
+		try {
+			connect();
+			outputStream.writeInt(ShardServer.ADD_TRACK);
+			outputStream.writeUTF(trackId);
+			outputStream.writeInt(numFrames);
+			ShardServer.writeTable(outputStream, pair_PositionList_Table);
+			readStatus();
+		} catch (final IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	public synchronized boolean removeTrack(final String trackId) throws IOException {
+		try {
+			connect();
+			outputStream.writeInt(ShardServer.REMOVE_TRACK);
+			outputStream.writeUTF(trackId);
+			readStatus();
+			return inputStream.readBoolean();
+		} catch (final IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	public synchronized PartialVotes vote(final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table) throws IOException {
+		try {
+			connect();
+			outputStream.writeInt(ShardServer.VOTE);
+			ShardServer.writeTable(outputStream, query_Pair_PositionList_Table);
+			readStatus();
+			return PartialVotes.read(inputStream);
+		} catch (final IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	public synchronized void close() {
+		disconnect();
+	}
+
+	private void connect() throws IOException {
+		if (socket == null) {
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeoutMillis);
+			socket.connect(address, timeoutMillis);
+			inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+			outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+		}
+	}
+
+	// send the request, and read the status of the answer
+	private void readStatus() throws IOException {
+		outputStream.flush();
+		if (inputStream.readInt() != ShardServer.STATUS_OK) {
+			throw new IOException("RemoteShard: " + address + " failed: " + inputStream.readUTF());
+		}
+	}
+
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				// closing anyway
+			}
+			socket = null;
+			inputStream = null;
+			outputStream = null;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where the segments of an index are held
+ *
+ * @author jacquet
+ */
+public enum SegmentStorage {
+
+	/**
+	 * Arrays on the Java heap
+	 */
+	HEAP,
+
+	/**
+	 * Direct buffers out of the Java heap
+	 */
+	DIRECT,
+
+	/**
+	 * Segment files mapped to memory when opened, direct buffers for the segments flushed and merged later
+	 */
+	MAPPED;
+
+	/**
+	 * Move a segment made on the heap to this storage, with a perfect hash directory
+	 *
+	 * @param segment
+	 *            flushed or merged segment
+	 * @return segment in this storage
+	 */
+	public IndexSegment store(final HeapIndexSegment segment) {
+		return this == HEAP ? segment.withDirectory() : OffHeapIndexSegment.copyOf(segment).withDirectory();
+	}
+
+	/**
+	 * Load a segment file to this storage, with the perfect hash directory saved in the file, or one built
+	 * for a file of version 1
+	 *
+	 * @param file
+	 *            segment file
+	 * @return segment
+	 * @throws IOException
+	 */
+	public IndexSegment load(final File file) throws IOException {
+		switch (this) {
+		case DIRECT:
+			return OffHeapIndexSegment.read(file).withDirectory();
+		case MAPPED:
+			return OffHeapIndexSegment.map(file).withDirectory();
+		default:
+			return IndexFiles.readSegment(file).withDirectory();
+		}
+	}
+}
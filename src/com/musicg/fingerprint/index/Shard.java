@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A part of an index holding the postings of a range of pair hashes, see HashPartitioner, in this
+ * process (LocalShard) or in another one (RemoteShard)
+ *
+ * Every shard has all the tracks, added in the same order, so a track has the same number in all of
+ * them, and the postings of the pair hashes of its range.
+ *
+ * @author jacquet
+ */
+public interface Shard {
+
+	/**
+	 * Add or replace a track
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @param numFrames
+	 *            number of frames of the fingerprint of the track
+	 * @param pair_PositionList_Table
+	 *            pair_PositionList_Table<pairHash,positions> of the pair hashes of the shard in the track
+	 * @throws IOException
+	 */
+	void addTrack(String trackId, int numFrames, HashMap<Integer, List<Integer>> pair_PositionList_Table) throws IOException;
+
+	/**
+	 * Remove a track
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @return true if the track was in the shard
+	 * @throws IOException
+	 */
+	boolean removeTrack(String trackId) throws IOException;
+
+	/**
+	 * Count the offset votes of the tracks for the pair hashes of the shard in a clip
+	 *
+	 * @param query_Pair_PositionList_Table
+	 *            query_Pair_PositionList_Table<pairHash,positions> of the pair hashes of the shard in the clip
+	 * @return votes of the tracks
+	 * @throws IOException
+	 */
+	PartialVotes vote(HashMap<Integer, List<Integer>> query_Pair_PositionList_Table) throws IOException;
+
+	/**
+	 * Release the shard
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
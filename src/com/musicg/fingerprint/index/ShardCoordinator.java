@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+import com.musicg.fingerprint.FingerprintManager;
+import com.musicg.fingerprint.FingerprintSimilarity;
+import com.musicg.fingerprint.FingerprintSimilarityComputer;
+import com.musicg.fingerprint.PairManager;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
+
+/**
+ * An index split by pair hash range into shards, see HashPartitioner
+ *
+ * A track is paired once and each shard gets the pair hashes of its range. A query is paired once, its
+ * pair hashes are scattered to the shards owning them, which count the offset votes of their postings
+ * in parallel, and the votes of a track from all the shards are added up and scored the way
+ * FingerprintSimilarityComputer does. The results are the ones of a single index sorting the votes,
+ * see QueryOptions.setSortedVotes().
+ *
+ * Only the topN of the query options is used, the shards scan all their postings.
+ *
+ * @author jacquet
+ */
+public class ShardCoordinator {
+
+	private final HashPartitioner partitioner;
+	private final Shard[] shards;
+	private final ExecutorService executor;	// queries of the shards
+
+	/**
+	 * @param partitioner
+	 *            pair hash ranges of the shards
+	 * @param shards
+	 *            shards, by shard number
+	 */
+	public ShardCoordinator(final HashPartitioner partitioner, final Shard[] shards) {
+		if (partitioner.getNumShards() != shards.length) {
+			throw new IllegalArgumentException("ShardCoordinator: the partitioner has " + partitioner.getNumShards() + " shards, not "
+					+ shards.length);
+		}
+		this.partitioner = partitioner;
+		this.shards = shards.clone();
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "musicg-coordinator-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public HashPartitioner getPartitioner() {
+		return partitioner;
+	}
+
+	/**
+	 * @param shard
+	 *            shard number
+	 * @return shard
+	 */
+	public Shard getShard(final int shard) {
+		return shards[shard];
+	}
+
+	/**
+	 * Add or replace a track in all the shards, each with the pair hashes of its range, in the same order
+	 * as the other tracks so the track numbers of the shards agree
+	 *
+	 * If a shard fails, the track is removed from all the shards, so it is not found with the pair hashes
+	 * of some shards only. A track it replaced is removed too. The shards which took the track have used
+	 * up a track number the others have not, so the tracks added later tie in another order than in a
+	 * single index. The shards should be rebuilt to restore it, as when the removal fails too.
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @param fingerprint
+	 *            fingerprint of the track
+	 * @throws IOException
+	 *             if a shard fails
+	 */
+	public synchronized void addTrack(final String trackId, final byte[] fingerprint) throws IOException {
+		final List<HashMap<Integer, List<Integer>>> shardTables = partitioner.partition(new PairManager()
+				.getPair_PositionList_Table(fingerprint));
+		final int numFrames = FingerprintManager.getNumFrames(fingerprint);
+		try {
+			for (int shard = 0; shard < shards.length; shard++) {
+				shards[shard].addTrack(trackId, numFrames, shardTables.get(shard));
+			}
+		} catch (final IOException e) {
+			for (int shard = 0; shard < shards.length; shard++) {
+				try {
+					shards[shard].removeTrack(trackId);
+				} catch (final IOException removeException) {
+					e.addSuppressed(removeException);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove a track from all the shards
+	 *
+	 * @param trackId
+	 *            id of the track
+	 * @return true if the track was in the shards
+	 * @throws IOException
+	 */
+	public synchronized boolean removeTrack(final String trackId) throws IOException {
+		boolean removed = false;
+		for (int shard = 0; shard < shards.length; shard++) {
+			removed |= shards[shard].removeTrack(trackId);
+		}
+		return removed;
+	}
+
+	/**
+	 * Find the track most similar to a clip
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @return best match, or null if no track shares a pair hash with the clip
+	 * @throws IOException
+	 */
+	public Match lookup(final byte[] queryFingerprint) throws IOException {
+		return search(queryFingerprint, new QueryOptions()).getBestMatch();
+	}
+
+	/**
+	 * Find the tracks most similar to a clip
+	 *
+	 * @param queryFingerprint
+	 *            fingerprint of the clip
+	 * @param options
+	 *            options of the query, only topN is used
+	 * @return best matches and the work done by the shards
+	 * @throws IOException
+	 *             if a shard fails
+	 */
+	public QueryResult search(final byte[] queryFingerprint, final QueryOptions options) throws IOException {
+
+		final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table = new PairManager()
+				.getPair_PositionList_Table(queryFingerprint);
+		final int queryNumFrames = FingerprintManager.getNumFrames(queryFingerprint);
+
+		final long startTime = Metrics.startTimer();
+
+		// scatter the pair hashes to the shards owning them
+		final List<HashMap<Integer, List<Integer>>> shardTables = partitioner.partition(query_Pair_PositionList_Table);
+		final List<Future<PartialVotes>> futures = new ArrayList<Future<PartialVotes>>(shards.length);
+		for (int shard = 0; shard < shards.length; shard++) {
+			final HashMap<Integer, List<Integer>> shardTable = shardTables.get(shard);
+			if (shardTable.isEmpty()) {
+				continue;
+			}
+			final Shard queriedShard = shards[shard];
+			futures.add(executor.submit(new Callable<PartialVotes>() {
+				public PartialVotes call() throws IOException {
+					return queriedShard.vote(shardTable);
+				}
+			}));
+		}
+
+		// gather the votes of each track
+		final HashMap<String, MergedTrack> mergedTracks = new HashMap<String, MergedTrack>();
+		int numHashesFound = 0;
+		long numPostingsScanned = 0;
+		try {
+			for (final Future<PartialVotes> future : futures) {
+				final PartialVotes votes = future.get();
+				numHashesFound += votes.getNumHashesFound();
+				numPostingsScanned += votes.getNumPostingsScanned();
+				for (int track = 0; track < votes.getNumTracks(); track++) {
+					MergedTrack mergedTrack = mergedTracks.get(votes.getTrackId(track));
+					if (mergedTrack == null) {
+						mergedTrack = new MergedTrack(votes.getTrackNumber(track), votes.getTrackNumFrames(track));
+						mergedTracks.put(votes.getTrackId(track), mergedTrack);
+					}
+					mergedTrack.add(votes, track);
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("ShardCoordinator: interrupted");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("ShardCoordinator: a shard failed", e.getCause());
+		} finally {
+			for (final Future<PartialVotes> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		Metrics.stopTimer(Stage.LOOKUP, startTime, mergedTracks.size());
+
+		// score the tracks
+		final long scoringStartTime = Metrics.startTimer();
+		final List<Match> matches = new ArrayList<Match>(mergedTracks.size());
+		final List<Integer> trackNumbers = new ArrayList<Integer>(mergedTracks.size());
+		long numVotes = 0;
+		for (final Map.Entry<String, MergedTrack> entry : mergedTracks.entrySet()) {
+			final MergedTrack mergedTrack = entry.getValue();
+			matches.add(new Match(entry.getKey(), mergedTrack.getSimilarity(queryNumFrames)));
+			trackNumbers.add(mergedTrack.trackNumber);
+			numVotes += mergedTrack.numVotes;
+		}
+		final List<Match> bestMatches = IndexSearcher.getBestMatches(matches, trackNumbers, options.getTopN());
+		Metrics.stopTimer(Stage.SCORING, scoringStartTime, numVotes);
+
+		return new QueryResult(bestMatches, query_Pair_PositionList_Table.size(), numHashesFound, numPostingsScanned, mergedTracks.size());
+	}
+
+	/**
+	 * Close the shards
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		executor.shutdownNow();
+		for (int shard = 0; shard < shards.length; shard++) {
+			shards[shard].close();
+		}
+	}
+
+	/**
+	 * The votes of a track from all the shards
+	 */
+	private static class MergedTrack {
+
+		final int trackNumber;
+		final int numFrames;
+		long[] offsetCounts = new long[16];	// (offset << 32 | count), one per offset of a shard, sorted by offset
+		int numOffsetCounts;
+		long numVotes;
+
+		MergedTrack(final int trackNumber, final int numFrames) {
+			this.trackNumber = trackNumber;
+			this.numFrames = numFrames;
+		}
+
+		void add(final PartialVotes votes, final int track) {
+			final int start = votes.getTrackStart(track);
+			final int end = votes.getTrackStart(track + 1);
+			if (numOffsetCounts + end - start > offsetCounts.length) {
+				offsetCounts = Arrays.copyOf(offsetCounts, Math.max(offsetCounts.length * 2, numOffsetCounts + end - start));
+			}
+			for (int i = start; i < end; i++) {
+				offsetCounts[numOffsetCounts++] = (long) votes.getOffset(i) << 32 | votes.getCount(i);
+				numVotes += votes.getCount(i);
+			}
+		}
+
+		// add up the counts of the same offset from different shards, and score the track
+		FingerprintSimilarity getSimilarity(final int queryNumFrames) {
+			Arrays.sort(offsetCounts, 0, numOffsetCounts);
+			final int[] offsets = new int[numOffsetCounts];
+			final int[] counts = new int[numOffsetCounts];
+			int numOffsets = 0;
+			for (int i = 0; i < numOffsetCounts; i++) {
+				final int offset = (int) (offsetCounts[i] >> 32);
+				final int count = (int) offsetCounts[i];
+				if (numOffsets > 0 && offsets[numOffsets - 1] == offset) {
+					counts[numOffsets - 1] += count;
+				} else {
+					offsets[numOffsets] = offset;
+					counts[numOffsets] = count;
+					numOffsets++;
+				}
+			}
+			return FingerprintSimilarityComputer.getSimilarity(offsets, counts, 0, numOffsets, Math.min(numFrames, queryNumFrames));
+		}
+	}
+}
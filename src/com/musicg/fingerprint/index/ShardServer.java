@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serve a shard over tcp to RemoteShards, e.g. one process per shard on one machine
+ *
+ * A connection carries requests one after the other, each a request code followed by its arguments, and
+ * each answered by a status, then the result or the error message. The pair_PositionList_Tables are
+ * written as their size in bytes, then the number of pair hashes, then for each pair hash the hash, the
+ * number of positions and the positions. The counts read are checked against the size, and the size
+ * against MAX_TABLE_SIZE. All the numbers are big endian.
+ *
+ * Usage: java com.musicg.fingerprint.index.ShardServer shardDirectory [port]
+ * The server listens on the loopback address, prints the port it listens on, and stops when its
+ * standard input is closed.
+ *
+ * @author jacquet
+ */
+public class ShardServer {
+
+	static final int ADD_TRACK = 1;	// trackId, numFrames, pair_PositionList_Table; no result
+	static final int REMOVE_TRACK = 2;	// trackId; boolean
+	static final int VOTE = 3;	// query_Pair_PositionList_Table; PartialVotes
+	static final int STATUS_OK = 0;
+	static final int STATUS_ERROR = 1;
+	static final int MAX_TABLE_SIZE = 1 << 24;	// bytes of a pair_PositionList_Table, many times the size of a long track
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Shard shard;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;	// accepts the connections and serves them
+	private final Set<Socket> sockets = new HashSet<Socket>();	// open connections, guarded by itself
+
+	/**
+	 * Constructor, listens on the loopback address
+	 *
+	 * @param shard
+	 *            shard served
+	 * @param port
+	 *            port to listen, 0 for any free port
+	 * @throws IOException
+	 */
+	public ShardServer(final Shard shard, final int port) throws IOException {
+		this(shard, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * @param shard
+	 *            shard served
+	 * @param address
+	 *            address to listen
+	 * @throws IOException
+	 */
+	public ShardServer(final Shard shard, final InetSocketAddress address) throws IOException {
+		this.shard = shard;
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(address);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "musicg-shard-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void start() {
+		executor.execute(new Runnable() {
+			public void run() {
+				while (!serverSocket.isClosed()) {
+					try {
+						final Socket socket = serverSocket.accept();
+						executor.execute(new Runnable() {
+							public void run() {
+								serve(socket);
+							}
+						});
+					} catch (final IOException e) {
+						if (!serverSocket.isClosed()) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stop listening and close the connections, the shard is not closed
+	 */
+	public void stop() {
+		try {
+			serverSocket.close();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (sockets) {
+			for (final Socket socket : sockets) {
+				closeQuietly(socket);
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	// answer the requests of a connection until it is closed
+	private void serve(final Socket socket) {
+		synchronized (sockets) {
+			sockets.add(socket);
+		}
+		try {
+			socket.setTcpNoDelay(true);
+			final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+			final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+			while (true) {
+				final int request;
+				try {
+					request = inputStream.readInt();
+				} catch (final EOFException e) {
+					break;
+				}
+				answer(request, inputStream, outputStream);
+				outputStream.flush();
+			}
+		} catch (final IOException e) {
+			if (!serverSocket.isClosed()) {
+				e.printStackTrace();
+			}
+		} finally {
+			synchronized (sockets) {
+				sockets.remove(socket);
+			}
+			closeQuietly(socket);
+		}
+	}
+
+	private void answer(final int request, final DataInputStream inputStream, final DataOutputStream outputStream) throws IOException {
+		switch (request) {
+		case ADD_TRACK: {
+			final String trackId = inputStream.readUTF();
+			final int numFrames = inputStream.readInt();
+			final HashMap<Integer, List<Integer>> pair_PositionList_Table = readTable(inputStream);
+			try {
+				shard.addTrack(trackId, numFrames, pair_PositionList_Table);
+			} catch (final Exception e) {
+				writeError(outputStream, e);
+				return;
+			}
+			outputStream.writeInt(STATUS_OK);
+			break;
+		}
+		case REMOVE_TRACK: {
+			final String trackId = inputStream.readUTF();
+			final boolean removed;
+			try {
+				removed = shard.removeTrack(trackId);
+			} catch (final Exception e) {
+				writeError(outputStream, e);
+				return;
+			}
+			outputStream.writeInt(STATUS_OK);
+			outputStream.writeBoolean(removed);
+			break;
+		}
+		case VOTE: {
+			final HashMap<Integer, List<Integer>> query_Pair_PositionList_Table = readTable(inputStream);
+			final PartialVotes votes;
+			try {
+				votes = shard.vote(query_Pair_PositionList_Table);
+			} catch (final Exception e) {
+				writeError(outputStream, e);
+				return;
+			}
+			outputStream.writeInt(STATUS_OK);
+			votes.write(outputStream);
+			break;
+		}
+		default:
+			throw new IOException("ShardServer: unknown request " + request);
+		}
+	}
+
+	private static void writeError(final DataOutputStream outputStream, final Exception e) throws IOException {
+		e.printStackTrace();
+		outputStream.writeInt(STATUS_ERROR);
+		outputStream.writeUTF(String.valueOf(e));
+	}
+
+	static void writeTable(final DataOutputStream outputStream, final HashMap<Integer, List<Integer>> pair_PositionList_Table)
+			throws IOException {
+		long tableSize = 4;
+		for (final List<Integer> positions : pair_PositionList_Table.values()) {
+			tableSize += 8 + positions.size() * 4L;
+		}
+		if (tableSize > MAX_TABLE_SIZE) {
+			throw new IOException("ShardServer: the table of " + tableSize + " bytes is larger than " + MAX_TABLE_SIZE);
+		}
+
+		outputStream.writeInt((int) tableSize);
+		outputStream.writeInt(pair_PositionList_Table.size());
+		for (final Map.Entry<Integer, List<Integer>> pair : pair_PositionList_Table.entrySet()) {
+			outputStream.writeInt(pair.getKey());
+			outputStream.writeInt(pair.getValue().size());
+			for (final int position : pair.getValue()) {
+				outputStream.writeInt(position);
+			}
+		}
+	}
+
+	static HashMap<Integer, List<Integer>> readTable(final DataInputStream inputStream) throws IOException {
+		final int tableSize = inputStream.readInt();
+		if (tableSize < 4 || tableSize > MAX_TABLE_SIZE) {
+			throw new IOException("ShardServer: invalid table size " + tableSize);
+		}
+
+		// bytes of the table left to read, the counts cannot ask for more
+		int remaining = tableSize - 4;
+		final int numHashes = inputStream.readInt();
+		if (numHashes < 0 || numHashes > remaining / 8) {
+			throw new IOException("ShardServer: invalid number of pair hashes " + numHashes);
+		}
+		final HashMap<Integer, List<Integer>> pair_PositionList_Table = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < numHashes; i++) {
+			final int pairHash = inputStream.readInt();
+			final int numPositions = inputStream.readInt();
+			remaining -= 8;
+			if (numPositions < 0 || numPositions > (remaining - (numHashes - i - 1) * 8) / 4) {
+				throw new IOException("ShardServer: invalid number of positions " + numPositions);
+			}
+			remaining -= numPositions * 4;
+			final List<Integer> positions = new ArrayList<Integer>(numPositions);
+			for (int j = 0; j < numPositions; j++) {
+				positions.add(inputStream.readInt());
+			}
+			pair_PositionList_Table.put(pairHash, positions);
+		}
+		if (remaining != 0) {
+			throw new IOException("ShardServer: " + remaining + " bytes left in the table");
+		}
+		return pair_PositionList_Table;
+	}
+
+	private static void closeQuietly(final Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException e) {
+			// closing anyway
+		}
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java com.musicg.fingerprint.index.ShardServer shardDirectory [port]");
+			System.exit(1);
+		}
+		final LocalShard shard = LocalShard.open(new File(args[0]));
+		final ShardServer server = new ShardServer(shard, args.length > 1 ? Integer.parseInt(args[1]) : 0);
+		server.start();
+		System.out.println("ShardServer " + args[0] + " listening on port " + server.getPort());
+		System.out.flush();
+
+		// until the standard input is closed, e.g. by the process which started the server
+		while (System.in.read() >= 0) {
+		}
+		server.stop();
+		shard.close();
+	}
+}
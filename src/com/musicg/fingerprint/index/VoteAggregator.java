@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.fingerprint.index;
+
+import java.util.Arrays;
+
+import com.musicg.fingerprint.FingerprintSimilarity;
+import com.musicg.fingerprint.FingerprintSimilarityComputer;
+
+/**
+ * Count the offset votes of many tracks by sorting instead of hashing
+ *
+ * A vote is packed in a long, the track number in the high 32 bits and the offset in the low 32 bits
+ * with its sign bit flipped, and appended to a primitive array. To count them, the votes are packed
+ * again with just the bits of the track numbers and of the range of the offsets, sorted by a radix
+ * sort of 11 bit digits skipping the digits all the votes share, and counted by runs. The offsets and
+ * counts of a track are then contiguous and in offset order, and the neighbours of an offset are next
+ * to it for the scoring.
+ *
+ * An aggregator is reused for the next query after clear(). It is not thread safe.
+ *
+ * @author jacquet
+ */
+public class VoteAggregator {
+
+	private static final int RADIX_BITS = 11;
+	private static final int NUM_BUCKETS = 1 << RADIX_BITS;
+	private static final int DEFAULT_CAPACITY = 1 << 12;
+
+	private long[] votes;
+	private long[] buffer = new long[0];	// the other array of the radix sort
+	private int numVotes;
+	private int[][] histograms;	// digit counts of the radix sort, allocated by the sorts
+
+	// counted votes
+	private int[] offsets = new int[0];
+	private int[] counts = new int[0];
+	private int[] trackNumbers = new int[0];
+	private int[] trackStarts = new int[1];	// trackStarts[track] is the first offset of the track
+	private int numTracks;
+
+	public VoteAggregator() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of votes held before the arrays grow
+	 */
+	public VoteAggregator(final int capacity) {
+		votes = new long[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Add a vote for an offset of a track
+	 *
+	 * @param trackNumber
+	 *            track number, not negative
+	 * @param offset
+	 *            offset of the clip in the track, in frames
+	 */
+	public void addVote(final int trackNumber, final int offset) {
+		if (numVotes == votes.length) {
+			grow(numVotes + 1);
+		}
+		votes[numVotes++] = pack(trackNumber, offset);
+	}
+
+	/**
+	 * Add the votes of a posting of a track, one for each position of the pair hash in the clip
+	 *
+	 * @param trackNumber
+	 *            track number, not negative
+	 * @param frame
+	 *            frame of the posting
+	 * @param queryPositions
+	 *            positions of the pair hash in the clip
+	 */
+	public void addVotes(final int trackNumber, final int frame, final int[] queryPositions) {
+		if (numVotes + queryPositions.length > votes.length) {
+			grow(numVotes + queryPositions.length);
+		}
+		for (int i = 0; i < queryPositions.length; i++) {
+			votes[numVotes++] = pack(trackNumber, frame - queryPositions[i]);
+		}
+	}
+
+	/**
+	 * @return number of votes added
+	 */
+	public int getNumVotes() {
+		return numVotes;
+	}
+
+	/**
+	 * Sort and count the votes added
+	 */
+	public void aggregate() {
+
+		// repack the votes as (trackNumber << offsetBits | offset - minOffset), fewer bits to sort
+		long minOffset = Long.MAX_VALUE;
+		long maxOffset = Long.MIN_VALUE;
+		long maxTrackNumber = 0;
+		for (int i = 0; i < numVotes; i++) {
+			final long vote = votes[i];
+			final long offset = vote & 0xffffffffL;
+			minOffset = Math.min(minOffset, offset);
+			maxOffset = Math.max(maxOffset, offset);
+			maxTrackNumber = Math.max(maxTrackNumber, vote >>> 32);
+		}
+		final int offsetBits = numVotes == 0 ? 0 : 64 - Long.numberOfLeadingZeros(maxOffset - minOffset);
+		for (int i = 0; i < numVotes; i++) {
+			final long vote = votes[i];
+			votes[i] = (vote >>> 32) << offsetBits | (vote & 0xffffffffL) - minOffset;
+		}
+		sort(offsetBits + 64 - Long.numberOfLeadingZeros(maxTrackNumber));
+
+		// count the runs of equal votes
+		if (offsets.length < numVotes) {
+			offsets = new int[numVotes];
+			counts = new int[numVotes];
+		}
+		final long offsetMask = (1L << offsetBits) - 1;
+		int numOffsets = 0;
+		numTracks = 0;
+		for (int i = 0; i < numVotes;) {
+			final long vote = votes[i];
+			int end = i + 1;
+			while (end < numVotes && votes[end] == vote) {
+				end++;
+			}
+			final int trackNumber = (int) (vote >>> offsetBits);
+			if (numTracks == 0 || trackNumbers[numTracks - 1] != trackNumber) {
+				if (numTracks == trackNumbers.length) {
+					trackNumbers = Arrays.copyOf(trackNumbers, Math.max(16, trackNumbers.length * 2));
+					trackStarts = Arrays.copyOf(trackStarts, trackNumbers.length + 1);
+				}
+				trackNumbers[numTracks] = trackNumber;
+				trackStarts[numTracks] = numOffsets;
+				numTracks++;
+			}
+			offsets[numOffsets] = (int) ((vote & offsetMask) + minOffset) ^ Integer.MIN_VALUE;
+			counts[numOffsets] = end - i;
+			numOffsets++;
+			i = end;
+		}
+		trackStarts[numTracks] = numOffsets;
+	}
+
+	/**
+	 * @return number of tracks with votes, after aggregate()
+	 */
+	public int getNumTracks() {
+		return numTracks;
+	}
+
+	/**
+	 * @param track
+	 *            index of the track, from 0 to getNumTracks(), in track number order
+	 * @return track number
+	 */
+	public int getTrackNumber(final int track) {
+		return trackNumbers[track];
+	}
+
+	/**
+	 * @param track
+	 *            index of the track
+	 * @return number of offsets of the track with votes
+	 */
+	public int getNumOffsets(final int track) {
+		return trackStarts[track + 1] - trackStarts[track];
+	}
+
+	/**
+	 * Copy the counted votes of a track
+	 *
+	 * @param track
+	 *            index of the track
+	 * @param trackOffsets
+	 *            array receiving the offsets of the track, in offset order
+	 * @param trackCounts
+	 *            array receiving the votes of the offsets
+	 * @param position
+	 *            position of the first offset in the arrays
+	 */
+	public void getVotes(final int track, final int[] trackOffsets, final int[] trackCounts, final int position) {
+		final int start = trackStarts[track];
+		System.arraycopy(offsets, start, trackOffsets, position, trackStarts[track + 1] - start);
+		System.arraycopy(counts, start, trackCounts, position, trackStarts[track + 1] - start);
+	}
+
+	/**
+	 * Score a track the way FingerprintSimilarityComputer does
+	 *
+	 * @param track
+	 *            index of the track
+	 * @param numFrames
+	 *            number of frames of the shorter of the track and the clip
+	 * @return fingerprint similarity of the track
+	 */
+	public FingerprintSimilarity getSimilarity(final int track, final int numFrames) {
+		return FingerprintSimilarityComputer.getSimilarity(offsets, counts, trackStarts[track], trackStarts[track + 1], numFrames);
+	}
+
+	/**
+	 * Remove the votes, keeping the arrays for the next query
+	 */
+	public void clear() {
+		numVotes = 0;
+		numTracks = 0;
+	}
+
+	private void grow(final int minCapacity) {
+		final int capacity = Math.max(minCapacity, votes.length * 2);
+		votes = Arrays.copyOf(votes, capacity);
+	}
+
+	// least significant digit first radix sort of the low bits of the votes
+	private void sort(final int numBits) {
+		final int numDigits = Math.max(1, (numBits + RADIX_BITS - 1) / RADIX_BITS);
+		if (histograms == null || histograms.length < numDigits) {
+			histograms = new int[numDigits][NUM_BUCKETS];
+		} else {
+			for (int digit = 0; digit < numDigits; digit++) {
+				Arrays.fill(histograms[digit], 0);
+			}
+		}
+		if (buffer.length < numVotes) {
+			buffer = new long[votes.length];
+		}
+		for (int i = 0; i < numVotes; i++) {
+			final long vote = votes[i];
+			for (int digit = 0; digit < numDigits; digit++) {
+				histograms[digit][(int) (vote >>> (digit * RADIX_BITS)) & (NUM_BUCKETS - 1)]++;
+			}
+		}
+
+		long[] source = votes;
+		long[] target = buffer;
+		for (int digit = 0; digit < numDigits && numVotes > 0; digit++) {
+			final int shift = digit * RADIX_BITS;
+			final int[] histogram = histograms[digit];
+			// all the votes have the same digit
+			if (histogram[(int) (source[0] >>> shift) & (NUM_BUCKETS - 1)] == numVotes) {
+				continue;
+			}
+			int position = 0;
+			for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+				final int count = histogram[bucket];
+				histogram[bucket] = position;
+				position += count;
+			}
+			for (int i = 0; i < numVotes; i++) {
+				final long vote = source[i];
+				target[histogram[(int) (vote >>> shift) & (NUM_BUCKETS - 1)]++] = vote;
+			}
+			final long[] sorted = target;
+			target = source;
+			source = sorted;
+		}
+		votes = source;
+		buffer = target;
+	}
+
+	private static long pack(final int trackNumber, final int offset) {
+		return (long) trackNumber << 32 | (offset ^ Integer.MIN_VALUE) & 0xffffffffL;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.musicg.main.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import com.musicg.metrics.HistogramMetricsRecorder;
+import com.musicg.metrics.Metrics;
+import com.musicg.server.RecognitionServer;
+
+public class RecognitionServerDemo {
+
+	public static void main(final String[] args) throws IOException {
+
+		final String[] songs = { "audio_work/songs/canon_d_major.wav", "audio_work/songs/fing_fing_ha.wav",
+				"audio_work/songs/forrest_gump_theme.wav", "audio_work/songs/imagine.wav", "audio_work/songs/top_of_the_world.wav" };
+		final String recordedClip = "audio_work/songs/top_of_the_world_rec.wav";
+
+		// time the stages of the recognition
+		final HistogramMetricsRecorder metricsRecorder = new HistogramMetricsRecorder();
+		Metrics.setRecorder(metricsRecorder);
+
+		// any free port on localhost
+		final RecognitionServer server = new RecognitionServer(0);
+		server.start();
+		final String url = "http://localhost:" + server.getPort();
+
+		try {
+			// add the songs to the catalog
+			for (final String song : songs) {
+				System.out.println(post(url + "/tracks?id=" + song, readFile(song)));
+			}
+
+			// find the clip, the second time from the result cache
+			System.out.println(post(url + "/lookup", readFile(recordedClip)));
+			System.out.println(post(url + "/lookup", readFile(recordedClip)));
+			System.out.println("cache hits: " + server.getCatalog().getResultCache().getNumHits() + ", misses: "
+					+ server.getCatalog().getResultCache().getNumMisses());
+
+			// the time and work of each stage of a recognition
+			System.out.println(post(url + "/lookup?explain=true", readFile("audio_work/songs/imagine.wav")));
+
+			// a deadline too short to answer
+			System.out.println(post(url + "/lookup?deadline=1", readFile(recordedClip)));
+
+			// whistle detection
+			System.out.println(post(url + "/detect?api=whistle", readFile("audio_work/whistle.wav")));
+
+			System.out.println(metricsRecorder.export());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private static String post(final String url, final byte[] body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		final OutputStream outputStream = connection.getOutputStream();
+		outputStream.write(body);
+		outputStream.close();
+
+		final int status = connection.getResponseCode();
+		final InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		return status + " " + new String(readAll(inputStream), "UTF-8");
+	}
+
+	private static byte[] readFile(final String filename) throws IOException {
+		final InputStream inputStream = new FileInputStream(filename);
+		try {
+			return readAll(inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private static byte[] readAll(final InputStream inputStream) throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int length;
+		while ((length = inputStream.read(buffer)) > 0) {
+			outputStream.write(buffer, 0, length);
+		}
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+}
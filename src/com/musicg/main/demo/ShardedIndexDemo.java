@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.musicg.main.demo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+import com.musicg.fingerprint.index.HashPartitioner;
+import com.musicg.fingerprint.index.IncrementalIndex;
+import com.musicg.fingerprint.index.LocalShard;
+import com.musicg.fingerprint.index.QueryOptions;
+import com.musicg.fingerprint.index.QueryResult;
+import com.musicg.fingerprint.index.RemoteShard;
+import com.musicg.fingerprint.index.Shard;
+import com.musicg.fingerprint.index.ShardCoordinator;
+import com.musicg.fingerprint.index.ShardServer;
+import com.musicg.wave.Wave;
+
+/**
+ * Split an index in shards by pair hash range, query them in this process and then in shard server
+ * processes, and compare the matches with the ones of the whole index
+ */
+public class ShardedIndexDemo {
+
+	private static final int NUM_SHARDS = 3;
+
+	public static void main(final String[] args) throws IOException, InterruptedException {
+
+		final String[] songs = { "audio_work/songs/canon_d_major.wav", "audio_work/songs/fing_fing_ha.wav",
+				"audio_work/songs/forrest_gump_theme.wav", "audio_work/songs/imagine.wav", "audio_work/songs/top_of_the_world.wav" };
+		final String recordedClip = "audio_work/songs/top_of_the_world_rec.wav";
+
+		// the whole index, the songs and 10 second excerpts of them
+		final List<String> trackIds = new ArrayList<String>();
+		final List<byte[]> fingerprints = new ArrayList<byte[]>();
+		final List<byte[]> clips = new ArrayList<byte[]>();
+		for (final String song : songs) {
+			final Wave wave = new Wave(song);
+			trackIds.add(song);
+			fingerprints.add(wave.getFingerprint());
+			for (double start = 0; start + 10 < wave.length(); start += 5) {
+				trackIds.add(song + "@" + start);
+				fingerprints.add(wave.slice(start, start + 10).getFingerprint());
+			}
+			clips.add(wave.slice(wave.length() * 0.3, wave.length() * 0.3 + 8).getFingerprint());
+		}
+		clips.add(new Wave(recordedClip).getFingerprint());
+		final IncrementalIndex index = new IncrementalIndex();
+		for (int i = 0; i < trackIds.size(); i++) {
+			index.addTrack(trackIds.get(i), fingerprints.get(i));
+		}
+		index.flush();
+		final QueryOptions options = new QueryOptions();
+		options.setSortedVotes(true);
+
+		// shards in this process, with about the same number of postings
+		final HashPartitioner partitioner = HashPartitioner.balance(index.getSnapshot(), NUM_SHARDS);
+		final LocalShard[] localShards = new LocalShard[NUM_SHARDS];
+		for (int shard = 0; shard < NUM_SHARDS; shard++) {
+			localShards[shard] = new LocalShard();
+		}
+		final ShardCoordinator localCoordinator = new ShardCoordinator(partitioner, localShards);
+		for (int i = 0; i < trackIds.size(); i++) {
+			localCoordinator.addTrack(trackIds.get(i), fingerprints.get(i));
+		}
+		for (int shard = 0; shard < NUM_SHARDS; shard++) {
+			localShards[shard].getIndex().flush();
+			System.out.println("shard " + shard + ": " + localShards[shard].getIndex().getSnapshot().getSegments()[0].getNumPostings()
+					+ " postings");
+		}
+		compare("in-process shards", index, localCoordinator, clips, options);
+
+		// save the shards, and serve each from its own process
+		final File directory = new File(System.getProperty("java.io.tmpdir"), "musicg-shards-" + System.nanoTime());
+		directory.mkdirs();
+		partitioner.write(new File(directory, HashPartitioner.FILE_NAME));
+		final Process[] processes = new Process[NUM_SHARDS];
+		final Shard[] remoteShards = new Shard[NUM_SHARDS];
+		try {
+			for (int shard = 0; shard < NUM_SHARDS; shard++) {
+				final File shardDirectory = new File(directory, "shard-" + shard);
+				localShards[shard].getIndex().save(shardDirectory);
+				processes[shard] = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+						System.getProperty("java.class.path"), ShardServer.class.getName(), shardDirectory.getPath()).redirectErrorStream(true)
+						.start();
+				final String line = new BufferedReader(new InputStreamReader(processes[shard].getInputStream())).readLine();
+				System.out.println(line);
+				final int port = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+				remoteShards[shard] = new RemoteShard(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 10000);
+			}
+			final ShardCoordinator remoteCoordinator = new ShardCoordinator(HashPartitioner.read(new File(directory,
+					HashPartitioner.FILE_NAME)), remoteShards);
+			compare("shard processes", index, remoteCoordinator, clips, options);
+			remoteCoordinator.close();
+		} finally {
+			for (final Process process : processes) {
+				if (process != null) {
+					process.getOutputStream().close();
+					process.waitFor();
+				}
+			}
+			delete(directory);
+		}
+		localCoordinator.close();
+		index.close(1, TimeUnit.SECONDS);
+	}
+
+	private static void compare(final String name, final IncrementalIndex index, final ShardCoordinator coordinator,
+			final List<byte[]> clips, final QueryOptions options) throws IOException {
+		boolean isSame = true;
+		long startTime = System.nanoTime();
+		for (final byte[] clip : clips) {
+			final QueryResult result = index.search(clip, options);
+			final QueryResult shardedResult = coordinator.search(clip, options);
+			isSame &= isSameMatches(result.getMatches(), shardedResult.getMatches());
+		}
+		final long bothTime = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		Match match = null;
+		for (final byte[] clip : clips) {
+			match = coordinator.lookup(clip);
+		}
+		final long shardedTime = System.nanoTime() - startTime;
+		System.out.println(name + ": " + (shardedTime / 1000 / clips.size()) + "us per query (whole index and shards "
+				+ (bothTime / 1000 / clips.size()) + "us), same matches: " + isSame + ", recorded clip: " + match.getTrackId() + " "
+				+ match.getSimilarity().getScore());
+	}
+
+	private static void delete(final File file) {
+		final File[] files = file.listFiles();
+		if (files != null) {
+			for (final File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static boolean isSameMatches(final List<Match> matches1, final List<Match> matches2) {
+		if (matches1.size() != matches2.size()) {
+			return false;
+		}
+		for (int i = 0; i < matches1.size(); i++) {
+			if (!matches1.get(i).getTrackId().equals(matches2.get(i).getTrackId())
+					|| matches1.get(i).getSimilarity().getScore() != matches2.get(i).getSimilarity().getScore()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.musicg.main.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.musicg.fingerprint.FingerprintCatalog.Match;
+import com.musicg.fingerprint.index.IncrementalIndex;
+import com.musicg.fingerprint.index.QueryOptions;
+import com.musicg.fingerprint.index.QueryResult;
+import com.musicg.wave.Wave;
+
+/**
+ * Compare the hash table and the sorted vote aggregation of index queries, and batches of queries, for clips of
+ * several lengths
+ */
+public class VoteAggregationDemo {
+
+	private static final int NUM_RUNS = 10;
+
+	public static void main(final String[] args) throws IOException, InterruptedException {
+
+		final String[] songs = { "audio_work/songs/canon_d_major.wav", "audio_work/songs/fing_fing_ha.wav",
+				"audio_work/songs/forrest_gump_theme.wav", "audio_work/songs/imagine.wav", "audio_work/songs/top_of_the_world.wav" };
+		final double[] clipLengths = { 2, 4, 8, 16, 32 };
+
+		// the songs and 10 second excerpts of them, sharing many pair hashes with the clips
+		final IncrementalIndex index = new IncrementalIndex();
+		final Wave[] waves = new Wave[songs.length];
+		for (int i = 0; i < songs.length; i++) {
+			waves[i] = new Wave(songs[i]);
+			index.addTrack(songs[i], waves[i].getFingerprint());
+			for (double start = 0; start + 10 < waves[i].length(); start += 2) {
+				index.addTrack(songs[i] + "@" + start, waves[i].slice(start, start + 10).getFingerprint());
+			}
+		}
+		index.flush();
+		System.out.println("tracks: " + index.size());
+
+		final QueryOptions hashOptions = new QueryOptions();
+		final QueryOptions sortedOptions = new QueryOptions();
+		sortedOptions.setSortedVotes(true);
+
+		for (final double clipLength : clipLengths) {
+			final List<byte[]> clips = new ArrayList<byte[]>();
+			for (final Wave wave : waves) {
+				final double start = Math.max(0, wave.length() * 0.3);
+				clips.add(wave.slice(start, Math.min(wave.length(), start + clipLength)).getFingerprint());
+			}
+
+			// warm up, and check the two give the same matches
+			boolean isSame = true;
+			long numPostings = 0;
+			for (final byte[] clip : clips) {
+				final QueryResult hashResult = index.search(clip, hashOptions);
+				final QueryResult sortedResult = index.search(clip, sortedOptions);
+				isSame &= isSameMatches(hashResult.getMatches(), sortedResult.getMatches());
+			}
+			final List<QueryResult> batchResults = index.searchBatch(clips, hashOptions);
+			for (int i = 0; i < clips.size(); i++) {
+				isSame &= isSameMatches(index.search(clips.get(i), sortedOptions).getMatches(), batchResults.get(i).getMatches());
+			}
+			for (int run = 0; run < NUM_RUNS; run++) {
+				for (final byte[] clip : clips) {
+					index.search(clip, hashOptions);
+					index.search(clip, sortedOptions);
+				}
+				index.searchBatch(clips, hashOptions);
+			}
+
+			final long hashTime = time(index, clips, hashOptions);
+			final long sortedTime = time(index, clips, sortedOptions);
+			final long batchStartTime = System.nanoTime();
+			for (int run = 0; run < NUM_RUNS; run++) {
+				index.searchBatch(clips, hashOptions);
+			}
+			final long batchTime = System.nanoTime() - batchStartTime;
+			for (final byte[] clip : clips) {
+				numPostings += index.search(clip, hashOptions).getNumPostingsScanned();
+			}
+			System.out.println(clipLength + "s clips: postings " + numPostings / clips.size() + ", hash "
+					+ hashTime / 1000 / (NUM_RUNS * clips.size()) + "us, sorted " + sortedTime / 1000 / (NUM_RUNS * clips.size())
+					+ "us, batch " + batchTime / 1000 / (NUM_RUNS * clips.size()) + "us per query, same matches: " + isSame);
+		}
+		index.close(1, TimeUnit.SECONDS);
+	}
+
+	private static long time(final IncrementalIndex index, final List<byte[]> clips, final QueryOptions options) {
+		final long startTime = System.nanoTime();
+		for (int run = 0; run < NUM_RUNS; run++) {
+			for (final byte[] clip : clips) {
+				index.search(clip, options);
+			}
+		}
+		return System.nanoTime() - startTime;
+	}
+
+	private static boolean isSameMatches(final List<Match> matches1, final List<Match> matches2) {
+		if (matches1.size() != matches2.size()) {
+			return false;
+		}
+		for (int i = 0; i < matches1.size(); i++) {
+			if (!matches1.get(i).getTrackId().equals(matches2.get(i).getTrackId())
+					|| matches1.get(i).getSimilarity().getScore() != matches2.get(i).getSimilarity().getScore()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
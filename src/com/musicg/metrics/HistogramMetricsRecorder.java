@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics recorder keeping a histogram of the times of each stage
+ *
+ * The histogram buckets are powers of 2 nanoseconds, a time t is counted in the bucket
+ * [2^(i-1), 2^i) with i the bit length of t. Recording is lock free. export() writes the histograms
+ * in the Prometheus text format.
+ *
+ * @author jacquet
+ */
+public class HistogramMetricsRecorder implements MetricsRecorder {
+
+	private static final int NUM_BUCKETS = 64;
+	private static final int FIRST_EXPORTED_BUCKET = 10;	// 2^10 ns, about 1 microsecond
+	private static final int LAST_EXPORTED_BUCKET = 40;	// 2^40 ns, about 18 minutes
+
+	private final StageHistogram[] histograms;
+
+	public HistogramMetricsRecorder() {
+		histograms = new StageHistogram[Stage.values().length];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new StageHistogram();
+		}
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public void recordTime(final Stage stage, final long nanos) {
+		final StageHistogram histogram = histograms[stage.ordinal()];
+		final long time = Math.max(0, nanos);
+		histogram.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(time));	// bit length, 0~63
+		histogram.count.incrementAndGet();
+		histogram.totalNanos.addAndGet(time);
+		long max = histogram.maxNanos.get();
+		while (time > max && !histogram.maxNanos.compareAndSet(max, time)) {
+			max = histogram.maxNanos.get();
+		}
+	}
+
+	public void recordCount(final Stage stage, final long count) {
+		histograms[stage.ordinal()].workCount.addAndGet(count);
+	}
+
+	/**
+	 * @param stage
+	 * @return number of runs of the stage
+	 */
+	public long getCount(final Stage stage) {
+		return histograms[stage.ordinal()].count.get();
+	}
+
+	/**
+	 * @param stage
+	 * @return total time of the stage, in nanoseconds
+	 */
+	public long getTotalNanos(final Stage stage) {
+		return histograms[stage.ordinal()].totalNanos.get();
+	}
+
+	/**
+	 * @param stage
+	 * @return longest run of the stage, in nanoseconds
+	 */
+	public long getMaxNanos(final Stage stage) {
+		return histograms[stage.ordinal()].maxNanos.get();
+	}
+
+	/**
+	 * @param stage
+	 * @return total amount of work of the stage
+	 */
+	public long getWorkCount(final Stage stage) {
+		return histograms[stage.ordinal()].workCount.get();
+	}
+
+	/**
+	 * Upper bound of a percentile of the times, from the histogram
+	 *
+	 * @param stage
+	 * @param percentile
+	 *            0~100
+	 * @return time in nanoseconds, the upper bound of the bucket containing the percentile, 0 if the stage has not run
+	 */
+	public long getPercentileNanos(final Stage stage, final double percentile) {
+		final StageHistogram histogram = histograms[stage.ordinal()];
+		final long count = histogram.count.get();
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(count * percentile / 100);
+		long cumulative = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			cumulative += histogram.buckets.get(i);
+			if (cumulative >= rank) {
+				return Math.min(i == 63 ? Long.MAX_VALUE : 1L << i, histogram.maxNanos.get());
+			}
+		}
+		return histogram.maxNanos.get();
+	}
+
+	/**
+	 * Clear all the histograms
+	 */
+	public void reset() {
+		for (final StageHistogram histogram : histograms) {
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				histogram.buckets.set(i, 0);
+			}
+			histogram.count.set(0);
+			histogram.totalNanos.set(0);
+			histogram.maxNanos.set(0);
+			histogram.workCount.set(0);
+		}
+	}
+
+	/**
+	 * Export the histograms in the Prometheus text format, times in seconds
+	 *
+	 * @return metrics text
+	 */
+	public String export() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("# TYPE musicg_stage_seconds histogram\n");
+		for (final Stage stage : Stage.values()) {
+			final StageHistogram histogram = histograms[stage.ordinal()];
+			final String label = "{stage=\"" + stage.getMetricName() + "\"";
+			long cumulative = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				cumulative += histogram.buckets.get(i);
+				if (i >= FIRST_EXPORTED_BUCKET && i <= LAST_EXPORTED_BUCKET) {
+					// bucket i holds the times below 2^i
+					sb.append("musicg_stage_seconds_bucket").append(label).append(",le=\"").append((1L << i) / 1e9).append("\"} ")
+							.append(cumulative).append('\n');
+				}
+			}
+			sb.append("musicg_stage_seconds_bucket").append(label).append(",le=\"+Inf\"} ").append(histogram.count.get()).append('\n');
+			sb.append("musicg_stage_seconds_sum").append(label).append("} ").append(histogram.totalNanos.get() / 1e9).append('\n');
+			sb.append("musicg_stage_seconds_count").append(label).append("} ").append(histogram.count.get()).append('\n');
+		}
+		sb.append("# TYPE musicg_stage_work_total counter\n");
+		for (final Stage stage : Stage.values()) {
+			sb.append("musicg_stage_work_total{stage=\"").append(stage.getMetricName()).append("\"} ")
+					.append(histograms[stage.ordinal()].workCount.get()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static class StageHistogram {
+
+		final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);	// buckets[i]=number of times with bit length i
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLong workCount = new AtomicLong();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.metrics;
+
+/**
+ * Entry point of the metrics used by the recognition code
+ *
+ * The recorder is the global one, unless the current thread has its own recorder, e.g. for measuring
+ * a single request. With the default no-op recorder a measured stage costs a recorder check and no
+ * clock reading.
+ *
+ * Usage in a stage:
+ * long startTime = Metrics.startTimer();
+ * ...
+ * Metrics.stopTimer(Stage.PAIRING, startTime, numPairs);
+ *
+ * @author jacquet
+ */
+public class Metrics {
+
+	private static volatile MetricsRecorder globalRecorder = NoOpMetricsRecorder.INSTANCE;
+	private static final ThreadLocal<MetricsRecorder> threadRecorder = new ThreadLocal<MetricsRecorder>();
+	private static volatile boolean hasThreadRecorders = false;	// skips the thread local lookup until a thread recorder is set
+
+	private Metrics() {
+	}
+
+	/**
+	 * Set the recorder of all threads
+	 *
+	 * @param recorder
+	 *            recorder, null for the no-op recorder
+	 */
+	public static void setRecorder(final MetricsRecorder recorder) {
+		globalRecorder = recorder == null ? NoOpMetricsRecorder.INSTANCE : recorder;
+	}
+
+	/**
+	 * Set the recorder of the current thread, used instead of the global recorder
+	 *
+	 * @param recorder
+	 *            recorder, null for using the global recorder again
+	 */
+	public static void setThreadRecorder(final MetricsRecorder recorder) {
+		if (recorder == null) {
+			threadRecorder.remove();
+		} else {
+			hasThreadRecorders = true;
+			threadRecorder.set(recorder);
+		}
+	}
+
+	/**
+	 * @return recorder set for the current thread, null if it uses the global recorder
+	 */
+	public static MetricsRecorder getThreadRecorder() {
+		return hasThreadRecorders ? threadRecorder.get() : null;
+	}
+
+	/**
+	 * @return recorder of the current thread
+	 */
+	public static MetricsRecorder getRecorder() {
+		if (hasThreadRecorders) {
+			final MetricsRecorder recorder = threadRecorder.get();
+			if (recorder != null) {
+				return recorder;
+			}
+		}
+		return globalRecorder;
+	}
+
+	/**
+	 * Start timing a stage
+	 *
+	 * @return start time for stopTimer(), 0 if metrics are disabled
+	 */
+	public static long startTimer() {
+		return getRecorder().isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Stop timing a stage and record its time and amount of work
+	 *
+	 * @param stage
+	 *            stage
+	 * @param startTime
+	 *            value of startTimer()
+	 * @param count
+	 *            amount of work of the stage
+	 */
+	public static void stopTimer(final Stage stage, final long startTime, final long count) {
+		if (startTime != 0) {
+			final MetricsRecorder recorder = getRecorder();
+			recorder.recordTime(stage, System.nanoTime() - startTime);
+			recorder.recordCount(stage, count);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.metrics;
+
+/**
+ * Receives the timings and the counts of the recognition stages
+ *
+ * Implementations are called from the threads doing the work and should be thread safe and cheap.
+ *
+ * @author jacquet
+ */
+public interface MetricsRecorder {
+
+	/**
+	 * @return false if nothing is recorded, the callers then skip reading the clock
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Record the time of one run of a stage
+	 *
+	 * @param stage
+	 *            stage
+	 * @param nanos
+	 *            time taken, in nanoseconds
+	 */
+	public void recordTime(Stage stage, long nanos);
+
+	/**
+	 * Record the amount of work of a stage, e.g. the frames of the stft
+	 *
+	 * @param stage
+	 *            stage
+	 * @param count
+	 *            amount of work
+	 */
+	public void recordCount(Stage stage, long count);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.metrics;
+
+/**
+ * Metrics recorder which records nothing, the default
+ *
+ * @author jacquet
+ */
+public class NoOpMetricsRecorder implements MetricsRecorder {
+
+	public static final NoOpMetricsRecorder INSTANCE = new NoOpMetricsRecorder();
+
+	private NoOpMetricsRecorder() {
+	}
+
+	public boolean isEnabled() {
+		return false;
+	}
+
+	public void recordTime(final Stage stage, final long nanos) {
+	}
+
+	public void recordCount(final Stage stage, final long count) {
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.metrics;
+
+/**
+ * Stages of the recognition measured by the metrics
+ *
+ * @author jacquet
+ */
+public enum Stage {
+
+	DECODE,	// wave bytes read and converted to amplitudes, counts bytes or samples
+	RESAMPLE,	// wave resampled to the fingerprint rate, counts output bytes
+	STFT,	// spectrogram frames transformed, counts frames
+	PEAK_PICKING,	// robust points picked and encoded in the fingerprint, counts points
+	PAIRING,	// points of a fingerprint paired, counts pairs
+	LOOKUP,	// pair hashes of a clip found and their postings scanned, a catalog also pairs and scores, counts tracks
+	SCORING,	// matched pairs voted by offset and ranked, counts votes
+	BATCH_LOOKUP;	// clips searched together in an index, counts clips
+
+	/**
+	 * @return name in lower case, used in the exported metrics
+	 */
+	public String getMetricName() {
+		return name().toLowerCase();
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.metrics;
+
+/**
+ * Metrics recorder adding up the times and the work of each stage, for explaining one request
+ *
+ * It is set as the thread recorder for the request, see Metrics.setThreadRecorder(), and passes what it
+ * records on to the recorder it replaced, so the metrics of the application still see the request.
+ * It is not thread safe.
+ *
+ * @author jacquet
+ */
+public class StageStatisticsRecorder implements MetricsRecorder {
+
+	private final MetricsRecorder nextRecorder;
+	private final long[] counts = new long[Stage.values().length];
+	private final long[] totalNanos = new long[Stage.values().length];
+	private final long[] workCounts = new long[Stage.values().length];
+
+	public StageStatisticsRecorder() {
+		this(null);
+	}
+
+	/**
+	 * @param nextRecorder
+	 *            recorder also recording the stages, null for none
+	 */
+	public StageStatisticsRecorder(final MetricsRecorder nextRecorder) {
+		this.nextRecorder = nextRecorder == null ? NoOpMetricsRecorder.INSTANCE : nextRecorder;
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public void recordTime(final Stage stage, final long nanos) {
+		counts[stage.ordinal()]++;
+		totalNanos[stage.ordinal()] += nanos;
+		if (nextRecorder.isEnabled()) {
+			nextRecorder.recordTime(stage, nanos);
+		}
+	}
+
+	public void recordCount(final Stage stage, final long count) {
+		workCounts[stage.ordinal()] += count;
+		if (nextRecorder.isEnabled()) {
+			nextRecorder.recordCount(stage, count);
+		}
+	}
+
+	/**
+	 * @param stage
+	 * @return number of runs of the stage
+	 */
+	public long getCount(final Stage stage) {
+		return counts[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 * @return total time of the stage, in nanoseconds
+	 */
+	public long getTotalNanos(final Stage stage) {
+		return totalNanos[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 * @return total amount of work of the stage
+	 */
+	public long getWorkCount(final Stage stage) {
+		return workCounts[stage.ordinal()];
+	}
+
+	/**
+	 * @return the stages which ran, e.g. "pairing: 1 run, 0.812 ms, 8042 work"
+	 */
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (final Stage stage : Stage.values()) {
+			if (counts[stage.ordinal()] > 0) {
+				sb.append(sb.length() == 0 ? "" : "\n").append(stage.getMetricName()).append(": ").append(counts[stage.ordinal()])
+						.append(counts[stage.ordinal()] == 1 ? " run, " : " runs, ")
+						.append(String.format("%.3f", totalNanos[stage.ordinal()] / 1e6)).append(" ms, ")
+						.append(workCounts[stage.ordinal()]).append(" work");
+			}
+		}
+		return sb.toString();
+	}
+}
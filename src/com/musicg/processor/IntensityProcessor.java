@@ -1,6 +1,17 @@
 package com.musicg.processor;
 
+import com.musicg.wave.extension.SpectrogramMatrix;
+
 public interface IntensityProcessor{
 	public void execute();
 	public double[][] getIntensities();
+
+	/**
+	 * Get the intensities as a matrix, a copy of getIntensities() unless the processor keeps a matrix
+	 *
+	 * @return intensities
+	 */
+	public default SpectrogramMatrix getIntensityMatrix() {
+		return SpectrogramMatrix.fromArray(getIntensities());
+	}
 }
\ No newline at end of file
@@ -4,12 +4,18 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.musicg.wave.extension.SpectrogramMatrix;
+
 public class ProcessorChain{
 	
-	private double[][] intensities;
+	private SpectrogramMatrix intensities;
 	List<IntensityProcessor> processorList=new LinkedList<IntensityProcessor>();
 	
 	public ProcessorChain(double[][] intensities){
+		this(SpectrogramMatrix.fromArray(intensities));
+	}
+	
+	public ProcessorChain(SpectrogramMatrix intensities){
 		this.intensities=intensities;
 		RobustIntensityProcessor robustProcessor=new RobustIntensityProcessor(intensities,1);
 		processorList.add(robustProcessor);
@@ -21,11 +27,15 @@ public class ProcessorChain{
 		while(iterator.hasNext()){
 			IntensityProcessor processor=iterator.next();
 			processor.execute();
-			intensities=processor.getIntensities();
+			intensities=processor.getIntensityMatrix();
 		}
 	}
 	
 	public double[][] getIntensities(){
+		return intensities.toArray();
+	}
+	
+	public SpectrogramMatrix getIntensityMatrix(){
 		return intensities;
 	}
 }
\ No newline at end of file
@@ -1,35 +1,41 @@
 package com.musicg.processor;
 
 import com.musicg.math.rank.ArrayRankDouble;
+import com.musicg.wave.extension.SpectrogramMatrix;
 
 public class RobustIntensityProcessor implements IntensityProcessor{
 
-	private double[][] intensities;
+	private SpectrogramMatrix intensities;
 	private int numPointsPerFrame;
 	
 	public RobustIntensityProcessor(double[][] intensities, int numPointsPerFrame){
+		this(SpectrogramMatrix.fromArray(intensities),numPointsPerFrame);
+	}
+	
+	public RobustIntensityProcessor(SpectrogramMatrix intensities, int numPointsPerFrame){
 		this.intensities=intensities;
 		this.numPointsPerFrame=numPointsPerFrame;
 	}
 	
 	public void execute(){
 		
-		int numX=intensities.length;
-		int numY=intensities[0].length;
-		double[][] processedIntensities=new double[numX][numY];
+		int numX=intensities.getNumRows();
+		int numY=intensities.getNumColumns();
+		SpectrogramMatrix processedIntensities=new SpectrogramMatrix(numX,numY);
+		double[] tmpArray=new double[numY];
+		ArrayRankDouble arrayRankDouble=new ArrayRankDouble();
 		
 		for (int i=0; i<numX; i++){
-			double[] tmpArray=new double[numY];
-			System.arraycopy(intensities[i], 0, tmpArray, 0, numY);
+			intensities.copyRow(i, tmpArray, 0);
 			
 			// pass value is the last some elements in sorted array	
-			ArrayRankDouble arrayRankDouble=new ArrayRankDouble();
 			double passValue=arrayRankDouble.getNthOrderedValue(tmpArray,numPointsPerFrame,false);
 			
 			// only passed elements will be assigned a value
 			for (int j=0; j<numY; j++){
-				if (intensities[i][j]>=passValue){
-					processedIntensities[i][j]=intensities[i][j];
+				double intensity=intensities.get(i,j);
+				if (intensity>=passValue){
+					processedIntensities.set(i,j,intensity);
 				}
 			}
 		}
@@ -37,6 +43,10 @@ public class RobustIntensityProcessor implements IntensityProcessor{
 	}
 	
 	public double[][] getIntensities(){
+		return intensities.toArray();
+	}
+	
+	public SpectrogramMatrix getIntensityMatrix(){
 		return intensities;
 	}
 }
\ No newline at end of file
@@ -4,13 +4,19 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.musicg.wave.extension.SpectrogramMatrix;
+
 
 public class TopManyPointsProcessorChain{
 	
-	private double[][] intensities;
+	private SpectrogramMatrix intensities;
 	List<IntensityProcessor> processorList=new LinkedList<IntensityProcessor>();
 	
 	public TopManyPointsProcessorChain(double[][] intensities, int numPoints){
+		this(SpectrogramMatrix.fromArray(intensities),numPoints);
+	}
+	
+	public TopManyPointsProcessorChain(SpectrogramMatrix intensities, int numPoints){
 		this.intensities=intensities;
 		RobustIntensityProcessor robustProcessor=new RobustIntensityProcessor(intensities,numPoints);
 		processorList.add(robustProcessor);
@@ -22,11 +28,15 @@ public class TopManyPointsProcessorChain{
 		while(iterator.hasNext()){
 			IntensityProcessor processor=iterator.next();
 			processor.execute();
-			intensities=processor.getIntensities();
+			intensities=processor.getIntensityMatrix();
 		}
 	}
 	
 	public double[][] getIntensities(){
+		return intensities.toArray();
+	}
+	
+	public SpectrogramMatrix getIntensityMatrix(){
 		return intensities;
 	}
 }
\ No newline at end of file
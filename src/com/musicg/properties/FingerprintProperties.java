@@ -39,6 +39,9 @@ public class FingerprintProperties{
 	
 	private int numFrequencyUnits=(upperBoundedFrequency-lowerBoundedFrequency+1)/fps+1;	// num frequency units
 	
+	private int profileId=1;	// id of the settings above, 1~255, fingerprints extracted with different settings should not be compared
+	private int fingerprintVersion=1;	// format of the extracted fingerprints, 1 for 8 bytes per point (up to 65535 frames), 2 for the compact format
+	
 	public static FingerprintProperties getInstance(){		
 		if (instance == null){
             synchronized(FingerprintProperties.class){
@@ -113,4 +116,38 @@ public class FingerprintProperties{
 	public int getNumFramesInOneSecond() {
 		return numFramesInOneSecond;
 	}
+
+	public int getProfileId() {
+		return profileId;
+	}
+
+	/**
+	 * Set the id of the settings, written in the header of version 2 fingerprints
+	 * 
+	 * @param profileId	id from 1 to 255, 0 is for the fingerprints of unknown settings
+	 */
+	public void setProfileId(int profileId) {
+		if (profileId<1 || profileId>255){
+			throw new IllegalArgumentException("FingerprintProperties: the profile id should be from 1 to 255");
+		}
+		this.profileId = profileId;
+	}
+
+	public int getFingerprintVersion() {
+		return fingerprintVersion;
+	}
+
+	/**
+	 * Set the format of the extracted fingerprints
+	 * Version 2 is about a third of the size of version 1, but quantizes the intensities of the points, so
+	 * the pairs and the similarity scores differ slightly from the ones of version 1 fingerprints
+	 * 
+	 * @param fingerprintVersion	FingerprintReader.VERSION_1 (default) or FingerprintReader.VERSION_2
+	 */
+	public void setFingerprintVersion(int fingerprintVersion) {
+		if (fingerprintVersion!=1 && fingerprintVersion!=2){
+			throw new IllegalArgumentException("FingerprintProperties: unknown fingerprint version "+fingerprintVersion);
+		}
+		this.fingerprintVersion = fingerprintVersion;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import com.musicg.wave.Wave;
+import com.musicg.wave.WaveHeader;
+import com.musicg.wave.extension.SpectrogramMatrix;
+
+/**
+ * Binary codec of waves, wave headers, spectrogram matrices and fingerprints
+ *
+ * An object is written as the magic "MGSR", the schema version, the object type, then a list of sections
+ * closed by an end tag. Each section is a tag, the payload length and the payload. Sections of unknown
+ * tags are skipped, and the audio data is the last section of a wave, so the header and the fingerprint
+ * of a wave file can be read without reading its data, and the data can be mapped instead of read.
+ *
+ * All the values are big endian, as written by DataOutput.
+ *
+ * @author Jacquet Wong
+ */
+public class BinaryCodec {
+
+	public static final int MAGIC = 0x4D475352;	// "MGSR"
+	public static final int SCHEMA_VERSION = 1;
+
+	// object types
+	public static final int TYPE_WAVE = 1;
+	public static final int TYPE_WAVE_HEADER = 2;
+	public static final int TYPE_SPECTROGRAM_MATRIX = 3;
+	public static final int TYPE_FINGERPRINT = 4;
+
+	// section tags
+	private static final int SECTION_END = 0;
+	private static final int SECTION_HEADER = 1;
+	private static final int SECTION_FINGERPRINT = 2;
+	private static final int SECTION_SPECTROGRAM_MATRIX = 3;
+	private static final int SECTION_DATA = 4;
+
+	private static final int PREAMBLE_SIZE = 7;	// magic, schema version, object type
+	private static final int SECTION_HEADER_SIZE = 9;	// tag, payload length
+	private static final int WAVE_HEADER_SIZE = 64;	// 4 ids, 4 longs, 4 ints
+
+	public BinaryCodec() {
+	}
+
+	/**
+	 * Check if an object can be written by this codec
+	 *
+	 * @param object
+	 *            object
+	 * @return true for a Wave, a WaveHeader, a SpectrogramMatrix or a fingerprint (byte array)
+	 */
+	public boolean isSupported(Object object) {
+		return object instanceof Wave || object instanceof WaveHeader || object instanceof SpectrogramMatrix
+				|| object instanceof byte[];
+	}
+
+	/**
+	 * Write an object
+	 *
+	 * @param object
+	 *            a Wave, a WaveHeader, a SpectrogramMatrix or a fingerprint
+	 * @param out
+	 *            output
+	 * @throws IOException
+	 */
+	public void write(Object object, DataOutput out) throws IOException {
+		if (object instanceof Wave) {
+			writeWave((Wave) object, out);
+		} else if (object instanceof WaveHeader) {
+			writePreamble(TYPE_WAVE_HEADER, out);
+			writeWaveHeaderSection((WaveHeader) object, out);
+			out.writeByte(SECTION_END);
+		} else if (object instanceof SpectrogramMatrix) {
+			writeSpectrogramMatrix((SpectrogramMatrix) object, out);
+		} else if (object instanceof byte[]) {
+			writePreamble(TYPE_FINGERPRINT, out);
+			writeBytesSection(SECTION_FINGERPRINT, (byte[]) object, out);
+			out.writeByte(SECTION_END);
+		} else {
+			throw new IllegalArgumentException("BinaryCodec: unsupported object " + object);
+		}
+	}
+
+	/**
+	 * Write a wave, with its fingerprint if it has been extracted
+	 *
+	 * @param wave
+	 *            wave
+	 * @param out
+	 *            output
+	 * @throws IOException
+	 */
+	public void writeWave(Wave wave, DataOutput out) throws IOException {
+		writePreamble(TYPE_WAVE, out);
+		writeWaveHeaderSection(wave.getWaveHeader(), out);
+		if (wave.hasFingerprint()) {
+			writeBytesSection(SECTION_FINGERPRINT, wave.getFingerprint(), out);
+		}
+		// the data is the last section, so it can be skipped
+		out.writeByte(SECTION_DATA);
+		if (wave.getDataArray() != null) {
+			out.writeLong(wave.size());
+			out.write(wave.getDataArray(), wave.getDataOffset(), wave.size());
+		} else {
+			out.writeLong(0);
+		}
+		out.writeByte(SECTION_END);
+	}
+
+	/**
+	 * Write a spectrogram matrix, row by row
+	 *
+	 * @param matrix
+	 *            matrix, heap or off-heap
+	 * @param out
+	 *            output
+	 * @throws IOException
+	 */
+	public void writeSpectrogramMatrix(SpectrogramMatrix matrix, DataOutput out) throws IOException {
+		int numRows = matrix.getNumRows();
+		int numColumns = matrix.getNumColumns();
+
+		writePreamble(TYPE_SPECTROGRAM_MATRIX, out);
+		out.writeByte(SECTION_SPECTROGRAM_MATRIX);
+		out.writeLong(8 + (long) numRows * numColumns * 8);
+		out.writeInt(numRows);
+		out.writeInt(numColumns);
+
+		// the rows are converted through a buffer instead of writing the doubles one by one
+		double[] row = new double[numColumns];
+		ByteBuffer chunk = ByteBuffer.allocate(numColumns * 8);
+		DoubleBuffer doubleChunk = chunk.asDoubleBuffer();
+		for (int i = 0; i < numRows; i++) {
+			matrix.copyRow(i, row, 0);
+			doubleChunk.clear();
+			doubleChunk.put(row);
+			out.write(chunk.array(), 0, numColumns * 8);
+		}
+		out.writeByte(SECTION_END);
+	}
+
+	private void writePreamble(int type, DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(SCHEMA_VERSION);
+		out.writeByte(type);
+	}
+
+	private void writeWaveHeaderSection(WaveHeader waveHeader, DataOutput out) throws IOException {
+		out.writeByte(SECTION_HEADER);
+		out.writeLong(WAVE_HEADER_SIZE);
+		writeId(waveHeader.getChunkId(), out);
+		writeId(waveHeader.getFormat(), out);
+		writeId(waveHeader.getSubChunk1Id(), out);
+		writeId(waveHeader.getSubChunk2Id(), out);
+		out.writeLong(waveHeader.getChunkSize());
+		out.writeLong(waveHeader.getSubChunk1Size());
+		out.writeLong(waveHeader.getSubChunk2Size());
+		out.writeLong(waveHeader.getByteRate());
+		out.writeInt(waveHeader.getSampleRate());
+		out.writeInt(waveHeader.getAudioFormat());
+		out.writeInt(waveHeader.getChannels() << 16 | waveHeader.getBlockAlign());
+		out.writeInt(waveHeader.getBitsPerSample());
+	}
+
+	// chunk ids are 4 ascii characters, null ids are written as spaces
+	private void writeId(String id, DataOutput out) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			out.writeByte(id != null && i < id.length() ? id.charAt(i) : ' ');
+		}
+	}
+
+	private void writeBytesSection(int tag, byte[] bytes, DataOutput out) throws IOException {
+		out.writeByte(tag);
+		out.writeLong(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Check if a stream starts with the magic of this codec
+	 *
+	 * @param firstBytes
+	 *            first bytes of the stream
+	 * @return true if the stream is written by this codec
+	 */
+	public static boolean isBinaryCodec(byte[] firstBytes) {
+		return firstBytes.length >= 4
+				&& ((firstBytes[0] & 0xff) << 24 | (firstBytes[1] & 0xff) << 16 | (firstBytes[2] & 0xff) << 8 | firstBytes[3] & 0xff) == MAGIC;
+	}
+
+	/**
+	 * Read an object
+	 *
+	 * @param in
+	 *            input
+	 * @return a Wave, a WaveHeader, a SpectrogramMatrix or a fingerprint (byte array)
+	 * @throws IOException
+	 */
+	public Object read(DataInput in) throws IOException {
+		int type = readPreamble(in);
+
+		WaveHeader waveHeader = null;
+		byte[] fingerprint = null;
+		byte[] data = null;
+		SpectrogramMatrix matrix = null;
+
+		int tag;
+		while ((tag = in.readUnsignedByte()) != SECTION_END) {
+			long length = in.readLong();
+			switch (tag) {
+			case SECTION_HEADER:
+				waveHeader = readWaveHeader(in);
+				skipFully(in, length - WAVE_HEADER_SIZE);
+				break;
+			case SECTION_FINGERPRINT:
+				fingerprint = readBytes(in, length);
+				break;
+			case SECTION_DATA:
+				data = readBytes(in, length);
+				break;
+			case SECTION_SPECTROGRAM_MATRIX:
+				matrix = readSpectrogramMatrix(in, length);
+				break;
+			default:
+				// written by a later schema
+				skipFully(in, length);
+			}
+		}
+
+		switch (type) {
+		case TYPE_WAVE:
+			return new Wave(waveHeader, data != null ? data : new byte[0], fingerprint);
+		case TYPE_WAVE_HEADER:
+			return waveHeader;
+		case TYPE_SPECTROGRAM_MATRIX:
+			return matrix;
+		case TYPE_FINGERPRINT:
+			return fingerprint;
+		default:
+			throw new IOException("BinaryCodec: unknown object type " + type);
+		}
+	}
+
+	private int readPreamble(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("BinaryCodec: not written by this codec");
+		}
+		int schemaVersion = in.readUnsignedShort();
+		if (schemaVersion > SCHEMA_VERSION) {
+			throw new IOException("BinaryCodec: schema version " + schemaVersion + " is not supported");
+		}
+		return in.readUnsignedByte();
+	}
+
+	private WaveHeader readWaveHeader(DataInput in) throws IOException {
+		WaveHeader waveHeader = new WaveHeader();
+		waveHeader.setChunkId(readId(in));
+		waveHeader.setFormat(readId(in));
+		waveHeader.setSubChunk1Id(readId(in));
+		waveHeader.setSubChunk2Id(readId(in));
+		waveHeader.setChunkSize(in.readLong());
+		waveHeader.setSubChunk1Size(in.readLong());
+		waveHeader.setSubChunk2Size(in.readLong());
+		long byteRate = in.readLong();
+		int sampleRate = in.readInt();
+		waveHeader.setAudioFormat(in.readInt());
+		int channelsAndBlockAlign = in.readInt();
+		waveHeader.setChannels(channelsAndBlockAlign >>> 16);
+		waveHeader.setBlockAlign(channelsAndBlockAlign & 0xffff);
+		waveHeader.setBitsPerSample(in.readInt());
+
+		// setSampleRate() rescales the sizes, so the stored sizes are restored after it
+		long chunkSize = waveHeader.getChunkSize();
+		long subChunk2Size = waveHeader.getSubChunk2Size();
+		waveHeader.setSampleRate(sampleRate);
+		waveHeader.setChunkSize(chunkSize);
+		waveHeader.setSubChunk2Size(subChunk2Size);
+		waveHeader.setByteRate(byteRate);
+		return waveHeader;
+	}
+
+	private String readId(DataInput in) throws IOException {
+		byte[] id = new byte[4];
+		in.readFully(id);
+		return new String(id, "US-ASCII");
+	}
+
+	private byte[] readBytes(DataInput in, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("BinaryCodec: section too large for an array");
+		}
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private SpectrogramMatrix readSpectrogramMatrix(DataInput in, long length) throws IOException {
+		int numRows = in.readInt();
+		int numColumns = in.readInt();
+		SpectrogramMatrix matrix = new SpectrogramMatrix(numRows, numColumns);
+
+		double[] row = new double[numColumns];
+		byte[] chunk = new byte[numColumns * 8];
+		DoubleBuffer doubleChunk = ByteBuffer.wrap(chunk).asDoubleBuffer();
+		for (int i = 0; i < numRows; i++) {
+			in.readFully(chunk);
+			doubleChunk.clear();
+			doubleChunk.get(row);
+			matrix.setRow(i, row, 0);
+		}
+		skipFully(in, length - 8 - (long) numRows * numColumns * 8);
+		return matrix;
+	}
+
+	private void skipFully(DataInput in, long length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes((int) Math.min(length, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				throw new EOFException("BinaryCodec: unexpected end of the section");
+			}
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Read the header of a wave file without reading the data
+	 *
+	 * @param channel
+	 *            file written by this codec
+	 * @return wave header
+	 * @throws IOException
+	 */
+	public WaveHeader readWaveHeader(FileChannel channel) throws IOException {
+		long[] section = findSection(channel, SECTION_HEADER);
+		if (section == null) {
+			throw new IOException("BinaryCodec: no wave header");
+		}
+		return readWaveHeader(new DataInputStream(new ByteArrayInputStream(readSection(channel, section))));
+	}
+
+	/**
+	 * Read the fingerprint of a wave file or a fingerprint file without reading the data
+	 *
+	 * @param channel
+	 *            file written by this codec
+	 * @return fingerprint, null if the wave was written without its fingerprint
+	 * @throws IOException
+	 */
+	public byte[] readFingerprint(FileChannel channel) throws IOException {
+		long[] section = findSection(channel, SECTION_FINGERPRINT);
+		if (section == null) {
+			return null;
+		}
+		return readSection(channel, section);
+	}
+
+	/**
+	 * Map the audio data of a wave file
+	 *
+	 * @param channel
+	 *            file written by this codec
+	 * @return read only buffer of the little endian audio data
+	 * @throws IOException
+	 */
+	public ByteBuffer mapData(FileChannel channel) throws IOException {
+		long[] section = findSection(channel, SECTION_DATA);
+		if (section == null) {
+			throw new IOException("BinaryCodec: no audio data");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, section[0], section[1]);
+	}
+
+	// position and length of the payload of the first section with the tag, null if there is none
+	private long[] findSection(FileChannel channel, int tag) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SECTION_HEADER_SIZE);
+		readFully(channel, buffer, 0, PREAMBLE_SIZE);
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("BinaryCodec: not written by this codec");
+		}
+		if ((buffer.getShort(4) & 0xffff) > SCHEMA_VERSION) {
+			throw new IOException("BinaryCodec: schema version " + (buffer.getShort(4) & 0xffff) + " is not supported");
+		}
+
+		// walk the section headers, skipping the payloads
+		long position = PREAMBLE_SIZE;
+		while (true) {
+			readFully(channel, buffer, position, 1);
+			int sectionTag = buffer.get(0) & 0xff;
+			if (sectionTag == SECTION_END) {
+				return null;
+			}
+			readFully(channel, buffer, position, SECTION_HEADER_SIZE);
+			long length = buffer.getLong(1);
+			position += SECTION_HEADER_SIZE;
+			if (sectionTag == tag) {
+				return new long[] { position, length };
+			}
+			position += length;
+		}
+	}
+
+	private byte[] readSection(FileChannel channel, long[] section) throws IOException {
+		if (section[1] > Integer.MAX_VALUE) {
+			throw new IOException("BinaryCodec: section too large for an array");
+		}
+		ByteBuffer payload = ByteBuffer.allocate((int) section[1]);
+		readFully(channel, payload, section[0], payload.capacity());
+		return payload.array();
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("BinaryCodec: unexpected end of the file");
+			}
+		}
+	}
+}
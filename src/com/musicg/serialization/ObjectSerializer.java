@@ -1,16 +1,36 @@
 package com.musicg.serialization;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 public class ObjectSerializer{
 	
+	private BinaryCodec binaryCodec=new BinaryCodec();
+	
 	public ObjectSerializer(){
 	}
 	
 	public void dump(Object object, String dumpFile){
+		// waves, wave headers, spectrogram matrices and fingerprints are written by the binary codec
+		if (binaryCodec.isSupported(object)){
+			try {
+				DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dumpFile),65536));
+				binaryCodec.write(object,dos);
+				dos.close();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		// serialize the object
 		try {
 			FileOutputStream fout = new FileOutputStream(dumpFile);
@@ -30,10 +50,22 @@ public class ObjectSerializer{
 		
 		// load the memory
 		try {
-			FileInputStream fin=new FileInputStream(dumpFile);
-		    ObjectInputStream ois=new ObjectInputStream(fin);
-		    object=ois.readObject();
-		    ois.close();
+			InputStream fin=new BufferedInputStream(new FileInputStream(dumpFile),65536);
+			
+			// files of the binary codec start with its magic, others are java serialized
+			byte[] magic=new byte[4];
+			fin.mark(magic.length);
+			int length=fin.read(magic);
+			fin.reset();
+			
+			if (length==magic.length && BinaryCodec.isBinaryCodec(magic)){
+				object=binaryCodec.read(new DataInputStream(fin));
+			}
+			else{
+			    ObjectInputStream ois=new ObjectInputStream(fin);
+			    object=ois.readObject();
+			    ois.close();
+			}
 		    fin.close();
 		}
 		catch (Exception e) {
@@ -42,4 +74,4 @@ public class ObjectSerializer{
 
 		return object;
 	}
-}
\ No newline at end of file
+}
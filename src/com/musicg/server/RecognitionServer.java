@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.musicg.api.ClapApi;
+import com.musicg.api.DetectionApi;
+import com.musicg.api.SoundEventDetector;
+import com.musicg.api.WhistleApi;
+import com.musicg.fingerprint.FingerprintCatalog;
+import com.musicg.fingerprint.FingerprintManager;
+import com.musicg.fingerprint.FingerprintSimilarity;
+import com.musicg.fingerprint.QueryResultCache;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.MetricsRecorder;
+import com.musicg.metrics.Stage;
+import com.musicg.metrics.StageStatisticsRecorder;
+import com.musicg.wave.Wave;
+import com.musicg.wave.WaveHeader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded http server for fingerprint extraction, catalog lookup and sound detection
+ *
+ * Endpoints, all POST with the wave file (or the fingerprint) as the request body:
+ * - /fingerprint	returns the fingerprint of the wave
+ * - /tracks?id=ID	adds the wave to the catalog, type=fingerprint for adding a fingerprint
+ * - /lookup	returns the best matching track of the clip as json, type=fingerprint for a fingerprint query,
+ * 	explain=true for the time and work of each stage of the recognition
+ * - /detect?api=whistle|clap	returns the probability of the sound as json
+ *
+ * Each request runs on its own virtual thread when the runtime supports them (java 21), otherwise on a
+ * fixed pool of threads. At most maxActiveRequests requests are processed at once and at most
+ * maxQueuedRequests wait for their turn, the others are rejected with 503. A request not answered within
+ * its deadline gets 504; the deadline is the default one or the "deadline" query parameter in
+ * milliseconds.
+ *
+ * A body is read only once its request is admitted, so at most maxActiveRequests bodies are in memory. A
+ * body declared longer than MAX_BODY_BYTES by its Content-Length is refused with 413 before admission.
+ *
+ * @author jacquet
+ */
+public class RecognitionServer {
+
+	public static final int DEFAULT_MAX_ACTIVE_REQUESTS = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_MAX_QUEUED_REQUESTS = 64;
+	public static final long DEFAULT_DEADLINE_MILLIS = 10000;
+	public static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+	public static final int DEFAULT_CACHE_ENTRIES = 1024;
+	public static final long DEFAULT_CACHE_TIME_TO_LIVE_MILLIS = 10 * 60 * 1000;
+
+	private final HttpServer httpServer;
+	private final ExecutorService exchangeExecutor;	// runs the exchanges
+	private final ExecutorService executor;	// runs the requests
+	private final FingerprintCatalog catalog;
+	private final Semaphore activeRequests;
+	private final AtomicInteger queuedRequests = new AtomicInteger();
+	private final int maxQueuedRequests;
+	private final long defaultDeadlineMillis;
+
+	// counters
+	private final AtomicLong numRequests = new AtomicLong();
+	private final AtomicLong numRejected = new AtomicLong();
+	private final AtomicLong numTimedOut = new AtomicLong();
+
+	/**
+	 * Constructor, listens on the loopback address with the default limits, the lookup results are cached
+	 *
+	 * @param port
+	 *            port to listen, 0 for any free port
+	 * @throws IOException
+	 */
+	public RecognitionServer(final int port) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), newCachedCatalog(), DEFAULT_MAX_ACTIVE_REQUESTS,
+				DEFAULT_MAX_QUEUED_REQUESTS, DEFAULT_DEADLINE_MILLIS);
+	}
+
+	private static FingerprintCatalog newCachedCatalog() {
+		final FingerprintCatalog catalog = new FingerprintCatalog();
+		catalog.setResultCache(new QueryResultCache<FingerprintCatalog.Match>(DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_TIME_TO_LIVE_MILLIS));
+		return catalog;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param address
+	 *            address to listen
+	 * @param catalog
+	 *            catalog for the lookups
+	 * @param maxActiveRequests
+	 *            number of requests processed at once
+	 * @param maxQueuedRequests
+	 *            number of requests waiting for processing, more are rejected
+	 * @param defaultDeadlineMillis
+	 *            time to answer a request without its own deadline
+	 * @throws IOException
+	 */
+	public RecognitionServer(final InetSocketAddress address, final FingerprintCatalog catalog, final int maxActiveRequests,
+			final int maxQueuedRequests, final long defaultDeadlineMillis) throws IOException {
+
+		this.catalog = catalog;
+		this.activeRequests = new Semaphore(maxActiveRequests);
+		this.maxQueuedRequests = maxQueuedRequests;
+		this.defaultDeadlineMillis = defaultDeadlineMillis;
+		// an exchange waits for admission or for its request, one more thread answers the refused ones
+		this.exchangeExecutor = newExecutor("musicg-exchange-", maxActiveRequests + maxQueuedRequests + 1);
+		this.executor = newExecutor("musicg-server-", maxActiveRequests);
+
+		httpServer = HttpServer.create(address, 0);
+		httpServer.setExecutor(exchangeExecutor);
+		httpServer.createContext("/fingerprint", new Endpoint() {
+			Response process(final byte[] body, final Map<String, String> query) {
+				return new Response(200, "application/octet-stream", readWave(body).getFingerprint());
+			}
+		});
+		httpServer.createContext("/tracks", new Endpoint() {
+			Response process(final byte[] body, final Map<String, String> query) {
+				final String trackId = query.get("id");
+				if (trackId == null) {
+					throw new IllegalArgumentException("missing id");
+				}
+				catalog.addTrack(trackId, readFingerprint(body, query));
+				return json(200, "{\"trackId\":" + quote(trackId) + ",\"tracks\":" + catalog.size() + "}");
+			}
+		});
+		httpServer.createContext("/lookup", new Endpoint() {
+			Response process(final byte[] body, final Map<String, String> query) {
+				final boolean explain = "true".equals(query.get("explain"));
+				final MetricsRecorder threadRecorder = Metrics.getThreadRecorder();
+				final StageStatisticsRecorder stageStatistics = new StageStatisticsRecorder(Metrics.getRecorder());
+				if (explain) {
+					Metrics.setThreadRecorder(stageStatistics);
+				}
+				final FingerprintCatalog.Match match;
+				try {
+					match = catalog.lookup(readFingerprint(body, query));
+				} finally {
+					if (explain) {
+						Metrics.setThreadRecorder(threadRecorder);
+					}
+				}
+				if (match == null) {
+					return json(404, "{\"error\":\"empty catalog\"}");
+				}
+				final FingerprintSimilarity similarity = match.getSimilarity();
+				return json(200, "{\"trackId\":" + quote(match.getTrackId()) + ",\"score\":" + similarity.getScore() + ",\"similarity\":"
+						+ similarity.getSimilarity() + ",\"position\":" + similarity.getsetMostSimilarTimePosition()
+						+ (explain ? ",\"explain\":" + explainJson(stageStatistics) : "") + "}");
+			}
+		});
+		httpServer.createContext("/detect", new Endpoint() {
+			Response process(final byte[] body, final Map<String, String> query) {
+				final Wave wave = readWave(body);
+				final WaveHeader waveHeader = wave.getWaveHeader();
+				if (!waveHeader.isSupportedFormat()) {
+					throw new IllegalArgumentException("unsupported wave format");
+				}
+				final String api = query.get("api");
+				final DetectionApi detectionApi;
+				if ("clap".equals(api)) {
+					detectionApi = new ClapApi(waveHeader);
+				} else if (api == null || "whistle".equals(api)) {
+					detectionApi = new WhistleApi(waveHeader);
+				} else {
+					throw new IllegalArgumentException("unknown api " + api);
+				}
+
+				// the same window as WaveTypeDetector: 3 of the last 3 blocks of 1024 samples
+				final SoundEventDetector detector = new SoundEventDetector(detectionApi, 1024, 3, 3);
+				final byte[] audioBytes = wave.getDataArray();
+				final int blockByteSize = 1024 * waveHeader.getSampleByteSize();
+				final int dataEnd = wave.getDataOffset() + wave.size();
+				for (int offset = wave.getDataOffset(); offset + blockByteSize <= dataEnd; offset += blockByteSize) {
+					if (Thread.currentThread().isInterrupted()) {
+						// the deadline has passed
+						return json(504, "{\"error\":\"deadline exceeded\"}");
+					}
+					detector.process(audioBytes, offset);
+				}
+				return json(200, "{\"api\":" + quote(api == null ? "whistle" : api) + ",\"probability\":" + detector.getProbability()
+						+ ",\"blocks\":" + detector.getNumBlocks() + "}");
+			}
+		});
+	}
+
+	// virtual thread per task on java 21, otherwise a fixed pool of daemon threads
+	private static ExecutorService newExecutor(final String threadName, final int numThreads) {
+		try {
+			final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (final Exception e) {
+			return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				private int count = 0;
+
+				public synchronized Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, threadName + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	public void start() {
+		httpServer.start();
+	}
+
+	/**
+	 * Stop the server
+	 *
+	 * @param delaySeconds
+	 *            time for the exchanges in progress to finish
+	 */
+	public void stop(final int delaySeconds) {
+		httpServer.stop(delaySeconds);
+		exchangeExecutor.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return port the server listens on
+	 */
+	public int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	public FingerprintCatalog getCatalog() {
+		return catalog;
+	}
+
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+
+	/**
+	 * @return number of requests rejected because the queue was full
+	 */
+	public long getNumRejected() {
+		return numRejected.get();
+	}
+
+	/**
+	 * @return number of requests not answered within their deadline
+	 */
+	public long getNumTimedOut() {
+		return numTimedOut.get();
+	}
+
+	/**
+	 * Wait for a processing slot until the deadline
+	 *
+	 * @return 0 when admitted, otherwise the http status of the refusal
+	 */
+	private int admit(final long deadline) throws InterruptedException {
+		if (activeRequests.tryAcquire()) {
+			return 0;
+		}
+		if (queuedRequests.incrementAndGet() > maxQueuedRequests) {
+			queuedRequests.decrementAndGet();
+			return 503;
+		}
+		try {
+			return activeRequests.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) ? 0 : 504;
+		} finally {
+			queuedRequests.decrementAndGet();
+		}
+	}
+
+	private static Wave readWave(final byte[] body) {
+		final Wave wave = new Wave(new ByteArrayInputStream(body));
+		if (!wave.getWaveHeader().isValid()) {
+			throw new IllegalArgumentException("invalid wave");
+		}
+		return wave;
+	}
+
+	private static byte[] readFingerprint(final byte[] body, final Map<String, String> query) {
+		if ("fingerprint".equals(query.get("type"))) {
+			return body;
+		}
+		return readWave(body).getFingerprint();
+	}
+
+	private static Response json(final int status, final String json) {
+		try {
+			return new Response(status, "application/json", json.getBytes("UTF-8"));
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// {"stage":{"runs":1,"millis":0.5,"work":100},...} for the stages which ran
+	private static String explainJson(final StageStatisticsRecorder stageStatistics) {
+		final StringBuilder sb = new StringBuilder("{");
+		for (final Stage stage : Stage.values()) {
+			if (stageStatistics.getCount(stage) > 0) {
+				sb.append(sb.length() == 1 ? "" : ",").append(quote(stage.getMetricName())).append(":{\"runs\":")
+						.append(stageStatistics.getCount(stage)).append(",\"millis\":").append(stageStatistics.getTotalNanos(stage) / 1e6)
+						.append(",\"work\":").append(stageStatistics.getWorkCount(stage)).append('}');
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	private static String quote(final String value) {
+		final StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static Map<String, String> parseQuery(final String rawQuery) throws UnsupportedEncodingException {
+		final Map<String, String> query = new HashMap<String, String>();
+		if (rawQuery != null) {
+			for (final String parameter : rawQuery.split("&")) {
+				final int index = parameter.indexOf('=');
+				if (index > 0) {
+					query.put(URLDecoder.decode(parameter.substring(0, index), "UTF-8"),
+							URLDecoder.decode(parameter.substring(index + 1), "UTF-8"));
+				}
+			}
+		}
+		return query;
+	}
+
+	private static byte[] readBody(final InputStream inputStream) throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int length;
+		while ((length = inputStream.read(buffer)) > 0) {
+			outputStream.write(buffer, 0, length);
+			if (outputStream.size() > MAX_BODY_BYTES) {
+				return null;
+			}
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static class Response {
+
+		final int status;
+		final String contentType;
+		final byte[] body;
+
+		Response(final int status, final String contentType, final byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Admission, deadline and error handling of an endpoint
+	 */
+	private abstract class Endpoint implements HttpHandler {
+
+		abstract Response process(byte[] body, Map<String, String> query) throws Exception;
+
+		public void handle(final HttpExchange exchange) throws IOException {
+			numRequests.incrementAndGet();
+			Response response;
+			try {
+				response = respond(exchange);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				response = json(503, "{\"error\":\"server stopping\"}");
+			} catch (final Exception e) {
+				e.printStackTrace();
+				response = json(500, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+			}
+			if (response.status == 503) {
+				numRejected.incrementAndGet();
+			} else if (response.status == 504) {
+				numTimedOut.incrementAndGet();
+			}
+
+			try {
+				exchange.getResponseHeaders().set("Content-Type", response.contentType);
+				exchange.sendResponseHeaders(response.status, response.body.length);
+				final OutputStream outputStream = exchange.getResponseBody();
+				outputStream.write(response.body);
+				outputStream.close();
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private Response respond(final HttpExchange exchange) throws Exception {
+
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				return json(405, "{\"error\":\"POST only\"}");
+			}
+			final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			long deadlineMillis = defaultDeadlineMillis;
+			if (query.containsKey("deadline")) {
+				try {
+					deadlineMillis = Long.parseLong(query.get("deadline"));
+				} catch (final NumberFormatException e) {
+					return json(400, "{\"error\":\"invalid deadline\"}");
+				}
+			}
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+
+			final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+			if (contentLength != null) {
+				try {
+					if (Long.parseLong(contentLength.trim()) > MAX_BODY_BYTES) {
+						return json(413, "{\"error\":\"request too large\"}");
+					}
+				} catch (final NumberFormatException e) {
+					return json(400, "{\"error\":\"invalid content length\"}");
+				}
+			}
+
+			// the body is read once admitted
+			final int refusal = admit(deadline);
+			if (refusal != 0) {
+				return json(refusal, refusal == 503 ? "{\"error\":\"server busy\"}" : "{\"error\":\"deadline exceeded\"}");
+			}
+
+			// the slot is released when the processing ends, even if it outlives the deadline
+			final Future<Response> future;
+			boolean isSubmitted = false;
+			try {
+				final byte[] body = readBody(exchange.getRequestBody());
+				if (body == null) {
+					return json(413, "{\"error\":\"request too large\"}");
+				}
+				future = executor.submit(new Callable<Response>() {
+					public Response call() throws Exception {
+						try {
+							return process(body, query);
+						} finally {
+							activeRequests.release();
+						}
+					}
+				});
+				isSubmitted = true;
+			} finally {
+				if (!isSubmitted) {
+					activeRequests.release();
+				}
+			}
+
+			try {
+				return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			} catch (final TimeoutException e) {
+				future.cancel(true);
+				return json(504, "{\"error\":\"deadline exceeded\"}");
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof IllegalArgumentException) {
+					return json(400, "{\"error\":" + quote(String.valueOf(e.getCause().getMessage())) + "}");
+				}
+				e.getCause().printStackTrace();
+				return json(500, "{\"error\":" + quote(String.valueOf(e.getCause())) + "}");
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.wave;
+
+/**
+ * Decode the samples of one channel, or the downmix of all the channels, from interleaved PCM bytes
+ *
+ * 8, 16, 24 and 32 bit integer and 32 bit float samples are decoded to the scale of signed 16 bit
+ * samples, -32768 to 32767, so the thresholds of the detection apis hold for any format. 16 bit samples
+ * are decoded to the same values as Wave.getSampleAmplitudes(), deeper samples keep their precision in
+ * the fraction.
+ *
+ * @author Jacquet Wong
+ */
+public class PcmDecoder {
+
+	public static final int DOWNMIX = -1;	// channel for the average of all the channels
+
+	private int bytesPerSample;	// bytes of a sample of one channel
+	private int channels;
+	private int sampleByteSize;	// bytes of a sample of all the channels
+	private int channel;	// channel decoded, DOWNMIX for all
+	private boolean isFloat;
+
+	/**
+	 * Constructor
+	 *
+	 * @param waveHeader
+	 *            format of the bytes
+	 * @param channel
+	 *            channel to decode, from 0, or DOWNMIX
+	 */
+	public PcmDecoder(WaveHeader waveHeader, int channel) {
+		if (!waveHeader.isSupportedFormat()) {
+			throw new IllegalArgumentException("PcmDecoder: unsupported format " + waveHeader.getAudioFormat() + ", "
+					+ waveHeader.getBitsPerSample() + " bits");
+		}
+		if (channel < DOWNMIX || channel >= waveHeader.getChannels()) {
+			throw new IllegalArgumentException("PcmDecoder: no channel " + channel);
+		}
+		this.bytesPerSample = waveHeader.getBitsPerSample() / 8;
+		this.channels = waveHeader.getChannels();
+		this.sampleByteSize = bytesPerSample * channels;
+		this.channel = channels == 1 ? 0 : channel;
+		this.isFloat = waveHeader.isFloat();
+	}
+
+	/**
+	 * Decode a sample
+	 *
+	 * @param data
+	 *            interleaved little endian bytes
+	 * @param position
+	 *            position of the sample of all the channels in data
+	 * @return sample in the scale of 16 bit samples
+	 */
+	public double getSample(byte[] data, int position) {
+		if (channel != DOWNMIX) {
+			return decode(data, position + channel * bytesPerSample);
+		}
+		double sum = 0;
+		for (int c = 0; c < channels; c++) {
+			sum += decode(data, position + c * bytesPerSample);
+		}
+		return sum / channels;
+	}
+
+	/**
+	 * Decode consecutive samples
+	 *
+	 * @param data
+	 *            interleaved little endian bytes
+	 * @param position
+	 *            position of the first sample of all the channels in data
+	 * @param samples
+	 *            decoded samples, in the scale of 16 bit samples
+	 * @param samplesOffset
+	 *            position of the first decoded sample in samples
+	 * @param numSamples
+	 *            number of samples to decode
+	 */
+	public void getSamples(byte[] data, int position, double[] samples, int samplesOffset, int numSamples) {
+		if (bytesPerSample == 2 && channels == 1) {
+			// the common case, 16 bit mono
+			for (int i = 0; i < numSamples; i++) {
+				samples[samplesOffset + i] = (short) ((data[position] & 0xff) | (data[position + 1] & 0xff) << 8);
+				position += 2;
+			}
+			return;
+		}
+		for (int i = 0; i < numSamples; i++) {
+			samples[samplesOffset + i] = getSample(data, position);
+			position += sampleByteSize;
+		}
+	}
+
+	/**
+	 * Decode consecutive samples, rounded to 16 bit
+	 *
+	 * @param data
+	 *            interleaved little endian bytes
+	 * @param position
+	 *            position of the first sample of all the channels in data
+	 * @param samples
+	 *            decoded samples
+	 * @param samplesOffset
+	 *            position of the first decoded sample in samples
+	 * @param numSamples
+	 *            number of samples to decode
+	 */
+	public void getSamples(byte[] data, int position, short[] samples, int samplesOffset, int numSamples) {
+		if (bytesPerSample == 2 && channels == 1) {
+			for (int i = 0; i < numSamples; i++) {
+				samples[samplesOffset + i] = (short) ((data[position] & 0xff) | (data[position + 1] & 0xff) << 8);
+				position += 2;
+			}
+			return;
+		}
+		for (int i = 0; i < numSamples; i++) {
+			samples[samplesOffset + i] = toShort(getSample(data, position));
+			position += sampleByteSize;
+		}
+	}
+
+	/**
+	 * Round a sample to 16 bit
+	 *
+	 * @param sample
+	 *            sample in the scale of 16 bit samples
+	 * @return rounded and clipped sample
+	 */
+	public static short toShort(double sample) {
+		long rounded = Math.round(sample);
+		if (rounded > Short.MAX_VALUE) {
+			return Short.MAX_VALUE;
+		}
+		if (rounded < Short.MIN_VALUE) {
+			return Short.MIN_VALUE;
+		}
+		return (short) rounded;
+	}
+
+	// decode a sample of one channel
+	private double decode(byte[] data, int pointer) {
+		switch (bytesPerSample) {
+		case 1:
+			// 8 bit samples are unsigned
+			return ((data[pointer] & 0xff) - 128) << 8;
+		case 2:
+			return (short) ((data[pointer] & 0xff) | (data[pointer + 1] & 0xff) << 8);
+		case 3:
+			// sign extended by the shift of the most significant byte
+			return ((data[pointer] & 0xff) | (data[pointer + 1] & 0xff) << 8 | data[pointer + 2] << 16) / 256.0;
+		default:
+			int bits = (data[pointer] & 0xff) | (data[pointer + 1] & 0xff) << 8 | (data[pointer + 2] & 0xff) << 16
+					| data[pointer + 3] << 24;
+			if (isFloat) {
+				return Float.intBitsToFloat(bits) * 32768.0;
+			}
+			return bits / 65536.0;
+		}
+	}
+
+	/**
+	 * @return bytes of a sample of all the channels
+	 */
+	public int getSampleByteSize() {
+		return sampleByteSize;
+	}
+
+	/**
+	 * @return channel decoded, DOWNMIX for the average of all the channels
+	 */
+	public int getChannel() {
+		return channel;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.wave;
+
+/**
+ * Samples of one channel of a wave, or of the downmix of its channels, decoded when they are read
+ *
+ * The source is a strided view over the wave data, no sample array is made for the whole wave. Samples
+ * are in the scale of 16 bit samples whatever the format, see PcmDecoder.
+ *
+ * @author Jacquet Wong
+ */
+public class SampleSource {
+
+	private byte[] data;
+	private int dataOffset;	// position of the first sample in data
+	private int numSamples;
+	private PcmDecoder decoder;
+
+	/**
+	 * Constructor
+	 *
+	 * @param waveHeader
+	 *            format of the data
+	 * @param data
+	 *            interleaved little endian bytes
+	 * @param dataOffset
+	 *            position of the first sample in data
+	 * @param length
+	 *            number of bytes
+	 * @param channel
+	 *            channel to read, from 0, or PcmDecoder.DOWNMIX
+	 */
+	public SampleSource(WaveHeader waveHeader, byte[] data, int dataOffset, int length, int channel) {
+		this.decoder = new PcmDecoder(waveHeader, channel);
+		this.data = data;
+		this.dataOffset = dataOffset;
+		this.numSamples = length / decoder.getSampleByteSize();
+	}
+
+	/**
+	 * Get a sample
+	 *
+	 * @param index
+	 *            sample number
+	 * @return sample in the scale of 16 bit samples
+	 */
+	public double getSample(int index) {
+		return decoder.getSample(data, dataOffset + index * decoder.getSampleByteSize());
+	}
+
+	/**
+	 * Get consecutive samples
+	 *
+	 * @param fromIndex
+	 *            first sample number
+	 * @param samples
+	 *            decoded samples
+	 * @param samplesOffset
+	 *            position of the first sample in samples
+	 * @param count
+	 *            number of samples
+	 */
+	public void getSamples(int fromIndex, double[] samples, int samplesOffset, int count) {
+		decoder.getSamples(data, dataOffset + fromIndex * decoder.getSampleByteSize(), samples, samplesOffset, count);
+	}
+
+	/**
+	 * Get consecutive samples, rounded to 16 bit
+	 *
+	 * @param fromIndex
+	 *            first sample number
+	 * @param samples
+	 *            decoded samples
+	 * @param samplesOffset
+	 *            position of the first sample in samples
+	 * @param count
+	 *            number of samples
+	 */
+	public void getSamples(int fromIndex, short[] samples, int samplesOffset, int count) {
+		decoder.getSamples(data, dataOffset + fromIndex * decoder.getSampleByteSize(), samples, samplesOffset, count);
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/**
+	 * @return channel read, PcmDecoder.DOWNMIX for the average of all the channels
+	 */
+	public int getChannel() {
+		return decoder.getChannel();
+	}
+}
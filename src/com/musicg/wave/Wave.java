@@ -21,10 +21,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import com.musicg.fingerprint.FingerprintManager;
 import com.musicg.fingerprint.FingerprintSimilarity;
 import com.musicg.fingerprint.FingerprintSimilarityComputer;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
 import com.musicg.wave.extension.NormalizedSampleAmplitudes;
 import com.musicg.wave.extension.Spectrogram;
 
@@ -37,7 +41,9 @@ public class Wave implements Serializable{
 
 	private static final long serialVersionUID = 1L;
 	private WaveHeader waveHeader;
-	private byte[] data;	// little endian
+	private byte[] data;	// little endian, may be shared with other waves sliced from the same data
+	private int dataOffset;	// position of this wave in data
+	private int dataLength;	// number of bytes of this wave in data
 	private byte[] fingerprint;
 
 	/**
@@ -88,17 +94,45 @@ public class Wave implements Serializable{
 	public Wave(WaveHeader waveHeader, byte[] data) {
 		this.waveHeader = waveHeader;
 		this.data = data;
+		this.dataLength = data != null ? data.length : 0;
+	}
+
+	/**
+	 * Constructor, with a fingerprint extracted before
+	 * 
+	 * @param WaveHeader
+	 *            waveHeader
+	 * @param byte[]
+	 *            data
+	 * @param byte[]
+	 *            fingerprint of the data, null for extracting it when needed
+	 */
+	public Wave(WaveHeader waveHeader, byte[] data, byte[] fingerprint) {
+		this.waveHeader = waveHeader;
+		this.data = data;
+		this.dataLength = data != null ? data.length : 0;
+		this.fingerprint = fingerprint;
+	}
+
+	// a view over a range of the data, the data is not copied
+	private Wave(WaveHeader waveHeader, byte[] data, int dataOffset, int dataLength) {
+		this.waveHeader = waveHeader;
+		this.data = data;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
 	}
 	
 	private void initWaveWithInputStream(InputStream inputStream) {
+		long startTime = Metrics.startTimer();
+		
 		// reads the first 44 bytes for header
 		waveHeader = new WaveHeader(inputStream);
 
 		if (waveHeader.isValid()) {
 			// load data
 			try {
-				data = new byte[inputStream.available()];
-				inputStream.read(data);
+				data = readData(inputStream, waveHeader.getSubChunk2Size());
+				dataLength = data.length;
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -106,6 +140,70 @@ public class Wave implements Serializable{
 		} else {
 			System.err.println("Invalid Wave Header");
 		}
+		
+		Metrics.stopTimer(Stage.DECODE, startTime, dataLength);
+	}
+
+	// read the bytes of the data chunk only, the chunks after it (e.g. LIST, id3) are not samples
+	private static byte[] readData(InputStream inputStream, long size) throws IOException {
+		// a size of 0xFFFFFFFF is written by streaming encoders not knowing the length, read up to the end
+		long length = Math.min(size, Integer.MAX_VALUE - 8);
+		byte[] data = new byte[(int) Math.min(length, 1 << 20)];	// grown while reading, the size may be corrupt
+		int count = 0;
+		while (count < length) {
+			if (count == data.length) {
+				data = Arrays.copyOf(data, (int) Math.min(length, 2L * data.length));
+			}
+			int read = inputStream.read(data, count, data.length - count);
+			if (read < 0) {
+				if (size != 0xFFFFFFFFL) {
+					System.err.println("Wave: the data chunk is truncated");
+				}
+				break;
+			}
+			count += read;
+		}
+		return count < data.length ? Arrays.copyOf(data, count) : data;
+	}
+
+	/**
+	 * Get a part of the wave, sharing the data of this wave
+	 * The slice is a new wave with its own header, trimming either wave does not change the other
+	 * 
+	 * @param fromSample
+	 *            first sample of the slice, inclusive
+	 * @param toSample
+	 *            last sample of the slice, exclusive
+	 * @return slice of the wave
+	 */
+	public Wave slice(int fromSample, int toSample) {
+		int bytesPerSample = waveHeader.getBitsPerSample() / 8 * waveHeader.getChannels();
+		int numSamples = dataLength / bytesPerSample;
+		if (fromSample < 0 || toSample > numSamples || fromSample > toSample) {
+			throw new IllegalArgumentException("Wave: slice " + fromSample + "-" + toSample + " is out of 0-" + numSamples);
+		}
+
+		int sliceLength = (toSample - fromSample) * bytesPerSample;
+		WaveHeader sliceHeader = new WaveHeader(waveHeader);
+		sliceHeader.setChunkSize(sliceLength + 36);
+		sliceHeader.setSubChunk2Size(sliceLength);
+		return new Wave(sliceHeader, data, dataOffset + fromSample * bytesPerSample, sliceLength);
+	}
+
+	/**
+	 * Get a part of the wave, sharing the data of this wave
+	 * 
+	 * @param fromSecond
+	 *            start of the slice
+	 * @param toSecond
+	 *            end of the slice, trimmed to the end of the wave
+	 * @return slice of the wave
+	 */
+	public Wave slice(double fromSecond, double toSecond) {
+		int bytesPerSample = waveHeader.getBitsPerSample() / 8 * waveHeader.getChannels();
+		int numSamples = dataLength / bytesPerSample;
+		int sampleRate = waveHeader.getSampleRate();
+		return slice((int) Math.min(numSamples, fromSecond * sampleRate), (int) Math.min(numSamples, toSecond * sampleRate));
 	}
 
 	/**
@@ -131,17 +229,16 @@ public class Wave implements Serializable{
 		chunkSize -= totalTrimmed;
 		subChunk2Size -= totalTrimmed;
 		
-		if (chunkSize>=0 && subChunk2Size>=0){
+		if (chunkSize>=0 && subChunk2Size>=0 && leftTrimNumberOfSample+subChunk2Size<=dataLength){
 			waveHeader.setChunkSize(chunkSize);
 			waveHeader.setSubChunk2Size(subChunk2Size);
 	
-			byte[] trimmedData = new byte[(int) subChunk2Size];
-			System.arraycopy(data, (int) leftTrimNumberOfSample, trimmedData, 0,
-					(int) subChunk2Size);
-			data = trimmedData;
+			// only the range of this wave is moved, the data may be shared with slices
+			dataOffset += leftTrimNumberOfSample;
+			dataLength = (int) subChunk2Size;
 		}
 		else{
-			System.err.println("Trim error: Negative length");
+			System.err.println("Trim error: Negative length or out of the data");
 		}
 	}
 
@@ -237,22 +334,72 @@ public class Wave implements Serializable{
 		return new Spectrogram(this,fftSampleSize,overlapFactor);
 	}
 	
+	/**
+	 * Get the wave spectrogram, the frames are transformed in parallel
+	 * 
+	 * @param fftSampleSize	number of sample in fft, the value needed to be a number to power of 2
+	 * @param overlapFactor	1/overlapFactor overlapping, e.g. 1/4=25% overlapping, 0 for no overlapping
+	 * @param pool	pool to build the spectrogram
+	 * 
+	 * @return spectrogram
+	 */
+	public Spectrogram getSpectrogram(int fftSampleSize, int overlapFactor, ForkJoinPool pool) {
+		return new Spectrogram(this,fftSampleSize,overlapFactor,pool);
+	}
+	
+	/**
+	 * Get the wave spectrogram of a frequency band, only the band is computed
+	 * 
+	 * @param fftSampleSize	number of sample in fft, the value needed to be a number to power of 2
+	 * @param overlapFactor	1/overlapFactor overlapping, e.g. 1/4=25% overlapping, 0 for no overlapping
+	 * @param lowerFrequency	lowest frequency to keep in hz
+	 * @param upperFrequency	highest frequency to keep in hz
+	 * 
+	 * @return spectrogram of the band
+	 */
+	public Spectrogram getSpectrogram(int fftSampleSize, int overlapFactor, double lowerFrequency, double upperFrequency) {
+		return new Spectrogram(this,fftSampleSize,overlapFactor,lowerFrequency,upperFrequency);
+	}
+	
 	/**
 	 * Get the wave data in bytes
+	 * A sliced or trimmed wave returns a copy of its range, use getDataArray() to read it without copying
 	 * 
 	 * @return wave data
 	 */
 	public byte[] getBytes() {
+		if (data == null || (dataOffset == 0 && dataLength == data.length)) {
+			return data;
+		}
+		return Arrays.copyOfRange(data, dataOffset, dataOffset + dataLength);
+	}
+
+	/**
+	 * Get the array holding the wave data, which may be shared with other waves
+	 * The data of this wave starts at getDataOffset() and lengths size() bytes
+	 * 
+	 * @return array of the wave data
+	 */
+	public byte[] getDataArray() {
 		return data;
 	}
 
+	/**
+	 * Position of the wave data in getDataArray()
+	 * 
+	 * @return offset in bytes
+	 */
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
 	/**
 	 * Data byte size of the wave excluding header size
 	 * 
 	 * @return byte size of the wave
 	 */
 	public int size() {
-		return data.length;
+		return dataLength;
 	}
 	
 	/**
@@ -288,17 +435,49 @@ public class Wave implements Serializable{
 		return sb.toString();
 	}
 
+	/**
+	 * Get the samples of the wave, decoded when they are read
+	 * Mono waves give their only channel, others the downmix of all the channels
+	 * 
+	 * @return sample source
+	 */
+	public SampleSource getSampleSource(){
+		return getSampleSource(PcmDecoder.DOWNMIX);
+	}
+	
+	/**
+	 * Get the samples of a channel of the wave, decoded when they are read
+	 * 
+	 * @param channel
+	 *            channel from 0, or PcmDecoder.DOWNMIX for the average of all the channels
+	 * @return sample source
+	 */
+	public SampleSource getSampleSource(int channel){
+		return new SampleSource(waveHeader, data, dataOffset, dataLength, channel);
+	}
+
 	/**
 	 * Get the amplitudes of the wave samples (depends on the header)
+	 * The channels are interleaved, 24 bit, 32 bit and float samples are rounded to 16 bit
 	 * 
 	 * @return amplitudes array (signed 16-bit)
 	 */
 	public short[] getSampleAmplitudes(){
+		long startTime = Metrics.startTimer();
 		int bytePerSample = waveHeader.getBitsPerSample() / 8;
-		int numSamples = data.length / bytePerSample;
+		int numSamples = dataLength / bytePerSample;
 		short[] amplitudes = new short[numSamples];
 		
-		int pointer = 0;
+		if (bytePerSample > 2 || waveHeader.isFloat()) {
+			// decoded channel by channel, as mono samples
+			WaveHeader channelHeader = new WaveHeader(waveHeader);
+			channelHeader.setChannels(1);
+			new PcmDecoder(channelHeader, 0).getSamples(data, dataOffset, amplitudes, 0, numSamples);
+			Metrics.stopTimer(Stage.DECODE, startTime, numSamples);
+			return amplitudes;
+		}
+		
+		int pointer = dataOffset;
 		for (int i = 0; i < numSamples; i++) {
 			short amplitude = 0;
 			for (int byteNumber = 0; byteNumber < bytePerSample; byteNumber++) {
@@ -308,6 +487,7 @@ public class Wave implements Serializable{
 			amplitudes[i] = amplitude;
 		}
 		
+		Metrics.stopTimer(Stage.DECODE, startTime, numSamples);
 		return amplitudes;
 	}
 	
@@ -331,6 +511,15 @@ public class Wave implements Serializable{
 		return fingerprint;
 	}
 	
+	/**
+	 * Check if the fingerprint has been extracted, without extracting it
+	 * 
+	 * @return true if getFingerprint() returns without extracting
+	 */
+	public boolean hasFingerprint(){
+		return fingerprint!=null;
+	}
+	
 	public FingerprintSimilarity getFingerprintSimilarity(Wave wave){		
 		FingerprintSimilarityComputer fingerprintSimilarityComputer=new FingerprintSimilarityComputer(this.getFingerprint(),wave.getFingerprint());
 		return fingerprintSimilarityComputer.getFingerprintsSimilarity();
@@ -82,7 +82,7 @@ public class WaveFileManager{
 			fos.write(new byte[] { (byte) (subChunk2Size),
 					(byte) (subChunk2Size >> 8), (byte) (subChunk2Size >> 16),
 					(byte) (subChunk2Size >> 24) });
-			fos.write(wave.getBytes());
+			fos.write(wave.getDataArray(), wave.getDataOffset(), wave.size());
 			fos.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -32,6 +32,9 @@ public class WaveHeader {
 	public static final String FMT_HEADER = "fmt ";
 	public static final String DATA_HEADER = "data";
 	public static final int HEADER_BYTE_LENGTH = 44;	// 44 bytes for header
+	public static final int AUDIO_FORMAT_PCM = 1;
+	public static final int AUDIO_FORMAT_IEEE_FLOAT = 3;
+	public static final int AUDIO_FORMAT_EXTENSIBLE = 0xFFFE;
 
 	private boolean valid;
 	private String chunkId;	// 4 bytes
@@ -66,77 +69,171 @@ public class WaveHeader {
 		valid = loadHeader(inputStream);
 	}
 
+	/**
+	 * Copy constructor
+	 * 
+	 * @param waveHeader
+	 *            header to copy
+	 */
+	public WaveHeader(WaveHeader waveHeader) {
+		valid = waveHeader.valid;
+		chunkId = waveHeader.chunkId;
+		chunkSize = waveHeader.chunkSize;
+		format = waveHeader.format;
+		subChunk1Id = waveHeader.subChunk1Id;
+		subChunk1Size = waveHeader.subChunk1Size;
+		audioFormat = waveHeader.audioFormat;
+		channels = waveHeader.channels;
+		sampleRate = waveHeader.sampleRate;
+		byteRate = waveHeader.byteRate;
+		blockAlign = waveHeader.blockAlign;
+		bitsPerSample = waveHeader.bitsPerSample;
+		subChunk2Id = waveHeader.subChunk2Id;
+		subChunk2Size = waveHeader.subChunk2Size;
+	}
+
 	private boolean loadHeader(InputStream inputStream) {
 
 		byte[] headerBuffer = new byte[HEADER_BYTE_LENGTH];
 		try {
-			inputStream.read(headerBuffer);
-
-			// read header
+			// riff header
+			if (!readFully(inputStream, headerBuffer, 12)) {
+				System.err.println("WaveHeader: Unsupported header format");
+				return false;
+			}
 			int pointer = 0;
-			chunkId = new String(new byte[] { headerBuffer[pointer++],
-					headerBuffer[pointer++], headerBuffer[pointer++],
-					headerBuffer[pointer++] });
-			// little endian
-			chunkSize = (long) (headerBuffer[pointer++] & 0xff)
-					| (long) (headerBuffer[pointer++] & 0xff) << 8
-					| (long) (headerBuffer[pointer++] & 0xff) << 16
-					| (long) (headerBuffer[pointer++] & 0xff << 24);
-			format = new String(new byte[] { headerBuffer[pointer++],
-					headerBuffer[pointer++], headerBuffer[pointer++],
-					headerBuffer[pointer++] });
-			subChunk1Id = new String(new byte[] { headerBuffer[pointer++],
-					headerBuffer[pointer++], headerBuffer[pointer++],
-					headerBuffer[pointer++] });
-			subChunk1Size = (long) (headerBuffer[pointer++] & 0xff)
-					| (long) (headerBuffer[pointer++] & 0xff) << 8
-					| (long) (headerBuffer[pointer++] & 0xff) << 16
-					| (long) (headerBuffer[pointer++] & 0xff) << 24;
-			audioFormat = (int) ((headerBuffer[pointer++] & 0xff) | (headerBuffer[pointer++] & 0xff) << 8);
-			channels = (int) ((headerBuffer[pointer++] & 0xff) | (headerBuffer[pointer++] & 0xff) << 8);
-			sampleRate = (long) (headerBuffer[pointer++] & 0xff)
-					| (long) (headerBuffer[pointer++] & 0xff) << 8
-					| (long) (headerBuffer[pointer++] & 0xff) << 16
-					| (long) (headerBuffer[pointer++] & 0xff) << 24;
-			byteRate = (long) (headerBuffer[pointer++] & 0xff)
-					| (long) (headerBuffer[pointer++] & 0xff) << 8
-					| (long) (headerBuffer[pointer++] & 0xff) << 16
-					| (long) (headerBuffer[pointer++] & 0xff) << 24;
-			blockAlign = (int) ((headerBuffer[pointer++] & 0xff) | (headerBuffer[pointer++] & 0xff) << 8);
-			bitsPerSample = (int) ((headerBuffer[pointer++] & 0xff) | (headerBuffer[pointer++] & 0xff) << 8);
-			subChunk2Id = new String(new byte[] { headerBuffer[pointer++],
-					headerBuffer[pointer++], headerBuffer[pointer++],
-					headerBuffer[pointer++] });
-			subChunk2Size = (long) (headerBuffer[pointer++] & 0xff)
-					| (long) (headerBuffer[pointer++] & 0xff) << 8
-					| (long) (headerBuffer[pointer++] & 0xff) << 16
-					| (long) (headerBuffer[pointer++] & 0xff) << 24;
-			// end read header
+			chunkId = new String(headerBuffer, pointer, 4, "US-ASCII");
+			chunkSize = getUnsignedInt(headerBuffer, pointer + 4);
+			format = new String(headerBuffer, pointer + 8, 4, "US-ASCII");
+			if (!chunkId.toUpperCase().equals(RIFF_HEADER) || !format.toUpperCase().equals(WAVE_HEADER)) {
+				System.err.println("WaveHeader: Unsupported header format");
+				return false;
+			}
 
-			// the inputStream should be closed outside this method
+			// walk the chunks up to the data chunk, the fmt chunk can be longer than 16 bytes
+			// (WAVE_FORMAT_EXTENSIBLE) and other chunks (e.g. LIST) can be before the data
+			boolean hasFormat = false;
+			while (true) {
+				if (!readFully(inputStream, headerBuffer, 8)) {
+					System.err.println("WaveHeader: no data chunk");
+					return false;
+				}
+				String id = new String(headerBuffer, 0, 4, "US-ASCII");
+				long size = getUnsignedInt(headerBuffer, 4);
+
+				if (id.equals(DATA_HEADER)) {
+					subChunk2Id = id;
+					subChunk2Size = size;
+					break;
+				}
+
+				long skipSize = size + (size & 1);	// chunks are word aligned
+				if (id.equals(FMT_HEADER) && size >= 16) {
+					byte[] fmtBuffer = new byte[(int) Math.min(size, 40)];
+					if (!readFully(inputStream, fmtBuffer, fmtBuffer.length)) {
+						return false;
+					}
+					skipSize -= fmtBuffer.length;
+					subChunk1Id = id;
+					// only the 16 bytes of the basic fmt chunk are kept, like the header written by WaveFileManager
+					subChunk1Size = 16;
+					audioFormat = getUnsignedShort(fmtBuffer, 0);
+					channels = getUnsignedShort(fmtBuffer, 2);
+					sampleRate = getUnsignedInt(fmtBuffer, 4);
+					byteRate = getUnsignedInt(fmtBuffer, 8);
+					blockAlign = getUnsignedShort(fmtBuffer, 12);
+					bitsPerSample = getUnsignedShort(fmtBuffer, 14);
+					if (audioFormat == AUDIO_FORMAT_EXTENSIBLE && fmtBuffer.length >= 26) {
+						// the format is the first 2 bytes of the sub format guid
+						audioFormat = getUnsignedShort(fmtBuffer, 24);
+					}
+					hasFormat = true;
+				}
+				while (skipSize > 0) {
+					long skipped = inputStream.skip(skipSize);
+					if (skipped <= 0) {
+						if (inputStream.read() < 0) {
+							System.err.println("WaveHeader: no data chunk");
+							return false;
+						}
+						skipped = 1;
+					}
+					skipSize -= skipped;
+				}
+			}
+			if (!hasFormat) {
+				System.err.println("WaveHeader: no fmt chunk");
+				return false;
+			}
 
-			// dis.close();
+			// the inputStream should be closed outside this method
 
 		} catch (IOException e) {
 			e.printStackTrace();
 			return false;
 		}
 
-		if (bitsPerSample!=8 && bitsPerSample!=16){
-			System.err.println("WaveHeader: only supports bitsPerSample 8 or 16");			
+		if (!isSupportedFormat()) {
+			System.err.println("WaveHeader: only supports 8, 16, 24 or 32 bit PCM and 32 bit float");
 			return false;
 		}
-		
-		// check the format is support
-		if (chunkId.toUpperCase().equals(RIFF_HEADER)
-				&& format.toUpperCase().equals(WAVE_HEADER) && audioFormat == 1) {
-			return true;
+		if (channels < 1) {
+			System.err.println("WaveHeader: Unsupported header format");
+			return false;
 		}
-		else{
-			System.err.println("WaveHeader: Unsupported header format");	
+
+		return true;
+	}
+
+	private static boolean readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+		int count = 0;
+		while (count < length) {
+			int read = inputStream.read(buffer, count, length - count);
+			if (read < 0) {
+				return false;
+			}
+			count += read;
+		}
+		return true;
+	}
+
+	// little endian
+	private static int getUnsignedShort(byte[] buffer, int pointer) {
+		return (buffer[pointer] & 0xff) | (buffer[pointer + 1] & 0xff) << 8;
+	}
+
+	// little endian
+	private static long getUnsignedInt(byte[] buffer, int pointer) {
+		return (long) (buffer[pointer] & 0xff) | (long) (buffer[pointer + 1] & 0xff) << 8
+				| (long) (buffer[pointer + 2] & 0xff) << 16 | (long) (buffer[pointer + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * Check if the samples can be read, 8, 16, 24 or 32 bit PCM or 32 bit float
+	 * 
+	 * @return true if the format is supported
+	 */
+	public boolean isSupportedFormat() {
+		if (audioFormat == AUDIO_FORMAT_PCM) {
+			return bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32;
 		}
+		return audioFormat == AUDIO_FORMAT_IEEE_FLOAT && bitsPerSample == 32;
+	}
+
+	/**
+	 * @return true for float samples, false for integer samples
+	 */
+	public boolean isFloat() {
+		return audioFormat == AUDIO_FORMAT_IEEE_FLOAT;
+	}
 
-		return false;
+	/**
+	 * Byte size of a sample of all the channels
+	 * 
+	 * @return bytes per sample times the number of channels
+	 */
+	public int getSampleByteSize() {
+		return bitsPerSample / 8 * channels;
 	}
 
 	public boolean isValid() {
@@ -1,9 +1,6 @@
 package com.musicg.wave;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-
+import com.musicg.api.SoundEventDetector;
 import com.musicg.api.WhistleApi;
 
 public class WaveTypeDetector {
@@ -16,67 +13,24 @@ public class WaveTypeDetector {
 
 	public double getWhistleProbability() {
 
-		double probability = 0;
-
 		WaveHeader wavHeader = wave.getWaveHeader();
 
 		// fft size 1024, no overlap
 		int fftSampleSize = 1024;
-		int fftSignalByteLength = fftSampleSize * wavHeader.getBitsPerSample() / 8;
-		byte[] audioBytes = wave.getBytes();
-		ByteArrayInputStream inputStream = new ByteArrayInputStream(audioBytes);
-
-		WhistleApi whistleApi = new WhistleApi(wavHeader);
-
-		// read the byte signals
-		try {
-			int numFrames = inputStream.available() / fftSignalByteLength;
-			byte[] bytes = new byte[fftSignalByteLength];
-			int checkLength = 3;
-			int passScore = 3;
-
-			ArrayList<Boolean> bufferList = new ArrayList<Boolean>();
-			int numWhistles = 0;
-			int numPasses = 0;
-
-			// first 10(checkLength) frames
-			for (int frameNumber = 0; frameNumber < checkLength; frameNumber++) {
-				inputStream.read(bytes);
-				boolean isWhistle = whistleApi.isWhistle(bytes);
-				bufferList.add(isWhistle);
-				if (isWhistle) {
-					numWhistles++;
-				}
-				if (numWhistles >= passScore) {
-					numPasses++;
-				}
-				// System.out.println(frameNumber+": "+numWhistles);
-			}
-
-			// other frames
-			for (int frameNumber = checkLength; frameNumber < numFrames; frameNumber++) {
-				inputStream.read(bytes);
-				boolean isWhistle = whistleApi.isWhistle(bytes);
-				if (bufferList.get(0)) {
-					numWhistles--;
-				}
-				bufferList.remove(0);
-				bufferList.add(isWhistle);
-
-				if (isWhistle) {
-					numWhistles++;
-				}
-				if (numWhistles >= passScore) {
-					numPasses++;
-				}
-				// System.out.println(frameNumber+": "+numWhistles);
-			}
-			probability = (double) numPasses / numFrames;
-
-		} catch (IOException e) {
-			e.printStackTrace();
+		int fftSignalByteLength = fftSampleSize * wavHeader.getSampleByteSize();
+		byte[] audioBytes = wave.getDataArray();
+		int dataOffset = wave.getDataOffset();
+		int numFrames = wave.size() / fftSignalByteLength;
+
+		// a frame passes when 3 of the last 3 frames are whistles
+		int checkLength = 3;
+		int passScore = 3;
+		SoundEventDetector detector = new SoundEventDetector(new WhistleApi(wavHeader), fftSampleSize, checkLength, passScore);
+
+		for (int frameNumber = 0; frameNumber < numFrames; frameNumber++) {
+			detector.process(audioBytes, dataOffset + frameNumber * fftSignalByteLength);
 		}
 
-		return probability;
+		return detector.getProbability();
 	}
-}
\ No newline at end of file
+}
@@ -51,7 +51,8 @@ public class NormalizedSampleAmplitudes{
 			
 			short[] amplitudes=wave.getSampleAmplitudes();
 			int numSamples = amplitudes.length;
-			int maxAmplitude = 1 << (wave.getWaveHeader().getBitsPerSample() - 1);
+			// deeper samples are rounded to 16 bit by getSampleAmplitudes()
+			int maxAmplitude = 1 << (Math.min(wave.getWaveHeader().getBitsPerSample(), 16) - 1);
 			
 			if (!signed){	// one more bit for unsigned value
 				maxAmplitude<<=1;
@@ -16,8 +16,16 @@
 
 package com.musicg.wave.extension;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import com.musicg.dsp.BandLimitedTransform;
 import com.musicg.dsp.FastFourierTransform;
 import com.musicg.dsp.WindowFunction;
+import com.musicg.metrics.Metrics;
+import com.musicg.metrics.Stage;
+import com.musicg.wave.SampleSource;
 import com.musicg.wave.Wave;
 
 /**
@@ -29,16 +37,21 @@ public class Spectrogram{
 	
 	public static final int SPECTROGRAM_DEFAULT_FFT_SAMPLE_SIZE = 1024;
 	public static final int SPECTROGRAM_DEFAULT_OVERLAP_FACTOR = 0;	// 0 for no overlapping
+	public static final int PARALLEL_MIN_FRAMES_PER_TASK = 16;	// frames computed by one task at least, smaller chunks are not worth forking
 	
 	private Wave wave;
-	private double[][] spectrogram;	// relative spectrogram
-	private double[][] absoluteSpectrogram;	// absolute spectrogram
+	private SpectrogramMatrix spectrogram;	// relative spectrogram, computed on first access
+	private SpectrogramMatrix absoluteSpectrogram;	// absolute spectrogram, null after normalizeInPlace()
 	private int fftSampleSize;	// number of sample in fft, the value needed to be a number to power of 2
 	private int overlapFactor;	// 1/overlapFactor overlapping, e.g. 1/4=25% overlapping
+	private int hopSize;	// number of samples between the starts of two frames
 	private int numFrames;	// number of frames of the spectrogram
 	private int framesPerSecond;	// frame per second of the spectrogram
 	private int numFrequencyUnit;	// number of y-axis unit
 	private double unitFrequency;	// frequency per y-axis unit
+	private int firstFrequencyUnit;	// frequency unit of y=0, non-zero when only a band is kept
+	private double lowerFrequency, upperFrequency;	// band to keep in hz, upperFrequency<0 for the whole spectrum
+	private ForkJoinPool pool;	// pool for the parallel build, null for building in the calling thread
 
 	/**
 	 * Constructor
@@ -46,11 +59,7 @@ public class Spectrogram{
 	 * @param wave
 	 */
 	public Spectrogram(Wave wave) {
-		this.wave=wave;
-		// default
-		this.fftSampleSize=SPECTROGRAM_DEFAULT_FFT_SAMPLE_SIZE;
-		this.overlapFactor=SPECTROGRAM_DEFAULT_OVERLAP_FACTOR;
-		buildSpectrogram();
+		this(wave,SPECTROGRAM_DEFAULT_FFT_SAMPLE_SIZE,SPECTROGRAM_DEFAULT_OVERLAP_FACTOR);
 	}
 	
 	/**
@@ -61,6 +70,51 @@ public class Spectrogram{
 	 * @param overlapFactor	1/overlapFactor overlapping, e.g. 1/4=25% overlapping, 0 for no overlapping
 	 */
 	public Spectrogram(Wave wave, int fftSampleSize, int overlapFactor) {
+		this(wave,fftSampleSize,overlapFactor,null);
+	}
+	
+	/**
+	 * Constructor, frames are transformed in parallel in the given pool
+	 * 
+	 * The result is identical to the sequential build, it only reduces the latency of a single long wave.
+	 * 
+	 * @param wave
+	 * @param fftSampleSize	number of sample in fft, the value needed to be a number to power of 2
+	 * @param overlapFactor	1/overlapFactor overlapping, e.g. 1/4=25% overlapping, 0 for no overlapping
+	 * @param pool	pool to run the frame transforms and the normalization, null for building in the calling thread
+	 */
+	public Spectrogram(Wave wave, int fftSampleSize, int overlapFactor, ForkJoinPool pool) {
+		this(wave,fftSampleSize,overlapFactor,0,-1,pool);
+	}
+	
+	/**
+	 * Constructor, only the frequency units within a band are kept
+	 * 
+	 * The y-axis of the spectrogram starts from getFirstFrequencyUnit(), and the normalization only
+	 * considers the intensities inside the band. Only the band is transformed, by Goertzel filters or a
+	 * pruned fft depending on the band width (see BandLimitedTransform).
+	 * 
+	 * @param wave
+	 * @param fftSampleSize	number of sample in fft, the value needed to be a number to power of 2
+	 * @param overlapFactor	1/overlapFactor overlapping, e.g. 1/4=25% overlapping, 0 for no overlapping
+	 * @param lowerFrequency	lowest frequency to keep in hz
+	 * @param upperFrequency	highest frequency to keep in hz
+	 */
+	public Spectrogram(Wave wave, int fftSampleSize, int overlapFactor, double lowerFrequency, double upperFrequency) {
+		this(wave,fftSampleSize,overlapFactor,lowerFrequency,upperFrequency,null);
+	}
+	
+	/**
+	 * Constructor, only the frequency units within a band are kept, frames are transformed in parallel in the given pool
+	 * 
+	 * @param wave
+	 * @param fftSampleSize	number of sample in fft, the value needed to be a number to power of 2
+	 * @param overlapFactor	1/overlapFactor overlapping, e.g. 1/4=25% overlapping, 0 for no overlapping
+	 * @param lowerFrequency	lowest frequency to keep in hz
+	 * @param upperFrequency	highest frequency to keep in hz, negative for the whole spectrum
+	 * @param pool	pool to run the frame transforms and the normalization, null for building in the calling thread
+	 */
+	public Spectrogram(Wave wave, int fftSampleSize, int overlapFactor, double lowerFrequency, double upperFrequency, ForkJoinPool pool) {
 		this.wave=wave;
 		
 		if (Integer.bitCount(fftSampleSize)==1){
@@ -72,6 +126,17 @@ public class Spectrogram{
 		}
 
 		this.overlapFactor=overlapFactor;
+		this.pool=pool;
+		
+		if (upperFrequency>=0 && lowerFrequency>upperFrequency){
+			System.err.println("Spectrogram: lowerFrequency is higher than upperFrequency, the whole spectrum is kept");
+			this.lowerFrequency=0;
+			this.upperFrequency=-1;
+		}
+		else{
+			this.lowerFrequency=Math.max(lowerFrequency,0);
+			this.upperFrequency=upperFrequency;
+		}
 		
 		buildSpectrogram();
 	}
@@ -81,26 +146,16 @@ public class Spectrogram{
 	 */
 	private void buildSpectrogram(){
 
-		short[] amplitudes=wave.getSampleAmplitudes();
-		int numSamples = amplitudes.length;
+		// the samples are decoded frame by frame, mono or the downmix of the channels
+		SampleSource source=wave.getSampleSource();
+		int numSamples=source.getNumSamples();
+		long startTime=Metrics.startTimer();
 		
-		int pointer=0;
-		// overlapping
+		// overlapping, each frame starts hopSize samples after the previous one
+		hopSize=fftSampleSize;
 		if (overlapFactor>1){
-			int numOverlappedSamples=numSamples*overlapFactor;
-			int backSamples=fftSampleSize*(overlapFactor-1)/overlapFactor;
-			int fftSampleSize_1=fftSampleSize-1;
-			short[] overlapAmp= new short[numOverlappedSamples];
-			pointer=0;
-			for (int i=0; i<amplitudes.length; i++){
-				overlapAmp[pointer++]=amplitudes[i];
-				if (pointer%fftSampleSize==fftSampleSize_1){
-					// overlap
-					i-=backSamples;
-				}
-			}
-			numSamples=numOverlappedSamples;
-			amplitudes=overlapAmp;
+			numSamples*=overlapFactor;
+			hopSize=fftSampleSize-fftSampleSize*(overlapFactor-1)/overlapFactor;
 		}
 		// end overlapping
 			
@@ -111,86 +166,395 @@ public class Spectrogram{
 		WindowFunction window = new WindowFunction();
 		window.setWindowType("Hamming");
 		double[] win=window.generate(fftSampleSize);
+		// end set signals for fft
+		
+		if (numFrames>0){
+			
+			int numAllFrequencyUnit=FastFourierTransform.getNumMagnitudes(fftSampleSize);
+			unitFrequency=(double)wave.getWaveHeader().getSampleRate()/2/numAllFrequencyUnit;	// frequency could be caught within the half of nSamples according to Nyquist theory
+			
+			// set band
+			firstFrequencyUnit=0;
+			numFrequencyUnit=numAllFrequencyUnit;
+			if (upperFrequency>=0){
+				firstFrequencyUnit=Math.min((int)(lowerFrequency/unitFrequency),numAllFrequencyUnit-1);
+				int lastFrequencyUnit=Math.min((int)(upperFrequency/unitFrequency),numAllFrequencyUnit-1);
+				numFrequencyUnit=lastFrequencyUnit-firstFrequencyUnit+1;
+			}
+			// end set band
+			
+			absoluteSpectrogram=new SpectrogramMatrix(numFrames,numFrequencyUnit);
+			
+			if (pool==null || numFrames<PARALLEL_MIN_FRAMES_PER_TASK*2){
+				// for each frame in signals, do fft on it
+				computeFrames(source,win,0,numFrames,new FrameWorker());
+			}
+			else{
+				int framesPerTask=Math.max(PARALLEL_MIN_FRAMES_PER_TASK,numFrames/(pool.getParallelism()*4));
+				pool.invoke(new FrameTask(source,win,0,numFrames,framesPerTask,new ThreadLocal<FrameWorker>()));
+			}
+		}
+		Metrics.stopTimer(Stage.STFT,startTime,numFrames);
+	}
 	
-		double[][] signals=new double[numFrames][];
-		for(int f=0; f<numFrames; f++) {
-			signals[f]=new double[fftSampleSize];
-			int startSample=f*fftSampleSize;
+	/**
+	 * Transform the frames [fromFrame,toFrame) into the absolute spectrogram
+	 */
+	private void computeFrames(SampleSource source, double[] win, int fromFrame, int toFrame, FrameWorker worker){
+		double[] signal=worker.signal;
+		double[] absoluteData=absoluteSpectrogram.getArray();
+		for (int f=fromFrame; f<toFrame; f++){
+			if (overlapFactor>1){
+				readOverlappedFrame(source,f,signal);
+			}
+			else{
+				source.getSamples(f*fftSampleSize,signal,0,fftSampleSize);
+			}
 			for (int n=0; n<fftSampleSize; n++){
-				signals[f][n]=amplitudes[startSample+n]*win[n];							
+				signal[n]*=win[n];
+			}
+			if (worker.band==null){
+				worker.fft.getMagnitudes(signal,absoluteData,absoluteSpectrogram.index(f,0));
+			}
+			else{
+				// transform the band only
+				worker.band.getMagnitudes(signal,absoluteData,absoluteSpectrogram.index(f,0));
 			}
 		}
-		// end set signals for fft
+	}
+	
+	/**
+	 * Read the samples of an overlapped frame
+	 * The frames are taken from the samples laid out in segments of fftSampleSize samples, each segment
+	 * starting hopSize samples after the previous one (the first one is one sample shorter), frame f
+	 * covering the end of segment f and the first sample of segment f+1. The layout stops at the segment
+	 * reaching the last sample, later samples are zeros.
+	 */
+	private void readOverlappedFrame(SampleSource source, int f, double[] signal){
+		int numSamples=source.getNumSamples();
+		int fftSampleSize_1=fftSampleSize-1;
+		
+		// samples hopSize*f to hopSize*f+fftSampleSize-2, in segment f
+		int count=0;
+		if (isSegmentReached(f,numSamples)){
+			count=Math.max(0,Math.min(fftSampleSize_1,numSamples-hopSize*f));
+			source.getSamples(hopSize*f,signal,0,count);
+		}
+		for (int n=count; n<fftSampleSize_1; n++){
+			signal[n]=0;
+		}
+		
+		// first sample of segment f+1
+		int lastSample=hopSize*(f+1)-1;
+		signal[fftSampleSize_1]=isSegmentReached(f+1,numSamples) && lastSample<numSamples ? source.getSample(lastSample) : 0;
+	}
+	
+	// segment j is laid out if the previous segment, ending at sample hopSize*(j-1)+fftSampleSize-2, is complete
+	private boolean isSegmentReached(int j, int numSamples){
+		return j==0 || (long)hopSize*(j-1)+fftSampleSize-2<numSamples;
+	}
+	
+	/**
+	 * Logarithm normalization of a spectrogram, the values are mapped to 0~1 by their perceptual difference
+	 * from the minimum amplitude. The source and the target can be the same matrix.
+	 * 
+	 * @param source	absolute spectrogram
+	 * @param target	matrix to store the normalized spectrogram, same size as the source
+	 */
+	public static void normalize(SpectrogramMatrix source, SpectrogramMatrix target){
+		double[] maxMin=findMaxMin(source,0,source.getNumRows());
+		normalize(source,target,maxMin,0,source.getNumRows());
+	}
+	
+	/**
+	 * Logarithm normalization of a single spectrum, the same as normalizing a spectrogram of one frame.
+	 * Nothing is allocated, the source and the target can be the same array.
+	 * 
+	 * @param source	absolute spectrum
+	 * @param target	array to store the normalized spectrum
+	 * @param length	number of frequency units to normalize
+	 */
+	public static void normalize(double[] source, double[] target, int length){
+		
+		// set max and min amplitudes
+		double maxAmp=Double.MIN_VALUE;
+		double minAmp=Double.MAX_VALUE;
+		for (int j=0; j<length; j++){
+			double amp=source[j];
+			if (amp>maxAmp){
+				maxAmp=amp;
+			}
+			else if(amp<minAmp){
+				minAmp=amp;
+			}
+		}
+		// end set max and min amplitudes
+		
+		// normalization
+		// avoiding divided by zero 
+		double minValidAmp=0.00000000001F;
+		if (minAmp==0){
+			minAmp=minValidAmp;
+		}
+		
+		double diff=Math.log10(maxAmp/minAmp);	// perceptual difference
+		for (int j=0; j<length; j++){
+			double amp=source[j];
+			if (amp<minValidAmp){
+				target[j]=0;
+			}
+			else{
+				target[j]=(Math.log10(amp/minAmp))/diff;
+			}
+		}
+		// end normalization
+	}
+	
+	/**
+	 * Logarithm normalization of a spectrogram, the rows are processed in parallel in the given pool
+	 * 
+	 * @param source	absolute spectrogram
+	 * @param target	matrix to store the normalized spectrogram, same size as the source
+	 * @param pool	pool to run the normalization, null for normalizing in the calling thread
+	 */
+	public static void normalize(SpectrogramMatrix source, SpectrogramMatrix target, ForkJoinPool pool){
+		int numRows=source.getNumRows();
+		if (pool==null || numRows<PARALLEL_MIN_FRAMES_PER_TASK*2){
+			normalize(source,target);
+			return;
+		}
+		int rowsPerTask=Math.max(PARALLEL_MIN_FRAMES_PER_TASK,numRows/(pool.getParallelism()*4));
+		double[] maxMin=pool.invoke(new MaxMinTask(source,0,numRows,rowsPerTask));
+		pool.invoke(new NormalizeTask(source,target,maxMin,0,numRows,rowsPerTask));
+	}
+	
+	// maxMin[0]=max amplitude, maxMin[1]=min amplitude, maxMin[2]=first amplitude which raised the max (NaN if none)
+	// the min skips the amplitudes which raised the running max, the same as a single scan from the first row
+	private static double[] findMaxMin(SpectrogramMatrix source, int fromRow, int toRow){
+		
+		int numColumns=source.getNumColumns();
+		
+		// set max and min amplitudes
+		double maxAmp=Double.MIN_VALUE;
+		double minAmp=Double.MAX_VALUE;	
+		double firstMaxAmp=Double.NaN;
+		for (int i=fromRow; i<toRow; i++){
+			for (int j=0; j<numColumns; j++){
+				double amp=source.get(i,j);
+				if (amp>maxAmp){
+					maxAmp=amp;
+					if (Double.isNaN(firstMaxAmp)){
+						firstMaxAmp=amp;
+					}
+				}
+				else if(amp<minAmp){
+					minAmp=amp;
+				}
+			}
+		}
+		// end set max and min amplitudes
+		
+		return new double[]{maxAmp,minAmp,firstMaxAmp};
+	}
+	
+	// combine the results of two consecutive row ranges
+	private static double[] mergeMaxMin(double[] left, double[] right){
+		double maxAmp=Math.max(left[0],right[0]);
+		double minAmp=Math.min(left[1],right[1]);
+		// the right range started from its own running max, its first raise is not a raise after the left range
+		if (!Double.isNaN(right[2]) && right[2]<=left[0] && right[2]<minAmp){
+			minAmp=right[2];
+		}
+		double firstMaxAmp=Double.isNaN(left[2]) ? right[2] : left[2];
+		return new double[]{maxAmp,minAmp,firstMaxAmp};
+	}
+	
+	private static void normalize(SpectrogramMatrix source, SpectrogramMatrix target, double[] maxMin, int fromRow, int toRow){
+		
+		int numColumns=source.getNumColumns();
+		double maxAmp=maxMin[0];
+		double minAmp=maxMin[1];
 			
-		absoluteSpectrogram=new double[numFrames][];
-		// for each frame in signals, do fft on it
-		FastFourierTransform fft = new FastFourierTransform();
-		for (int i=0; i<numFrames; i++){			
-			absoluteSpectrogram[i]=fft.getMagnitudes(signals[i]);
+		// normalization
+		// avoiding divided by zero 
+		double minValidAmp=0.00000000001F;
+		if (minAmp==0){
+			minAmp=minValidAmp;
 		}
 			
-		if (absoluteSpectrogram.length>0){
-				
-			numFrequencyUnit=absoluteSpectrogram[0].length;
-			unitFrequency=(double)wave.getWaveHeader().getSampleRate()/2/numFrequencyUnit;	// frequency could be caught within the half of nSamples according to Nyquist theory
-					
-			// normalization of absoultSpectrogram
-			spectrogram=new double[numFrames][numFrequencyUnit];
-				
-			// set max and min amplitudes
-			double maxAmp=Double.MIN_VALUE;
-		    double minAmp=Double.MAX_VALUE;	
-			for (int i=0; i<numFrames; i++){
-				for (int j=0; j<numFrequencyUnit; j++){
-					if (absoluteSpectrogram[i][j]>maxAmp){
-						maxAmp=absoluteSpectrogram[i][j];
-					}
-					else if(absoluteSpectrogram[i][j]<minAmp){
-						minAmp=absoluteSpectrogram[i][j];
-					}
+		double diff=Math.log10(maxAmp/minAmp);	// perceptual difference
+		for (int i=fromRow; i<toRow; i++){
+			for (int j=0; j<numColumns; j++){
+				double amp=source.get(i,j);
+				if (amp<minValidAmp){
+					target.set(i,j,0);
+				}
+				else{
+					target.set(i,j,(Math.log10(amp/minAmp))/diff);
 				}
 			}
-			// end set max and min amplitudes
-				
-			// normalization
-			// avoiding divided by zero 
-			double minValidAmp=0.00000000001F;
-			if (minAmp==0){
-				minAmp=minValidAmp;
-			}
-				
-			double diff=Math.log10(maxAmp/minAmp);	// perceptual difference
-			for (int i=0; i<numFrames; i++){
-				for (int j=0; j<numFrequencyUnit; j++){
-					if (absoluteSpectrogram[i][j]<minValidAmp){
-						spectrogram[i][j]=0;
-					}
-					else{
-						spectrogram[i][j]=(Math.log10(absoluteSpectrogram[i][j]/minAmp))/diff;
-					}
+		}
+		// end normalization
+	}
+	
+	// fft plan and buffers owned by one thread
+	private class FrameWorker{
+		private final FastFourierTransform fft=new FastFourierTransform();
+		private final double[] signal=new double[fftSampleSize];
+		private final BandLimitedTransform band=numFrequencyUnit<FastFourierTransform.getNumMagnitudes(fftSampleSize) ? new BandLimitedTransform(fftSampleSize,firstFrequencyUnit,numFrequencyUnit) : null;	// null when the whole spectrum is kept
+	}
+	
+	private class FrameTask extends RecursiveAction{
+		
+		private static final long serialVersionUID = 1L;
+		private final SampleSource source;
+		private final double[] win;
+		private final int fromFrame, toFrame, framesPerTask;
+		private final ThreadLocal<FrameWorker> workers;
+		
+		FrameTask(SampleSource source, double[] win, int fromFrame, int toFrame, int framesPerTask, ThreadLocal<FrameWorker> workers){
+			this.source=source;
+			this.win=win;
+			this.fromFrame=fromFrame;
+			this.toFrame=toFrame;
+			this.framesPerTask=framesPerTask;
+			this.workers=workers;
+		}
+		
+		protected void compute(){
+			if (toFrame-fromFrame<=framesPerTask){
+				FrameWorker worker=workers.get();
+				if (worker==null){
+					worker=new FrameWorker();
+					workers.set(worker);
 				}
+				computeFrames(source,win,fromFrame,toFrame,worker);
+			}
+			else{
+				int midFrame=(fromFrame+toFrame)>>>1;
+				invokeAll(new FrameTask(source,win,fromFrame,midFrame,framesPerTask,workers),
+						new FrameTask(source,win,midFrame,toFrame,framesPerTask,workers));
+			}
+		}
+	}
+	
+	private static class MaxMinTask extends RecursiveTask<double[]>{
+		
+		private static final long serialVersionUID = 1L;
+		private final SpectrogramMatrix source;
+		private final int fromRow, toRow, rowsPerTask;
+		
+		MaxMinTask(SpectrogramMatrix source, int fromRow, int toRow, int rowsPerTask){
+			this.source=source;
+			this.fromRow=fromRow;
+			this.toRow=toRow;
+			this.rowsPerTask=rowsPerTask;
+		}
+		
+		protected double[] compute(){
+			if (toRow-fromRow<=rowsPerTask){
+				return findMaxMin(source,fromRow,toRow);
+			}
+			int midRow=(fromRow+toRow)>>>1;
+			MaxMinTask left=new MaxMinTask(source,fromRow,midRow,rowsPerTask);
+			left.fork();
+			double[] right=new MaxMinTask(source,midRow,toRow,rowsPerTask).compute();
+			return mergeMaxMin(left.join(),right);
+		}
+	}
+	
+	private static class NormalizeTask extends RecursiveAction{
+		
+		private static final long serialVersionUID = 1L;
+		private final SpectrogramMatrix source, target;
+		private final double[] maxMin;
+		private final int fromRow, toRow, rowsPerTask;
+		
+		NormalizeTask(SpectrogramMatrix source, SpectrogramMatrix target, double[] maxMin, int fromRow, int toRow, int rowsPerTask){
+			this.source=source;
+			this.target=target;
+			this.maxMin=maxMin;
+			this.fromRow=fromRow;
+			this.toRow=toRow;
+			this.rowsPerTask=rowsPerTask;
+		}
+		
+		protected void compute(){
+			if (toRow-fromRow<=rowsPerTask){
+				normalize(source,target,maxMin,fromRow,toRow);
+			}
+			else{
+				int midRow=(fromRow+toRow)>>>1;
+				invokeAll(new NormalizeTask(source,target,maxMin,fromRow,midRow,rowsPerTask),
+						new NormalizeTask(source,target,maxMin,midRow,toRow,rowsPerTask));
 			}
-			// end normalization
 		}
 	}
 	
 	/**
 	 * Get spectrogram: spectrogram[time][frequency]=intensity
+	 * The normalization is done on the first call
 	 * 
 	 * @return	logarithm normalized spectrogram
 	 */
-	public double[][] getNormalizedSpectrogramData(){
+	public SpectrogramMatrix getNormalizedSpectrogramMatrix(){
+		if (spectrogram==null && absoluteSpectrogram!=null){
+			SpectrogramMatrix normalizedSpectrogram=new SpectrogramMatrix(numFrames,numFrequencyUnit);
+			normalize(absoluteSpectrogram,normalizedSpectrogram,pool);
+			spectrogram=normalizedSpectrogram;
+		}
 		return spectrogram;
 	}
 	
 	/**
 	 * Get spectrogram: spectrogram[time][frequency]=intensity
 	 * 
-	 * @return	absolute spectrogram
+	 * @return	absolute spectrogram, null if the wave has no frame or the spectrogram was normalized in place
 	 */
-	public double[][] getAbsoluteSpectrogramData(){
+	public SpectrogramMatrix getAbsoluteSpectrogramMatrix(){
 		return absoluteSpectrogram;
 	}
+	
+	/**
+	 * Normalize the absolute spectrogram in its own storage, so no second matrix is allocated
+	 * The absolute spectrogram is no longer available afterwards, getAbsoluteSpectrogramMatrix() returns null
+	 * and getAbsoluteSpectrogramData() throws an IllegalStateException
+	 */
+	public void normalizeInPlace(){
+		if (spectrogram==null && absoluteSpectrogram!=null){
+			normalize(absoluteSpectrogram,absoluteSpectrogram,pool);
+			spectrogram=absoluteSpectrogram;
+		}
+		absoluteSpectrogram=null;
+	}
+	
+	/**
+	 * Get a copy of the spectrogram: spectrogram[time][frequency]=intensity
+	 * 
+	 * @return	logarithm normalized spectrogram
+	 * @see	getNormalizedSpectrogramMatrix() for access without copying
+	 */
+	public double[][] getNormalizedSpectrogramData(){
+		SpectrogramMatrix normalizedSpectrogram=getNormalizedSpectrogramMatrix();
+		return normalizedSpectrogram==null ? null : normalizedSpectrogram.toArray();
+	}
+	
+	/**
+	 * Get a copy of the spectrogram: spectrogram[time][frequency]=intensity
+	 * 
+	 * @return	absolute spectrogram, empty if the wave has no frame
+	 * @throws	IllegalStateException if the spectrogram was normalized in place
+	 * @see	getAbsoluteSpectrogramMatrix() for access without copying
+	 */
+	public double[][] getAbsoluteSpectrogramData(){
+		if (numFrames==0){
+			return new double[0][];
+		}
+		if (absoluteSpectrogram==null){
+			throw new IllegalStateException("Spectrogram: the absolute spectrogram was normalized in place");
+		}
+		return absoluteSpectrogram.toArray();
+	}
 
 	public int getNumFrames(){
 		return numFrames;
@@ -207,6 +571,15 @@ public class Spectrogram{
 	public double getUnitFrequency(){
 		return unitFrequency;
 	}
+	
+	/**
+	 * Frequency unit of the first y-axis unit, i.e. the frequency of y is (getFirstFrequencyUnit()+y)*getUnitFrequency()
+	 * 
+	 * @return	first frequency unit, 0 unless only a band is kept
+	 */
+	public int getFirstFrequencyUnit(){
+		return firstFrequencyUnit;
+	}
 
 	public int getFftSampleSize() {
 		return fftSampleSize;
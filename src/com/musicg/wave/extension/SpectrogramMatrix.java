@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2012 Jacquet Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.musicg.wave.extension;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Spectrogram data stored in one contiguous block of doubles: matrix[time][frequency]=intensity
+ *
+ * Rows (frames) are stored one after another with a fixed row stride, so a sub-matrix, a row or a band of
+ * frequency units is only a view over the same storage, no data is copied when slicing.
+ * The storage is either a heap array or an off-heap (direct) buffer.
+ */
+public class SpectrogramMatrix {
+
+	private final double[] data;	// heap storage, null when off-heap
+	private final DoubleBuffer buffer;	// off-heap storage, null when on heap
+	private final int offset;	// storage index of element [0][0]
+	private final int numRows;	// number of frames
+	private final int numColumns;	// number of frequency units
+	private final int rowStride;	// storage distance between two consecutive rows
+
+	/**
+	 * Constructor, a heap backed matrix filled with zeros
+	 *
+	 * @param numRows	number of rows (frames)
+	 * @param numColumns	number of columns (frequency units)
+	 */
+	public SpectrogramMatrix(int numRows, int numColumns) {
+		this(new double[checkSize(numRows, numColumns)], null, 0, numRows, numColumns, numColumns);
+	}
+
+	/**
+	 * Constructor, wraps an existing row-major array without copying
+	 *
+	 * @param data	row-major data, data[row*numColumns+column]
+	 * @param numRows	number of rows (frames)
+	 * @param numColumns	number of columns (frequency units)
+	 */
+	public SpectrogramMatrix(double[] data, int numRows, int numColumns) {
+		this(data, null, 0, numRows, numColumns, numColumns);
+		if ((long) numRows * numColumns > data.length) {
+			throw new IllegalArgumentException("SpectrogramMatrix: data array is too short");
+		}
+	}
+
+	private SpectrogramMatrix(double[] data, DoubleBuffer buffer, int offset, int numRows, int numColumns, int rowStride) {
+		this.data = data;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		this.rowStride = rowStride;
+	}
+
+	/**
+	 * Allocate an off-heap matrix filled with zeros
+	 *
+	 * @param numRows	number of rows (frames)
+	 * @param numColumns	number of columns (frequency units)
+	 * @return off-heap matrix
+	 */
+	public static SpectrogramMatrix allocateDirect(int numRows, int numColumns) {
+		int size = checkSize(numRows, numColumns);
+		if (size > Integer.MAX_VALUE / 8) {
+			throw new IllegalArgumentException("SpectrogramMatrix: too large for a direct buffer");
+		}
+		DoubleBuffer buffer = ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		return new SpectrogramMatrix(null, buffer, 0, numRows, numColumns, numColumns);
+	}
+
+	/**
+	 * Copy a jagged array into a new heap matrix
+	 *
+	 * @param array	array[row][column], all rows should have the same length
+	 * @return matrix
+	 */
+	public static SpectrogramMatrix fromArray(double[][] array) {
+		int numRows = array.length;
+		int numColumns = numRows > 0 ? array[0].length : 0;
+		SpectrogramMatrix matrix = new SpectrogramMatrix(numRows, numColumns);
+		for (int i = 0; i < numRows; i++) {
+			System.arraycopy(array[i], 0, matrix.data, i * numColumns, numColumns);
+		}
+		return matrix;
+	}
+
+	private static int checkSize(int numRows, int numColumns) {
+		long size = (long) numRows * numColumns;
+		if (numRows < 0 || numColumns < 0 || size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("SpectrogramMatrix: invalid size " + numRows + "x" + numColumns);
+		}
+		return (int) size;
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * Storage distance between the first elements of two consecutive rows
+	 *
+	 * @return row stride
+	 */
+	public int getRowStride() {
+		return rowStride;
+	}
+
+	/**
+	 * Storage index of element [0][0], used together with getArray() and getRowStride()
+	 *
+	 * @return offset
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return true if the matrix is stored off-heap
+	 */
+	public boolean isDirect() {
+		return buffer != null;
+	}
+
+	/**
+	 * @return true if the storage is accessible through getArray()
+	 */
+	public boolean hasArray() {
+		return data != null;
+	}
+
+	/**
+	 * Get the backing array, element [row][column] is at getOffset()+row*getRowStride()+column
+	 *
+	 * @return backing array, or null if the matrix is stored off-heap
+	 */
+	public double[] getArray() {
+		return data;
+	}
+
+	/**
+	 * Storage index of an element
+	 *
+	 * @param row
+	 * @param column
+	 * @return index in the backing storage
+	 */
+	public int index(int row, int column) {
+		return offset + row * rowStride + column;
+	}
+
+	public double get(int row, int column) {
+		if (data != null) {
+			return data[offset + row * rowStride + column];
+		}
+		return buffer.get(offset + row * rowStride + column);
+	}
+
+	public void set(int row, int column, double value) {
+		if (data != null) {
+			data[offset + row * rowStride + column] = value;
+		} else {
+			buffer.put(offset + row * rowStride + column, value);
+		}
+	}
+
+	/**
+	 * Get a copy of a row
+	 *
+	 * @param row	row number
+	 * @return row values
+	 */
+	public double[] getRow(int row) {
+		double[] values = new double[numColumns];
+		copyRow(row, values, 0);
+		return values;
+	}
+
+	/**
+	 * Copy a row into the destination array
+	 *
+	 * @param row	row number
+	 * @param destination	destination array
+	 * @param destinationPosition	starting position in the destination array
+	 */
+	public void copyRow(int row, double[] destination, int destinationPosition) {
+		int start = offset + row * rowStride;
+		if (data != null) {
+			System.arraycopy(data, start, destination, destinationPosition, numColumns);
+		} else {
+			for (int j = 0; j < numColumns; j++) {
+				destination[destinationPosition + j] = buffer.get(start + j);
+			}
+		}
+	}
+
+	/**
+	 * Overwrite a row with values from the source array
+	 *
+	 * @param row	row number
+	 * @param source	source array
+	 * @param sourcePosition	starting position in the source array
+	 */
+	public void setRow(int row, double[] source, int sourcePosition) {
+		int start = offset + row * rowStride;
+		if (data != null) {
+			System.arraycopy(source, sourcePosition, data, start, numColumns);
+		} else {
+			for (int j = 0; j < numColumns; j++) {
+				buffer.put(start + j, source[sourcePosition + j]);
+			}
+		}
+	}
+
+	/**
+	 * Get a view of a rectangle region, sharing the storage of this matrix
+	 *
+	 * @param fromRow	first row, inclusive
+	 * @param toRow	last row, exclusive
+	 * @param fromColumn	first column, inclusive
+	 * @param toColumn	last column, exclusive
+	 * @return sub-matrix view
+	 */
+	public SpectrogramMatrix subMatrix(int fromRow, int toRow, int fromColumn, int toColumn) {
+		if (fromRow < 0 || toRow > numRows || fromRow > toRow || fromColumn < 0 || toColumn > numColumns
+				|| fromColumn > toColumn) {
+			throw new IndexOutOfBoundsException("SpectrogramMatrix: invalid range [" + fromRow + "," + toRow + ")x["
+					+ fromColumn + "," + toColumn + ") of " + numRows + "x" + numColumns);
+		}
+		return new SpectrogramMatrix(data, buffer, offset + fromRow * rowStride + fromColumn, toRow - fromRow,
+				toColumn - fromColumn, rowStride);
+	}
+
+	/**
+	 * Get a view of consecutive rows (frames)
+	 *
+	 * @param fromRow	first row, inclusive
+	 * @param toRow	last row, exclusive
+	 * @return rows view
+	 */
+	public SpectrogramMatrix getRows(int fromRow, int toRow) {
+		return subMatrix(fromRow, toRow, 0, numColumns);
+	}
+
+	/**
+	 * Get a view of a band of columns (frequency units) over all rows
+	 *
+	 * @param fromColumn	first column, inclusive
+	 * @param toColumn	last column, exclusive
+	 * @return column band view
+	 */
+	public SpectrogramMatrix getColumnBand(int fromColumn, int toColumn) {
+		return subMatrix(0, numRows, fromColumn, toColumn);
+	}
+
+	/**
+	 * Copy the matrix into a jagged array
+	 *
+	 * @return array[row][column]
+	 */
+	public double[][] toArray() {
+		double[][] array = new double[numRows][numColumns];
+		for (int i = 0; i < numRows; i++) {
+			copyRow(i, array[i], 0);
+		}
+		return array;
+	}
+}